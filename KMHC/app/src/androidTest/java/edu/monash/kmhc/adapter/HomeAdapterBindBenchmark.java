@@ -0,0 +1,159 @@
+package edu.monash.kmhc.adapter;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.monash.kmhc.R;
+import edu.monash.kmhc.model.PatientChangeSet;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long binding the home screen's cards takes on the main thread, for a panel of CARDS
+ * patients.
+ *
+ * The baseline works out each card's strings, colours and readings while binding, which is what
+ * onBindViewHolder did before the card states were precomputed. The current path binds the card states
+ * HomeAdapter has already worked out on its card state thread. Both bind the same card views, so the
+ * difference is the work moved off the main thread. Every third patient has a high systolic reading,
+ * so their latest readings and graph points are part of the work.
+ *
+ * Usage: gradlew :app:connectedDebugAndroidTest
+ *     -Pandroid.testInstrumentationRunnerArguments.class=edu.monash.kmhc.adapter.HomeAdapterBindBenchmark
+ * The results are logged with the tag HomeAdapterBindBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HomeAdapterBindBenchmark {
+
+    private static final String TAG = "HomeAdapterBindBenchmark";
+    private static final int CARDS = 600;
+    private static final int READINGS_PER_PATIENT = 100;
+    private static final int WARM_UP_ROUNDS = 3;
+    // every card is bound once per round
+    private static final int MEASURED_ROUNDS = 10;
+    private static final long LOAD_TIMEOUT = 10 * 1000;
+
+    @Test
+    public void bind_precomputedStateAgainstBaseline() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = new ContextThemeWrapper(instrumentation.getTargetContext(), R.style.AppTheme);
+        PatientChangeSet changeSet = createChangeSet();
+
+        HomeAdapter[] adapter = new HomeAdapter[1];
+        instrumentation.runOnMainSync(() -> {
+            adapter[0] = new HomeAdapter((position, patient) -> {});
+            adapter[0].applyChanges(changeSet);
+        });
+        waitForCards(instrumentation, adapter[0]);
+
+        long[] nanos = new long[2];
+        instrumentation.runOnMainSync(() -> {
+            HomeAdapter.HomeViewHolder holder = (HomeAdapter.HomeViewHolder)
+                    adapter[0].onCreateViewHolder(new FrameLayout(context), 0);
+            // the patients in the order of the cards
+            List<PatientModel> patients = new ArrayList<>();
+            for (int position = 0; position < CARDS; position++) {
+                patients.add(adapter[0].getCardState(position).getPatient());
+            }
+            long[] windowTimes = new long[HomeAdapter.LATEST_READINGS_SHOWN];
+            double[] windowValues = new double[HomeAdapter.LATEST_READINGS_SHOWN];
+
+            for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (PatientModel patient: patients) {
+                    String patientId = patient.getPatientID();
+                    holder.bind(new PatientCardState(patient, changeSet.getAlerts(patientId),
+                            changeSet.getCholesterolRisk(patientId), windowTimes, windowValues));
+                }
+                long baseline = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int position = 0; position < CARDS; position++) {
+                    adapter[0].onBindViewHolder(holder, position);
+                }
+                long current = System.nanoTime() - start;
+
+                if (round >= WARM_UP_ROUNDS) {
+                    nanos[0] += baseline;
+                    nanos[1] += current;
+                }
+            }
+        });
+
+        int binds = CARDS * MEASURED_ROUNDS;
+        Log.i(TAG, CARDS + " cards, baseline: " + nanos[0] / binds / 1000 + " us per bind, "
+                + nanos[0] / MEASURED_ROUNDS / 1000000 + " ms per pass");
+        Log.i(TAG, CARDS + " cards, precomputed: " + nanos[1] / binds / 1000 + " us per bind, "
+                + nanos[1] / MEASURED_ROUNDS / 1000000 + " ms per pass");
+    }
+
+    /**
+     * Waits until the card states of every patient have been worked out and submitted
+     */
+    private static void waitForCards(Instrumentation instrumentation, HomeAdapter adapter) {
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT;
+        int[] count = new int[1];
+        while (SystemClock.uptimeMillis() < deadline) {
+            instrumentation.runOnMainSync(() -> count[0] = adapter.getItemCount());
+            if (count[0] == CARDS) {
+                return;
+            }
+            SystemClock.sleep(50);
+        }
+        fail("Only " + count[0] + " of " + CARDS + " cards were shown");
+    }
+
+    /**
+     * Returns a change set adding CARDS monitored patients with cholesterol and blood pressure readings
+     */
+    private static PatientChangeSet createChangeSet() {
+        HashMap<String, PatientModel> patients = new HashMap<>();
+        HashMap<String, EnumSet<AlertType>> alerts = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < CARDS; i++) {
+            String patientId = "Patient/" + i;
+            PatientModel patient = new PatientModel(patientId, "Patient " + i, null, null, null);
+            patient.monitorObservation(ObservationType.CHOLESTEROL, true);
+            patient.monitorObservation(ObservationType.BLOOD_PRESSURE, true);
+            patient.setObservation(ObservationType.CHOLESTEROL,
+                    new CholesterolObservationModel(150 + i % 150, "mg/dL", now));
+
+            boolean high = i % 3 == 0;
+            ArrayList<BloodPressureObservationModel> readings = new ArrayList<>();
+            for (int reading = 0; reading < READINGS_PER_PATIENT; reading++) {
+                readings.add(new BloodPressureObservationModel(high ? 150 + reading % 20 : 120, 80, "mm[Hg]",
+                        now - (READINGS_PER_PATIENT - reading) * 60000L));
+            }
+            patient.addBPReadings(readings, READINGS_PER_PATIENT);
+            patient.setObservation(ObservationType.BLOOD_PRESSURE, readings.get(readings.size() - 1));
+            if (high) {
+                alerts.put(patientId, EnumSet.of(AlertType.HIGH_SYSTOLIC));
+            }
+            patients.put(patientId, patient);
+        }
+        return new PatientChangeSet(patients, new HashSet<>(patients.keySet()), Collections.<String>emptySet(),
+                Collections.<String>emptySet(), alerts, Collections.emptyList(), Collections.<String, Float>emptyMap());
+    }
+}
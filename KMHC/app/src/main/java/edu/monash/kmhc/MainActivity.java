@@ -21,6 +21,9 @@ import java.util.HashMap;
 
 import edu.monash.kmhc.model.PatientAddressModel;
 import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.service.FhirClientProvider;
+import edu.monash.kmhc.service.FirstQueryInterceptor;
+import edu.monash.kmhc.service.PayloadStatsInterceptor;
 import edu.monash.kmhc.view.HomeFragment;
 import edu.monash.kmhc.view.LoginFragment;
 import edu.monash.kmhc.view.PatientInfoFragment;
@@ -36,11 +39,16 @@ public class MainActivity extends AppCompatActivity {
     public static final String settings_fragment = "settings_fragment";
     public static final String patient_info__fragment = "patient_info_fragment";
     public static final String select_patients_fragment = "select_patients_fragment";
+    // the shared FHIR client outlives the activity, so its interceptors are only added once
+    private static boolean interceptorsAdded = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
 
         super.onCreate(savedInstanceState);
+        addInterceptors();
+        // build the FHIR context in the background while the login screen is shown
+        FhirClientProvider.warmUp();
         setContentView(R.layout.activity_main);
 
         navView = findViewById(R.id.nav_view);
@@ -54,6 +62,22 @@ public class MainActivity extends AppCompatActivity {
         //init home fragment
         launchNewFragment(new LoginFragment(),login_fragment);
 }
+
+    /**
+     * Adds the app's interceptors to the shared FHIR client. The payload statistics read every
+     * response one more time, so they are only logged in debug builds.
+     */
+    private static synchronized void addInterceptors() {
+        if (interceptorsAdded) {
+            return;
+        }
+        interceptorsAdded = true;
+        FhirClientProvider.addInterceptor(new FirstQueryInterceptor());
+        if (BuildConfig.DEBUG) {
+            FhirClientProvider.addInterceptor(new PayloadStatsInterceptor());
+        }
+    }
+
     public void findFragment(String tag){
         Fragment fragment = fragmentManager.findFragmentByTag(tag);
         if (fragment == null){
@@ -1,13 +1,17 @@
 package edu.monash.kmhc.adapter;
 
-import android.annotation.SuppressLint;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.data.Entry;
@@ -16,52 +20,124 @@ import com.github.mikephil.charting.data.LineDataSet;
 import com.google.android.material.chip.Chip;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import edu.monash.kmhc.BuildConfig;
 import edu.monash.kmhc.R;
+import edu.monash.kmhc.model.PatientChangeSet;
 import edu.monash.kmhc.model.PatientModel;
-import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
-import edu.monash.kmhc.model.observation.ObservationModel;
-import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.Downsampler;
 
 /**
  * HomeAdapter class extends from BaseAdapter
  * HomeAdapter is the class that is responsible to create recycler view
  * that displays Patient's cholesterol value.
+ *
+ * The adapter is created once and is given each change set published by the view model. What every
+ * card shows is worked out on a background thread as a PatientCardState, only for the patients whose
+ * readings or alerts changed. The highlighting follows the alerts in the change set. The new list of states
+ * is compared with the shown list by an AsyncListDiffer, and only the cards whose state changed are
+ * rebound. Binding a card only copies the state into its views.
  */
 public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
+    private static final String TAG = "HomeAdapter";
+    // number of systolic readings shown in the latest readings chip. the graph shows the whole series
+    static final int LATEST_READINGS_SHOWN = 5;
+    // points drawn in a systolic graph before it has been laid out
+    private static final int DEFAULT_GRAPH_POINTS = 300;
+    // number of binds the bind time is averaged over in debug builds
+    private static final int BIND_TIME_SAMPLES = 500;
+    // patients are shown sorted by name, then by id so patients with the same name keep their order
+    private static final Comparator<PatientCardState> BY_NAME = Comparator
+            .comparing(PatientCardState::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(PatientCardState::getPatientId);
+    // card states of every home adapter are worked out on this thread, in the order they were asked for
+    private static final ExecutorService CARD_STATE_EXECUTOR =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Card State Thread"));
+
     private OnPatientClickListener onPatientClickListener;
-    private float averageCholesterolValue;
-    private int x;
-    private int y;
+    private Handler mainHandler = new Handler(Looper.getMainLooper());
+    // patient id -> stable item id, so the recycler view can keep each patient's card
+    private HashMap<String, Long> itemIds = new HashMap<>();
+    // only used on the card state thread
+    private HashMap<String, PatientCardState> cardStates = new HashMap<>();
+    private long[] windowTimes = new long[LATEST_READINGS_SHOWN];
+    private double[] windowValues = new double[LATEST_READINGS_SHOWN];
+    // bind time in debug builds
+    private long bindNanos = 0;
+    private int bindCount = 0;
+
+    private final DiffUtil.ItemCallback<PatientCardState> diffCallback = new DiffUtil.ItemCallback<PatientCardState>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PatientCardState oldState, @NonNull PatientCardState newState) {
+            return oldState.getPatientId().equals(newState.getPatientId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull PatientCardState oldState, @NonNull PatientCardState newState) {
+            return oldState.equals(newState);
+        }
+    };
+    private AsyncListDiffer<PatientCardState> differ = new AsyncListDiffer<>(this, diffCallback);
 
     /**
      * The Home Adapter constructor, this initialises the adapter that will be used to update the home fragment UI.
-     * @param patientObservationHashMap A hash map that contains all the Patient Models that the practitioner is monitoring
+     * Patients are shown once the first change set is given to applyChanges.
      * @param onPatientClickListener the class that is listening to individual patient card clicks
      */
-    public HomeAdapter(HashMap<String, PatientModel> patientObservationHashMap, OnPatientClickListener onPatientClickListener,int x,int y) {
-        super(patientObservationHashMap);
+    public HomeAdapter(OnPatientClickListener onPatientClickListener) {
+        super(new HashMap<>());
         this.onPatientClickListener = onPatientClickListener;
+        setHasStableIds(true);
+    }
 
-        ArrayList<PatientModel> patients = new ArrayList<>();
-
-        getPatientsHashMap().forEach((patientID,patientModel) -> patients.add(patientModel));
-        setUniquePatients(patients);
-        calculateAverage();
-        this.x = x;
-        this.y = y;
+    /**
+     * Shows the patients in a change set. The card states of the patients whose readings or alerts
+     * changed are worked out on a background thread, and only the cards whose state changed are rebound.
+     * @param changeSet change set published by the view model
+     */
+    public void applyChanges(PatientChangeSet changeSet) {
+        setPatientsHashMap(changeSet.getPatients());
+        HashSet<String> changedIds = new HashSet<>(changeSet.getAddedIds());
+        changedIds.addAll(changeSet.getUpdatedIds());
+        ArrayList<PatientModel> patients = new ArrayList<>(changeSet.getPatients().values());
+        CARD_STATE_EXECUTOR.execute(() -> {
+            HashMap<String, PatientCardState> newStates = new HashMap<>();
+            ArrayList<PatientCardState> states = new ArrayList<>();
+            for (PatientModel patient: patients) {
+                PatientCardState state = cardStates.get(patient.getPatientID());
+                if (state == null || state.getPatient() != patient || changedIds.contains(patient.getPatientID())) {
+                    state = new PatientCardState(patient, changeSet.getAlerts(patient.getPatientID()),
+                            changeSet.getCholesterolRisk(patient.getPatientID()), windowTimes, windowValues);
+                }
+                newStates.put(patient.getPatientID(), state);
+                states.add(state);
+            }
+            cardStates = newStates;
+            states.sort(BY_NAME);
+            mainHandler.post(() -> differ.submitList(states));
+        });
     }
 
     /**
-     * This method calculate the average cholesterol value
+     * Returns a stable id for the patient at a position. Ids are given out in the order patients are
+     * first shown, so they never collide.
+     * @param position adapter position
+     * @return item id of the patient
      */
-    private void calculateAverage() {
-        float total = 0;
-        for( PatientModel p: getUniquePatients()){
-            total += Float.parseFloat(p.getObservationReading(ObservationType.CHOLESTEROL).getValue());
+    @Override
+    public long getItemId(int position) {
+        String patientId = differ.getCurrentList().get(position).getPatientId();
+        Long itemId = itemIds.get(patientId);
+        if (itemId == null) {
+            itemId = (long) itemIds.size();
+            itemIds.put(patientId, itemId);
         }
-        averageCholesterolValue = total/getUniquePatients().size();
+        return itemId;
     }
 
 
@@ -82,43 +158,38 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
      * This method overrides its superclass's onBindViewHolder method and update the contents of the
      * HomeViewHolder to reflect the patient at the given position.
      *
-     * This method also highlights the patient if his/her cholesterol/ bp value is higher
-     * than the average cholesterol value.
+     * The highlighting of the patient's cholesterol and bp values is already worked out in the
+     * patient's card state, so this only copies the state into the views.
      * @param holder the homeViewHolder that will hold patient[position]'s data
      * @param position the current UI adapter position
      */
-    @SuppressLint("ResourceAsColor")
     @Override
     public void onBindViewHolder(@NonNull BaseViewHolder holder, int position) {
-        HomeViewHolder homeViewHolder = (HomeViewHolder) holder;
-        boolean cholMonitored = getUniquePatients().get(position).isObservationMonitored(ObservationType.CHOLESTEROL) ;
-        boolean bpMonitored = getUniquePatients().get(position).isObservationMonitored(ObservationType.BLOOD_PRESSURE);
-
-        // set patients name
-        homeViewHolder.patientName.setText(getUniquePatients().get(position).getName());
-
-        // hide all view holders
-        homeViewHolder.hideAllTextView();
-
-        // if the current patient cholesterol value is being  monitored
-        if (cholMonitored) {
-            homeViewHolder.showCholesterolViews();
-            ObservationModel observationModel = getObservationModel(ObservationType.CHOLESTEROL,position);
-            bindCholesterolPatients(homeViewHolder,observationModel);
-
+        HomeViewHolder homeHolder = (HomeViewHolder) holder;
+        PatientCardState state = getCardState(position);
+        if (!BuildConfig.DEBUG) {
+            homeHolder.bind(state);
+            return;
         }
-        if (bpMonitored) {
-            BloodPressureObservationModel observationModel = (BloodPressureObservationModel) getObservationModel(ObservationType.BLOOD_PRESSURE,position);
-            if ( observationModel != null) {
-                homeViewHolder.showBPView();
-                bindBPPatients(homeViewHolder,observationModel);
 
-            }
+        // only debug builds time the binds
+        long start = System.nanoTime();
+        homeHolder.bind(state);
+        bindNanos += System.nanoTime() - start;
+        if (++bindCount == BIND_TIME_SAMPLES) {
+            Log.d(TAG, "Average bind time over " + bindCount + " binds: " + bindNanos / bindCount / 1000 + " us");
+            bindNanos = 0;
+            bindCount = 0;
         }
     }
 
-    private ObservationModel getObservationModel(ObservationType type, int position){
-        return getUniquePatients().get(position).getObservationReading(type);
+    /**
+     * Returns the card state shown at a position
+     * @param position adapter position
+     * @return card state of the patient
+     */
+    PatientCardState getCardState(int position) {
+        return differ.getCurrentList().get(position);
     }
 
     /**
@@ -128,42 +199,7 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
      */
     @Override
     public int getItemCount() {
-        return getUniquePatients().size();
-    }
-
-    @SuppressLint("ResourceAsColor")
-    private void bindCholesterolPatients(HomeViewHolder homeViewHolder, ObservationModel observationModel){
-        String cholStat = observationModel.getValue() + " " + observationModel.getUnit();
-
-        //if current patients cholesterol value is greater than average
-        //highlight cholesterol value in red
-        if (Float.parseFloat(observationModel.getValue()) > averageCholesterolValue){
-            homeViewHolder.cholesterolValue.setChipBackgroundColorResource(R.color.colorRed);
-        }
-        homeViewHolder.cholesterolValue.setText(cholStat);
-        homeViewHolder.cholesterolTime.setText(observationModel.getDateTime());
-    }
-
-    @SuppressLint("ResourceAsColor")
-    private void bindBPPatients(HomeViewHolder homeViewHolder, BloodPressureObservationModel observationModel){
-        String systolicBP = observationModel.getSystolic() + " " + observationModel.getUnit();
-        String diastolicBP = observationModel.getDiastolic() + " " + observationModel.getUnit();
-
-        //if current patients systolic BP value is greater than x ( highlight in blue )
-        if (Float.parseFloat(observationModel.getSystolic()) > x) {
-            homeViewHolder.systolicBP.setChipBackgroundColorResource(R.color.colorBlue);
-        }
-        //if current patients diastolic BP value is greater than y
-        if (Float.parseFloat(observationModel.getDiastolic()) > y) {
-            homeViewHolder.diastolicBP.setChipBackgroundColorResource(R.color.colorBlue);
-        }
-        // high systolic reading
-        if (Float.parseFloat(observationModel.getSystolic()) > x) {
-            homeViewHolder.showLatestSystolicChips();
-        }
-        homeViewHolder.systolicBP.setText(systolicBP);
-        homeViewHolder.diastolicBP.setText(diastolicBP);
-        homeViewHolder.bpTime.setText(observationModel.getDateTime());
+        return differ.getCurrentList().size();
     }
 
     /**
@@ -186,6 +222,15 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
         LineChart latestSystolicGraph;
         OnPatientClickListener onPatientClickListener;
 
+        // state the card was last bound to
+        private PatientCardState state;
+        // graph data, kept for the life of the card and updated in place
+        private ArrayList<Entry> graphEntries = new ArrayList<>();
+        private ArrayList<String> graphLabels = new ArrayList<>();
+        private LineDataSet graphDataSet;
+        private LineData graphData;
+        private int[] selectedPoints = new int[0];
+
         /**
          * HomeViewHolder Constructor
          * This initialises the HomeViewHolder object.
@@ -214,9 +259,52 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
             latestSystolicReadings = itemView.findViewById(R.id.txt_show_n_latest_systolic); // text view with 5 latest systolic readings
             latestSystolicGraph = itemView.findViewById(R.id.barchart); // line graph to show systolic graph
 
+            graphDataSet = new LineDataSet(graphEntries, "Systolic readings");
+            graphDataSet.setCircleColor(Color.BLUE);
+            graphDataSet.setDrawCircles(true);
+            graphDataSet.setColor(Color.BLUE);
+            graphData = new LineData(graphLabels, graphDataSet);
+
             itemView.setOnClickListener(this);
-            showLatestSystolic.setOnClickListener(view -> showLatestSystolicReadings(getAdapterPosition()));
-            showSystolicGraph.setOnClickListener(view -> showLatestSystolicGraph(getAdapterPosition()));
+            showLatestSystolic.setOnClickListener(view -> showLatestSystolicReadings());
+            showSystolicGraph.setOnClickListener(view -> showLatestSystolicGraph());
+        }
+
+        /**
+         * Shows a patient's card state in the card
+         * @param state card state of the patient
+         */
+        void bind(PatientCardState state) {
+            this.state = state;
+
+            // set patients name
+            patientName.setText(state.getName());
+
+            // hide all view holders
+            hideAllTextView();
+
+            // if the current patient cholesterol value is being  monitored
+            if (state.isCholesterolShown()) {
+                showCholesterolViews();
+                cholesterolValue.setChipBackgroundColorResource(state.getCholesterolColor());
+                cholesterolValue.setText(state.getCholesterolText());
+                cholesterolTime.setText(state.getCholesterolTime());
+            }
+            if (state.isBloodPressureShown()) {
+                showBPView();
+                systolicBP.setChipBackgroundColorResource(state.getSystolicColor());
+                diastolicBP.setChipBackgroundColorResource(state.getDiastolicColor());
+                systolicBP.setText(state.getSystolicText());
+                diastolicBP.setText(state.getDiastolicText());
+                bpTime.setText(state.getBloodPressureTime());
+                if (state.isSystolicChipsShown()) {
+                    // high systolic reading
+                    showLatestSystolicChips();
+                    // keep the readings and graph open if they were open, with the new readings
+                    showLatestSystolicReadings();
+                    showLatestSystolicGraph();
+                }
+            }
         }
 
         /**
@@ -226,7 +314,9 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
          */
         @Override
         public void onClick(View v) {
-            onPatientClickListener.onPatientClick(getAdapterPosition(), getUniquePatients().get(getAdapterPosition()));
+            if (state != null) {
+                onPatientClickListener.onPatientClick(getAdapterPosition(), state.getPatient());
+            }
         }
 
         /**
@@ -295,15 +385,10 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
         /**
          * This method is used for the chip when pressed to show the text view with the latest 5
          * systolic readings.
-         * @param position position of adapter (patient)
          */
-        private void showLatestSystolicReadings(int position) {
-            if (showLatestSystolic.isChecked()) {
-                StringBuilder latestReadings = new StringBuilder();
-                for (BloodPressureObservationModel reading: getUniquePatients().get(position).getLatestBPReadings()) {
-                    latestReadings.append(reading.getSystolic()).append(" ").append(reading.getDateTime()).append("\t");
-                }
-                latestSystolicReadings.setText(latestReadings);
+        private void showLatestSystolicReadings() {
+            if (showLatestSystolic.isChecked() && state != null) {
+                latestSystolicReadings.setText(state.getLatestSystolicText());
                 latestSystolicReadings.setVisibility(View.VISIBLE);
             }
             else {
@@ -313,32 +398,57 @@ public class HomeAdapter extends BaseAdapter<HomeAdapter.HomeViewHolder> {
 
         /**
          * This method is used for the chip when pressed to show the graph of systolic readings
-         * @param position position of adapter (patient)
          */
-        private void showLatestSystolicGraph(int position) {
-            if (showSystolicGraph.isChecked()) {
-                ArrayList<Entry> entries = new ArrayList<>();
-                ArrayList<String> xAxis = new ArrayList<>();
-                LineChart systolicGraph = itemView.findViewById(R.id.barchart);
-
-                for (int i = 0; i < getUniquePatients().get(position).getLatestBPReadings().size(); i++) {
-                    entries.add(new Entry(Float.parseFloat(getUniquePatients().get(position).getLatestBPReadings().get(i).getSystolic()), i));
-                    xAxis.add(String.valueOf(i));
-                }
-
-                LineDataSet dataSet = new LineDataSet(entries, "Systolic readings");
-                dataSet.setCircleColor(Color.BLUE);
-                dataSet.setDrawCircles(true);
-                dataSet.setColor(Color.BLUE);
-                LineData lineData = new LineData(xAxis, dataSet);
-                systolicGraph.setData(lineData);
-                systolicGraph.invalidate();
+        private void showLatestSystolicGraph() {
+            if (showSystolicGraph.isChecked() && state != null) {
+                updateGraph();
                 latestSystolicGraph.setVisibility(View.VISIBLE);
             }
             else {
                 latestSystolicGraph.setVisibility(View.GONE);
             }
         }
+
+        /**
+         * Shows the systolic readings of the bound state in the graph. The entries, data set and
+         * chart data are kept by the card and updated in place. Long series are downsampled to
+         * about one point per pixel of the graph's width.
+         */
+        private void updateGraph() {
+            long[] times = state.getSystolicTimes();
+            float[] values = state.getSystolicValues();
+            if (selectedPoints.length < values.length) {
+                selectedPoints = new int[values.length];
+            }
+            int maxPoints = latestSystolicGraph.getWidth() > 0 ? latestSystolicGraph.getWidth() : DEFAULT_GRAPH_POINTS;
+            int count = Downsampler.largestTriangleThreeBuckets(times, values, values.length, maxPoints, selectedPoints);
+
+            // reuse the entries that are already there, and only add or remove the difference
+            for (int i = 0; i < count; i++) {
+                float value = values[selectedPoints[i]];
+                if (i < graphEntries.size()) {
+                    graphEntries.get(i).setVal(value);
+                }
+                else {
+                    graphEntries.add(new Entry(value, i));
+                    graphLabels.add(String.valueOf(i));
+                }
+            }
+            if (graphEntries.size() > count) {
+                graphEntries.subList(count, graphEntries.size()).clear();
+                graphLabels.subList(count, graphLabels.size()).clear();
+            }
+
+            graphDataSet.notifyDataSetChanged();
+            graphData.notifyDataChanged();
+            if (latestSystolicGraph.getData() != graphData) {
+                latestSystolicGraph.setData(graphData);
+            }
+            else {
+                latestSystolicGraph.notifyDataSetChanged();
+            }
+            latestSystolicGraph.invalidate();
+        }
     }
     /**
      * Class the uses this interface must implement their own onPatientClick method.
@@ -0,0 +1,245 @@
+package edu.monash.kmhc.adapter;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+import edu.monash.kmhc.R;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+/**
+ * Everything a patient's card on the home screen shows, worked out before the card is bound.
+ *
+ * The highlighting comes from the alerts raised by the AlertEngine. Patients without a cholesterol
+ * reading show the level predicted by the cholesterol risk model instead.
+ * States are created on a background thread when new data or alerts arrive, so
+ * binding a card only copies these fields into its views. States are immutable and compared by
+ * value, so a card is only rebound when something it shows has changed.
+ */
+class PatientCardState {
+
+    // shown after a reading above the 90th percentile of the monitored patients
+    private static final String TOP_PERCENTILE_SUFFIX = " (top 10%)";
+
+    private final PatientModel patient;
+    private final String patientId;
+    private final String name;
+
+    private final boolean cholesterolShown;
+    private final String cholesterolText;
+    private final String cholesterolTime;
+    private final int cholesterolColor;
+
+    private final boolean bloodPressureShown;
+    private final String systolicText;
+    private final String diastolicText;
+    private final String bloodPressureTime;
+    private final int systolicColor;
+    private final int diastolicColor;
+    // high systolic readings show the chips for the latest readings and the graph
+    private final boolean systolicChipsShown;
+    private final String latestSystolicText;
+    // every stored systolic reading, oldest first, without missing values
+    private final long[] systolicTimes;
+    private final float[] systolicValues;
+
+    /**
+     * Works out the card state of a patient
+     * @param patient patient to show
+     * @param alerts raised alerts of the patient, which are highlighted
+     * @param cholesterolRisk predicted probability of high cholesterol, NaN if the patient has not been scored
+     * @param windowTimes array used to copy the latest systolic times, reused between patients
+     * @param windowValues array used to copy the latest systolic values, reused between patients
+     */
+    PatientCardState(PatientModel patient, Set<AlertType> alerts, float cholesterolRisk,
+                     long[] windowTimes, double[] windowValues) {
+        this.patient = patient;
+        patientId = patient.getPatientID();
+        name = patient.getName();
+
+        ObservationModel cholesterol = patient.getObservationReading(ObservationType.CHOLESTEROL);
+        cholesterolShown = patient.isObservationMonitored(ObservationType.CHOLESTEROL);
+        if (cholesterolShown && cholesterol != null) {
+            cholesterolText = ObservationModel.formatValue(cholesterol.getValue()) + " " + cholesterol.getUnit()
+                    + (alerts.contains(AlertType.TOP_CHOLESTEROL) ? TOP_PERCENTILE_SUFFIX : "");
+            cholesterolTime = cholesterol.getDateTime();
+            //if current patients cholesterol value is greater than average
+            //highlight cholesterol value in red
+            cholesterolColor = alerts.contains(AlertType.HIGH_CHOLESTEROL) ? R.color.colorRed : R.color.colorReading;
+        }
+        else if (cholesterolShown && !Float.isNaN(cholesterolRisk)) {
+            // no reading yet, show the predicted level, ie. "Predicted high (64%)"
+            cholesterolText = (cholesterolRisk >= 0.5f ? "Predicted high (" : "Predicted low (")
+                    + Math.round(cholesterolRisk * 100) + "%)";
+            cholesterolTime = "";
+            cholesterolColor = R.color.colorReading;
+        }
+        else {
+            cholesterolText = "-";
+            cholesterolTime = "";
+            cholesterolColor = R.color.colorReading;
+        }
+
+        BloodPressureObservationModel bloodPressure =
+                (BloodPressureObservationModel) patient.getObservationReading(ObservationType.BLOOD_PRESSURE);
+        bloodPressureShown = patient.isObservationMonitored(ObservationType.BLOOD_PRESSURE) && bloodPressure != null;
+        if (bloodPressureShown) {
+            systolicText = ObservationModel.formatValue(bloodPressure.getSystolic()) + " " + bloodPressure.getUnit()
+                    + (alerts.contains(AlertType.TOP_SYSTOLIC) ? TOP_PERCENTILE_SUFFIX : "");
+            diastolicText = ObservationModel.formatValue(bloodPressure.getDiastolic()) + " " + bloodPressure.getUnit();
+            bloodPressureTime = bloodPressure.getDateTime();
+            //if current patients systolic BP value is greater than x ( highlight in blue )
+            systolicChipsShown = alerts.contains(AlertType.HIGH_SYSTOLIC);
+            systolicColor = systolicChipsShown ? R.color.colorBlue : R.color.colorReading;
+            //if current patients diastolic BP value is greater than y
+            diastolicColor = alerts.contains(AlertType.HIGH_DIASTOLIC) ? R.color.colorBlue : R.color.colorReading;
+        }
+        else {
+            systolicText = "";
+            diastolicText = "";
+            bloodPressureTime = "";
+            systolicChipsShown = false;
+            systolicColor = R.color.colorReading;
+            diastolicColor = R.color.colorReading;
+        }
+
+        if (systolicChipsShown) {
+            TimeSeries systolic = patient.getTimeSeries(BloodPressureObservationModel.SYSTOLIC_CODE);
+            int count = systolic.copyLatest(windowTimes, windowValues);
+            StringBuilder latestReadings = new StringBuilder();
+            // newest reading first
+            for (int i = count - 1; i >= 0; i--) {
+                latestReadings.append(ObservationModel.formatValue(windowValues[i])).append(" ")
+                        .append(ObservationModel.formatDateTime(windowTimes[i])).append("\t");
+            }
+            latestSystolicText = latestReadings.toString();
+
+            // the whole series for the graph, oldest reading first so the graph runs forward in time
+            int size = systolic.size();
+            long[] times = new long[size];
+            double[] values = new double[size];
+            size = systolic.copyLatest(times, values);
+            int pointCount = 0;
+            float[] points = new float[size];
+            for (int i = 0; i < size; i++) {
+                if (!Double.isNaN(values[i])) {
+                    times[pointCount] = times[i];
+                    points[pointCount++] = (float) values[i];
+                }
+            }
+            systolicTimes = Arrays.copyOf(times, pointCount);
+            systolicValues = Arrays.copyOf(points, pointCount);
+        }
+        else {
+            latestSystolicText = "";
+            systolicTimes = new long[0];
+            systolicValues = new float[0];
+        }
+    }
+
+    PatientModel getPatient() {
+        return patient;
+    }
+
+    String getPatientId() {
+        return patientId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isCholesterolShown() {
+        return cholesterolShown;
+    }
+
+    String getCholesterolText() {
+        return cholesterolText;
+    }
+
+    String getCholesterolTime() {
+        return cholesterolTime;
+    }
+
+    int getCholesterolColor() {
+        return cholesterolColor;
+    }
+
+    boolean isBloodPressureShown() {
+        return bloodPressureShown;
+    }
+
+    String getSystolicText() {
+        return systolicText;
+    }
+
+    String getDiastolicText() {
+        return diastolicText;
+    }
+
+    String getBloodPressureTime() {
+        return bloodPressureTime;
+    }
+
+    int getSystolicColor() {
+        return systolicColor;
+    }
+
+    int getDiastolicColor() {
+        return diastolicColor;
+    }
+
+    boolean isSystolicChipsShown() {
+        return systolicChipsShown;
+    }
+
+    String getLatestSystolicText() {
+        return latestSystolicText;
+    }
+
+    long[] getSystolicTimes() {
+        return systolicTimes;
+    }
+
+    float[] getSystolicValues() {
+        return systolicValues;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PatientCardState)) {
+            return false;
+        }
+        PatientCardState other = (PatientCardState) o;
+        return patient == other.patient
+                && cholesterolShown == other.cholesterolShown
+                && cholesterolColor == other.cholesterolColor
+                && bloodPressureShown == other.bloodPressureShown
+                && systolicColor == other.systolicColor
+                && diastolicColor == other.diastolicColor
+                && systolicChipsShown == other.systolicChipsShown
+                && patientId.equals(other.patientId)
+                && Objects.equals(name, other.name)
+                && cholesterolText.equals(other.cholesterolText)
+                && cholesterolTime.equals(other.cholesterolTime)
+                && systolicText.equals(other.systolicText)
+                && diastolicText.equals(other.diastolicText)
+                && bloodPressureTime.equals(other.bloodPressureTime)
+                && latestSystolicText.equals(other.latestSystolicText)
+                && Arrays.equals(systolicTimes, other.systolicTimes)
+                && Arrays.equals(systolicValues, other.systolicValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(patientId, cholesterolText, systolicText, diastolicText);
+    }
+}
@@ -3,19 +3,19 @@ package edu.monash.kmhc.adapter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Adapter;
 import android.widget.CheckBox;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.constraintlayout.widget.ConstraintLayout;
+import androidx.paging.AsyncPagedListDiffer;
+import androidx.paging.PagedList;
+import androidx.recyclerview.widget.DiffUtil;
 
 import com.google.android.material.chip.Chip;
 
-import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Objects;
+import java.util.Map;
 
 import edu.monash.kmhc.R;
 import edu.monash.kmhc.model.PatientModel;
@@ -30,57 +30,58 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
 
     // select patients adapter on pcl
     private OnPatientClickListener onPatientClickListener;
-    private ArrayList<PatientModel> selectedPatients;
-    // A list to remember a patient's state
-    // ( true when patient is selected , otherwise false)
-    private ArrayList<Boolean> patientState = new ArrayList<>();
+    // selected patients by patient id, shared with the listener
+    private Map<String, PatientModel> selectedPatients;
+
+    private final DiffUtil.ItemCallback<PatientModel> diffCallback = new DiffUtil.ItemCallback<PatientModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PatientModel oldPatient, @NonNull PatientModel newPatient) {
+            return oldPatient.getPatientID().equals(newPatient.getPatientID());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull PatientModel oldPatient, @NonNull PatientModel newPatient) {
+            return oldPatient == newPatient;
+        }
+    };
+    // the patients are loaded one page at a time, positions that are not loaded yet hold null
+    private AsyncPagedListDiffer<PatientModel> differ = new AsyncPagedListDiffer<>(this, diffCallback);
 
     /**
      * The SelectPatient Adapter constructor, this initialises the adapter that
      * will be used to update the SelectPatient fragment UI.
+     * Patients are shown once a paged list is given to submitList.
      *
-     * @param patientsHashMap list of patients that is under HealthPractitioner
      * @param onPatientClickListener the listener that is listening to each patient's card clicks
-     * @param selectedPatients a list of selected patients
+     * @param selectedPatients selected patients by patient id. Updated by the listener
      */
-    public SelectPatientsAdapter(HashMap<String, PatientModel> patientsHashMap, OnPatientClickListener onPatientClickListener, ArrayList<PatientModel> selectedPatients) {
-        super(patientsHashMap);
+    public SelectPatientsAdapter(OnPatientClickListener onPatientClickListener, Map<String, PatientModel> selectedPatients) {
+        super(new HashMap<>());
         this.selectedPatients = selectedPatients;
         this.onPatientClickListener = onPatientClickListener;
+    }
 
-        ArrayList<PatientModel> uniquePatients = new ArrayList<>();
-
-        // loop through the patient hash map to get a list of unique patients
-        patientsHashMap.forEach((patientID, patientModel) -> {
-            if (patientModel != null) {
-
-                PatientModel selectedPatient = isSelectedPatient(patientModel);
-                if (selectedPatient != null) {
-                    uniquePatients.add(selectedPatient);
-                    patientState.add(true);
-                }
-                else {
-                    uniquePatients.add(patientModel);
-                    patientState.add(false);
-                }
-            }
-        });
-        setUniquePatients(uniquePatients);
+    /**
+     * Shows a new list of patients. Only the cards of the patients that changed are rebound.
+     * @param patients patients under the Health Practitioner, sorted and loaded one page at a time
+     */
+    public void submitList(PagedList<PatientModel> patients) {
+        differ.submitList(patients);
     }
 
     /**
-     * This method checks if patient is already in the selected patient list.
-     * @param patient - the patient model object
-     * @return true - if patient is already in the selected patient list
-     *         false - if patient is not in the selected patient list
+     * Returns the patient shown in a card. A patient that is already selected is shown from the selected
+     * patients, so its monitored observations are kept when the patient list is refreshed.
+     * @param position position of the card
+     * @return the patient, or null if its page has not been loaded yet
      */
-    private PatientModel isSelectedPatient(PatientModel patient) {
-        for (PatientModel p: selectedPatients) {
-            if(p.getPatientID().equals(patient.getPatientID())) {
-                return p;
-            }
+    private PatientModel getPatient(int position) {
+        PatientModel patient = differ.getItem(position);
+        if (patient == null) {
+            return null;
         }
-        return null;
+        PatientModel selectedPatient = selectedPatients.get(patient.getPatientID());
+        return selectedPatient != null ? selectedPatient : patient;
     }
 
     /**
@@ -112,36 +113,15 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
     @Override
     public void onBindViewHolder(@NonNull BaseViewHolder baseHolder, int position) {
         SelectPatientViewHolder holder = (SelectPatientViewHolder) baseHolder;
-        holder.checkBox.setChecked(patientState.get(position));
-        holder.background.setBackgroundResource(R.drawable.cardv_nonselected_bg);
-        holder.patientName.setText(getUniquePatients().get(position).getName());
-        PatientModel patient = getUniquePatients().get(position);
-        if (isSelectedPatient(patient) != null){
-            holder.checkBox.setChecked(true);
-            holder.background.setBackgroundResource(R.drawable.cardv_selected_bg);
-            patientState.set(position,true);
-            onPatientClickListener.onPatientClick(holder.checkBox.isChecked(), getUniquePatients().get(position));
-            // set chip to be checked if selected for monitoring observation(s) previously
-            for (ObservationType type: ObservationType.values()) {
-                switch (type) {
-                    case CHOLESTEROL:
-                        if (Objects.requireNonNull(isSelectedPatient(patient)).isObservationMonitored(type)) {
-                            holder.cholesterolChip.setChecked(true);
-                        }
-                        else {
-                            holder.cholesterolChip.setChecked(false);
-                        }
-                    case BLOOD_PRESSURE:
-                        if (Objects.requireNonNull(isSelectedPatient(patient)).isObservationMonitored(type)) {
-                            holder.bloodPressureChip.setChecked(true);
-                        }
-                        else {
-                            holder.bloodPressureChip.setChecked(false);
-                        }
-                }
-            }
-        }
-
+        PatientModel patient = getPatient(position);
+        holder.patient = patient;
+        boolean selected = patient != null && selectedPatients.containsKey(patient.getPatientID());
+        holder.patientName.setText(patient != null ? patient.getName() : "");
+        holder.checkBox.setChecked(selected);
+        holder.background.setBackgroundResource(selected ? R.drawable.cardv_selected_bg : R.drawable.cardv_nonselected_bg);
+        // set chip to be checked if selected for monitoring observation(s) previously
+        holder.cholesterolChip.setChecked(selected && patient.isObservationMonitored(ObservationType.CHOLESTEROL));
+        holder.bloodPressureChip.setChecked(selected && patient.isObservationMonitored(ObservationType.BLOOD_PRESSURE));
     }
 
     /**
@@ -151,7 +131,7 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
      */
     @Override
     public int getItemCount() {
-        return getUniquePatients().size();
+        return differ.getItemCount();
     }
 
     /**
@@ -167,6 +147,8 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
         private ConstraintLayout background;
         private Chip cholesterolChip;
         private Chip bloodPressureChip;
+        // patient shown in the card, null while its page is loading
+        private PatientModel patient;
 
         /**
          * The SelectPatientViewHolder constructor
@@ -186,20 +168,18 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
             bloodPressureChip.setOnClickListener(this);
         }
 
-        private void observationStatus(Chip chip, int position, ObservationType observationType) {
+        private void observationStatus(Chip chip, ObservationType observationType) {
             if (chip.isChecked()) {
-                getUniquePatients().get(position).monitorObservation(observationType, true);
+                patient.monitorObservation(observationType, true);
                 background.setBackgroundResource(R.drawable.cardv_selected_bg);
                 checkBox.setChecked(true);
-                patientState.set(position,true);
             }
             else {
                 if (!cholesterolChip.isChecked() && !bloodPressureChip.isChecked()) {
-                    patientState.set(position,false);
                     background.setBackgroundResource(R.drawable.cardv_nonselected_bg);
                     checkBox.setChecked(false);
                 }
-                getUniquePatients().get(position).monitorObservation(observationType, false);
+                patient.monitorObservation(observationType, false);
             }
         }
 
@@ -210,15 +190,18 @@ public class SelectPatientsAdapter extends BaseAdapter<SelectPatientsAdapter.Sel
          */
         @Override
         public void onClick(View v) {
+            if (patient == null) {
+                return;
+            }
             switch (v.getId()) {
                 case R.id.cholesterol_chip:
-                    observationStatus(cholesterolChip, getAdapterPosition(), ObservationType.CHOLESTEROL);
+                    observationStatus(cholesterolChip, ObservationType.CHOLESTEROL);
                     break;
                 case R.id.blood_pressure_chip:
-                    observationStatus(bloodPressureChip, getAdapterPosition(), ObservationType.BLOOD_PRESSURE);
+                    observationStatus(bloodPressureChip, ObservationType.BLOOD_PRESSURE);
                     break;
             }
-            onPatientClickListener.onPatientClick(checkBox.isChecked(), getUniquePatients().get(getAdapterPosition()));
+            onPatientClickListener.onPatientClick(checkBox.isChecked(), patient);
         }
     }
 
@@ -0,0 +1,138 @@
+package edu.monash.kmhc.service;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.monash.kmhc.R;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.ObservationModel;
+
+/**
+ * This class shows the alerts raised by the AlertEngine as system notifications.
+ *
+ * Each patient has at most one notification, listing the alerts that were just raised. The
+ * notification is removed once all of the patient's notified alerts have cleared.
+ */
+public class AlertNotifier {
+
+    private static final String CHANNEL_ID = "patient_alerts";
+    private static final int NOTIFICATION_ID = 1;
+
+    private Context context;
+
+    /**
+     * Constructor. Creates the notification channel for the alerts.
+     * @param context context used to post the notifications
+     */
+    public AlertNotifier(Context context) {
+        this.context = context.getApplicationContext();
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                this.context.getString(R.string.alert_channel_name), NotificationManager.IMPORTANCE_HIGH);
+        this.context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    /**
+     * Updates the notifications of the patients whose alerts changed
+     * @param events alerts that were raised or cleared
+     * @param patients monitored patients by patient id
+     * @param alerts patient id -> raised alerts, after the events
+     */
+    public void notify(List<AlertEvent> events, Map<String, PatientModel> patients,
+                       Map<String, EnumSet<AlertType>> alerts) {
+        // group the notified events by patient
+        LinkedHashMap<String, ArrayList<AlertEvent>> patientEvents = new LinkedHashMap<>();
+        for (AlertEvent event: events) {
+            if (event.getType().isNotified()) {
+                ArrayList<AlertEvent> eventList = patientEvents.get(event.getPatientId());
+                if (eventList == null) {
+                    eventList = new ArrayList<>();
+                    patientEvents.put(event.getPatientId(), eventList);
+                }
+                eventList.add(event);
+            }
+        }
+
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        for (Map.Entry<String, ArrayList<AlertEvent>> patient: patientEvents.entrySet()) {
+            String patientId = patient.getKey();
+            if (!hasNotifiedAlert(alerts.get(patientId))) {
+                notificationManager.cancel(patientId, NOTIFICATION_ID);
+                continue;
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (AlertEvent event: patient.getValue()) {
+                if (event.isRaised()) {
+                    if (text.length() > 0) {
+                        text.append("\n");
+                    }
+                    text.append(getDescription(event));
+                }
+            }
+            // only cleared alerts, the notification of the alerts still raised stays
+            if (text.length() == 0) {
+                continue;
+            }
+
+            PatientModel patientModel = patients.get(patientId);
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_notifications_black_24dp)
+                    .setContentTitle(patientModel != null ? patientModel.getName() : patientId)
+                    .setContentText(text)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(text))
+                    .setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .setCategory(NotificationCompat.CATEGORY_STATUS)
+                    .setAutoCancel(true);
+            Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+            if (launchIntent != null) {
+                builder.setContentIntent(PendingIntent.getActivity(context, 0, launchIntent, 0));
+            }
+            notificationManager.notify(patientId, NOTIFICATION_ID, builder.build());
+        }
+    }
+
+    private static boolean hasNotifiedAlert(EnumSet<AlertType> alerts) {
+        if (alerts != null) {
+            for (AlertType type: alerts) {
+                if (type.isNotified()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the text shown for a raised alert, ie. "Systolic blood pressure 150 mmHg is above 140 mmHg"
+     */
+    private static String getDescription(AlertEvent event) {
+        String value = ObservationModel.formatValue(event.getValue());
+        String threshold = ObservationModel.formatValue(event.getThreshold());
+        switch (event.getType()) {
+            case HIGH_SYSTOLIC:
+                return "Systolic blood pressure " + value + " mmHg is above " + threshold + " mmHg";
+            case HIGH_DIASTOLIC:
+                return "Diastolic blood pressure " + value + " mmHg is above " + threshold + " mmHg";
+            case TOP_SYSTOLIC:
+                return "Systolic blood pressure " + value + " mmHg is in the top 10% of patients";
+            case TOP_CHOLESTEROL:
+                return "Total cholesterol " + value + " mg/dL is in the top 10% of patients";
+            default:
+                return "Total cholesterol " + value + " mg/dL is above the average " + threshold + " mg/dL";
+        }
+    }
+}
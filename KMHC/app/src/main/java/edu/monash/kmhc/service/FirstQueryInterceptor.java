@@ -0,0 +1,33 @@
+package edu.monash.kmhc.service;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+/**
+ * Logs the time from process start to the first response from the server.
+ * This is used to measure the app's time-to-first-query.
+ */
+public class FirstQueryInterceptor implements IClientInterceptor {
+
+    private static final String TAG = "FirstQueryInterceptor";
+
+    private boolean logged = false;
+
+    @Override
+    public void interceptRequest(IHttpRequest theRequest) {
+    }
+
+    @Override
+    public synchronized void interceptResponse(IHttpResponse theResponse) {
+        if (!logged) {
+            logged = true;
+            long sinceStart = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+            Log.d(TAG, "Time to first query: " + sinceStart + " ms");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package edu.monash.kmhc.service;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * This class logs the payload size and the parse time of every response from the FHIR server,
+ * grouped by query type (ie. Observation, Observation/$lastn, Encounter).
+ *
+ * The first response of each query type that asks for a subset of the elements with _elements is
+ * compared with the same query without _elements: the full response is downloaded and parsed once,
+ * and both sizes and parse times are logged side by side.
+ *
+ * It reads and parses every response one more time, so it is only registered in debug builds.
+ */
+public class PayloadStatsInterceptor implements IClientInterceptor {
+
+    private static final String TAG = "PayloadStats";
+
+    private static final String ELEMENTS_PARAMETER = "_elements";
+
+    // url and query type of the request that is waiting for its response, per thread
+    private ThreadLocal<String> requestUrl = new ThreadLocal<>();
+    private ThreadLocal<String> queryType = new ThreadLocal<>();
+    // query type -> {responses, total bytes, total parse time in ms}
+    private HashMap<String, long[]> stats = new HashMap<>();
+    // query types already compared with their full response
+    private HashSet<String> comparedTypes = new HashSet<>();
+    // downloads the full responses, outside the FHIR client so this interceptor is not called again
+    private OkHttpClient httpClient;
+
+    @Override
+    public void interceptRequest(IHttpRequest theRequest) {
+        requestUrl.set(theRequest.getUri());
+        queryType.set(getQueryType(theRequest.getUri()));
+    }
+
+    @Override
+    public void interceptResponse(IHttpResponse theResponse) throws IOException {
+        String type = queryType.get();
+        if (type == null || theResponse.getStatus() != 200) {
+            return;
+        }
+
+        // keep the body in memory so the client can still read it after this
+        theResponse.bufferEntity();
+        byte[] body = readBody(theResponse.readEntity());
+
+        long parseMillis = parse(body);
+        if (parseMillis < 0) {
+            // not a FHIR resource. nothing to measure
+            return;
+        }
+
+        synchronized (this) {
+            long[] typeStats = stats.get(type);
+            if (typeStats == null) {
+                typeStats = new long[3];
+                stats.put(type, typeStats);
+            }
+            typeStats[0]++;
+            typeStats[1] += body.length;
+            typeStats[2] += parseMillis;
+            Log.d(TAG, type + ": " + body.length + " bytes, parsed in " + parseMillis + " ms"
+                    + " (average " + typeStats[1] / typeStats[0] + " bytes, "
+                    + typeStats[2] / typeStats[0] + " ms over " + typeStats[0] + " responses)");
+        }
+
+        compareWithFullResponse(type, requestUrl.get(), body);
+    }
+
+    /**
+     * Downloads and parses the same query without _elements, once for each query type, and logs
+     * its size and parse time next to the response that was trimmed. The trimmed response is parsed
+     * again first, so the first parse of a query type does not make it look slower.
+     * @param type query type
+     * @param url url of the trimmed query
+     * @param trimmedBody body of the trimmed response
+     */
+    private void compareWithFullResponse(String type, String url, byte[] trimmedBody) {
+        HttpUrl trimmedUrl = url == null ? null : HttpUrl.parse(url);
+        if (trimmedUrl == null || trimmedUrl.queryParameter(ELEMENTS_PARAMETER) == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!comparedTypes.add(type)) {
+                return;
+            }
+            if (httpClient == null) {
+                httpClient = new OkHttpClient();
+            }
+        }
+
+        Request request = new Request.Builder()
+                .url(trimmedUrl.newBuilder().removeAllQueryParameters(ELEMENTS_PARAMETER).build())
+                .header("Accept", "application/fhir+json")
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                return;
+            }
+            byte[] body = response.body().bytes();
+            long trimmedMillis = parse(trimmedBody);
+            long parseMillis = parse(body);
+            Log.d(TAG, type + " with _elements: " + trimmedBody.length + " bytes, parsed in " + trimmedMillis + " ms"
+                    + ", without: " + body.length + " bytes, parsed in " + parseMillis + " ms");
+        }
+        catch (IOException e) {
+            Log.d(TAG, "Could not download the full " + type + " response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a response body as a FHIR resource
+     * @param body response body
+     * @return parse time in ms, or -1 if the body is not a FHIR resource
+     */
+    private long parse(byte[] body) {
+        long start = System.nanoTime();
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)) {
+            // the shared context is only asked for once a response comes, so registering is cheap
+            FhirContext context = FhirClientProvider.getInstance().getContext();
+            context.newJsonParser().parseResource(reader);
+        }
+        catch (IOException | RuntimeException e) {
+            return -1;
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Returns the query type of a request url, ie. the resource type and operation
+     * @param uri request url
+     * @return query type
+     */
+    private String getQueryType(String uri) {
+        String path = uri.contains("?") ? uri.substring(0, uri.indexOf('?')) : uri;
+        if (uri.contains("_getpages")) {
+            return "next page";
+        }
+        int fhirIndex = path.indexOf("/fhir/");
+        return fhirIndex < 0 ? path : path.substring(fhirIndex + "/fhir/".length());
+    }
+
+    /**
+     * Reads the whole response body
+     * @param stream response body
+     * @return bytes of the body
+     */
+    private byte[] readBody(InputStream stream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try (InputStream in = stream) {
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+}
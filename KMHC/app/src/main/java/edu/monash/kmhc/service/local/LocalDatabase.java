@@ -0,0 +1,35 @@
+package edu.monash.kmhc.service.local;
+
+import android.content.Context;
+
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+/**
+ * The database on the device that keeps patients and their latest observations between app launches.
+ */
+@Database(entities = {PatientEntity.class, ObservationEntity.class, WatermarkEntity.class}, version = 2, exportSchema = false)
+public abstract class LocalDatabase extends RoomDatabase {
+
+    private static final String DATABASE_NAME = "kmhc.db";
+
+    private static LocalDatabase instance;
+
+    public abstract PatientDao patientDao();
+
+    /**
+     * Returns the shared database, opening it on first use
+     * @param context any context. The application context is kept
+     * @return local database
+     */
+    public static synchronized LocalDatabase getInstance(Context context) {
+        if (instance == null) {
+            // everything stored here can be downloaded again, so a schema change just clears it
+            instance = Room.databaseBuilder(context.getApplicationContext(), LocalDatabase.class, DATABASE_NAME)
+                    .fallbackToDestructiveMigration()
+                    .build();
+        }
+        return instance;
+    }
+}
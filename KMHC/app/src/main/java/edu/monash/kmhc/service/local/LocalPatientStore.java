@@ -0,0 +1,208 @@
+package edu.monash.kmhc.service.local;
+
+import android.content.Context;
+
+import org.hl7.fhir.r4.model.Enumerations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.monash.kmhc.model.PatientAddressModel;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+/**
+ * This class stores patients, their latest observations and blood pressure history on the device,
+ * so they can be shown as soon as the app starts and only the changes have to be downloaded.
+ *
+ * All methods read or write the database, so they must not be called on the main thread.
+ */
+public class LocalPatientStore implements PatientStore {
+
+    private LocalDatabase database;
+    private PatientDao patientDao;
+
+    /**
+     * Constructor.
+     * @param context any context
+     */
+    public LocalPatientStore(Context context) {
+        database = LocalDatabase.getInstance(context);
+        patientDao = database.patientDao();
+    }
+
+    /**
+     * Loads the stored patients of a practitioner with their latest observations
+     * @param practitionerId practitioner identifier
+     * @param depth number of blood pressure readings kept in each patient's time series
+     * @return patients by patient reference
+     */
+    @Override
+    public HashMap<String, PatientModel> loadPatients(String practitionerId, int depth) {
+        LinkedHashMap<String, PatientModel> patients = new LinkedHashMap<>();
+        for (PatientEntity entity: patientDao.getPatients(practitionerId)) {
+            patients.put(entity.id, new PatientModel(entity.id, entity.name,
+                    entity.birthDate == null ? null : new Date(entity.birthDate),
+                    entity.gender == null ? null : Enumerations.AdministrativeGender.fromCode(entity.gender),
+                    new PatientAddressModel(entity.city, entity.state, entity.country)));
+        }
+
+        // observations are read newest first, so the first of each type is the latest
+        HashMap<String, ArrayList<BloodPressureObservationModel>> bpReadings = new HashMap<>();
+        for (ObservationEntity entity: patientDao.getObservations(practitionerId)) {
+            PatientModel patient = patients.get(entity.patientId);
+            ObservationType type = ObservationType.fromCode(entity.code);
+            if (patient == null || type == null) {
+                continue;
+            }
+
+            ObservationModel observation = createObservationModel(type, entity);
+            if (patient.getObservationReading(type) == null) {
+                patient.setObservation(type, observation);
+            }
+            if (type == ObservationType.BLOOD_PRESSURE) {
+                ArrayList<BloodPressureObservationModel> readings = bpReadings.get(entity.patientId);
+                if (readings == null) {
+                    readings = new ArrayList<>();
+                    bpReadings.put(entity.patientId, readings);
+                }
+                readings.add((BloodPressureObservationModel) observation);
+            }
+        }
+        for (Map.Entry<String, ArrayList<BloodPressureObservationModel>> entry: bpReadings.entrySet()) {
+            patients.get(entry.getKey()).addBPReadings(entry.getValue(), depth);
+        }
+        return patients;
+    }
+
+    /**
+     * Stores the details of a practitioner's patients. Observations are stored with saveObservations.
+     * @param practitionerId practitioner identifier
+     * @param patients patients downloaded from the server
+     */
+    @Override
+    public void savePatients(String practitionerId, Collection<PatientModel> patients) {
+        ArrayList<PatientEntity> entities = new ArrayList<>();
+        for (PatientModel patient: patients) {
+            PatientEntity entity = new PatientEntity();
+            entity.id = patient.getPatientID();
+            entity.practitionerId = practitionerId;
+            entity.name = patient.getName();
+            entity.birthDate = patient.getBirthDateValue() == null ? null : patient.getBirthDateValue().getTime();
+            entity.gender = patient.getGenderValue() == null ? null : patient.getGenderValue().toCode();
+            entity.city = patient.getAddress().getCity();
+            entity.state = patient.getAddress().getState();
+            entity.country = patient.getAddress().getCountry();
+            entities.add(entity);
+        }
+        patientDao.insertPatients(entities);
+    }
+
+    /**
+     * Replaces the stored observations of the patients with their current latest observations
+     * and blood pressure readings
+     * @param patients patients whose observations changed
+     */
+    @Override
+    public void saveObservations(Collection<PatientModel> patients) {
+        database.runInTransaction(() -> {
+            for (PatientModel patient: patients) {
+                ArrayList<ObservationEntity> entities = new ArrayList<>();
+                for (ObservationType type: ObservationType.values()) {
+                    ObservationModel observation = patient.getObservationReading(type);
+                    if (observation != null) {
+                        entities.add(createEntity(patient.getPatientID(), type, observation));
+                    }
+                }
+                TimeSeries systolic = patient.getTimeSeries(BloodPressureObservationModel.SYSTOLIC_CODE);
+                TimeSeries diastolic = patient.getTimeSeries(BloodPressureObservationModel.DIASTOLIC_CODE);
+                for (int i = 0; i < systolic.size(); i++) {
+                    long time = systolic.getTime(i);
+                    entities.add(createEntity(patient.getPatientID(), ObservationType.BLOOD_PRESSURE,
+                            new BloodPressureObservationModel(systolic.getValue(i), diastolic.getValueAt(time),
+                                    bpUnit(patient), time)));
+                }
+                patientDao.replaceObservations(patient.getPatientID(), entities);
+            }
+        });
+    }
+
+    /**
+     * Loads the sync watermarks stored by saveWatermarks
+     * @return "patient id|observation code" -> server time of the last search
+     */
+    @Override
+    public HashMap<String, Date> loadWatermarks() {
+        HashMap<String, Date> watermarks = new HashMap<>();
+        for (WatermarkEntity entity: patientDao.getWatermarks()) {
+            watermarks.put(entity.seriesKey, new Date(entity.lastUpdated));
+        }
+        return watermarks;
+    }
+
+    /**
+     * Stores the sync watermarks, so the next launch only downloads observations changed after them
+     * @param watermarks "patient id|observation code" -> server time of the last search
+     */
+    @Override
+    public void saveWatermarks(Map<String, Date> watermarks) {
+        ArrayList<WatermarkEntity> entities = new ArrayList<>();
+        for (Map.Entry<String, Date> watermark: watermarks.entrySet()) {
+            WatermarkEntity entity = new WatermarkEntity();
+            entity.seriesKey = watermark.getKey();
+            entity.lastUpdated = watermark.getValue().getTime();
+            entities.add(entity);
+        }
+        patientDao.insertWatermarks(entities);
+    }
+
+    /**
+     * Creates the stored form of an observation
+     */
+    private ObservationEntity createEntity(String patientId, ObservationType type, ObservationModel observation) {
+        ObservationEntity entity = new ObservationEntity();
+        entity.patientId = patientId;
+        entity.code = type.getObservationCode();
+        entity.effectiveTime = observation.getEffectiveTime();
+        entity.value = toColumn(observation.getValue());
+        entity.unit = observation.getUnit();
+        if (observation instanceof BloodPressureObservationModel) {
+            entity.systolic = toColumn(((BloodPressureObservationModel) observation).getSystolic());
+            entity.diastolic = toColumn(((BloodPressureObservationModel) observation).getDiastolic());
+        }
+        return entity;
+    }
+
+    /**
+     * Rebuilds an observation model from its stored form
+     */
+    private ObservationModel createObservationModel(ObservationType type, ObservationEntity entity) {
+        if (type == ObservationType.BLOOD_PRESSURE) {
+            return new BloodPressureObservationModel(fromColumn(entity.systolic), fromColumn(entity.diastolic),
+                    entity.unit, entity.effectiveTime);
+        }
+        return new CholesterolObservationModel(fromColumn(entity.value), entity.unit, entity.effectiveTime);
+    }
+
+    private String bpUnit(PatientModel patient) {
+        ObservationModel latest = patient.getObservationReading(ObservationType.BLOOD_PRESSURE);
+        return latest == null ? null : latest.getUnit();
+    }
+
+    // missing values are NaN in the models and null in the database
+    private Double toColumn(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private double fromColumn(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+}
@@ -0,0 +1,26 @@
+package edu.monash.kmhc.service.local;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+/**
+ * An observation reading, as stored on the device. Readings are keyed by patient, LOINC code and
+ * effective time, so the same reading downloaded twice is only stored once.
+ */
+@Entity(tableName = "observation", primaryKeys = {"patientId", "code", "effectiveTime"})
+public class ObservationEntity {
+
+    // patient reference, ie. Patient/123
+    @NonNull
+    public String patientId = "";
+    // LOINC code
+    @NonNull
+    public String code = "";
+    // milliseconds since epoch
+    public long effectiveTime;
+    // values are null when the server did not send them
+    public Double value;
+    public String unit;
+    public Double systolic;
+    public Double diastolic;
+}
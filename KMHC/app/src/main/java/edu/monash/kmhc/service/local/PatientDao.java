@@ -0,0 +1,49 @@
+package edu.monash.kmhc.service.local;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+/**
+ * Reads and writes the patients, observations and sync watermarks stored on the device.
+ */
+@Dao
+public abstract class PatientDao {
+
+    @Query("SELECT * FROM patient WHERE practitionerId = :practitionerId")
+    public abstract List<PatientEntity> getPatients(String practitionerId);
+
+    @Query("SELECT observation.* FROM observation JOIN patient ON observation.patientId = patient.id "
+            + "WHERE patient.practitionerId = :practitionerId ORDER BY effectiveTime DESC")
+    public abstract List<ObservationEntity> getObservations(String practitionerId);
+
+    @Query("SELECT * FROM sync_watermark")
+    public abstract List<WatermarkEntity> getWatermarks();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void insertPatients(List<PatientEntity> patients);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void insertObservations(List<ObservationEntity> observations);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void insertWatermarks(List<WatermarkEntity> watermarks);
+
+    @Query("DELETE FROM observation WHERE patientId = :patientId")
+    public abstract void deleteObservations(String patientId);
+
+    /**
+     * Replaces the stored readings of a patient with the readings the app is showing
+     * @param patientId patient reference
+     * @param observations latest readings of the patient
+     */
+    @Transaction
+    public void replaceObservations(String patientId, List<ObservationEntity> observations) {
+        deleteObservations(patientId);
+        insertObservations(observations);
+    }
+}
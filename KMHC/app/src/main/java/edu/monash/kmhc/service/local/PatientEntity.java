@@ -0,0 +1,26 @@
+package edu.monash.kmhc.service.local;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A patient of a practitioner, as stored on the device.
+ */
+@Entity(tableName = "patient", indices = {@Index("practitionerId")})
+public class PatientEntity {
+
+    // patient reference, ie. Patient/123
+    @PrimaryKey
+    @NonNull
+    public String id = "";
+    public String practitionerId;
+    public String name;
+    // milliseconds since epoch, or null if unknown
+    public Long birthDate;
+    public String gender;
+    public String city;
+    public String state;
+    public String country;
+}
@@ -0,0 +1,19 @@
+package edu.monash.kmhc.service.local;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Server time of the last search that returned a patient's observations of one code.
+ * Observations updated before this time are already stored on the device.
+ */
+@Entity(tableName = "sync_watermark")
+public class WatermarkEntity {
+
+    // "patient id|observation code"
+    @PrimaryKey
+    @NonNull
+    public String seriesKey = "";
+    public long lastUpdated;
+}
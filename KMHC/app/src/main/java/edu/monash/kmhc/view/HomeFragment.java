@@ -27,14 +27,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.monash.kmhc.MainActivity;
 import edu.monash.kmhc.R;
 import edu.monash.kmhc.adapter.HomeAdapter;
+import edu.monash.kmhc.model.PatientChangeSet;
 import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
 import edu.monash.kmhc.model.observation.ObservationType;
 import edu.monash.kmhc.viewModel.SharedViewModel;
 
@@ -47,11 +50,18 @@ public class HomeFragment extends Fragment implements HomeAdapter.OnPatientClick
 
     private HomeFragment thisFrag;
     private RecyclerView recyclerView;
+    private HomeAdapter homeAdapter;
+    private SharedViewModel sharedViewModel;
+    // bar chart data, kept for the life of the view and updated in place
+    private BarData barData;
+    private HashMap<String, BarDataSet> cholesterolBars;
+    private int nextBarColour;
     private Toolbar toolbar;
     private BarChart barChart;
-    private int x = 90;
-    private int y = 140;
     private View root;
+    // a list of colours for the bar chart
+    private static final List<Integer> BAR_COLOURS = Arrays.asList(Color.RED, Color.GREEN, Color.BLUE,
+            Color.YELLOW, Color.CYAN, Color.MAGENTA, Color.GRAY, Color.BLACK);
 
     /**
      * This method performs all graphical initialization, assign all view variables and set up the toolbar.
@@ -61,15 +71,22 @@ public class HomeFragment extends Fragment implements HomeAdapter.OnPatientClick
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
 
-        SharedViewModel sharedViewModel = ViewModelProviders.of(requireActivity()).get(SharedViewModel.class);
+        sharedViewModel = ViewModelProviders.of(requireActivity()).get(SharedViewModel.class);
         root = inflater.inflate(R.layout.fragment_home, container, false);
         //set tool bar
         toolbar = root.findViewById(R.id.home_toolbar);
         setUpToolBar();
         recyclerView = root.findViewById(R.id.home_recycler_view); // recyclerview for list of patients
         barChart = root.findViewById(R.id.barchart); // bar chart for total cholesterol
-        sharedViewModel.getAllPatientObservations().observe(getViewLifecycleOwner(), patientUpdatedObserver);
+        barData = new BarData(Collections.singletonList("Total Cholesterol mg/dL"), new ArrayList<IBarDataSet>());
+        cholesterolBars = new HashMap<>();
+        nextBarColour = 0;
         thisFrag = this;
+        // the adapter is kept for the life of the view and only updates the cards that change
+        homeAdapter = new HomeAdapter(thisFrag);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recyclerView.setAdapter(homeAdapter);
+        sharedViewModel.getPatientChanges().observe(getViewLifecycleOwner(), patientUpdatedObserver);
         return root;
     }
 
@@ -78,12 +95,11 @@ public class HomeFragment extends Fragment implements HomeAdapter.OnPatientClick
      * ( ie : deselect a selected patient / select new patient )
      * It updates the UI when there're changes to the data.
      */
-    private Observer<HashMap<String, PatientModel>> patientUpdatedObserver = new Observer<HashMap<String, PatientModel>>() {
+    private Observer<PatientChangeSet> patientUpdatedObserver = new Observer<PatientChangeSet>() {
         @Override
-        public void onChanged(HashMap<String, PatientModel> patientObservationHashMap) {
-            recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
-            recyclerView.setAdapter(new HomeAdapter(patientObservationHashMap, thisFrag, x, y));
-            plotBarChart(patientObservationHashMap);
+        public void onChanged(PatientChangeSet changeSet) {
+            homeAdapter.applyChanges(changeSet);
+            plotBarChart(changeSet.getPatients());
         }
     };
 
@@ -139,8 +155,10 @@ public class HomeFragment extends Fragment implements HomeAdapter.OnPatientClick
 
         builder.setPositiveButton("DONE", (dialog, which) -> {
             if (xInput.getText().toString().matches("[0-9]+") && yInput.getText().toString().matches("[0-9]+")){
-                x = Integer.parseInt(xInput.getText().toString());
-                y = Integer.parseInt(yInput.getText().toString());
+                int x = Integer.parseInt(xInput.getText().toString());
+                int y = Integer.parseInt(yInput.getText().toString());
+                // patients whose alerts change are republished by the view model
+                sharedViewModel.setAlertThresholds(x, y);
             }
             dialog.dismiss();
         });
@@ -151,49 +169,78 @@ public class HomeFragment extends Fragment implements HomeAdapter.OnPatientClick
     }
 
 
+    /**
+     * Updates the total cholesterol bar chart. Each patient keeps their bar and colour between polls,
+     * and only the values of the bars are changed, so the chart data is not rebuilt on every poll.
+     * @param patientObservationHashMap monitored patients
+     */
     private void plotBarChart(HashMap<String, PatientModel> patientObservationHashMap) {
-        boolean hasValidPatient = false; // false when none of the selected patients have cholesterol data observations
-        List<IBarDataSet> dataBars = new ArrayList<>();
-        AtomicInteger i = new AtomicInteger();
-
-        // a list of colours for the bar chart
-        ArrayList<Integer> colours = new ArrayList<>(
-                Arrays.asList(Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW,
-                        Color.CYAN, Color.MAGENTA, Color.GRAY, Color.BLACK
-                ));
+        // remove the bars of patients that are no longer monitored or have no cholesterol value
+        Iterator<Map.Entry<String, BarDataSet>> bars = cholesterolBars.entrySet().iterator();
+        while (bars.hasNext()) {
+            Map.Entry<String, BarDataSet> bar = bars.next();
+            if (getCholesterolValue(patientObservationHashMap.get(bar.getKey())) == null) {
+                barData.removeDataSet(bar.getValue());
+                bars.remove();
+            }
+        }
 
         // loop through the observations hash map
         // find all patients that has cholesterol data observations
         patientObservationHashMap.forEach((patientId, patientModel) -> {
-            if (patientModel.isObservationMonitored(ObservationType.CHOLESTEROL)) {
-                float patientCholVal = Float.parseFloat(patientModel.getObservationReading(ObservationType.CHOLESTEROL).getValue());
+            Float patientCholVal = getCholesterolValue(patientModel);
+            if (patientCholVal == null) {
+                return;
+            }
+            BarDataSet dataset = cholesterolBars.get(patientId);
+            if (dataset == null) {
                 ArrayList<BarEntry> barEntries = new ArrayList<>();
                 barEntries.add(new BarEntry(patientCholVal, 0));
-                BarDataSet dataset = new BarDataSet(barEntries, patientModel.getName());
-                dataset.setColor(colours.get(i.intValue() % colours.size()));
-                dataBars.add(dataset);
-                i.getAndIncrement();
+                dataset = new BarDataSet(barEntries, patientModel.getName());
+                dataset.setColor(BAR_COLOURS.get(nextBarColour++ % BAR_COLOURS.size()));
+                cholesterolBars.put(patientId, dataset);
+                barData.addDataSet(dataset);
+            }
+            else {
+                dataset.getEntryForIndex(0).setVal(patientCholVal);
+                dataset.notifyDataSetChanged();
             }
         });
 
-        if (i.intValue() > 0) {
-            hasValidPatient = true;
-        }
-
         // update the bar chart
-        if (hasValidPatient) {
-            barChart.setVisibility(View.VISIBLE); // hide bar chart if no patients has cholesterol observations
-            BarData data = new BarData(Collections.singletonList("Total Cholesterol mg/dL"), dataBars);
-            barChart.notifyDataSetChanged();
-            barChart.setData(data);
-            barChart.setDragEnabled(true); // on by default
+        if (!cholesterolBars.isEmpty()) {
+            barChart.setVisibility(View.VISIBLE);
+            barData.notifyDataChanged();
+            if (barChart.getData() != barData) {
+                barChart.setData(barData);
+                barChart.setDragEnabled(true); // on by default
+                barChart.getLegend().setWordWrapEnabled(true);
+            }
+            else {
+                barChart.notifyDataSetChanged();
+            }
             barChart.setVisibleXRangeMaximum(5);
-            barChart.getLegend().setWordWrapEnabled(true);
             barChart.invalidate();
         } else {
             barChart.setVisibility(View.GONE); // hide bar chart if no patients has cholesterol observations
         }
     }
+
+    /**
+     * Returns the cholesterol value shown in the bar chart for a patient
+     * @param patientModel patient, may be null
+     * @return cholesterol value, or null if it is not monitored or missing
+     */
+    private Float getCholesterolValue(PatientModel patientModel) {
+        if (patientModel == null || !patientModel.isObservationMonitored(ObservationType.CHOLESTEROL)) {
+            return null;
+        }
+        ObservationModel cholesterol = patientModel.getObservationReading(ObservationType.CHOLESTEROL);
+        if (cholesterol == null || Double.isNaN(cholesterol.getValue())) {
+            return null;
+        }
+        return (float) cholesterol.getValue();
+    }
 }
 
 
@@ -1,7 +1,9 @@
 package edu.monash.kmhc.view;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.lifecycle.ViewModelProviders;
 
 import android.os.Bundle;
 
@@ -10,8 +12,12 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
@@ -22,10 +28,14 @@ import java.util.Objects;
 import edu.monash.kmhc.MainActivity;
 import edu.monash.kmhc.R;
 import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertThresholds;
+import edu.monash.kmhc.viewModel.SharedViewModel;
 
 /**
  * This fragment is used to display extra information about the patient.
  * Extra information about patient: birth date, gender and address (city, state, country)
+ * The x,y values above which the patient's blood pressure raises an alert can be changed for this
+ * patient only.
  */
 public class PatientInfoFragment extends Fragment {
 
@@ -36,7 +46,7 @@ public class PatientInfoFragment extends Fragment {
     private TextView gender;
     private TextView address;
     private Toolbar toolbar;
-
+    private SharedViewModel sharedViewModel;
 
     /**
      * Patient Info Fragment Constructor
@@ -55,6 +65,8 @@ public class PatientInfoFragment extends Fragment {
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.patient_info_fragment, container, false);
+        sharedViewModel = ViewModelProviders.of(requireActivity()).get(SharedViewModel.class);
+        setHasOptionsMenu(true);
 
         //set up toolbar
         toolbar = root.findViewById(R.id.patient_info_toolbar);
@@ -102,4 +114,51 @@ public class PatientInfoFragment extends Fragment {
         });
     }
 
+    @Override
+    public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
+        inflater.inflate(R.menu.patient_info_menu, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.menu_patient_x_y) {
+            launchDialog();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Shows a dialog to change the x,y values of this patient.
+     * The patient goes back to the x,y values of the home page when USE DEFAULT is clicked.
+     */
+    private void launchDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(requireContext(), R.style.AlertDialogTheme);
+        builder.setTitle("Enter the x,y value for " + patient.getName());
+        View viewInflated = LayoutInflater.from(getContext()).inflate(R.layout.prompt_x_y_values, (ViewGroup) getView(), false);
+        final EditText xInput = viewInflated.findViewById(R.id.x_input);
+        final EditText yInput = viewInflated.findViewById(R.id.y_input);
+        if (sharedViewModel.hasPatientAlertThresholds(patient.getPatientID())) {
+            AlertThresholds thresholds = sharedViewModel.getAlertThresholds(patient.getPatientID());
+            xInput.setText(String.valueOf(thresholds.getSystolic()));
+            yInput.setText(String.valueOf(thresholds.getDiastolic()));
+        }
+        builder.setView(viewInflated);
+
+        builder.setPositiveButton("DONE", (dialog, which) -> {
+            if (xInput.getText().toString().matches("[0-9]+") && yInput.getText().toString().matches("[0-9]+")){
+                int x = Integer.parseInt(xInput.getText().toString());
+                int y = Integer.parseInt(yInput.getText().toString());
+                sharedViewModel.setPatientAlertThresholds(patient.getPatientID(), new AlertThresholds(x, y));
+            }
+            dialog.dismiss();
+        });
+        builder.setNeutralButton("USE DEFAULT", (dialog, which) -> {
+            sharedViewModel.setPatientAlertThresholds(patient.getPatientID(), null);
+            dialog.dismiss();
+        });
+
+        builder.setNegativeButton(android.R.string.cancel, (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
 }
@@ -6,6 +6,8 @@ import androidx.lifecycle.ViewModelProviders;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -16,6 +18,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -23,6 +26,7 @@ import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Objects;
 
 import edu.monash.kmhc.MainActivity;
@@ -44,9 +48,12 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
     private Toolbar toolbar;
     private SharedViewModel sharedViewModel;
     private RecyclerView recyclerView;
-    private ArrayList<PatientModel> selectedPatients = new ArrayList<>();
+    // selected patients by patient id, in the order they were selected
+    private LinkedHashMap<String, PatientModel> selectedPatients = new LinkedHashMap<>();
+    private SelectPatientsAdapter selectPatientsAdapter;
     private TextView title;
     private TextView loadingTextView;
+    private EditText searchEditText;
     private ImageButton backButton;
     private ProgressBar loadingSpinner;
 
@@ -79,16 +86,39 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
         title = toolbar.findViewById(R.id.toolbar_title);
         loadingTextView = root.findViewById(R.id.select_patients_txt_loading);
         loadingSpinner = root.findViewById(R.id.select_patients_progressBar);
+        searchEditText = root.findViewById(R.id.select_patients_et_search);
         loadingSpinner.setVisibility(View.VISIBLE);
         loadingTextView.setVisibility(View.VISIBLE);
 
         sharedViewModel.setPractitionerID(practitionerID);
         setUpToolBar();
 
+        thisFrag = this;
+        // the adapter is kept for the life of the view and shows the patients one page at a time
+        selectPatientsAdapter = new SelectPatientsAdapter(thisFrag, selectedPatients);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recyclerView.setAdapter(selectPatientsAdapter);
+
         //update UI when there's new patient under Health Practitioner
         sharedViewModel.getAllPatients().observe(getViewLifecycleOwner(),patientUpdatedObserver);
+        sharedViewModel.getPatientPages().observe(getViewLifecycleOwner(), selectPatientsAdapter::submitList);
+
+        // filter the patients by name as the user types
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                sharedViewModel.setPatientQuery(s.toString());
+            }
+        });
 
-        thisFrag = this;
         return root;
     }
 
@@ -96,8 +126,8 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
      * This observer observes for changes in patient list
      * ( The list that contains all patients under Health Practitioner )
      * It displays a loading screen when the app is still fetching data from the server,
-     * It immediately updates the UI to display the patients when the system completes
-     * the data fetching process.
+     * and hides it as soon as the first patients arrive. The patients themselves are shown
+     * from the paged patient list.
      */
     private Observer<HashMap<String,PatientModel>> patientUpdatedObserver = new Observer<HashMap<String,PatientModel >>() {
         @Override
@@ -108,8 +138,6 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
             else{
                 loadingSpinner.setVisibility(View.GONE);
                 loadingTextView.setVisibility(View.GONE);
-                recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
-                recyclerView.setAdapter( new SelectPatientsAdapter(patientHashMap,thisFrag, selectedPatients));
             }
         }
     };
@@ -131,7 +159,7 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
         Toolbar.OnMenuItemClickListener menuItemClickListener = item -> {
             if (selectedPatients.size() > 0) {
                 // save list into view model
-                sharedViewModel.setSelectedPatients(selectedPatients);
+                sharedViewModel.setSelectedPatients(new ArrayList<>(selectedPatients.values()));
                 MainActivity main = (MainActivity) getActivity();
                 Objects.requireNonNull(main).findFragment(MainActivity.home_fragment);
             } else {
@@ -178,25 +206,10 @@ public class SelectPatientsFragment extends Fragment implements SelectPatientsAd
      * @param patient the patient that is clicked
      */
     public void onPatientClick(boolean checked, PatientModel patient) {
-        PatientModel patientWithSameID = null;
-        boolean found = false;
-        for (PatientModel p : selectedPatients){
-            if(p.getPatientID().equals(patient.getPatientID())){
-                found = true;
-                patientWithSameID = p;
-                break;
-            }
-        }
         if (checked) {
-            if (!found) {
-                selectedPatients.add(patient);
-            }
-        } else if (!checked) {
-            if(found){
-                selectedPatients.remove(patientWithSameID);
-            }else{
-                selectedPatients.remove(patient);
-            }
+            selectedPatients.putIfAbsent(patient.getPatientID(), patient);
+        } else {
+            selectedPatients.remove(patient.getPatientID());
         }
         updateToolbar();
     }
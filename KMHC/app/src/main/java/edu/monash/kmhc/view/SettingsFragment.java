@@ -29,6 +29,7 @@ public class SettingsFragment extends Fragment {
 
     private SharedViewModel sharedViewModel;
     private Spinner frequencyOptions;
+    private Spinner maxIntervalOptions;
     private Toolbar toolbar;
 
     /**
@@ -50,6 +51,13 @@ public class SettingsFragment extends Fragment {
         frequencyOptions.setAdapter(adapter);
         frequencyOptions.setOnItemSelectedListener(frequencyOptionsListener);
 
+        //set up the spinner of the longest time between polls
+        maxIntervalOptions = root.findViewById(R.id.settings_max_poll_interval);
+        ArrayAdapter<CharSequence> maxIntervalAdapter = ArrayAdapter.createFromResource(root.getContext(),R.array.max_poll_interval,android.R.layout.simple_spinner_item);
+        maxIntervalAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        maxIntervalOptions.setAdapter(maxIntervalAdapter);
+        maxIntervalOptions.setOnItemSelectedListener(maxIntervalOptionsListener);
+
         return root;
     }
 
@@ -67,6 +75,7 @@ public class SettingsFragment extends Fragment {
 
         // set the drop down list to display current frequency
         frequencyOptions.setSelection(((ArrayAdapter) frequencyOptions.getAdapter()).getPosition(sharedViewModel.getSelectedFrequency().getValue()));
+        maxIntervalOptions.setSelection(((ArrayAdapter) maxIntervalOptions.getAdapter()).getPosition(sharedViewModel.getSelectedMaxPollInterval().getValue()));
 
     }
 
@@ -92,6 +101,22 @@ public class SettingsFragment extends Fragment {
         }
     };
 
+    /**
+     * This is a OnItemSelectedListener that gets triggered when the user selects a new maximum interval
+     *
+     * Readings that rarely change are polled less often, but never less often than the selected interval.
+     */
+    private AdapterView.OnItemSelectedListener maxIntervalOptionsListener = new AdapterView.OnItemSelectedListener() {
+        @Override
+        public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+            sharedViewModel.updateMaxPollInterval(parent.getItemAtPosition(position).toString());
+        }
+        @Override
+        public void onNothingSelected(AdapterView<?> parent) {
+
+        }
+    };
+
     /**
      * This method is sets up the tool bar title in the Settings fragment.
      */
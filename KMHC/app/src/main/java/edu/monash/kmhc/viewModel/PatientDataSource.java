@@ -0,0 +1,136 @@
+package edu.monash.kmhc.viewModel;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.PositionalDataSource;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.PatientNameIndex;
+
+/**
+ * This class gives the patient selection list one page of patients at a time.
+ *
+ * It reads from a snapshot of the practitioner's patients sorted by name. When a new page of patients
+ * arrives from the server the factory takes a new snapshot and invalidates the current source, so the
+ * paged list is reloaded around the position the user is looking at. Typing in the search box
+ * takes a new snapshot of the patients whose name matches, found with the PatientNameIndex.
+ */
+class PatientDataSource extends PositionalDataSource<PatientModel> {
+
+    // patients are listed by name, then by id so patients with the same name keep their order
+    private static final Comparator<PatientModel> BY_NAME = Comparator
+            .comparing(PatientModel::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(PatientModel::getPatientID);
+
+    private final List<PatientModel> patients;
+
+    /**
+     * Constructor
+     * @param patients sorted snapshot of the patients, not changed afterwards
+     */
+    private PatientDataSource(List<PatientModel> patients) {
+        this.patients = patients;
+    }
+
+    @Override
+    public void loadInitial(@NonNull LoadInitialParams params, @NonNull LoadInitialCallback<PatientModel> callback) {
+        int totalCount = patients.size();
+        int position = computeInitialLoadPosition(params, totalCount);
+        int loadSize = computeInitialLoadSize(params, position, totalCount);
+        callback.onResult(new ArrayList<>(patients.subList(position, position + loadSize)), position, totalCount);
+    }
+
+    @Override
+    public void loadRange(@NonNull LoadRangeParams params, @NonNull LoadRangeCallback<PatientModel> callback) {
+        int end = Math.min(params.startPosition + params.loadSize, patients.size());
+        callback.onResult(new ArrayList<>(patients.subList(params.startPosition, end)));
+    }
+
+    /**
+     * Creates the data sources of the patient selection list, one for each snapshot of the patients.
+     * The snapshot holds the patients whose name matches the search query.
+     */
+    static class Factory extends DataSource.Factory<Integer, PatientModel> {
+
+        // every patient sorted by name, and the position of each patient id in it
+        private List<PatientModel> allPatients = Collections.emptyList();
+        private HashMap<String, Integer> positions = new HashMap<>();
+        private PatientNameIndex nameIndex = new PatientNameIndex();
+        private String query = "";
+        // patients matching the query, sorted by name
+        private List<PatientModel> patients = Collections.emptyList();
+        private PatientDataSource latestSource;
+
+        /**
+         * Replaces the listed patients. Can be called from any thread
+         * @param allPatients every patient under the practitioner
+         */
+        void setPatients(Collection<PatientModel> allPatients) {
+            // sort outside the lock, so typing in the search box does not wait for it
+            ArrayList<PatientModel> sortedPatients = new ArrayList<>(allPatients);
+            sortedPatients.sort(BY_NAME);
+            HashMap<String, Integer> sortedPositions = new HashMap<>();
+            for (int i = 0; i < sortedPatients.size(); i++) {
+                sortedPositions.put(sortedPatients.get(i).getPatientID(), i);
+            }
+            synchronized (this) {
+                this.allPatients = Collections.unmodifiableList(sortedPatients);
+                positions = sortedPositions;
+                nameIndex.setPatients(sortedPatients);
+                filterPatients();
+            }
+        }
+
+        /**
+         * Only lists the patients whose name matches a query. Can be called from any thread
+         * @param query words typed into the search box, empty to list every patient
+         */
+        synchronized void setQuery(String query) {
+            if (!this.query.equals(query)) {
+                this.query = query;
+                filterPatients();
+            }
+        }
+
+        /**
+         * Takes a new snapshot of the patients matching the query and reloads the list
+         */
+        private void filterPatients() {
+            Set<String> matches = nameIndex.search(query);
+            if (matches == null) {
+                patients = allPatients;
+            }
+            else {
+                // mark the matches by position, so they come out in name order without sorting
+                BitSet matchedPositions = new BitSet(allPatients.size());
+                for (String patientId: matches) {
+                    matchedPositions.set(positions.get(patientId));
+                }
+                ArrayList<PatientModel> matchedPatients = new ArrayList<>(matches.size());
+                for (int i = matchedPositions.nextSetBit(0); i >= 0; i = matchedPositions.nextSetBit(i + 1)) {
+                    matchedPatients.add(allPatients.get(i));
+                }
+                patients = Collections.unmodifiableList(matchedPatients);
+            }
+            if (latestSource != null) {
+                latestSource.invalidate();
+            }
+        }
+
+        @NonNull
+        @Override
+        public synchronized DataSource<Integer, PatientModel> create() {
+            latestSource = new PatientDataSource(patients);
+            return latestSource;
+        }
+    }
+}
@@ -1,50 +1,95 @@
 package edu.monash.kmhc.viewModel;
 
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.app.Application;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.paging.LivePagedListBuilder;
+import androidx.paging.PagedList;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Objects;
 
+import edu.monash.kmhc.model.PatientChangeSet;
 import edu.monash.kmhc.model.PatientModel;
-import edu.monash.kmhc.model.observation.ObservationModel;
-import edu.monash.kmhc.model.observation.ObservationType;
-import edu.monash.kmhc.service.repository.ObservationRepositoryFactory;
-import edu.monash.kmhc.service.repository.PatientRepository;
+import edu.monash.kmhc.model.alert.AlertThresholds;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.service.AlertNotifier;
+import edu.monash.kmhc.service.CholesterolRiskModel;
+import edu.monash.kmhc.service.PanelSync;
+import edu.monash.kmhc.service.RiskScorer;
+import edu.monash.kmhc.service.local.LocalPatientStore;
 
 /**
  * This class is responsible for providing data that is displayed in the
  * HomeFragment, Settings Fragment and Select Patient Fragment.
  *
- * The class also acts as a Subject in the Observer pattern whereby it updates the patientObservations
- * LiveData by polling the server every N seconds with RxJava.
+ * The class also acts as a Subject in the Observer pattern whereby it updates the patientChanges
+ * LiveData by polling the server every N seconds. The loading, polling and alert checks are done by
+ * a PanelSync in the core module, on its own background thread, which is stopped when the view model
+ * is cleared. This class posts what it publishes to the LiveData and shows the raised alerts as
+ * notifications.
  *
  * It implements the Poll class and provides its own implementation for polling the server.
+ *
+ * Patients and their observations are kept in the local store on the device. They are shown from
+ * the store as soon as the practitioner logs in, and everything downloaded afterwards is written
+ * through to it.
  */
-public class SharedViewModel extends ViewModel implements Poll {
+public class SharedViewModel extends AndroidViewModel implements Poll, PanelSync.OnPanelChangedListener {
+
+    private static final String TAG = "SharedViewModel";
+    // patients loaded at a time by the patient selection list
+    private static final int PATIENT_PAGE_SIZE = 50;
 
     // for polling
-    private MutableLiveData<HashMap<String, PatientModel>> patientObservations = new MutableLiveData<>();
+    private MutableLiveData<PatientChangeSet> patientChanges = new MutableLiveData<>();
     // to get all the patients under practitioner
     private MutableLiveData<HashMap<String, PatientModel>> allPatients = new MutableLiveData<>();
+    // the same patients one page at a time, sorted by name
+    private PatientDataSource.Factory patientSourceFactory = new PatientDataSource.Factory();
+    private LiveData<PagedList<PatientModel>> patientPages = new LivePagedListBuilder<>(patientSourceFactory,
+            new PagedList.Config.Builder().setPageSize(PATIENT_PAGE_SIZE).setEnablePlaceholders(true).build()).build();
     private String practitionerID = "";
-    private PatientRepository patientRepository;
-    private ObservationRepositoryFactory observationRepositoryFactory;
     private MutableLiveData<String> selectedFrequency = new MutableLiveData<>() ;
+    // longest minutes between polls of a patient's readings that rarely change
+    private MutableLiveData<String> selectedMaxPollInterval = new MutableLiveData<>();
     private MutableLiveData<ArrayList<PatientModel>> selectedPatients = new MutableLiveData<>();
+    // shows the raised alerts as notifications
+    private AlertNotifier alertNotifier;
+    // loads the practitioner's patients, polls the monitored ones and checks the alert rules
+    private PanelSync panelSync;
+
+    /**
+     * Constructor. Called by the ViewModelProvider.
+     * @param application application, used to open the local store
+     */
+    public SharedViewModel(@NonNull Application application) {
+        super(application);
+        alertNotifier = new AlertNotifier(application);
+        // predicts the monitored patients' cholesterol level. null if the model could not be loaded
+        RiskScorer riskScorer = null;
+        try {
+            riskScorer = new RiskScorer(CholesterolRiskModel.load(
+                    application.getAssets().open(CholesterolRiskModel.ASSET_NAME)));
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Could not load the cholesterol risk model: " + e.getMessage());
+        }
+        panelSync = new PanelSync(new LocalPatientStore(application), riskScorer, this);
+    }
 
     private void initShareViewModel() {
-        patientRepository = new PatientRepository(practitionerID);
-        observationRepositoryFactory = new ObservationRepositoryFactory();
-        fetchAllPatients();
+        patientSourceFactory.setQuery("");
         setSelectedPatients(new ArrayList<>());
-        selectedFrequency.setValue("10");
+        updateCurrentSelected(String.valueOf(PanelSync.DEFAULT_POLL_INTERVAL));
+        updateMaxPollInterval(String.valueOf(PanelSync.DEFAULT_MAX_POLL_INTERVAL / 60));
+        panelSync.start(practitionerID);
     }
 
     /**
@@ -71,15 +116,34 @@ public class SharedViewModel extends ViewModel implements Poll {
      */
     public void updateCurrentSelected(String currentSelected) {
         this.selectedFrequency.setValue(currentSelected);
+        panelSync.setPollInterval(Integer.parseInt(currentSelected));
+    }
+
+    /**
+     * Getter for the selected maximum poll interval
+     * @return the current longest time between polls of a patient's readings, in minutes
+     */
+    public LiveData<String> getSelectedMaxPollInterval() {
+        return selectedMaxPollInterval;
+    }
+
+    /**
+     * Update the maximum poll interval when the user selects a new one
+     * @param minutes the new longest time between polls of a patient's readings, in minutes
+     */
+    public void updateMaxPollInterval(String minutes) {
+        this.selectedMaxPollInterval.setValue(minutes);
+        panelSync.setMaxPollInterval(Integer.parseInt(minutes) * 60);
     }
 
     /**
-     * Getter for AllPatientObservations (Used for polling)
-     * Store patients and their observations in LiveData so that UI will be notified when there are changes.
-     * @return LiveData HashMap of patient and their observations
+     * Getter for PatientChanges (Used for polling)
+     * Store the monitored patients and which of them changed in LiveData so that UI will be notified
+     * when there are changes, and only has to update the patients that changed.
+     * @return LiveData change set of the monitored patients
      */
-    public LiveData<HashMap<String, PatientModel>> getAllPatientObservations() {
-        return patientObservations;
+    public LiveData<PatientChangeSet> getPatientChanges() {
+        return patientChanges;
     }
 
     /**
@@ -89,6 +153,7 @@ public class SharedViewModel extends ViewModel implements Poll {
      */
     public void setSelectedPatients(ArrayList<PatientModel> selectedPatientsArray) {
         selectedPatients.setValue(selectedPatientsArray);
+        panelSync.setMonitoredPatients(selectedPatientsArray);
     }
 
     /**
@@ -100,54 +165,46 @@ public class SharedViewModel extends ViewModel implements Poll {
         return allPatients;
     }
 
-
     /**
-     * Returns the observation reading based on the observation type.
-     *
-     * This is extensible as different
-     * observations in the future only need to specify the type to get the observation reading.
-     * @param id patient id
-     * @param observationType type of observation. ie. cholesterol
-     * @return observation reading for the patient
+     * Getter for PatientPages (Used for patient selection)
+     * The patients in getAllPatients sorted by name and loaded one page at a time, so the list
+     * stays quick for practitioners with thousands of patients.
+     * @return LiveData paged list of patients
      */
-    private ObservationModel getObservation(String id, ObservationType observationType) {
-        return observationRepositoryFactory.getObservationModel(id, observationType);
+    public LiveData<PagedList<PatientModel>> getPatientPages() {
+        return patientPages;
     }
 
     /**
-     * This method is to fetch all patients that are treated by Health Practitioner
-     * from the patient repository.
+     * Only shows the patients whose name matches a search query in getPatientPages
+     * @param query words typed into the search box, empty to show every patient
      */
-    private void fetchAllPatients() {
-        // run asynchronous tasks on background thread to prevent network on main exception
-        HandlerThread backgroundThread = new HandlerThread("Background Thread");
-        backgroundThread.start();
-        Handler timer = new Handler(backgroundThread.getLooper());
-
-        timer.post(() -> {
-            HashMap < String, PatientModel > patientHashMap = new HashMap<>();
-            // loop through all patients
-            for (PatientModel patient : patientRepository.getAllPatients()) {
-                try {
-                    // only show patients with cholesterol and bp values
-                    for (ObservationType type: ObservationType.values()) {
-                        patient.setObservation(type, getObservation(patient.getPatientID(), type));
-                        patientHashMap.put(patient.getPatientID(), patient);
-                    }
-                    patient.addLatestBPReadings(observationRepositoryFactory.getLatestBloodPressureReadings(patient.getPatientID(),5));
-
-                }
-                // patient does not have the observation type
-                catch (Exception e) {
-                    Log.e("Patient ", "No observation type");
-                }
-            }
+    public void setPatientQuery(String query) {
+        patientSourceFactory.setQuery(query);
+    }
 
-            // update LiveData and notify observers - used by select patient
-            allPatients.postValue(patientHashMap);
-        });
+    /**
+     * Posts the practitioner's patients to getAllPatients and getPatientPages. Runs on the sync thread
+     * @param patientHashMap every patient under the practitioner
+     */
+    @Override
+    public void onAllPatients(HashMap<String, PatientModel> patientHashMap) {
+        patientSourceFactory.setPatients(patientHashMap.values());
+        allPatients.postValue(patientHashMap);
+    }
 
-        polling();
+    /**
+     * Posts a change set of the monitored patients and notifies the alerts that were raised.
+     * Runs on the sync thread.
+     * @param changes the monitored patients and which of them changed
+     * @param alerts alerts raised for each monitored patient
+     */
+    @Override
+    public void onPatientChanges(PatientChangeSet changes, HashMap<String, EnumSet<AlertType>> alerts) {
+        patientChanges.postValue(changes);
+        if (!changes.getAlertEvents().isEmpty()) {
+            alertNotifier.notify(changes.getAlertEvents(), changes.getPatients(), alerts);
+        }
     }
 
     /**
@@ -155,34 +212,54 @@ public class SharedViewModel extends ViewModel implements Poll {
      * is updated.
      */
     public void polling() {
+        panelSync.polling();
+    }
 
-        // run asynchronous tasks on background thread to prevent network on main exception
-        HandlerThread backgroundThread = new HandlerThread("Background Thread");
-        backgroundThread.start();
-        Handler timer = new Handler(backgroundThread.getLooper());
-
-        timer.post(new Runnable() {
-            @Override
-            public void run() {
-                HashMap<String, PatientModel> poHashMap = new HashMap<>();
-
-                // loop through all patients. update observations if observation is selected to be monitored
-                for (PatientModel patientModel: Objects.requireNonNull(selectedPatients.getValue())) {
-                    for (ObservationType type: ObservationType.values()) {
-                        if (patientModel.isObservationMonitored(type)) {
-                            patientModel.setObservation(type, getObservation(patientModel.getPatientID(), type));
-                            poHashMap.put(patientModel.getPatientID(), patientModel);
-                            if (type == ObservationType.BLOOD_PRESSURE) {
-                                patientModel.addLatestBPReadings(observationRepositoryFactory.getLatestBloodPressureReadings(patientModel.getPatientID(),5));
-                            }
-                        }
-                    }
-                }
-
-                // update LiveData and notify observers
-                patientObservations.postValue(poHashMap);
-                timer.postDelayed(this, Integer.parseInt(Objects.requireNonNull(getSelectedFrequency().getValue()))*1000);
-            }});
+    /**
+     * Changes the blood pressure values above which an alert is raised, for the patients without
+     * their own values
+     * @param systolic systolic blood pressure above which an alert is raised
+     * @param diastolic diastolic blood pressure above which an alert is raised
+     */
+    public void setAlertThresholds(int systolic, int diastolic) {
+        panelSync.setAlertThresholds(systolic, diastolic);
+    }
+
+    /**
+     * Changes the blood pressure values above which an alert is raised for one patient
+     * @param patientId patient id
+     * @param thresholds the patient's thresholds, or null to use the global thresholds again
+     */
+    public void setPatientAlertThresholds(String patientId, AlertThresholds thresholds) {
+        panelSync.setPatientAlertThresholds(patientId, thresholds);
+    }
+
+    /**
+     * Returns the blood pressure values above which an alert is raised for a patient
+     * @param patientId patient id
+     * @return the patient's own thresholds, or the global thresholds
+     */
+    public AlertThresholds getAlertThresholds(String patientId) {
+        return panelSync.getAlertThresholds(patientId);
+    }
+
+    /**
+     * Returns whether a patient has their own alert thresholds
+     * @param patientId patient id
+     * @return true if the patient does not use the global thresholds
+     */
+    public boolean hasPatientAlertThresholds(String patientId) {
+        return panelSync.hasPatientAlertThresholds(patientId);
+    }
+
+    /**
+     * Stops polling and removes the subscription from the server when the view model is destroyed
+     */
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        panelSync.shutdown();
     }
 
 }
+
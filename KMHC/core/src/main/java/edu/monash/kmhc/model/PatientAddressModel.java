@@ -22,8 +22,29 @@ public class PatientAddressModel {
         this.country = country;
     }
 
+    public String getCity() {
+        return city;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    /**
+     * Returns the address to display. Parts of the address that are missing are left out.
+     * @return full address
+     */
     public String getFullAddress() {
-        return  city + " City" + "\n" + state + "," + country;
+        String cityLine = city == null ? "" : city + " City";
+        String stateLine = state == null ? "" : state;
+        if (country != null) {
+            stateLine = stateLine.isEmpty() ? country : stateLine + "," + country;
+        }
+        return (cityLine + "\n" + stateLine).trim();
     }
 
 }
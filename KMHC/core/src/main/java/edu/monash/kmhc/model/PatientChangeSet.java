@@ -0,0 +1,93 @@
+package edu.monash.kmhc.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertType;
+
+/**
+ * Change set published by the panel sync after each poll.
+ *
+ * It holds every monitored patient, and which of them were added, removed or have new observations
+ * since the last change set, so the UI only has to update the patients that changed. It also holds
+ * the patients' raised alerts, and the alerts that were raised or cleared since the last change set,
+ * and the predicted risk of each patient's cholesterol being high.
+ */
+public class PatientChangeSet {
+
+    private HashMap<String, PatientModel> patients;
+    private Set<String> addedIds;
+    private Set<String> removedIds;
+    private Set<String> updatedIds;
+    private Map<String, EnumSet<AlertType>> alerts;
+    private List<AlertEvent> alertEvents;
+    private Map<String, Float> riskScores;
+
+    /**
+     * Constructor
+     * @param patients every monitored patient by patient id
+     * @param addedIds patients that were not in the last change set
+     * @param removedIds patients that are no longer monitored
+     * @param updatedIds patients that were already monitored and have new observations, alerts or risk
+     * @param alerts patient id -> raised alerts, for the patients that have any
+     * @param alertEvents alerts that were raised or cleared since the last change set
+     * @param riskScores patient id -> probability that the patient's cholesterol is high
+     */
+    public PatientChangeSet(HashMap<String, PatientModel> patients, Set<String> addedIds,
+                            Set<String> removedIds, Set<String> updatedIds,
+                            Map<String, EnumSet<AlertType>> alerts, List<AlertEvent> alertEvents,
+                            Map<String, Float> riskScores) {
+        this.patients = patients;
+        this.addedIds = Collections.unmodifiableSet(addedIds);
+        this.removedIds = Collections.unmodifiableSet(removedIds);
+        this.updatedIds = Collections.unmodifiableSet(updatedIds);
+        this.alerts = Collections.unmodifiableMap(alerts);
+        this.alertEvents = Collections.unmodifiableList(alertEvents);
+        this.riskScores = Collections.unmodifiableMap(riskScores);
+    }
+
+    public HashMap<String, PatientModel> getPatients() {
+        return patients;
+    }
+
+    public Set<String> getAddedIds() {
+        return addedIds;
+    }
+
+    public Set<String> getRemovedIds() {
+        return removedIds;
+    }
+
+    public Set<String> getUpdatedIds() {
+        return updatedIds;
+    }
+
+    /**
+     * Returns the raised alerts of a patient
+     * @param patientId patient id
+     * @return raised alerts, empty if the patient has none
+     */
+    public Set<AlertType> getAlerts(String patientId) {
+        EnumSet<AlertType> patientAlerts = alerts.get(patientId);
+        return patientAlerts != null ? Collections.unmodifiableSet(patientAlerts) : Collections.emptySet();
+    }
+
+    public List<AlertEvent> getAlertEvents() {
+        return alertEvents;
+    }
+
+    /**
+     * Returns the predicted risk of a patient's cholesterol being high
+     * @param patientId patient id
+     * @return probability between 0 and 1, NaN if the patient has not been scored
+     */
+    public float getCholesterolRisk(String patientId) {
+        Float risk = riskScores.get(patientId);
+        return risk != null ? risk : Float.NaN;
+    }
+}
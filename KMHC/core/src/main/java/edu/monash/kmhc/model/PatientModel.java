@@ -0,0 +1,152 @@
+package edu.monash.kmhc.model;
+
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Observation;
+
+import java.lang.reflect.Array;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+/**
+ * Patient model class. Represents a patient in the app.
+ */
+public class PatientModel {
+
+    private static final TimeSeries EMPTY_SERIES = new TimeSeries(0);
+
+    private String patientID;
+    private String name;
+    private Date birthDate;
+    private Enumerations.AdministrativeGender gender;
+    private PatientAddressModel address;
+    // a patient can have more than one type of observation type. use HashMap to store the observation
+    // based on their type. written by the sync thread and read by the card state thread, so only
+    // used while holding the patient's lock
+    private HashMap<ObservationType, ObservationModel> observationReadings;
+    private HashMap<ObservationType, Boolean> isMonitored;
+    // LOINC code -> latest readings of the code
+    private HashMap<String, TimeSeries> timeSeries;
+
+    /**
+     * Constructor
+     * @param patientID Unique patient ID from the FHIR server
+     * @param name name of the patient
+     */
+    public PatientModel(String patientID, String name, Date birthDate, Enumerations.AdministrativeGender gender, PatientAddressModel address) {
+        this.patientID = patientID;
+        this.name = name;
+        this.birthDate = birthDate;
+        this.gender = gender;
+        this.address = address;
+        observationReadings = new HashMap<>();
+        isMonitored = new HashMap<>();
+        timeSeries = new HashMap<>();
+        initialiseMonitoredObservations();
+    }
+
+    public String getPatientID() {
+        return patientID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBirthDate() {
+        return birthDate == null ? "" : new SimpleDateFormat("yyyy.MM.dd", Locale.getDefault()).format(birthDate);
+    }
+
+    public String getGender() {
+        return gender == null ? "" : gender.toString();
+    }
+
+    /**
+     * Birth date as a date, used to store the patient on the device
+     * @return birth date or null if it is unknown
+     */
+    public Date getBirthDateValue() {
+        return birthDate;
+    }
+
+    /**
+     * Gender as sent by the server, used to store the patient on the device
+     * @return gender or null if it is unknown
+     */
+    public Enumerations.AdministrativeGender getGenderValue() {
+        return gender;
+    }
+
+    public PatientAddressModel getAddress() {
+        return address;
+    }
+
+    public synchronized void setObservation(ObservationType type, ObservationModel observation) {
+        observationReadings.put(type, observation);
+    }
+
+    public synchronized ObservationModel getObservationReading(ObservationType type) {
+        return observationReadings.get(type);
+    }
+
+    public synchronized void monitorObservation(ObservationType type, Boolean check) {
+        isMonitored.put(type, check);
+    }
+
+    public synchronized Boolean isObservationMonitored(ObservationType type) {
+        return isMonitored.get(type);
+    }
+
+    private void initialiseMonitoredObservations() {
+        for (ObservationType type: ObservationType.values()) {
+            monitorObservation(type, false);
+        }
+    }
+
+    /**
+     * Adds blood pressure readings to the patient's systolic and diastolic time series.
+     * Readings that are already stored are not added again.
+     * @param readings new readings, in any order
+     * @param depth number of readings kept in each series, used when the series is created
+     * @return true if a series changed
+     */
+    public synchronized boolean addBPReadings(List<BloodPressureObservationModel> readings, int depth) {
+        boolean changed = false;
+        TimeSeries systolic = getOrCreateTimeSeries(BloodPressureObservationModel.SYSTOLIC_CODE, depth);
+        TimeSeries diastolic = getOrCreateTimeSeries(BloodPressureObservationModel.DIASTOLIC_CODE, depth);
+        for (BloodPressureObservationModel reading: readings) {
+            if (reading.getEffectiveTime() == ObservationModel.NO_TIME) {
+                continue;
+            }
+            changed |= systolic.add(reading.getEffectiveTime(), reading.getSystolic());
+            changed |= diastolic.add(reading.getEffectiveTime(), reading.getDiastolic());
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the latest readings of a LOINC code, ie. BloodPressureObservationModel.SYSTOLIC_CODE
+     * @param code observation or component code
+     * @return readings, oldest first. Empty if the patient has no readings of this code
+     */
+    public synchronized TimeSeries getTimeSeries(String code) {
+        TimeSeries series = timeSeries.get(code);
+        return series == null ? EMPTY_SERIES : series;
+    }
+
+    private TimeSeries getOrCreateTimeSeries(String code, int depth) {
+        TimeSeries series = timeSeries.get(code);
+        if (series == null) {
+            series = new TimeSeries(depth);
+            timeSeries.put(code, series);
+        }
+        return series;
+    }
+}
@@ -0,0 +1,135 @@
+package edu.monash.kmhc.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory search index over the words of the patients' names.
+ *
+ * Names are split into lower case words, and each word is kept in a sorted map with the ids of the
+ * patients whose name contains it. A query word matches every indexed word it is a prefix of, which
+ * is one range of the sorted map, so a search never scans the list of patients. A patient matches a
+ * query when every word of the query matches a word of their name, ie. "ja sm" finds "Jane Smith".
+ *
+ * The index is updated as pages of patients arrive. Only patients that are new or whose name changed
+ * are indexed again.
+ */
+public class PatientNameIndex {
+
+    // indexed word -> ids of the patients whose name contains it
+    private TreeMap<String, HashSet<String>> wordIndex = new TreeMap<>();
+    // patient id -> indexed name of the patient
+    private HashMap<String, String> indexedNames = new HashMap<>();
+
+    /**
+     * Updates the index to hold exactly the given patients
+     * @param patients every patient that can be searched for
+     */
+    public synchronized void setPatients(Collection<PatientModel> patients) {
+        HashSet<String> patientIds = new HashSet<>();
+        for (PatientModel patient: patients) {
+            patientIds.add(patient.getPatientID());
+            String name = patient.getName() == null ? "" : patient.getName();
+            String indexedName = indexedNames.get(patient.getPatientID());
+            if (!name.equals(indexedName)) {
+                if (indexedName != null) {
+                    removeWords(patient.getPatientID(), indexedName);
+                }
+                addWords(patient.getPatientID(), name);
+            }
+        }
+
+        // forget the patients that are gone
+        Iterator<Map.Entry<String, String>> indexed = indexedNames.entrySet().iterator();
+        while (indexed.hasNext()) {
+            Map.Entry<String, String> patient = indexed.next();
+            if (!patientIds.contains(patient.getKey())) {
+                removeWords(patient.getKey(), patient.getValue());
+                indexed.remove();
+            }
+        }
+    }
+
+    /**
+     * Finds the patients whose name matches a query
+     * @param query words typed by the user, each matching the start of a word of the name
+     * @return ids of the matching patients, or null if the query has no words and every patient matches
+     */
+    public synchronized Set<String> search(String query) {
+        ArrayList<String> queryWords = getWords(query);
+        if (queryWords.isEmpty()) {
+            return null;
+        }
+
+        HashSet<String> matches = null;
+        for (String queryWord: queryWords) {
+            // every indexed word that starts with the query word
+            HashSet<String> wordMatches = new HashSet<>();
+            for (HashSet<String> patientIds: wordIndex.subMap(queryWord, queryWord + Character.MAX_VALUE).values()) {
+                if (matches == null) {
+                    wordMatches.addAll(patientIds);
+                }
+                else {
+                    // only keep the patients that matched the earlier query words
+                    for (String patientId: patientIds) {
+                        if (matches.contains(patientId)) {
+                            wordMatches.add(patientId);
+                        }
+                    }
+                }
+            }
+            matches = wordMatches;
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private void addWords(String patientId, String name) {
+        indexedNames.put(patientId, name);
+        for (String word: getWords(name)) {
+            HashSet<String> patientIds = wordIndex.get(word);
+            if (patientIds == null) {
+                patientIds = new HashSet<>();
+                wordIndex.put(word, patientIds);
+            }
+            patientIds.add(patientId);
+        }
+    }
+
+    private void removeWords(String patientId, String name) {
+        for (String word: getWords(name)) {
+            HashSet<String> patientIds = wordIndex.get(word);
+            if (patientIds != null) {
+                patientIds.remove(patientId);
+                if (patientIds.isEmpty()) {
+                    wordIndex.remove(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits
+     */
+    private static ArrayList<String> getWords(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word: text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,49 @@
+package edu.monash.kmhc.model.alert;
+
+/**
+ * An alert that was raised or cleared for a patient.
+ */
+public class AlertEvent {
+
+    private final String patientId;
+    private final AlertType type;
+    private final boolean raised;
+    private final double value;
+    private final double threshold;
+
+    /**
+     * Constructor
+     * @param patientId patient the alert is for
+     * @param type alert that changed
+     * @param raised true if the alert was raised, false if it was cleared
+     * @param value reading that was checked, NaN if the reading is gone
+     * @param threshold value the reading was compared with
+     */
+    public AlertEvent(String patientId, AlertType type, boolean raised, double value, double threshold) {
+        this.patientId = patientId;
+        this.type = type;
+        this.raised = raised;
+        this.value = value;
+        this.threshold = threshold;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public AlertType getType() {
+        return type;
+    }
+
+    public boolean isRaised() {
+        return raised;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,46 @@
+package edu.monash.kmhc.model.alert;
+
+/**
+ * Blood pressure values above which a reading raises an alert.
+ * The same thresholds are used for every patient unless a patient has their own.
+ */
+public class AlertThresholds {
+
+    private final int systolic;
+    private final int diastolic;
+
+    /**
+     * Constructor
+     * @param systolic systolic blood pressure above which an alert is raised, in mmHg
+     * @param diastolic diastolic blood pressure above which an alert is raised, in mmHg
+     */
+    public AlertThresholds(int systolic, int diastolic) {
+        this.systolic = systolic;
+        this.diastolic = diastolic;
+    }
+
+    public int getSystolic() {
+        return systolic;
+    }
+
+    public int getDiastolic() {
+        return diastolic;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AlertThresholds)) {
+            return false;
+        }
+        AlertThresholds other = (AlertThresholds) o;
+        return systolic == other.systolic && diastolic == other.diastolic;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * systolic + diastolic;
+    }
+}
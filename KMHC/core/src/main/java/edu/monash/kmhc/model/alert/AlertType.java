@@ -0,0 +1,42 @@
+package edu.monash.kmhc.model.alert;
+
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * This class is responsible for storing the alerts the app can raise for a patient,
+ * and the observation type each alert is about.
+ *
+ * An alert is only raised while its observation type is monitored for the patient.
+ */
+public enum AlertType {
+    // total cholesterol above the average of the monitored patients
+    HIGH_CHOLESTEROL(ObservationType.CHOLESTEROL, false),
+    // total cholesterol or systolic blood pressure above the 90th percentile of the monitored patients
+    TOP_CHOLESTEROL(ObservationType.CHOLESTEROL, false),
+    TOP_SYSTOLIC(ObservationType.BLOOD_PRESSURE, false),
+    // systolic or diastolic blood pressure above the patient's thresholds
+    HIGH_SYSTOLIC(ObservationType.BLOOD_PRESSURE, true),
+    HIGH_DIASTOLIC(ObservationType.BLOOD_PRESSURE, true);
+
+    private ObservationType observationType;
+    private boolean notified;
+
+    AlertType(ObservationType observationType, boolean notified) {
+        this.observationType = observationType;
+        this.notified = notified;
+    }
+
+    public ObservationType getObservationType() {
+        return observationType;
+    }
+
+    /**
+     * Returns whether a raised alert is shown as a system notification. The average and percentile
+     * alerts are relative to the other patients and change as they do, so they are only highlighted
+     * in the app.
+     * @return true if the alert is notified
+     */
+    public boolean isNotified() {
+        return notified;
+    }
+}
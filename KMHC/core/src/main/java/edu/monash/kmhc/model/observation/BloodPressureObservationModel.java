@@ -0,0 +1,72 @@
+package edu.monash.kmhc.model.observation;
+
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+
+/**
+ * Provides observation for blood pressure panels. The panel has no value of its own, only a
+ * systolic and a diastolic component.
+ */
+public class BloodPressureObservationModel extends ObservationModel {
+
+    // LOINC codes of the blood pressure panel components
+    public static final String SYSTOLIC_CODE = "8480-6";
+    public static final String DIASTOLIC_CODE = "8462-4";
+
+    private final double systolic;
+    private final double diastolic;
+
+    /**
+     * Constructor. Reads the components out of the observation by their LOINC codes.
+     * @param observation blood pressure panel from the server
+     */
+    public BloodPressureObservationModel(Observation observation) {
+        this(observation, getComponentQuantity(observation, SYSTOLIC_CODE), getComponentQuantity(observation, DIASTOLIC_CODE));
+    }
+
+    private BloodPressureObservationModel(Observation observation, Quantity systolic, Quantity diastolic) {
+        super(getEffectiveTime(observation), systolic != null ? systolic.getUnit() : (diastolic != null ? diastolic.getUnit() : null));
+        this.systolic = getQuantityValue(systolic);
+        this.diastolic = getQuantityValue(diastolic);
+    }
+
+    /**
+     * Constructor used for readings stored on the device.
+     * @param systolic systolic pressure, or NaN if it is missing
+     * @param diastolic diastolic pressure, or NaN if it is missing
+     * @param unit unit of the pressures
+     * @param effectiveTime effective time in milliseconds since epoch, or NO_TIME
+     */
+    public BloodPressureObservationModel(double systolic, double diastolic, String unit, long effectiveTime) {
+        super(effectiveTime, unit);
+        this.systolic = systolic;
+        this.diastolic = diastolic;
+    }
+
+    @Override
+    public double getValue() {
+        return Double.NaN;
+    }
+
+    public double getSystolic() { return systolic; }
+
+    public double getDiastolic() { return diastolic; }
+
+    /**
+     * Returns the quantity of the blood pressure component with a LOINC code
+     * @param observation blood pressure panel
+     * @param code component code
+     * @return quantity or null if the server did not return the component
+     */
+    private static Quantity getComponentQuantity(Observation observation, String code) {
+        for (Observation.ObservationComponentComponent component: observation.getComponent()) {
+            for (Coding coding: component.getCode().getCoding()) {
+                if (code.equals(coding.getCode()) && component.hasValueQuantity()) {
+                    return component.getValueQuantity();
+                }
+            }
+        }
+        return null;
+    }
+}
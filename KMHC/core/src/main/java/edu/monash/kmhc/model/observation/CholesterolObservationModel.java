@@ -0,0 +1,37 @@
+package edu.monash.kmhc.model.observation;
+
+import org.hl7.fhir.r4.model.Observation;
+
+/**
+ * Provides observation for cholesterol values
+ */
+public class CholesterolObservationModel extends ObservationModel {
+
+    private final double value;
+
+    /**
+     * Constructor. Reads the value out of the observation.
+     * @param observation cholesterol observation from the server
+     */
+    public CholesterolObservationModel(Observation observation) {
+        super(getEffectiveTime(observation),
+                observation.hasValueQuantity() ? observation.getValueQuantity().getUnit() : null);
+        value = getQuantityValue(observation.hasValueQuantity() ? observation.getValueQuantity() : null);
+    }
+
+    /**
+     * Constructor used for readings stored on the device.
+     * @param value cholesterol value, or NaN if it is missing
+     * @param unit unit of the value
+     * @param effectiveTime effective time in milliseconds since epoch, or NO_TIME
+     */
+    public CholesterolObservationModel(double value, String unit, long effectiveTime) {
+        super(effectiveTime, unit);
+        this.value = value;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+}
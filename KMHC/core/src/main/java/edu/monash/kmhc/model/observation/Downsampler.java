@@ -0,0 +1,82 @@
+package edu.monash.kmhc.model.observation;
+
+/**
+ * This class reduces a long series of readings to the number of points a chart can show.
+ *
+ * It uses the Largest-Triangle-Three-Buckets algorithm: the first and last readings are kept, the
+ * readings in between are split into equal buckets, and from each bucket the reading that forms the
+ * largest triangle with the reading picked before it and the average of the next bucket is kept.
+ * This keeps the peaks and dips that a plain every-nth-reading sample would drop.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Picks the readings to draw
+     * @param times reading times, oldest first
+     * @param values reading values, without missing values
+     * @param count number of readings in the arrays
+     * @param threshold maximum number of readings to keep, at least 3
+     * @param selected array for the indices of the kept readings, at least count long
+     * @return number of indices written to selected, in increasing order
+     */
+    public static int largestTriangleThreeBuckets(long[] times, float[] values, int count, int threshold, int[] selected) {
+        // nothing to reduce, or too few points for any buckets
+        if (threshold >= count || threshold < 3) {
+            for (int i = 0; i < count; i++) {
+                selected[i] = i;
+            }
+            return count;
+        }
+
+        // the first and last readings are always kept, the rest are split into buckets
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int kept = 0;
+        int previous = 0;
+        selected[kept++] = previous;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // average of the next bucket, or the last reading for the last bucket
+            int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, count);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += times[i] - times[0];
+                averageY += values[i];
+            }
+            int nextLength = nextEnd - nextStart;
+            if (nextLength > 0) {
+                averageX /= nextLength;
+                averageY /= nextLength;
+            }
+            else {
+                averageX = times[count - 1] - times[0];
+                averageY = values[count - 1];
+            }
+
+            // the reading in this bucket that forms the largest triangle
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double previousX = times[previous] - times[0];
+            double previousY = values[previous];
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((previousX - averageX) * (values[i] - previousY)
+                        - (previousX - (times[i] - times[0])) * (averageY - previousY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            selected[kept++] = maxIndex;
+            previous = maxIndex;
+        }
+
+        selected[kept++] = count - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,131 @@
+package edu.monash.kmhc.model.observation;
+
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Abstract class used by all observations.
+ *
+ * The values are read out of the FHIR observation when the model is created, so the observation
+ * itself is not kept. A model only holds primitive values, the effective time in milliseconds and
+ * a shared unit string.
+ */
+public abstract class ObservationModel {
+
+    // effective time of an observation that has no effective date time
+    public static final long NO_TIME = Long.MIN_VALUE;
+    private static final String DATE_TIME_PATTERN = "yyyy-MM-dd'T'HH:mm:ssXXX";
+    private static final String MISSING_VALUE = "-";
+
+    private final long effectiveTime;
+    private final String unit;
+
+    /**
+     * Constructor.
+     * @param effectiveTime effective time in milliseconds since epoch, or NO_TIME
+     * @param unit unit of the values, or null if unknown
+     */
+    ObservationModel(long effectiveTime, String unit) {
+        this.effectiveTime = effectiveTime;
+        // every reading of a type has the same unit, so share one string between them
+        this.unit = unit == null ? "" : unit.intern();
+    }
+
+    /**
+     * Return the Observation value
+     * @return value, or NaN if the observation has no value
+     */
+    public abstract double getValue();
+
+    /**
+     * Get the unit type for the Observation
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Get the effective time in milliseconds since epoch
+     * @return effective time or NO_TIME if it is missing
+     */
+    public long getEffectiveTime() {
+        return effectiveTime;
+    }
+
+    /**
+     * Get the effective DateTime
+     * @return effective date time or an empty string if it is missing
+     */
+    public String getDateTime() {
+        return formatDateTime(effectiveTime);
+    }
+
+    /**
+     * Get the effective DateTime as a date
+     * @return effective date or null if it is missing
+     */
+    public Date getEffectiveDate() {
+        return effectiveTime == NO_TIME ? null : new Date(effectiveTime);
+    }
+
+    /**
+     * Checks if this observation was taken after another observation
+     * @param other observation to compare with, may be null
+     * @return true if this observation is newer
+     */
+    public boolean isNewerThan(ObservationModel other) {
+        if (other == null || other.effectiveTime == NO_TIME) {
+            return true;
+        }
+        return effectiveTime != NO_TIME && effectiveTime > other.effectiveTime;
+    }
+
+    /**
+     * Formats a value for display
+     * @param value value, or NaN if it is missing
+     * @return value without a trailing .0, or "-" if it is missing
+     */
+    public static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return MISSING_VALUE;
+        }
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    /**
+     * Formats an effective time for display
+     * @param time time in milliseconds since epoch, or NO_TIME
+     * @return date time or an empty string if it is missing
+     */
+    public static String formatDateTime(long time) {
+        if (time == NO_TIME) {
+            return "";
+        }
+        return new SimpleDateFormat(DATE_TIME_PATTERN, Locale.getDefault()).format(new Date(time));
+    }
+
+    /**
+     * Returns the value of a quantity
+     * @param quantity quantity from the observation, or null if it is missing
+     * @return value or NaN if the quantity or its value is missing
+     */
+    static double getQuantityValue(Quantity quantity) {
+        return quantity == null || !quantity.hasValue() ? Double.NaN : quantity.getValue().doubleValue();
+    }
+
+    /**
+     * Returns the effective time of an observation
+     * @param observation observation from the server
+     * @return effective time in milliseconds since epoch, or NO_TIME if it is missing
+     */
+    static long getEffectiveTime(Observation observation) {
+        if (!observation.hasEffectiveDateTimeType() || observation.getEffectiveDateTimeType().getValue() == null) {
+            return NO_TIME;
+        }
+        return observation.getEffectiveDateTimeType().getValue().getTime();
+    }
+}
@@ -19,4 +19,18 @@ public enum ObservationType {
     public String getObservationCode() {
         return observationCode;
     }
+
+    /**
+     * Returns the observation type with the given LOINC code.
+     * @param code observation code
+     * @return matching observation type, or null if the code is not used by the app
+     */
+    public static ObservationType fromCode(String code) {
+        for (ObservationType type: values()) {
+            if (type.observationCode.equals(code)) {
+                return type;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,170 @@
+package edu.monash.kmhc.model.observation;
+
+/**
+ * This class stores the latest readings of one observation code for one patient.
+ *
+ * Readings are kept in a ring buffer of primitive timestamps and values, ordered from oldest to
+ * newest. When the buffer is full, adding a newer reading drops the oldest one. A reading with the
+ * same timestamp as a stored reading replaces it, so readings downloaded twice are stored once.
+ * The arrays start small and grow up to the depth, so a patient with a few readings does not hold
+ * a buffer for the whole history.
+ *
+ * Readings are added on the polling thread and read on the main thread, so all methods are synchronized.
+ */
+public class TimeSeries {
+
+    // readings the arrays hold before they first grow
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int depth;
+    private long[] times;
+    private double[] values;
+    // index of the oldest reading in the arrays
+    private int start = 0;
+    private int size = 0;
+
+    /**
+     * Constructor.
+     * @param depth number of readings to keep
+     */
+    public TimeSeries(int depth) {
+        this.depth = depth;
+        times = new long[Math.min(depth, INITIAL_CAPACITY)];
+        values = new double[times.length];
+    }
+
+    /**
+     * Adds a reading. Readings usually arrive newer than everything stored, which is a plain append.
+     * @param time effective time in milliseconds since epoch
+     * @param value reading value, may be NaN if the reading has no value
+     * @return true if the series changed
+     */
+    public synchronized boolean add(long time, double value) {
+        if (depth == 0) {
+            return false;
+        }
+
+        // find where the reading goes, searching back from the newest reading
+        int position = size;
+        while (position > 0 && times[slot(position - 1)] > time) {
+            position--;
+        }
+        if (position > 0 && times[slot(position - 1)] == time) {
+            int existing = slot(position - 1);
+            boolean changed = Double.compare(values[existing], value) != 0;
+            values[existing] = value;
+            return changed;
+        }
+
+        if (size == times.length && size < depth) {
+            grow();
+        }
+        if (size == depth) {
+            // full. the oldest reading is dropped, so a reading older than all of them is not kept
+            if (position == 0) {
+                return false;
+            }
+            start = slot(1);
+            size--;
+            position--;
+        }
+
+        // shift the newer readings up by one to make room
+        for (int i = size; i > position; i--) {
+            times[slot(i)] = times[slot(i - 1)];
+            values[slot(i)] = values[slot(i - 1)];
+        }
+        times[slot(position)] = time;
+        values[slot(position)] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns the number of stored readings
+     * @return number of readings, at most the depth
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time of a reading
+     * @param index 0 is the oldest reading, size() - 1 the newest
+     * @return effective time in milliseconds since epoch
+     */
+    public synchronized long getTime(int index) {
+        checkIndex(index);
+        return times[slot(index)];
+    }
+
+    /**
+     * Returns the value of a reading
+     * @param index 0 is the oldest reading, size() - 1 the newest
+     * @return value, or NaN if the reading has no value
+     */
+    public synchronized double getValue(int index) {
+        checkIndex(index);
+        return values[slot(index)];
+    }
+
+    /**
+     * Returns the value of the reading taken at a time
+     * @param time effective time in milliseconds since epoch
+     * @return value, or NaN if there is no reading at this time
+     */
+    public synchronized double getValueAt(long time) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (times[slot(i)] == time) {
+                return values[slot(i)];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Copies the latest readings into arrays owned by the caller, oldest first, so the readings can
+     * be drawn without holding the lock and without allocating
+     * @param timesOut array for the times
+     * @param valuesOut array for the values, at least as long as timesOut
+     * @return number of readings copied, at most timesOut.length
+     */
+    public synchronized int copyLatest(long[] timesOut, double[] valuesOut) {
+        int count = Math.min(size, timesOut.length);
+        for (int i = 0; i < count; i++) {
+            int index = size - count + i;
+            timesOut[i] = times[slot(index)];
+            valuesOut[i] = values[slot(index)];
+        }
+        return count;
+    }
+
+    /**
+     * Doubles the size of the arrays, at most to the depth, and moves the oldest reading to the start
+     */
+    private void grow() {
+        int capacity = Math.min(Math.max(times.length * 2, 1), depth);
+        long[] newTimes = new long[capacity];
+        double[] newValues = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            newTimes[i] = times[slot(i)];
+            newValues[i] = values[slot(i)];
+        }
+        times = newTimes;
+        values = newValues;
+        start = 0;
+    }
+
+    /**
+     * Converts a position in the series to an index in the arrays
+     */
+    private int slot(int index) {
+        return (start + index) % times.length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertThresholds;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * This class checks the monitored patients' readings against the alert rules and reports the alerts
+ * that were raised or cleared.
+ *
+ * Rules are only checked for the patients whose readings changed. The average and the 90th
+ * percentiles of the monitored patients' readings are kept up to date by PanelStatistics, and the
+ * readings are also kept sorted, so when the average or a percentile moves only the patients whose
+ * reading lies between the old and the new value are checked again. Blood pressure is compared with
+ * the patient's own thresholds if they have any, otherwise with the global thresholds.
+ */
+public class AlertEngine {
+
+    // fraction of the readings below the top readings that are flagged
+    private static final double TOP_PERCENTILE = 0.9;
+    // readings needed before the top readings are flagged
+    private static final int MIN_PERCENTILE_READINGS = 10;
+
+    private AlertThresholds globalThresholds;
+    // patient id -> thresholds chosen for that patient
+    private HashMap<String, AlertThresholds> patientThresholds = new HashMap<>();
+    // patient id -> readings and alerts of a monitored patient
+    private HashMap<String, PatientAlerts> patients = new HashMap<>();
+    // latest readings of the monitored patients, for the average and the percentiles
+    private PanelStatistics statistics = new PanelStatistics();
+    // reading code -> reading value -> patients with that value
+    private HashMap<String, TreeMap<Double, HashSet<String>>> sortedReadings = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param globalThresholds blood pressure thresholds of patients without their own
+     */
+    public AlertEngine(AlertThresholds globalThresholds) {
+        this.globalThresholds = globalThresholds;
+        sortedReadings.put(PanelStatistics.CHOLESTEROL_CODE, new TreeMap<>());
+        sortedReadings.put(PanelStatistics.SYSTOLIC_CODE, new TreeMap<>());
+    }
+
+    /**
+     * Checks the rules for the patients whose readings changed
+     * @param changedPatients monitored patients that were added or have new readings
+     * @param removedIds patients that are no longer monitored. Their alerts are cleared
+     * @return the alerts that were raised or cleared
+     */
+    public synchronized List<AlertEvent> update(Collection<PatientModel> changedPatients, Collection<String> removedIds) {
+        ArrayList<AlertEvent> events = new ArrayList<>();
+        double oldAverage = getAverageCholesterol();
+        double oldCholesterolTop = getTopPercentile(PanelStatistics.CHOLESTEROL_CODE);
+        double oldSystolicTop = getTopPercentile(PanelStatistics.SYSTOLIC_CODE);
+
+        for (String patientId: removedIds) {
+            PatientAlerts state = patients.remove(patientId);
+            if (state != null) {
+                setReading(PanelStatistics.CHOLESTEROL_CODE, patientId, Double.NaN);
+                setReading(PanelStatistics.SYSTOLIC_CODE, patientId, Double.NaN);
+                statistics.removePatient(patientId);
+                for (AlertType type: state.alerts) {
+                    events.add(new AlertEvent(patientId, type, false, Double.NaN, Double.NaN));
+                }
+            }
+        }
+
+        HashSet<String> cholesterolChecks = new HashSet<>();
+        HashSet<String> systolicChecks = new HashSet<>();
+        for (PatientModel patient: changedPatients) {
+            String patientId = patient.getPatientID();
+            PatientAlerts state = patients.get(patientId);
+            if (state == null) {
+                state = new PatientAlerts();
+                patients.put(patientId, state);
+            }
+            state.patient = patient;
+            ObservationModel cholesterol = patient.getObservationReading(ObservationType.CHOLESTEROL);
+            BloodPressureObservationModel bloodPressure =
+                    (BloodPressureObservationModel) patient.getObservationReading(ObservationType.BLOOD_PRESSURE);
+            setReading(PanelStatistics.CHOLESTEROL_CODE, patientId, cholesterol == null ? Double.NaN : cholesterol.getValue());
+            setReading(PanelStatistics.SYSTOLIC_CODE, patientId, bloodPressure == null ? Double.NaN : bloodPressure.getSystolic());
+            setReading(PanelStatistics.DIASTOLIC_CODE, patientId, bloodPressure == null ? Double.NaN : bloodPressure.getDiastolic());
+            cholesterolChecks.add(patientId);
+            systolicChecks.add(patientId);
+            checkBloodPressure(state, events);
+        }
+
+        // only the patients between the old and the new average or percentile can have crossed it
+        double average = getAverageCholesterol();
+        double cholesterolTop = getTopPercentile(PanelStatistics.CHOLESTEROL_CODE);
+        double systolicTop = getTopPercentile(PanelStatistics.SYSTOLIC_CODE);
+        addPatientsBetween(PanelStatistics.CHOLESTEROL_CODE, oldAverage, average, cholesterolChecks);
+        addPatientsBetween(PanelStatistics.CHOLESTEROL_CODE, oldCholesterolTop, cholesterolTop, cholesterolChecks);
+        addPatientsBetween(PanelStatistics.SYSTOLIC_CODE, oldSystolicTop, systolicTop, systolicChecks);
+        for (String patientId: cholesterolChecks) {
+            checkCholesterol(patients.get(patientId), average, cholesterolTop, events);
+        }
+        for (String patientId: systolicChecks) {
+            checkSystolicPercentile(patients.get(patientId), systolicTop, events);
+        }
+        return events;
+    }
+
+    /**
+     * Changes the blood pressure thresholds of the patients without their own
+     * @param thresholds new global thresholds
+     * @return the alerts that were raised or cleared
+     */
+    public synchronized List<AlertEvent> setGlobalThresholds(AlertThresholds thresholds) {
+        ArrayList<AlertEvent> events = new ArrayList<>();
+        if (!globalThresholds.equals(thresholds)) {
+            globalThresholds = thresholds;
+            for (Map.Entry<String, PatientAlerts> patient: patients.entrySet()) {
+                if (!patientThresholds.containsKey(patient.getKey())) {
+                    checkBloodPressure(patient.getValue(), events);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Changes the blood pressure thresholds of one patient
+     * @param patientId patient id
+     * @param thresholds thresholds for the patient, or null to use the global thresholds again
+     * @return the alerts that were raised or cleared
+     */
+    public synchronized List<AlertEvent> setPatientThresholds(String patientId, AlertThresholds thresholds) {
+        ArrayList<AlertEvent> events = new ArrayList<>();
+        if (thresholds == null) {
+            patientThresholds.remove(patientId);
+        }
+        else {
+            patientThresholds.put(patientId, thresholds);
+        }
+        PatientAlerts state = patients.get(patientId);
+        if (state != null) {
+            checkBloodPressure(state, events);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the blood pressure thresholds used for a patient
+     * @param patientId patient id
+     * @return the patient's own thresholds, or the global thresholds
+     */
+    public synchronized AlertThresholds getThresholds(String patientId) {
+        AlertThresholds thresholds = patientThresholds.get(patientId);
+        return thresholds != null ? thresholds : globalThresholds;
+    }
+
+    /**
+     * Returns whether a patient has their own blood pressure thresholds
+     * @param patientId patient id
+     * @return true if the patient does not use the global thresholds
+     */
+    public synchronized boolean hasPatientThresholds(String patientId) {
+        return patientThresholds.containsKey(patientId);
+    }
+
+    /**
+     * Returns the raised alerts of every monitored patient that has any
+     * @return patient id -> raised alerts. A copy that is not changed afterwards
+     */
+    public synchronized HashMap<String, EnumSet<AlertType>> getAlerts() {
+        HashMap<String, EnumSet<AlertType>> alerts = new HashMap<>();
+        for (Map.Entry<String, PatientAlerts> patient: patients.entrySet()) {
+            if (!patient.getValue().alerts.isEmpty()) {
+                alerts.put(patient.getKey(), EnumSet.copyOf(patient.getValue().alerts));
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Returns the average cholesterol of the monitored patients
+     * @return average cholesterol value, 0 if no patient has one
+     */
+    public synchronized double getAverageCholesterol() {
+        return statistics.getStatistics(PanelStatistics.CHOLESTEROL_CODE).getMean();
+    }
+
+    /**
+     * Returns the value above which a monitored patient's reading is in the top 10% of the patients
+     * @param code reading code, one of the codes of PanelStatistics
+     * @return 90th percentile of the readings, NaN if too few patients have the reading
+     */
+    public synchronized double getTopPercentile(String code) {
+        ReadingStatistics readingStatistics = statistics.getStatistics(code);
+        return readingStatistics.getCount() < MIN_PERCENTILE_READINGS ? Double.NaN
+                : readingStatistics.getPercentile(TOP_PERCENTILE);
+    }
+
+    /**
+     * Forgets the monitored patients and their alerts, ie. when another practitioner logs in.
+     * The thresholds are kept.
+     */
+    public synchronized void clear() {
+        patients.clear();
+        statistics.clear();
+        for (TreeMap<Double, HashSet<String>> readings: sortedReadings.values()) {
+            readings.clear();
+        }
+    }
+
+    /**
+     * Replaces a patient's reading in the statistics and the sorted readings
+     */
+    private void setReading(String code, String patientId, double value) {
+        double oldValue = statistics.setReading(code, patientId, value);
+        TreeMap<Double, HashSet<String>> readings = sortedReadings.get(code);
+        if (readings == null || Double.compare(oldValue, value) == 0) {
+            return;
+        }
+        if (!Double.isNaN(oldValue)) {
+            HashSet<String> patientIds = readings.get(oldValue);
+            patientIds.remove(patientId);
+            if (patientIds.isEmpty()) {
+                readings.remove(oldValue);
+            }
+        }
+        if (!Double.isNaN(value)) {
+            HashSet<String> patientIds = readings.get(value);
+            if (patientIds == null) {
+                patientIds = new HashSet<>();
+                readings.put(value, patientIds);
+            }
+            patientIds.add(patientId);
+        }
+    }
+
+    /**
+     * Adds the patients whose reading lies between the old and the new value of a moving threshold.
+     * A threshold that is NaN is not used, so every reading above the other value is added.
+     */
+    private void addPatientsBetween(String code, double oldThreshold, double newThreshold, Set<String> patientIds) {
+        if (Double.compare(oldThreshold, newThreshold) == 0) {
+            return;
+        }
+        double low;
+        double high;
+        if (Double.isNaN(oldThreshold) || Double.isNaN(newThreshold)) {
+            low = Double.isNaN(oldThreshold) ? newThreshold : oldThreshold;
+            high = Double.POSITIVE_INFINITY;
+        }
+        else {
+            low = Math.min(oldThreshold, newThreshold);
+            high = Math.max(oldThreshold, newThreshold);
+        }
+        for (HashSet<String> readingPatientIds: sortedReadings.get(code).subMap(low, true, high, true).values()) {
+            patientIds.addAll(readingPatientIds);
+        }
+    }
+
+    private void checkCholesterol(PatientAlerts state, double average, double topPercentile, List<AlertEvent> events) {
+        String patientId = state.patient.getPatientID();
+        double cholesterol = statistics.getReading(PanelStatistics.CHOLESTEROL_CODE, patientId);
+        boolean monitored = state.patient.isObservationMonitored(ObservationType.CHOLESTEROL);
+        setAlert(state, AlertType.HIGH_CHOLESTEROL, monitored && cholesterol > average,
+                cholesterol, average, events);
+        setAlert(state, AlertType.TOP_CHOLESTEROL, monitored && cholesterol > topPercentile,
+                cholesterol, topPercentile, events);
+    }
+
+    private void checkSystolicPercentile(PatientAlerts state, double topPercentile, List<AlertEvent> events) {
+        String patientId = state.patient.getPatientID();
+        double systolic = statistics.getReading(PanelStatistics.SYSTOLIC_CODE, patientId);
+        boolean monitored = state.patient.isObservationMonitored(ObservationType.BLOOD_PRESSURE);
+        setAlert(state, AlertType.TOP_SYSTOLIC, monitored && systolic > topPercentile,
+                systolic, topPercentile, events);
+    }
+
+    private void checkBloodPressure(PatientAlerts state, List<AlertEvent> events) {
+        PatientModel patient = state.patient;
+        AlertThresholds thresholds = getThresholds(patient.getPatientID());
+        BloodPressureObservationModel bloodPressure =
+                (BloodPressureObservationModel) patient.getObservationReading(ObservationType.BLOOD_PRESSURE);
+        boolean monitored = patient.isObservationMonitored(ObservationType.BLOOD_PRESSURE) && bloodPressure != null;
+        double systolic = monitored ? bloodPressure.getSystolic() : Double.NaN;
+        double diastolic = monitored ? bloodPressure.getDiastolic() : Double.NaN;
+        setAlert(state, AlertType.HIGH_SYSTOLIC, systolic > thresholds.getSystolic(),
+                systolic, thresholds.getSystolic(), events);
+        setAlert(state, AlertType.HIGH_DIASTOLIC, diastolic > thresholds.getDiastolic(),
+                diastolic, thresholds.getDiastolic(), events);
+    }
+
+    /**
+     * Raises or clears an alert, and reports it if it changed
+     */
+    private void setAlert(PatientAlerts state, AlertType type, boolean raised, double value, double threshold,
+                          List<AlertEvent> events) {
+        if (raised != state.alerts.contains(type)) {
+            if (raised) {
+                state.alerts.add(type);
+            }
+            else {
+                state.alerts.remove(type);
+            }
+            events.add(new AlertEvent(state.patient.getPatientID(), type, raised, value, threshold));
+        }
+    }
+
+    /**
+     * Readings and raised alerts of one monitored patient
+     */
+    private static class PatientAlerts {
+        PatientModel patient;
+        EnumSet<AlertType> alerts = EnumSet.noneOf(AlertType.class);
+    }
+}
@@ -0,0 +1,279 @@
+package edu.monash.kmhc.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decision tree that predicts whether a patient's total cholesterol is high (200 mg/dL or more),
+ * exported from the rpart model in MachineLearning/machineLearning.Rmd.
+ *
+ * The tree is read from a JSON asset holding the input features, the cut points that turn numeric
+ * readings into levels (the same as data_wrangling.ipynb), and the nodes of the pruned tree. Every
+ * feature is encoded as the index of its level, or MISSING. Like rpart, a split whose feature is
+ * missing uses its surrogate splits, then sends the patient the way most training patients went.
+ *
+ * The nodes are kept in flat arrays, and a batch of patients is scored from one int array holding
+ * getFeatureCount() levels per patient, so scoring allocates nothing.
+ */
+public class CholesterolRiskModel {
+
+    public static final String ASSET_NAME = "cholesterol_risk_model.json";
+    // level of a feature that is unknown or outside the levels of the model
+    public static final int MISSING = -1;
+
+    public static final String DIABETES = "Diabetes";
+    public static final String BMI = "BMILvl";
+    public static final String BLOOD_PRESSURE = "BPLvl";
+    public static final String AGE = "AgeLvl";
+    public static final String SMOKING = "Smoking";
+
+    private final String[] featureNames;
+    private final String[][] featureLevels;
+    // cut points of the numeric features, levels are (breaks[i], breaks[i + 1]]. null for categories
+    private final double[][] featureBreaks;
+
+    // nodes of the tree, the root first. leaves have feature -1
+    private final int[] nodeFeature;
+    private final int[] nodeLeftLevels;
+    private final int[] nodeRightLevels;
+    private final boolean[] nodeMissingLeft;
+    private final int[] nodeLeft;
+    private final int[] nodeRight;
+    private final float[] nodeProbability;
+    // surrogates of node i are surrogateStart[i] until surrogateStart[i + 1], best first
+    private final int[] surrogateStart;
+    private final int[] surrogateFeature;
+    private final int[] surrogateLeftLevels;
+    private final int[] surrogateRightLevels;
+
+    /**
+     * Reads a model
+     * @param inputStream JSON model, closed afterwards
+     * @return the model
+     * @throws IOException if the model cannot be read or is not valid
+     */
+    public static CholesterolRiskModel load(InputStream inputStream) throws IOException {
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            ModelFile modelFile = new Gson().fromJson(reader, ModelFile.class);
+            if (modelFile == null || modelFile.features == null || modelFile.nodes == null || modelFile.nodes.isEmpty()) {
+                throw new IOException("Empty risk model");
+            }
+            return new CholesterolRiskModel(modelFile);
+        }
+        catch (JsonParseException | IllegalArgumentException e) {
+            throw new IOException("Invalid risk model", e);
+        }
+    }
+
+    private CholesterolRiskModel(ModelFile modelFile) {
+        int featureCount = modelFile.features.size();
+        featureNames = new String[featureCount];
+        featureLevels = new String[featureCount][];
+        featureBreaks = new double[featureCount][];
+        for (int i = 0; i < featureCount; i++) {
+            FeatureEntry feature = modelFile.features.get(i);
+            if (feature.name == null || feature.levels == null) {
+                throw new IllegalArgumentException("Feature " + i + " has no name or levels");
+            }
+            featureNames[i] = feature.name;
+            featureLevels[i] = feature.levels.toArray(new String[0]);
+            if (featureLevels[i].length > Integer.SIZE) {
+                throw new IllegalArgumentException("Too many levels for " + feature.name);
+            }
+            if (feature.breaks != null) {
+                if (feature.breaks.length != featureLevels[i].length + 1) {
+                    throw new IllegalArgumentException("Breaks do not match the levels of " + feature.name);
+                }
+                featureBreaks[i] = feature.breaks;
+            }
+        }
+
+        int nodeCount = modelFile.nodes.size();
+        nodeFeature = new int[nodeCount];
+        nodeLeftLevels = new int[nodeCount];
+        nodeRightLevels = new int[nodeCount];
+        nodeMissingLeft = new boolean[nodeCount];
+        nodeLeft = new int[nodeCount];
+        nodeRight = new int[nodeCount];
+        nodeProbability = new float[nodeCount];
+        surrogateStart = new int[nodeCount + 1];
+        ArrayList<SplitEntry> surrogates = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            NodeEntry node = modelFile.nodes.get(i);
+            surrogateStart[i] = surrogates.size();
+            if (node.feature == null) {
+                nodeFeature[i] = -1;
+                nodeProbability[i] = node.probability;
+                continue;
+            }
+            // children come after their parent, so the tree cannot loop
+            if (node.left <= i || node.right <= i || node.left >= nodeCount || node.right >= nodeCount) {
+                throw new IllegalArgumentException("Invalid children of node " + i);
+            }
+            nodeFeature[i] = getFeatureIndex(node.feature);
+            nodeLeftLevels[i] = getLevelMask(nodeFeature[i], node.leftLevels);
+            nodeRightLevels[i] = getLevelMask(nodeFeature[i], node.rightLevels);
+            nodeMissingLeft[i] = node.missingLeft;
+            nodeLeft[i] = node.left;
+            nodeRight[i] = node.right;
+            if (node.surrogates != null) {
+                surrogates.addAll(node.surrogates);
+            }
+        }
+        surrogateStart[nodeCount] = surrogates.size();
+
+        surrogateFeature = new int[surrogates.size()];
+        surrogateLeftLevels = new int[surrogates.size()];
+        surrogateRightLevels = new int[surrogates.size()];
+        for (int i = 0; i < surrogates.size(); i++) {
+            SplitEntry surrogate = surrogates.get(i);
+            surrogateFeature[i] = getFeatureIndex(surrogate.feature);
+            surrogateLeftLevels[i] = getLevelMask(surrogateFeature[i], surrogate.leftLevels);
+            surrogateRightLevels[i] = getLevelMask(surrogateFeature[i], surrogate.rightLevels);
+        }
+    }
+
+    /**
+     * Returns the number of features, which is the number of levels per patient in a batch
+     */
+    public int getFeatureCount() {
+        return featureNames.length;
+    }
+
+    /**
+     * Returns the position of a feature in a patient's levels
+     * @param name feature name, ie. AGE
+     * @return position of the feature
+     * @throws IllegalArgumentException if the model has no such feature
+     */
+    public int getFeatureIndex(String name) {
+        for (int i = 0; i < featureNames.length; i++) {
+            if (featureNames[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown risk model feature " + name);
+    }
+
+    /**
+     * Returns the level of a numeric reading
+     * @param feature position of a numeric feature
+     * @param value reading, ie. the age in years. NaN if it is unknown
+     * @return level of the reading, MISSING if it is unknown or outside the cut points
+     */
+    public int getLevel(int feature, double value) {
+        double[] breaks = featureBreaks[feature];
+        if (breaks == null || Double.isNaN(value) || value <= breaks[0] || value > breaks[breaks.length - 1]) {
+            return MISSING;
+        }
+        int index = Arrays.binarySearch(breaks, value);
+        // on a cut point the value belongs to the level below it
+        return index >= 0 ? index - 1 : -index - 2;
+    }
+
+    /**
+     * Returns the level of a category
+     * @param feature position of the feature
+     * @param level name of the level, ie. "Never smoker". null if it is unknown
+     * @return level of the category, MISSING if it is unknown
+     */
+    public int getLevel(int feature, String level) {
+        if (level != null) {
+            String[] levels = featureLevels[feature];
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i].equals(level)) {
+                    return i;
+                }
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Scores a batch of patients
+     * @param levels getFeatureCount() levels per patient, one patient after another
+     * @param count number of patients to score
+     * @param probabilities receives the probability that each patient's cholesterol is high
+     */
+    public void score(int[] levels, int count, float[] probabilities) {
+        int featureCount = featureNames.length;
+        for (int patient = 0, offset = 0; patient < count; patient++, offset += featureCount) {
+            int node = 0;
+            while (nodeFeature[node] >= 0) {
+                int direction = getDirection(levels[offset + nodeFeature[node]],
+                        nodeLeftLevels[node], nodeRightLevels[node]);
+                // try the surrogates in order, then go with the majority
+                for (int s = surrogateStart[node]; direction == 0 && s < surrogateStart[node + 1]; s++) {
+                    direction = getDirection(levels[offset + surrogateFeature[s]],
+                            surrogateLeftLevels[s], surrogateRightLevels[s]);
+                }
+                if (direction == 0) {
+                    direction = nodeMissingLeft[node] ? -1 : 1;
+                }
+                node = direction < 0 ? nodeLeft[node] : nodeRight[node];
+            }
+            probabilities[patient] = nodeProbability[node];
+        }
+    }
+
+    /**
+     * Returns -1 if a level goes left, 1 if it goes right and 0 if the split cannot tell,
+     * because the level is missing or no training patient at the node had it
+     */
+    private static int getDirection(int level, int leftLevels, int rightLevels) {
+        if (level < 0) {
+            return 0;
+        }
+        int bit = 1 << level;
+        return (leftLevels & bit) != 0 ? -1 : (rightLevels & bit) != 0 ? 1 : 0;
+    }
+
+    private int getLevelMask(int feature, List<String> levels) {
+        int mask = 0;
+        if (levels != null) {
+            for (String level: levels) {
+                int index = getLevel(feature, level);
+                if (index == MISSING) {
+                    throw new IllegalArgumentException("Unknown level " + level + " of " + featureNames[feature]);
+                }
+                mask |= 1 << index;
+            }
+        }
+        return mask;
+    }
+
+    // layout of the JSON asset, filled in by Gson
+    private static class ModelFile {
+        List<FeatureEntry> features;
+        List<NodeEntry> nodes;
+    }
+
+    private static class FeatureEntry {
+        String name;
+        List<String> levels;
+        double[] breaks;
+    }
+
+    private static class SplitEntry {
+        String feature;
+        List<String> leftLevels;
+        List<String> rightLevels;
+    }
+
+    private static class NodeEntry extends SplitEntry {
+        boolean missingLeft;
+        List<SplitEntry> surrogates;
+        int left;
+        int right;
+        float probability;
+    }
+}
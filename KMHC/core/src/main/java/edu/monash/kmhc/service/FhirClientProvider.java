@@ -0,0 +1,147 @@
+package edu.monash.kmhc.service;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+
+/**
+ * This class provides the one FHIR context and client that is shared by the whole app.
+ *
+ * Creating an R4 FhirContext scans the resource model, which is slow and uses a lot of memory,
+ * so the context and the client are only built once. The resource definitions used by the app
+ * can be loaded on a background thread when the app starts by calling warmUp().
+ *
+ * Nothing here depends on Android, so the same client is used by the app and on a plain JVM. The
+ * app adds its own interceptors, ie. the time-to-first-query log, with addInterceptor().
+ */
+public class FhirClientProvider {
+
+    private static final String TAG = "FhirClientProvider";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    // Server url
+    private static final String BASE_URL = "https://fhir.monash.edu/hapi-fhir-jpaserver/fhir/";
+    private static final int TIMEOUT = 60 * 1000;
+    // resources that are read by the repositories
+    private static final List<Class<? extends IBaseResource>> RESOURCE_TYPES =
+            Arrays.asList(Observation.class, Patient.class, Encounter.class, Bundle.class);
+
+    private static FhirClientProvider instance;
+    private static String serverBaseUrl = BASE_URL;
+    // registered on every client, including the ones built after the server changes
+    private static final List<IClientInterceptor> interceptors = new ArrayList<>();
+
+    private final FhirContext context;
+    private final IGenericClient client;
+
+    /**
+     * Constructor. Builds the FHIR context and the client.
+     */
+    private FhirClientProvider() {
+        context = FhirContext.forR4();
+
+        // increase timeout
+        IRestfulClientFactory clientFactory = context.getRestfulClientFactory();
+        clientFactory.setConnectTimeout(TIMEOUT);
+        clientFactory.setSocketTimeout(TIMEOUT);
+        // do not fetch the server's capability statement before the first query
+        clientFactory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+
+        client = context.newRestfulGenericClient(serverBaseUrl);
+        for (IClientInterceptor interceptor: interceptors) {
+            client.registerInterceptor(interceptor);
+        }
+    }
+
+    /**
+     * Returns the shared provider, building it on first use.
+     * @return FHIR client provider
+     */
+    public static synchronized FhirClientProvider getInstance() {
+        if (instance == null) {
+            instance = new FhirClientProvider();
+        }
+        return instance;
+    }
+
+    /**
+     * Points the app at another FHIR server, ie. the stand-in server used for offline testing.
+     * Must be called before any repository is created, because repositories keep the client they
+     * were given.
+     * @param baseUrl base url of the FHIR server, ending with /fhir/
+     */
+    public static synchronized void setServerBaseUrl(String baseUrl) {
+        serverBaseUrl = baseUrl;
+        // the next getInstance() builds a client for the new server
+        instance = null;
+    }
+
+    /**
+     * Adds an interceptor to the shared client and to every client built after it.
+     * @param interceptor interceptor of the requests and responses
+     */
+    public static synchronized void addInterceptor(IClientInterceptor interceptor) {
+        interceptors.add(interceptor);
+        if (instance != null) {
+            instance.client.registerInterceptor(interceptor);
+        }
+    }
+
+    /**
+     * Returns the websocket endpoint that delivers subscription notifications.
+     * The HAPI server serves it next to the FHIR endpoint, ie. .../hapi-fhir-jpaserver/websocket
+     * @return websocket url of the FHIR server
+     */
+    public static synchronized String getWebSocketUrl() {
+        String root = serverBaseUrl.substring(0, serverBaseUrl.lastIndexOf("fhir/"));
+        return root.replaceFirst("^http", "ws") + "websocket";
+    }
+
+    /**
+     * Builds the provider and loads the resource definitions used by the app on a background thread,
+     * so that the first query does not have to wait for the model scan.
+     * Should be called once when the app starts.
+     */
+    public static void warmUp() {
+        Thread warmUpThread = new Thread(() -> {
+            long start = System.nanoTime();
+            FhirContext ctx = getInstance().getContext();
+            for (Class<? extends IBaseResource> type : RESOURCE_TYPES) {
+                ctx.getResourceDefinition(type);
+            }
+            ctx.newJsonParser();
+            LOG.info("FHIR context warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }, "FHIR Warm Up Thread");
+        warmUpThread.setPriority(Thread.MIN_PRIORITY);
+        warmUpThread.start();
+    }
+
+    /**
+     * Getter for the shared FHIR context
+     * @return FHIR R4 context
+     */
+    public FhirContext getContext() {
+        return context;
+    }
+
+    /**
+     * Getter for the shared FHIR client
+     * @return client connected to the FHIR server
+     */
+    public IGenericClient getClient() {
+        return client;
+    }
+}
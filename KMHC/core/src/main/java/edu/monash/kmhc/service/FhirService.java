@@ -0,0 +1,19 @@
+package edu.monash.kmhc.service;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+/**
+ * Initialise service to connect to the FHIR API.
+ */
+public class FhirService {
+
+    protected IGenericClient client;
+
+    /**
+     * Constructor to initialise the FHIR connection.
+     * All services share the same client from the FhirClientProvider.
+     */
+    public FhirService() {
+        client = FhirClientProvider.getInstance().getClient();
+    }
+}
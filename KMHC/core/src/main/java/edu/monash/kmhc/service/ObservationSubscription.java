@@ -0,0 +1,148 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.repository.SubscriptionRepository;
+
+/**
+ * This class keeps one FHIR subscription open for the observations of the monitored patients.
+ *
+ * The subscription is replaced when the monitored patients or observation types change. When the
+ * server refuses the subscription or the websocket drops, it waits before trying again, and the
+ * wait doubles after every failure, so a server without subscription support is not asked on
+ * every poll.
+ */
+public class ObservationSubscription implements SubscriptionChannel.OnSubscriptionEventListener {
+
+    private static final String TAG = "ObservationSubscription";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    private static final long MIN_RETRY_DELAY = 30 * 1000;
+    private static final long MAX_RETRY_DELAY = 10 * 60 * 1000;
+
+    private SubscriptionRepository subscriptionRepository = new SubscriptionRepository();
+    private SubscriptionChannel.OnSubscriptionEventListener listener;
+    private String subscriptionId;
+    private SubscriptionChannel channel;
+    // patients and types of the current subscription
+    private String criteriaKey;
+    private long retryDelay = MIN_RETRY_DELAY;
+    private long nextAttemptTime = 0;
+
+    /**
+     * Constructor.
+     * @param listener listener that is told when observations change or the subscription is lost
+     */
+    public ObservationSubscription(SubscriptionChannel.OnSubscriptionEventListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Makes sure there is a subscription for the given patients and types.
+     * Does nothing if the current subscription already covers them, or if the last attempt failed
+     * too recently. This makes network calls, so it must not be called on the main thread.
+     * @param patientIds monitored patient references
+     * @param types monitored observation types
+     */
+    public synchronized void update(List<String> patientIds, Collection<ObservationType> types) {
+        if (patientIds.isEmpty() || types.isEmpty()) {
+            unsubscribe();
+            return;
+        }
+
+        String key = getCriteriaKey(patientIds, types);
+        if (key.equals(criteriaKey) && channel != null) {
+            return;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) < nextAttemptTime) {
+            return;
+        }
+
+        unsubscribe();
+        try {
+            subscriptionId = subscriptionRepository.createObservationSubscription(patientIds, types);
+            channel = new SubscriptionChannel(subscriptionId, this);
+            channel.open(FhirClientProvider.getWebSocketUrl());
+            criteriaKey = key;
+            LOG.info("Subscribed to " + patientIds.size() + " patients as Subscription/" + subscriptionId);
+        }
+        catch (RuntimeException e) {
+            LOG.warning("Could not subscribe: " + e.getMessage());
+            retryLater();
+        }
+    }
+
+    /**
+     * Checks if notifications are being received, so polling can slow down
+     * @return true if the websocket is bound to the subscription
+     */
+    public synchronized boolean isActive() {
+        return channel != null && channel.isBound();
+    }
+
+    /**
+     * Closes the websocket and deletes the subscription from the server.
+     * This makes network calls, so it must not be called on the main thread.
+     */
+    public synchronized void unsubscribe() {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (subscriptionId != null) {
+            try {
+                subscriptionRepository.deleteSubscription(subscriptionId);
+            }
+            catch (RuntimeException e) {
+                // the server removes subscriptions it cannot deliver to, so this is not fatal
+                LOG.warning("Could not delete Subscription/" + subscriptionId + ": " + e.getMessage());
+            }
+            subscriptionId = null;
+        }
+        criteriaKey = null;
+    }
+
+    @Override
+    public void onNotification() {
+        synchronized (this) {
+            // a working subscription resets the wait between attempts
+            retryDelay = MIN_RETRY_DELAY;
+        }
+        listener.onNotification();
+    }
+
+    @Override
+    public void onDisconnected() {
+        synchronized (this) {
+            channel = null;
+            retryLater();
+        }
+        LOG.info("Subscription lost, falling back to polling");
+        listener.onDisconnected();
+    }
+
+    /**
+     * Waits before the next attempt, doubling the wait after every failure
+     */
+    private void retryLater() {
+        nextAttemptTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) + retryDelay;
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Returns a key that is the same for the same patients and types in any order
+     * @param patientIds patient references
+     * @param types observation types
+     * @return criteria key
+     */
+    private String getCriteriaKey(List<String> patientIds, Collection<ObservationType> types) {
+        ArrayList<String> sortedIds = new ArrayList<>(patientIds);
+        Collections.sort(sortedIds);
+        return sortedIds + "|" + types;
+    }
+}
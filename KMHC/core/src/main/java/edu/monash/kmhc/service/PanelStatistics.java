@@ -0,0 +1,102 @@
+package edu.monash.kmhc.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * Statistics of the latest readings of the monitored patients, for total cholesterol and for
+ * systolic and diastolic blood pressure.
+ *
+ * Each patient counts once per reading code, with their latest reading. When a patient gets a new
+ * reading their old one is replaced, so keeping the statistics up to date costs the same however
+ * many patients are monitored.
+ */
+public class PanelStatistics {
+
+    public static final String CHOLESTEROL_CODE = ObservationType.CHOLESTEROL.getObservationCode();
+    public static final String SYSTOLIC_CODE = BloodPressureObservationModel.SYSTOLIC_CODE;
+    public static final String DIASTOLIC_CODE = BloodPressureObservationModel.DIASTOLIC_CODE;
+
+    // reading code -> statistics of the reading
+    private HashMap<String, ReadingStatistics> statistics = new HashMap<>();
+    // reading code -> patient id -> reading counted in the statistics
+    private HashMap<String, HashMap<String, Double>> patientReadings = new HashMap<>();
+
+    /**
+     * Constructor. Percentiles are accurate to 1 mg/dL and 1 mmHg.
+     */
+    public PanelStatistics() {
+        addReading(CHOLESTEROL_CODE, new ReadingStatistics(0, 1000, 1));
+        addReading(SYSTOLIC_CODE, new ReadingStatistics(0, 300, 1));
+        addReading(DIASTOLIC_CODE, new ReadingStatistics(0, 300, 1));
+    }
+
+    private void addReading(String code, ReadingStatistics readingStatistics) {
+        statistics.put(code, readingStatistics);
+        patientReadings.put(code, new HashMap<>());
+    }
+
+    /**
+     * Replaces the reading counted for a patient
+     * @param code reading code, one of the codes of this class
+     * @param patientId patient id
+     * @param value latest reading of the patient, NaN if the patient has none
+     * @return the reading counted before, NaN if there was none
+     */
+    public double setReading(String code, String patientId, double value) {
+        HashMap<String, Double> readings = patientReadings.get(code);
+        Double oldValue = Double.isNaN(value) ? readings.remove(patientId) : readings.put(patientId, value);
+        double previous = oldValue == null ? Double.NaN : oldValue;
+        statistics.get(code).replace(previous, value);
+        return previous;
+    }
+
+    /**
+     * Removes every reading of a patient
+     * @param patientId patient id
+     */
+    public void removePatient(String patientId) {
+        for (Map.Entry<String, HashMap<String, Double>> readings: patientReadings.entrySet()) {
+            Double value = readings.getValue().remove(patientId);
+            if (value != null) {
+                statistics.get(readings.getKey()).remove(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the reading counted for a patient
+     * @param code reading code
+     * @param patientId patient id
+     * @return the reading, NaN if the patient has none
+     */
+    public double getReading(String code, String patientId) {
+        Double value = patientReadings.get(code).get(patientId);
+        return value == null ? Double.NaN : value;
+    }
+
+    /**
+     * Returns the statistics of a reading
+     * @param code reading code, one of the codes of this class
+     * @return the statistics, changed as readings are set
+     */
+    public ReadingStatistics getStatistics(String code) {
+        return statistics.get(code);
+    }
+
+    /**
+     * Forgets every reading
+     */
+    public void clear() {
+        for (String code: statistics.keySet()) {
+            ReadingStatistics readingStatistics = statistics.get(code);
+            for (double value: patientReadings.get(code).values()) {
+                readingStatistics.remove(value);
+            }
+            patientReadings.get(code).clear();
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package edu.monash.kmhc.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.PatientChangeSet;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertThresholds;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.local.PatientStore;
+import edu.monash.kmhc.service.repository.BulkExportRepository;
+import edu.monash.kmhc.service.repository.ObservationBatch;
+import edu.monash.kmhc.service.repository.ObservationFetchPool;
+import edu.monash.kmhc.service.repository.ObservationRepositoryFactory;
+import edu.monash.kmhc.service.repository.PatientRepository;
+
+/**
+ * This class keeps a practitioner's panel in sync with the FHIR server: it loads every patient under
+ * the practitioner, then polls the monitored patients and publishes what changed.
+ *
+ * Syncing and polling run on one background thread owned by this class, which is stopped by
+ * shutdown(). Nothing here depends on Android, so the view model only has to pass the results on to
+ * its LiveData, and the same sync can be run and measured on a plain JVM.
+ *
+ * While the server pushes subscription notifications for the monitored patients, a poll runs as
+ * soon as a notification arrives and the regular poll only runs every few minutes as a safety net.
+ * If the subscription drops, polling goes back to the selected interval.
+ *
+ * Each poll only fetches the patients' observation types that are due. How often a type is polled
+ * for a patient is learnt from how often its readings arrive, between the selected interval and the
+ * selected maximum interval.
+ *
+ * After each poll the new readings are checked against the alert rules. Raised alerts are published
+ * with the change set.
+ *
+ * Patients and their observations are kept in a PatientStore. They are published from the store as
+ * soon as sync starts, and everything downloaded afterwards is written through to it. A practitioner
+ * with nothing stored gets their patients from one bulk export, if the server supports it, and only
+ * the changes after the export are polled.
+ */
+public class PanelSync implements SubscriptionChannel.OnSubscriptionEventListener {
+
+    private static final String TAG = "PanelSync";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    // number of blood pressure readings kept in each patient's time series, unless another depth is given.
+    // the graph downsamples a series this long to its width
+    public static final int DEFAULT_BP_HISTORY_DEPTH = 1000;
+    // seconds between polls until another interval is selected
+    public static final int DEFAULT_POLL_INTERVAL = 10;
+    // seconds between polls while subscription notifications are arriving
+    private static final int SUBSCRIBED_POLL_INTERVAL = 5 * 60;
+    // observation fetches that run at once in a poll, and the patients in each fetch
+    private static final int POLL_CONCURRENCY = 4;
+    private static final int PATIENTS_PER_FETCH = 10;
+    // milliseconds a poll waits for its fetches. later fetches are retried by the next poll
+    private static final long POLL_DEADLINE = 20 * 1000;
+    // longest seconds between polls of a series that rarely changes, until another interval is selected
+    public static final int DEFAULT_MAX_POLL_INTERVAL = 30 * 60;
+    // blood pressure above which an alert is raised, unless changed by the user
+    private static final int DEFAULT_SYSTOLIC_THRESHOLD = 90;
+    private static final int DEFAULT_DIASTOLIC_THRESHOLD = 140;
+    // load the patients of a practitioner with nothing stored through a bulk export
+    private static final boolean BULK_INITIAL_LOAD = true;
+
+    private final OnPanelChangedListener listener;
+    // the practitioner and repositories are replaced by start on the sync thread, and only used there
+    private String practitionerID = "";
+    private PatientRepository patientRepository;
+    // loads a new practitioner's patients with one bulk export
+    private BulkExportRepository bulkExportRepository;
+    private ObservationRepositoryFactory observationRepositoryFactory;
+    // fetches the monitored patients' observations in parallel when polling. shut down from any thread
+    private volatile ObservationFetchPool observationFetchPool;
+    // decides which patients' observation types each poll fetches
+    private PollRatePlanner pollRatePlanner = new PollRatePlanner();
+    // set by subscription events, so the next poll fetches every series
+    private volatile boolean pollAllRequested = false;
+    // set from any thread, read by the polls
+    private volatile List<PatientModel> monitoredPatients = new ArrayList<>();
+    private volatile int pollInterval = DEFAULT_POLL_INTERVAL;
+    private volatile int maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+    // patients in the last published change set
+    private HashMap<String, PatientModel> publishedPatients = new HashMap<>();
+    // monitored observation types of the published patients, to find the patients whose flags changed
+    private HashMap<String, EnumSet<ObservationType>> publishedSeries = new HashMap<>();
+    // checks the monitored patients' readings against the alert rules
+    private AlertEngine alertEngine = new AlertEngine(
+            new AlertThresholds(DEFAULT_SYSTOLIC_THRESHOLD, DEFAULT_DIASTOLIC_THRESHOLD));
+    // predicts the monitored patients' cholesterol level. null if there is no model
+    private final RiskScorer riskScorer;
+    // push updates for the monitored patients. checked from any thread
+    private volatile ObservationSubscription observationSubscription;
+    // the one thread that syncs patients and polls. only one sync task runs at a time
+    private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "Sync Thread"));
+    private final PollScheduler pollScheduler = new PollScheduler(syncExecutor);
+    // incremented on every start, so the patient sync of an earlier practitioner stops
+    private volatile int syncGeneration = 0;
+    // patients and observations kept between launches
+    private final PatientStore patientStore;
+    // number of blood pressure readings downloaded, stored and kept in each patient's time series
+    private final int bpHistoryDepth;
+
+    /**
+     * Constructor
+     * @param patientStore store of the patients and observations kept between launches
+     * @param riskScorer scores the monitored patients' cholesterol risk, or null to not score them
+     * @param listener called on the sync thread with the loaded patients and the change sets
+     */
+    public PanelSync(PatientStore patientStore, RiskScorer riskScorer, OnPanelChangedListener listener) {
+        this(patientStore, riskScorer, listener, DEFAULT_BP_HISTORY_DEPTH);
+    }
+
+    /**
+     * Constructor
+     * @param patientStore store of the patients and observations kept between launches
+     * @param riskScorer scores the monitored patients' cholesterol risk, or null to not score them
+     * @param listener called on the sync thread with the loaded patients and the change sets
+     * @param bpHistoryDepth number of blood pressure readings kept for each patient
+     */
+    public PanelSync(PatientStore patientStore, RiskScorer riskScorer, OnPanelChangedListener listener,
+                     int bpHistoryDepth) {
+        this.patientStore = patientStore;
+        this.riskScorer = riskScorer;
+        this.listener = listener;
+        this.bpHistoryDepth = bpHistoryDepth;
+    }
+
+    /**
+     * Stops the sync of the earlier practitioner, if any, and starts loading and polling the
+     * patients of a practitioner
+     * @param practitionerID Health Practitioner's ID / identifier
+     */
+    public void start(String practitionerID) {
+        // stop the sync and polling of an earlier practitioner
+        stop();
+        monitoredPatients = new ArrayList<>();
+
+        // reset on the sync thread, after the task of the earlier practitioner that may still be running,
+        // so that it never sees the state of the new practitioner
+        syncExecutor.execute(() -> {
+            pollRatePlanner.clear();
+            alertEngine.clear();
+            if (riskScorer != null) {
+                riskScorer.clear();
+            }
+
+            this.practitionerID = practitionerID;
+            patientRepository = new PatientRepository(practitionerID);
+            observationRepositoryFactory = new ObservationRepositoryFactory();
+            bulkExportRepository = new BulkExportRepository(practitionerID, observationRepositoryFactory);
+            observationFetchPool = new ObservationFetchPool(observationRepositoryFactory, POLL_CONCURRENCY,
+                    PATIENTS_PER_FETCH);
+            observationSubscription = new ObservationSubscription(this);
+        });
+        fetchAllPatients();
+    }
+
+    /**
+     * Changes the patients whose monitored observations are polled. Can be called from any thread.
+     * The next poll runs straight away, so the alerts of patients whose monitored types changed are
+     * checked again without waiting for new readings.
+     * @param patients patients selected for monitoring
+     */
+    public void setMonitoredPatients(List<PatientModel> patients) {
+        monitoredPatients = new ArrayList<>(patients);
+        pollScheduler.pollNow();
+    }
+
+    /**
+     * Changes the shortest time between polls. Can be called from any thread
+     * @param seconds seconds between polls
+     */
+    public void setPollInterval(int seconds) {
+        pollInterval = seconds;
+    }
+
+    /**
+     * Changes the longest time between polls of a series that rarely changes. Can be called from any thread
+     * @param seconds longest seconds between polls of a series
+     */
+    public void setMaxPollInterval(int seconds) {
+        maxPollInterval = seconds;
+    }
+
+    /**
+     * This method is to fetch all patients that are treated by Health Practitioner
+     * from the patient repository.
+     */
+    private void fetchAllPatients() {
+        // run asynchronous tasks on background thread
+        int fetchGeneration = syncGeneration;
+        syncExecutor.execute(() -> {
+            HashMap < String, PatientModel > patientHashMap = new HashMap<>();
+
+            // show the patients stored by the last launch straight away
+            HashMap<String, PatientModel> storedPatients = patientStore.loadPatients(practitionerID, bpHistoryDepth);
+            if (!storedPatients.isEmpty()) {
+                patientHashMap.putAll(storedPatients);
+                listener.onAllPatients(new HashMap<>(patientHashMap));
+            }
+            // stored patients only need the observations that changed since they were stored
+            observationRepositoryFactory.restoreWatermarks(patientStore.loadWatermarks());
+
+            // a new practitioner has nothing stored. load the whole panel with one bulk export
+            // instead of searching for it one page at a time, if the server supports it
+            boolean exported = false;
+            if (storedPatients.isEmpty() && BULK_INITIAL_LOAD) {
+                try {
+                    exported = bulkExportRepository.getAllPatients(EnumSet.allOf(ObservationType.class),
+                            bpHistoryDepth, (patients, batch) -> {
+                                if (fetchGeneration != syncGeneration) {
+                                    throw new CancellationException("Practitioner changed");
+                                }
+                                addPatients(patients, batch, storedPatients, patientHashMap);
+                            });
+                }
+                catch (CancellationException e) {
+                    return;
+                }
+                catch (IOException | RuntimeException e) {
+                    LOG.warning("Could not export patients, searching instead: " + e.getMessage());
+                }
+            }
+
+            if (!exported) {
+                try {
+                    // patients arrive one page at a time. show each page as soon as it is ready
+                    patientRepository.getAllPatients(patients -> {
+                        // stop reading pages once another practitioner has logged in
+                        if (fetchGeneration != syncGeneration) {
+                            throw new CancellationException("Practitioner changed");
+                        }
+                        ArrayList<String> patientIds = new ArrayList<>();
+                        for (PatientModel patient : patients) {
+                            patientIds.add(patient.getPatientID());
+                        }
+
+                        // get the observations of all patients in the page in one batch
+                        ObservationBatch batch = observationRepositoryFactory.getObservationUpdates(patientIds,
+                                EnumSet.allOf(ObservationType.class), bpHistoryDepth);
+                        addPatients(patients, batch, storedPatients, patientHashMap);
+                    });
+                }
+                catch (CancellationException e) {
+                    return;
+                }
+                catch (RuntimeException e) {
+                    // offline. keep showing the stored patients
+                    LOG.warning("Could not sync patients: " + e.getMessage());
+                }
+            }
+
+            // let the listener know when the practitioner has no patients
+            if (patientHashMap.isEmpty()) {
+                listener.onAllPatients(patientHashMap);
+            }
+        });
+
+        polling();
+    }
+
+    /**
+     * Adds a page of downloaded patients to the patients shown for selection, writes them through to
+     * the patient store and publishes them. Runs on the sync thread.
+     * @param patients downloaded patients
+     * @param batch latest or changed observations of the patients
+     * @param storedPatients patients loaded from the patient store, which may already be selected
+     * @param patientHashMap patients shown so far, by patient id
+     */
+    private void addPatients(ArrayList<PatientModel> patients, ObservationBatch batch,
+                             HashMap<String, PatientModel> storedPatients, HashMap<String, PatientModel> patientHashMap) {
+        // loop through all patients
+        ArrayList<PatientModel> changedPatients = new ArrayList<>();
+        for (PatientModel patient : patients) {
+            // keep the stored patient, which may already be selected, and add what changed
+            PatientModel storedPatient = storedPatients.get(patient.getPatientID());
+            PatientModel shownPatient = storedPatient != null ? storedPatient : patient;
+            if (mergeObservations(shownPatient, batch, false)) {
+                changedPatients.add(shownPatient);
+            }
+
+            // only show patients with cholesterol values
+            if (shownPatient.getObservationReading(ObservationType.CHOLESTEROL) == null) {
+                LOG.fine("No observation type");
+                continue;
+            }
+            patientHashMap.put(patient.getPatientID(), shownPatient);
+        }
+
+        // write the page through to the patient store
+        patientStore.savePatients(practitionerID, patients);
+        patientStore.saveObservations(changedPatients);
+        patientStore.saveWatermarks(observationRepositoryFactory.getWatermarks());
+
+        // let the listener know - used by select patient
+        if (!patientHashMap.isEmpty()) {
+            listener.onAllPatients(new HashMap<>(patientHashMap));
+        }
+    }
+
+    /**
+     * Starts polling the server for the monitored patients, or restarts it with the current interval.
+     */
+    public void polling() {
+        pollScheduler.start(this::pollCycle, () -> {
+            // poll less often while subscription notifications are arriving
+            int interval = isSubscribed() ? SUBSCRIBED_POLL_INTERVAL : pollInterval;
+            return interval * 1000L;
+        });
+    }
+
+    /**
+     * Polls the server once for the monitored patients. Runs on the sync thread.
+     * Throws a RuntimeException if the server cannot be reached, so the scheduler backs off.
+     */
+    private void pollCycle() {
+        HashMap<String, PatientModel> poHashMap = new HashMap<>();
+        List<PatientModel> patients = monitoredPatients;
+
+        // find the patients and observation types that are monitored
+        ArrayList<String> patientIds = new ArrayList<>();
+        EnumSet<ObservationType> monitoredTypes = EnumSet.noneOf(ObservationType.class);
+        HashMap<String, EnumSet<ObservationType>> monitoredSeries = new HashMap<>();
+        for (PatientModel patientModel: patients) {
+            for (ObservationType type: ObservationType.values()) {
+                if (patientModel.isObservationMonitored(type)) {
+                    monitoredTypes.add(type);
+                    if (!poHashMap.containsKey(patientModel.getPatientID())) {
+                        patientIds.add(patientModel.getPatientID());
+                        poHashMap.put(patientModel.getPatientID(), patientModel);
+                        monitoredSeries.put(patientModel.getPatientID(), EnumSet.noneOf(ObservationType.class));
+                    }
+                    monitoredSeries.get(patientModel.getPatientID()).add(type);
+                    pollRatePlanner.observe(patientModel.getPatientID(), type, patientModel.getObservationReading(type),
+                            patientModel.getTimeSeries(type == ObservationType.BLOOD_PRESSURE
+                                    ? BloodPressureObservationModel.SYSTOLIC_CODE : type.getObservationCode()));
+                }
+            }
+        }
+
+        // only poll the series that are due. the selected intervals are the shortest and the longest interval
+        long now = System.currentTimeMillis();
+        boolean pollAll = pollAllRequested;
+        pollAllRequested = false;
+        long minInterval = pollInterval * 1000L;
+        long maxInterval = maxPollInterval * 1000L;
+        HashMap<EnumSet<ObservationType>, ArrayList<String>> dueSeries =
+                pollRatePlanner.getDueSeries(monitoredSeries, minInterval, maxInterval, now, pollAll);
+        int dueCount = 0;
+        int monitoredCount = 0;
+        for (Map.Entry<EnumSet<ObservationType>, ArrayList<String>> group: dueSeries.entrySet()) {
+            dueCount += group.getKey().size() * group.getValue().size();
+        }
+        for (EnumSet<ObservationType> types: monitoredSeries.values()) {
+            monitoredCount += types.size();
+        }
+        LOG.info("Polling " + dueCount + " of " + monitoredCount + " monitored series");
+
+        // get only the observations that changed since the last poll
+        boolean updated = false;
+        ObservationBatch batch = observationFetchPool.getObservationUpdates(dueSeries, bpHistoryDepth, POLL_DEADLINE);
+        for (Map.Entry<EnumSet<ObservationType>, ArrayList<String>> group: dueSeries.entrySet()) {
+            for (String patientId: group.getValue()) {
+                for (ObservationType type: group.getKey()) {
+                    if (batch.isFetched(patientId, type)) {
+                        pollRatePlanner.setPolled(patientId, type, now);
+                    }
+                }
+            }
+        }
+
+        // update observations if observation is selected to be monitored
+        ArrayList<PatientModel> changedPatients = new ArrayList<>();
+        for (String patientId: batch.getPatientIds()) {
+            PatientModel patientModel = poHashMap.get(patientId);
+            if (patientModel != null && mergeObservations(patientModel, batch, true)) {
+                changedPatients.add(patientModel);
+                updated = true;
+            }
+        }
+
+        // write the changes through to the patient store
+        patientStore.saveObservations(changedPatients);
+        patientStore.saveWatermarks(observationRepositoryFactory.getWatermarks());
+
+        // the monitored types of a patient are changed in place, so they are compared with the published ones
+        ArrayList<PatientModel> reselectedPatients = new ArrayList<>();
+        for (Map.Entry<String, EnumSet<ObservationType>> series: monitoredSeries.entrySet()) {
+            EnumSet<ObservationType> publishedTypes = publishedSeries.get(series.getKey());
+            if (publishedTypes != null && !publishedTypes.equals(series.getValue())) {
+                reselectedPatients.add(poHashMap.get(series.getKey()));
+            }
+        }
+
+        // publish a change set, only if there is new data or the monitored patients or types changed
+        if (updated || !reselectedPatients.isEmpty() || !poHashMap.keySet().equals(publishedPatients.keySet())) {
+            HashSet<String> addedIds = new HashSet<>(poHashMap.keySet());
+            addedIds.removeAll(publishedPatients.keySet());
+            HashSet<String> removedIds = new HashSet<>(publishedPatients.keySet());
+            removedIds.removeAll(poHashMap.keySet());
+
+            HashSet<String> updatedIds = new HashSet<>();
+            for (PatientModel patientModel: changedPatients) {
+                updatedIds.add(patientModel.getPatientID());
+            }
+
+            // check the alert rules for the new patients, the new readings and the changed types only
+            ArrayList<PatientModel> checkedPatients = new ArrayList<>(changedPatients);
+            for (String patientId: addedIds) {
+                if (!updatedIds.contains(patientId)) {
+                    checkedPatients.add(poHashMap.get(patientId));
+                }
+            }
+            for (PatientModel patientModel: reselectedPatients) {
+                if (updatedIds.add(patientModel.getPatientID())) {
+                    checkedPatients.add(patientModel);
+                }
+            }
+            List<AlertEvent> alertEvents = alertEngine.update(checkedPatients, removedIds);
+            for (AlertEvent event: alertEvents) {
+                updatedIds.add(event.getPatientId());
+            }
+            // score the same patients again, only those whose model inputs changed are scored
+            if (riskScorer != null) {
+                updatedIds.addAll(riskScorer.update(checkedPatients, removedIds));
+            }
+            updatedIds.removeAll(addedIds);
+            updatedIds.removeAll(removedIds);
+            publishedPatients = poHashMap;
+            publishedSeries = monitoredSeries;
+            publishChanges(addedIds, removedIds, updatedIds, alertEvents);
+        }
+
+        // keep a subscription for the monitored patients
+        observationSubscription.update(patientIds, monitoredTypes);
+    }
+
+    /**
+     * Passes a change set of the monitored patients to the listener. Runs on the sync thread.
+     */
+    private void publishChanges(Set<String> addedIds, Set<String> removedIds, Set<String> updatedIds,
+                                List<AlertEvent> alertEvents) {
+        HashMap<String, EnumSet<AlertType>> alerts = alertEngine.getAlerts();
+        HashMap<String, Float> riskScores = riskScorer != null ? riskScorer.getScores() : new HashMap<>();
+        listener.onPatientChanges(new PatientChangeSet(publishedPatients, addedIds, removedIds, updatedIds,
+                alerts, alertEvents, riskScores), alerts);
+    }
+
+    /**
+     * Publishes the patients whose alerts changed after a threshold change. Runs on the sync thread.
+     */
+    private void publishAlerts(List<AlertEvent> alertEvents) {
+        if (alertEvents.isEmpty()) {
+            return;
+        }
+        HashSet<String> updatedIds = new HashSet<>();
+        for (AlertEvent event: alertEvents) {
+            updatedIds.add(event.getPatientId());
+        }
+        updatedIds.retainAll(publishedPatients.keySet());
+        publishChanges(Collections.emptySet(), Collections.emptySet(), updatedIds, alertEvents);
+    }
+
+    /**
+     * Changes the blood pressure values above which an alert is raised, for the patients without
+     * their own values
+     * @param systolic systolic blood pressure above which an alert is raised
+     * @param diastolic diastolic blood pressure above which an alert is raised
+     */
+    public void setAlertThresholds(int systolic, int diastolic) {
+        AlertThresholds thresholds = new AlertThresholds(systolic, diastolic);
+        syncExecutor.execute(() -> publishAlerts(alertEngine.setGlobalThresholds(thresholds)));
+    }
+
+    /**
+     * Changes the blood pressure values above which an alert is raised for one patient
+     * @param patientId patient id
+     * @param thresholds the patient's thresholds, or null to use the global thresholds again
+     */
+    public void setPatientAlertThresholds(String patientId, AlertThresholds thresholds) {
+        syncExecutor.execute(() -> publishAlerts(alertEngine.setPatientThresholds(patientId, thresholds)));
+    }
+
+    /**
+     * Returns the blood pressure values above which an alert is raised for a patient
+     * @param patientId patient id
+     * @return the patient's own thresholds, or the global thresholds
+     */
+    public AlertThresholds getAlertThresholds(String patientId) {
+        return alertEngine.getThresholds(patientId);
+    }
+
+    /**
+     * Returns whether a patient has their own alert thresholds
+     * @param patientId patient id
+     * @return true if the patient does not use the global thresholds
+     */
+    public boolean hasPatientAlertThresholds(String patientId) {
+        return alertEngine.hasPatientThresholds(patientId);
+    }
+
+    /**
+     * Adds the observations in a batch to a patient
+     * @param patientModel patient to update
+     * @param batch new or changed observations
+     * @param monitoredOnly true to only add the observation types the patient is monitored for
+     * @return true if the batch had observations for the patient
+     */
+    private boolean mergeObservations(PatientModel patientModel, ObservationBatch batch, boolean monitoredOnly) {
+        boolean updated = false;
+        String patientId = patientModel.getPatientID();
+        for (ObservationType type: ObservationType.values()) {
+            ObservationModel observation = batch.getObservation(patientId, type);
+            if (observation == null || (monitoredOnly && !patientModel.isObservationMonitored(type))) {
+                continue;
+            }
+            if (observation.isNewerThan(patientModel.getObservationReading(type))) {
+                patientModel.setObservation(type, observation);
+            }
+            if (type == ObservationType.BLOOD_PRESSURE) {
+                patientModel.addBPReadings(batch.getLatestBloodPressureReadings(patientId), bpHistoryDepth);
+            }
+            updated = true;
+        }
+        return updated;
+    }
+
+    /**
+     * Checks if the server pushes notifications for the monitored patients, so polls run as soon as
+     * their observations change
+     * @return true if the subscription is bound
+     */
+    public boolean isSubscribed() {
+        return observationSubscription != null && observationSubscription.isActive();
+    }
+
+    /**
+     * Called by the subscription when an observation of a monitored patient has changed.
+     * Polls now instead of waiting for the next scheduled poll.
+     */
+    @Override
+    public void onNotification() {
+        pollNow();
+    }
+
+    /**
+     * Called when the subscription is lost. Polls now and goes back to polling at the selected interval.
+     */
+    @Override
+    public void onDisconnected() {
+        pollNow();
+    }
+
+    /**
+     * Runs the next poll straight away on the sync thread, for every monitored series
+     */
+    private void pollNow() {
+        pollAllRequested = true;
+        pollScheduler.pollNow();
+    }
+
+    /**
+     * Stops the patient sync and polling, and removes the subscription from the server
+     */
+    private void stop() {
+        syncGeneration++;
+        pollScheduler.stop();
+        // interrupt the fetches of a poll that is running
+        ObservationFetchPool fetchPool = observationFetchPool;
+        if (fetchPool != null) {
+            fetchPool.shutdown();
+        }
+        // release the subscription and pool on the sync thread, including ones created by a start whose
+        // reset had not run yet
+        syncExecutor.execute(() -> {
+            if (observationSubscription != null) {
+                observationSubscription.unsubscribe();
+            }
+            if (observationFetchPool != null) {
+                observationFetchPool.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Stops syncing for good. The tasks already submitted finish, then the sync thread ends.
+     * Does nothing if it was already called
+     */
+    public synchronized void shutdown() {
+        if (syncExecutor.isShutdown()) {
+            return;
+        }
+        stop();
+        syncExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the sync thread to end after shutdown(), ie. before the server it talks to goes away
+     * @param timeoutMillis longest time to wait in milliseconds
+     * @return true if the sync thread has ended
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return syncExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Listener of the panel. Both methods are called on the sync thread.
+     */
+    public interface OnPanelChangedListener {
+
+        /**
+         * Called with every patient under the practitioner, each time more of them are loaded
+         * @param patients patients with a cholesterol reading, by patient id
+         */
+        void onAllPatients(HashMap<String, PatientModel> patients);
+
+        /**
+         * Called with what changed in the monitored patients after a poll or a threshold change
+         * @param changes the monitored patients and which of them changed
+         * @param alerts alerts raised for each monitored patient
+         */
+        void onPatientChanges(PatientChangeSet changes, HashMap<String, EnumSet<AlertType>> alerts);
+    }
+}
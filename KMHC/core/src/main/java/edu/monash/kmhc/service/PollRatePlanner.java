@@ -0,0 +1,147 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+/**
+ * This class decides which observation series to poll in each poll cycle.
+ *
+ * A series is one observation type of one patient. Its cadence is learnt from the effective times of
+ * its readings: the gaps between readings are averaged, and a series that has been quiet for longer
+ * than its average gap is treated as slower. A series is polled POLLS_PER_READING times per expected
+ * gap, so a series with readings every hour is polled every 15 minutes and one with readings every
+ * few seconds is polled every cycle. The interval never goes below the minimum interval chosen by the
+ * user or above the maximum interval.
+ */
+class PollRatePlanner {
+
+    // number of polls per expected gap between readings
+    private static final int POLLS_PER_READING = 4;
+    // weight of a new gap in the average gap
+    private static final double GAP_WEIGHT = 0.3;
+
+    // "patient id|observation code" -> learnt cadence
+    private HashMap<String, Series> seriesMap = new HashMap<>();
+
+    /**
+     * Learns from the latest reading of a series. Called every cycle with what the patient holds.
+     * @param patientId patient id
+     * @param type observation type
+     * @param latest latest reading, or null if the patient has none
+     * @param history earlier readings of the series, oldest first. May be empty
+     */
+    synchronized void observe(String patientId, ObservationType type, ObservationModel latest, TimeSeries history) {
+        Series series = getSeries(patientId, type);
+        long latestTime = latest == null ? ObservationModel.NO_TIME : latest.getEffectiveTime();
+
+        // start from the gaps in the history the first time the series is seen
+        if (Double.isNaN(series.averageGap) && history.size() >= 2) {
+            series.averageGap = (double) (history.getTime(history.size() - 1) - history.getTime(0)) / (history.size() - 1);
+        }
+        if (latestTime != ObservationModel.NO_TIME && latestTime > series.latestTime) {
+            if (series.latestTime != ObservationModel.NO_TIME) {
+                long gap = latestTime - series.latestTime;
+                series.averageGap = Double.isNaN(series.averageGap) ? gap
+                        : GAP_WEIGHT * gap + (1 - GAP_WEIGHT) * series.averageGap;
+            }
+            series.latestTime = latestTime;
+        }
+    }
+
+    /**
+     * Groups the series that are due for a poll by the observation types that are due
+     * @param monitored patient id -> monitored observation types
+     * @param minInterval shortest time between polls of a series, in milliseconds
+     * @param maxInterval longest time between polls of a series, in milliseconds
+     * @param now current time in milliseconds since epoch
+     * @param pollAll true to poll every series, ie. after a subscription notification
+     * @return due observation types -> patients with exactly those types due
+     */
+    synchronized HashMap<EnumSet<ObservationType>, ArrayList<String>> getDueSeries(
+            Map<String, ? extends Collection<ObservationType>> monitored, long minInterval, long maxInterval,
+            long now, boolean pollAll) {
+        HashMap<EnumSet<ObservationType>, ArrayList<String>> dueSeries = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<ObservationType>> patient: monitored.entrySet()) {
+            EnumSet<ObservationType> dueTypes = EnumSet.noneOf(ObservationType.class);
+            for (ObservationType type: patient.getValue()) {
+                Series series = getSeries(patient.getKey(), type);
+                if (series.firstSeen == 0) {
+                    series.firstSeen = now;
+                }
+                if (pollAll || now - series.lastPolled >= getInterval(series, minInterval, maxInterval, now)) {
+                    dueTypes.add(type);
+                }
+            }
+            if (!dueTypes.isEmpty()) {
+                ArrayList<String> patientIds = dueSeries.get(dueTypes);
+                if (patientIds == null) {
+                    patientIds = new ArrayList<>();
+                    dueSeries.put(dueTypes, patientIds);
+                }
+                patientIds.add(patient.getKey());
+            }
+        }
+        return dueSeries;
+    }
+
+    /**
+     * Records that a series was polled
+     * @param patientId patient id
+     * @param type observation type
+     * @param now time of the poll in milliseconds since epoch
+     */
+    synchronized void setPolled(String patientId, ObservationType type, long now) {
+        getSeries(patientId, type).lastPolled = now;
+    }
+
+    /**
+     * Forgets every series, ie. when another practitioner logs in
+     */
+    synchronized void clear() {
+        seriesMap.clear();
+    }
+
+    /**
+     * Returns the time between polls of a series
+     */
+    private long getInterval(Series series, long minInterval, long maxInterval, long now) {
+        // a series that has been quiet for longer than its average gap is slower than it was.
+        // a series without readings has been quiet since it was first polled
+        double expectedGap = now - (series.latestTime == ObservationModel.NO_TIME ? series.firstSeen : series.latestTime);
+        if (!Double.isNaN(series.averageGap)) {
+            expectedGap = Math.max(expectedGap, series.averageGap);
+        }
+        long interval = (long) (expectedGap / POLLS_PER_READING);
+        return Math.max(minInterval, Math.min(Math.max(minInterval, maxInterval), interval));
+    }
+
+    private Series getSeries(String patientId, ObservationType type) {
+        String key = patientId + "|" + type.getObservationCode();
+        Series series = seriesMap.get(key);
+        if (series == null) {
+            series = new Series();
+            seriesMap.put(key, series);
+        }
+        return series;
+    }
+
+    /**
+     * Cadence of one series
+     */
+    private static class Series {
+        // effective time of the latest reading
+        long latestTime = ObservationModel.NO_TIME;
+        // average time between readings in milliseconds, NaN until two readings have been seen
+        double averageGap = Double.NaN;
+        // time of the first and the last poll in milliseconds since epoch
+        long firstSeen = 0;
+        long lastPolled = 0;
+    }
+}
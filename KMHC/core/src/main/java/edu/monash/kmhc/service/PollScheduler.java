@@ -0,0 +1,148 @@
+package edu.monash.kmhc.service;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the poll cycle again and again on the panel's sync thread.
+ *
+ * Only one cycle runs at a time, and the next cycle is scheduled when the current one finishes.
+ * When a cycle fails the wait doubles, up to MAX_BACKOFF, until a cycle succeeds. Every wait is
+ * jittered so that devices that started together do not keep polling the server at the same moment.
+ */
+class PollScheduler {
+
+    private static final String TAG = "PollScheduler";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    static final long MAX_BACKOFF = 5 * 60 * 1000;
+    // normal waits are moved by up to 10% either way
+    static final double JITTER = 0.1;
+
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+    private PollCycle cycle;
+    private IntervalSource intervalSource;
+    private ScheduledFuture<?> nextCycle;
+    // incremented by start and stop, so cycles of an earlier start do not schedule more cycles
+    private int generation = 0;
+    private int failures = 0;
+    private boolean running = false;
+    private boolean pollRequested = false;
+
+    /**
+     * Constructor.
+     * @param executor single thread executor that runs the cycles
+     */
+    PollScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts polling. Stops the cycles of an earlier start first.
+     * @param cycle the poll cycle. Throwing a RuntimeException counts as a failure
+     * @param intervalSource returns the wait between successful cycles
+     */
+    synchronized void start(PollCycle cycle, IntervalSource intervalSource) {
+        stop();
+        this.cycle = cycle;
+        this.intervalSource = intervalSource;
+        int cycleGeneration = generation;
+        nextCycle = executor.schedule(() -> runCycle(cycleGeneration), 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a cycle as soon as possible. If a cycle is running, the next one starts when it finishes.
+     */
+    synchronized void pollNow() {
+        if (cycle == null) {
+            return;
+        }
+        if (running) {
+            pollRequested = true;
+        }
+        else if (nextCycle != null && nextCycle.cancel(false)) {
+            int cycleGeneration = generation;
+            nextCycle = executor.schedule(() -> runCycle(cycleGeneration), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops polling. A cycle that is running finishes, but no cycle is scheduled after it.
+     */
+    synchronized void stop() {
+        generation++;
+        if (nextCycle != null) {
+            nextCycle.cancel(false);
+            nextCycle = null;
+        }
+        cycle = null;
+        failures = 0;
+        pollRequested = false;
+    }
+
+    /**
+     * Runs one cycle and schedules the next
+     * @param cycleGeneration generation the cycle was scheduled in
+     */
+    private void runCycle(int cycleGeneration) {
+        PollCycle currentCycle;
+        synchronized (this) {
+            if (cycleGeneration != generation) {
+                return;
+            }
+            currentCycle = cycle;
+            running = true;
+        }
+
+        boolean failed = false;
+        try {
+            currentCycle.run();
+        }
+        catch (RuntimeException e) {
+            failed = true;
+            LOG.warning("Poll failed: " + e.getMessage());
+        }
+
+        synchronized (this) {
+            running = false;
+            if (cycleGeneration != generation) {
+                return;
+            }
+            failures = failed ? failures + 1 : 0;
+            long delay = pollRequested ? 0 : getDelay();
+            pollRequested = false;
+            nextCycle = executor.schedule(() -> runCycle(cycleGeneration), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the wait before the next cycle
+     * @return jittered interval after a success, or jittered exponential backoff after failures
+     */
+    private long getDelay() {
+        long interval = intervalSource.getIntervalMillis();
+        if (failures == 0) {
+            return Math.round(interval * (1 + JITTER * (2 * random.nextDouble() - 1)));
+        }
+        // wait somewhere between half and all of the backoff
+        long backoff = Math.max(interval, Math.min(MAX_BACKOFF, interval << Math.min(failures, 16)));
+        return backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+    }
+
+    /**
+     * One poll of the server. Throws a RuntimeException when the poll fails.
+     */
+    interface PollCycle {
+        void run();
+    }
+
+    /**
+     * Returns the time between polls while polls succeed, in milliseconds.
+     */
+    interface IntervalSource {
+        long getIntervalMillis();
+    }
+}
@@ -0,0 +1,168 @@
+package edu.monash.kmhc.service;
+
+/**
+ * Running statistics of one kind of reading across the monitored patients.
+ *
+ * The mean is the sum of the readings over their count, so it is the same whatever order the readings
+ * were added and removed in, and a patient whose reading equals the mean is never above it. The
+ * variance is kept with Welford's method, which also allows a reading to be removed when a patient
+ * gets a newer one. Percentiles come from a histogram of fixed-width bins between
+ * a minimum and a maximum value, kept in a Fenwick tree so adding or removing a reading and finding
+ * a percentile only touch log2(bins) entries. Readings outside the range are counted in the first or
+ * last bin. A percentile is exact to within one bin width however many readings there are, and unlike
+ * a t-digest, readings can be removed again.
+ */
+public class ReadingStatistics {
+
+    private final double minValue;
+    private final double binWidth;
+    // Fenwick tree of the number of readings in each bin, 1-based
+    private final int[] binTree;
+    private final int highestBit;
+
+    private int count = 0;
+    private double sum = 0;
+    // running mean of Welford's method, only used for the variance
+    private double mean = 0;
+    // sum of squared differences from the mean
+    private double squaredDifferences = 0;
+
+    /**
+     * Constructor
+     * @param minValue lowest value of the histogram
+     * @param maxValue highest value of the histogram
+     * @param binWidth width of a bin, which is the accuracy of the percentiles
+     */
+    public ReadingStatistics(double minValue, double maxValue, double binWidth) {
+        this.minValue = minValue;
+        this.binWidth = binWidth;
+        int bins = Math.max(1, (int) Math.ceil((maxValue - minValue) / binWidth));
+        binTree = new int[bins + 1];
+        highestBit = Integer.highestOneBit(bins);
+    }
+
+    /**
+     * Adds a reading. Missing readings are ignored
+     * @param value reading value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        sum += value;
+        double difference = value - mean;
+        mean += difference / count;
+        squaredDifferences += difference * (value - mean);
+        updateBin(getBin(value), 1);
+    }
+
+    /**
+     * Removes a reading that was added earlier. Missing readings are ignored
+     * @param value reading value
+     */
+    public void remove(double value) {
+        if (Double.isNaN(value) || count == 0) {
+            return;
+        }
+        updateBin(getBin(value), -1);
+        if (--count == 0) {
+            // start again from zero so rounding errors do not build up
+            sum = 0;
+            mean = 0;
+            squaredDifferences = 0;
+            return;
+        }
+        sum -= value;
+        double difference = value - mean;
+        mean -= difference / count;
+        squaredDifferences = Math.max(0, squaredDifferences - difference * (value - mean));
+    }
+
+    /**
+     * Replaces a reading with a newer one
+     * @param oldValue reading added earlier, NaN if there was none
+     * @param newValue new reading, NaN if there is none
+     */
+    public void replace(double oldValue, double newValue) {
+        if (Double.compare(oldValue, newValue) != 0) {
+            remove(oldValue);
+            add(newValue);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the readings
+     * @return mean, 0 if there are no readings
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the sample variance of the readings
+     * @return variance, 0 if there are fewer than two readings
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : squaredDifferences / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns the value below which a fraction of the readings fall
+     * @param fraction fraction of the readings between 0 and 1, ie. 0.9 for the 90th percentile
+     * @return percentile value, NaN if there are no readings
+     */
+    public double getPercentile(double fraction) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // number of readings at or below the percentile
+        double rank = Math.max(1, Math.min(count, fraction * count));
+
+        // find the last bin with fewer readings up to it than the rank
+        int bin = 0;
+        int below = 0;
+        for (int bit = highestBit; bit > 0; bit >>= 1) {
+            int next = bin + bit;
+            if (next < binTree.length && below + binTree[next] < rank) {
+                bin = next;
+                below += binTree[next];
+            }
+        }
+        // the percentile is in the next bin. spread its readings evenly across it
+        int inBin = getBinCount(bin + 1);
+        double position = inBin == 0 ? 1 : (rank - below) / inBin;
+        return minValue + (bin + position) * binWidth;
+    }
+
+    private int getBin(double value) {
+        int bin = (int) Math.floor((value - minValue) / binWidth);
+        return Math.max(0, Math.min(binTree.length - 2, bin)) + 1;
+    }
+
+    private void updateBin(int bin, int change) {
+        for (int i = bin; i < binTree.length; i += i & -i) {
+            binTree[i] += change;
+        }
+    }
+
+    private int getBinCount(int bin) {
+        return getCumulativeCount(bin) - getCumulativeCount(bin - 1);
+    }
+
+    private int getCumulativeCount(int bin) {
+        int total = 0;
+        for (int i = bin; i > 0; i -= i & -i) {
+            total += binTree[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,161 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * This class keeps the cholesterol risk of the monitored patients, scored by the CholesterolRiskModel.
+ *
+ * A patient's readings are turned into the levels of the model, ie. their age group and blood pressure
+ * level. Only the patients whose levels changed since they were last scored are scored again, all in
+ * one batch, so a new reading that stays in the same level costs nothing. The app does not fetch the
+ * patients' diabetes, smoking or BMI, so the model treats them as missing.
+ */
+public class RiskScorer {
+
+    private final CholesterolRiskModel model;
+    private final int featureCount;
+    private final int ageFeature;
+    private final int bloodPressureFeature;
+
+    // patient id -> levels the patient was last scored with
+    private HashMap<String, int[]> patientLevels = new HashMap<>();
+    // patient id -> probability that the patient's cholesterol is high
+    private HashMap<String, Float> scores = new HashMap<>();
+
+    // batch of levels to score, reused between updates
+    private int[] batchLevels = new int[0];
+    private float[] batchScores = new float[0];
+    // number of patients in the batch of the last update
+    private int scoredCount = 0;
+    // used to work out the patients' ages, reused between patients
+    private Calendar today = Calendar.getInstance();
+    private Calendar birthday = Calendar.getInstance();
+
+    /**
+     * Constructor
+     * @param model model used to score the patients
+     */
+    public RiskScorer(CholesterolRiskModel model) {
+        this.model = model;
+        featureCount = model.getFeatureCount();
+        ageFeature = model.getFeatureIndex(CholesterolRiskModel.AGE);
+        bloodPressureFeature = model.getFeatureIndex(CholesterolRiskModel.BLOOD_PRESSURE);
+    }
+
+    /**
+     * Scores the patients that are new or have new readings, and forgets the removed patients
+     * @param changedPatients patients that are new or whose readings changed
+     * @param removedIds patients that are no longer monitored
+     * @return ids of the patients whose score changed
+     */
+    public Set<String> update(Collection<PatientModel> changedPatients, Collection<String> removedIds) {
+        for (String patientId: removedIds) {
+            patientLevels.remove(patientId);
+            scores.remove(patientId);
+        }
+
+        // put the patients whose levels changed in the batch
+        ensureBatchSize(changedPatients.size());
+        ArrayList<String> batchIds = new ArrayList<>();
+        int[] levels = new int[featureCount];
+        today.setTimeInMillis(System.currentTimeMillis());
+        for (PatientModel patient: changedPatients) {
+            getLevels(patient, levels);
+            int[] previousLevels = patientLevels.get(patient.getPatientID());
+            if (!Arrays.equals(previousLevels, levels)) {
+                System.arraycopy(levels, 0, batchLevels, batchIds.size() * featureCount, featureCount);
+                batchIds.add(patient.getPatientID());
+                patientLevels.put(patient.getPatientID(), levels.clone());
+            }
+        }
+
+        model.score(batchLevels, batchIds.size(), batchScores);
+        scoredCount = batchIds.size();
+        HashSet<String> changedIds = new HashSet<>();
+        for (int i = 0; i < batchIds.size(); i++) {
+            Float previousScore = scores.put(batchIds.get(i), batchScores[i]);
+            if (previousScore == null || previousScore != batchScores[i]) {
+                changedIds.add(batchIds.get(i));
+            }
+        }
+        return changedIds;
+    }
+
+    /**
+     * Returns the scores of the monitored patients
+     * @return copy of patient id -> probability that the patient's cholesterol is high
+     */
+    public HashMap<String, Float> getScores() {
+        return new HashMap<>(scores);
+    }
+
+    /**
+     * Returns the number of patients the last update scored, which are the ones whose levels changed
+     */
+    int getScoredCount() {
+        return scoredCount;
+    }
+
+    /**
+     * Forgets every patient
+     */
+    public void clear() {
+        patientLevels.clear();
+        scores.clear();
+    }
+
+    /**
+     * Turns a patient's age and latest diastolic blood pressure into the levels of the model.
+     * The diastolic reading is the one the blood pressure levels of the training data came from
+     */
+    private void getLevels(PatientModel patient, int[] levels) {
+        for (int i = 0; i < featureCount; i++) {
+            levels[i] = CholesterolRiskModel.MISSING;
+        }
+        levels[ageFeature] = model.getLevel(ageFeature, getAge(patient.getBirthDateValue()));
+        BloodPressureObservationModel bloodPressure =
+                (BloodPressureObservationModel) patient.getObservationReading(ObservationType.BLOOD_PRESSURE);
+        if (bloodPressure != null) {
+            levels[bloodPressureFeature] = model.getLevel(bloodPressureFeature, bloodPressure.getDiastolic());
+        }
+    }
+
+    /**
+     * Returns the age in whole years of someone born on a date
+     * @param birthDate birth date, null if it is unknown
+     * @return age on the day of the update, NaN if the birth date is unknown
+     */
+    private double getAge(Date birthDate) {
+        if (birthDate == null) {
+            return Double.NaN;
+        }
+        birthday.setTime(birthDate);
+        int age = today.get(Calendar.YEAR) - birthday.get(Calendar.YEAR);
+        // not had their birthday yet this year
+        int month = today.get(Calendar.MONTH);
+        int birthMonth = birthday.get(Calendar.MONTH);
+        if (month < birthMonth || (month == birthMonth
+                && today.get(Calendar.DAY_OF_MONTH) < birthday.get(Calendar.DAY_OF_MONTH))) {
+            age--;
+        }
+        return age;
+    }
+
+    private void ensureBatchSize(int patients) {
+        if (batchScores.length < patients) {
+            batchLevels = new int[patients * featureCount];
+            batchScores = new float[patients];
+        }
+    }
+}
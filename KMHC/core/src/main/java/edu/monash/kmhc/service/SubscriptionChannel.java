@@ -0,0 +1,127 @@
+package edu.monash.kmhc.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * This class listens to a FHIR subscription over the server's websocket endpoint.
+ *
+ * After the socket opens, the client sends "bind [subscription id]" and the server answers with
+ * "bound [subscription id]". From then on the server sends "ping [subscription id]" every time a
+ * resource matching the subscription criteria is created or updated.
+ */
+public class SubscriptionChannel extends WebSocketListener {
+
+    private static final String TAG = "SubscriptionChannel";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    // websocket pings let the client notice a dropped connection without waiting for a write
+    private static final OkHttpClient HTTP_CLIENT = new OkHttpClient.Builder()
+            .pingInterval(30, TimeUnit.SECONDS)
+            .build();
+
+    private String subscriptionId;
+    private OnSubscriptionEventListener listener;
+    private WebSocket webSocket;
+    private volatile boolean bound = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param subscriptionId id of the subscription created on the server
+     * @param listener listener that receives the notifications
+     */
+    public SubscriptionChannel(String subscriptionId, OnSubscriptionEventListener listener) {
+        this.subscriptionId = subscriptionId;
+        this.listener = listener;
+    }
+
+    /**
+     * Opens the websocket. The channel is bound to the subscription once the server replies.
+     * @param webSocketUrl websocket endpoint of the FHIR server
+     */
+    public void open(String webSocketUrl) {
+        webSocket = HTTP_CLIENT.newWebSocket(new Request.Builder().url(webSocketUrl).build(), this);
+    }
+
+    /**
+     * Closes the websocket. The listener is not told about the disconnection.
+     */
+    public void close() {
+        closed = true;
+        if (webSocket != null) {
+            webSocket.close(1000, "unsubscribed");
+        }
+    }
+
+    /**
+     * Checks if the server has confirmed the subscription and the socket is still open
+     * @return true if notifications can be received
+     */
+    public boolean isBound() {
+        return bound && !closed;
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+        webSocket.send("bind " + subscriptionId);
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, String text) {
+        if (text.startsWith("bound")) {
+            bound = true;
+            LOG.info("Bound to subscription " + subscriptionId);
+        }
+        else if (text.startsWith("ping")) {
+            listener.onNotification();
+        }
+        else {
+            // the server sends an error message when it cannot bind the subscription
+            LOG.warning("Unexpected message: " + text);
+            webSocket.close(1000, null);
+        }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+        webSocket.close(1000, null);
+    }
+
+    @Override
+    public void onClosed(WebSocket webSocket, int code, String reason) {
+        disconnected();
+    }
+
+    @Override
+    public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+        LOG.warning("Websocket failed: " + t.getMessage());
+        disconnected();
+    }
+
+    /**
+     * Tells the listener that no more notifications will arrive, unless the channel was closed by the app
+     */
+    private void disconnected() {
+        bound = false;
+        if (!closed) {
+            closed = true;
+            listener.onDisconnected();
+        }
+    }
+
+    /**
+     * Class the uses this interface must implement their own onNotification and onDisconnected methods.
+     * onNotification is called when a resource matching the subscription has changed.
+     * onDisconnected is called when the connection to the server is lost.
+     */
+    public interface OnSubscriptionEventListener {
+        void onNotification();
+        void onDisconnected();
+    }
+}
@@ -0,0 +1,106 @@
+package edu.monash.kmhc.service.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+/**
+ * This class keeps patients and their observations in memory instead of on the device, for running
+ * the sync on a plain JVM, ie. in benchmarks and load tests.
+ *
+ * Like the database, it keeps copies: loadPatients returns new patient models every time, so later
+ * changes to the loaded patients are only kept once they are saved again.
+ */
+public class MemoryPatientStore implements PatientStore {
+
+    // practitioner id -> patients in the order they were saved
+    private final HashMap<String, LinkedHashMap<String, PatientModel>> patients = new HashMap<>();
+    // patient id -> latest observation of each type
+    private final HashMap<String, EnumMap<ObservationType, ObservationModel>> observations = new HashMap<>();
+    // patient id -> stored blood pressure readings, oldest first
+    private final HashMap<String, ArrayList<BloodPressureObservationModel>> bpReadings = new HashMap<>();
+    private final HashMap<String, Date> watermarks = new HashMap<>();
+
+    @Override
+    public synchronized HashMap<String, PatientModel> loadPatients(String practitionerId, int depth) {
+        LinkedHashMap<String, PatientModel> loaded = new LinkedHashMap<>();
+        LinkedHashMap<String, PatientModel> stored = patients.get(practitionerId);
+        if (stored == null) {
+            return loaded;
+        }
+        for (PatientModel storedPatient: stored.values()) {
+            String patientId = storedPatient.getPatientID();
+            PatientModel patient = new PatientModel(patientId, storedPatient.getName(),
+                    storedPatient.getBirthDateValue(), storedPatient.getGenderValue(), storedPatient.getAddress());
+            EnumMap<ObservationType, ObservationModel> latest = observations.get(patientId);
+            if (latest != null) {
+                for (Map.Entry<ObservationType, ObservationModel> observation: latest.entrySet()) {
+                    patient.setObservation(observation.getKey(), observation.getValue());
+                }
+            }
+            if (bpReadings.containsKey(patientId)) {
+                patient.addBPReadings(bpReadings.get(patientId), depth);
+            }
+            loaded.put(patientId, patient);
+        }
+        return loaded;
+    }
+
+    @Override
+    public synchronized void savePatients(String practitionerId, Collection<PatientModel> patients) {
+        LinkedHashMap<String, PatientModel> stored = this.patients.get(practitionerId);
+        if (stored == null) {
+            stored = new LinkedHashMap<>();
+            this.patients.put(practitionerId, stored);
+        }
+        for (PatientModel patient: patients) {
+            stored.put(patient.getPatientID(), patient);
+        }
+    }
+
+    @Override
+    public synchronized void saveObservations(Collection<PatientModel> patients) {
+        for (PatientModel patient: patients) {
+            EnumMap<ObservationType, ObservationModel> latest = new EnumMap<>(ObservationType.class);
+            for (ObservationType type: ObservationType.values()) {
+                ObservationModel observation = patient.getObservationReading(type);
+                if (observation != null) {
+                    latest.put(type, observation);
+                }
+            }
+            observations.put(patient.getPatientID(), latest);
+
+            ObservationModel latestBP = latest.get(ObservationType.BLOOD_PRESSURE);
+            String unit = latestBP == null ? null : latestBP.getUnit();
+            TimeSeries systolic = patient.getTimeSeries(BloodPressureObservationModel.SYSTOLIC_CODE);
+            TimeSeries diastolic = patient.getTimeSeries(BloodPressureObservationModel.DIASTOLIC_CODE);
+            ArrayList<BloodPressureObservationModel> readings = new ArrayList<>();
+            for (int i = 0; i < systolic.size(); i++) {
+                long time = systolic.getTime(i);
+                readings.add(new BloodPressureObservationModel(systolic.getValue(i), diastolic.getValueAt(time),
+                        unit, time));
+            }
+            bpReadings.put(patient.getPatientID(), readings);
+        }
+    }
+
+    @Override
+    public synchronized HashMap<String, Date> loadWatermarks() {
+        return new HashMap<>(watermarks);
+    }
+
+    @Override
+    public synchronized void saveWatermarks(Map<String, Date> watermarks) {
+        this.watermarks.putAll(watermarks);
+    }
+}
@@ -0,0 +1,52 @@
+package edu.monash.kmhc.service.local;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.monash.kmhc.model.PatientModel;
+
+/**
+ * Keeps a practitioner's patients, their latest observations and the sync watermarks between
+ * launches, so they can be shown straight away and only the changes have to be downloaded.
+ *
+ * The app stores them in a Room database, and MemoryPatientStore keeps them in memory on a plain JVM.
+ * The methods are only called by the sync thread, but may block on disk.
+ */
+public interface PatientStore {
+
+    /**
+     * Loads the stored patients of a practitioner with their latest observations
+     * @param practitionerId practitioner identifier
+     * @param depth number of blood pressure readings kept in each patient's time series
+     * @return patients by patient reference
+     */
+    HashMap<String, PatientModel> loadPatients(String practitionerId, int depth);
+
+    /**
+     * Stores the details of a practitioner's patients. Observations are stored with saveObservations.
+     * @param practitionerId practitioner identifier
+     * @param patients patients downloaded from the server
+     */
+    void savePatients(String practitionerId, Collection<PatientModel> patients);
+
+    /**
+     * Replaces the stored observations of the patients with their current latest observations
+     * and blood pressure readings
+     * @param patients patients whose observations changed
+     */
+    void saveObservations(Collection<PatientModel> patients);
+
+    /**
+     * Loads the sync watermarks stored by saveWatermarks
+     * @return "patient id|observation code" -> server time of the last search
+     */
+    HashMap<String, Date> loadWatermarks();
+
+    /**
+     * Stores the sync watermarks, so the next launch only downloads observations changed after them
+     * @param watermarks "patient id|observation code" -> server time of the last search
+     */
+    void saveWatermarks(Map<String, Date> watermarks);
+}
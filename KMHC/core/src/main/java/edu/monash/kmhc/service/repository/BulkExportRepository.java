@@ -0,0 +1,476 @@
+package edu.monash.kmhc.service.repository;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirClientProvider;
+import edu.monash.kmhc.service.FhirService;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * This class loads every patient of a practitioner with their latest observations through one
+ * FHIR Bulk Data export, instead of searching for them one page at a time.
+ *
+ * A Patient/$export of the Patient, Encounter and Observation resources is started, with
+ * _typeFilter limiting the encounters to the practitioner's and the observations to the observation
+ * types. The status url is polled until the export is complete, then the NDJSON files are read one
+ * line at a time. The encounter files are read first to find the practitioner's patients, so only
+ * those patients and their latest observations are kept in memory. The other files are then read
+ * FILE_CONCURRENCY at a time, and observation lines of other patients are dropped before they are parsed.
+ *
+ * The observations are those of the export's transaction time, so the observation repository's
+ * watermarks are moved to it, and the next updates only get what changed after the export.
+ */
+public class BulkExportRepository extends FhirService {
+
+    private static final String TAG = "BulkExportRepository";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    private static final String NPI_SYSTEM = "http://hl7.org/fhir/sid/us-npi";
+    private static final String FHIR_JSON = "application/fhir+json";
+    private static final String NDJSON = "application/fhir+ndjson";
+    private static final String ENCOUNTER = "Encounter";
+    private static final String OBSERVATION = "Observation";
+    private static final List<String> EXPORT_TYPES = Arrays.asList(ENCOUNTER, "Patient", OBSERVATION);
+    // files downloaded and parsed at once
+    private static final int FILE_CONCURRENCY = 4;
+    // finds the patient of an observation line without parsing it
+    private static final Pattern SUBJECT_REFERENCE =
+            Pattern.compile("\"subject\"\\s*:\\s*\\{\\s*\"reference\"\\s*:\\s*\"([^\"]+)\"");
+    private static final int TIMEOUT = 60 * 1000;
+    // milliseconds between status requests, if the server does not send Retry-After
+    private static final long STATUS_INTERVAL = 2000;
+    private static final long MAX_STATUS_INTERVAL = 60 * 1000;
+    // milliseconds the export is given to complete before the search is used instead
+    private static final long EXPORT_DEADLINE = 10 * 60 * 1000;
+    private static final OkHttpClient HTTP_CLIENT = new OkHttpClient.Builder()
+            .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+            .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+            .build();
+
+    // base urls of the servers that do not support the $export operation
+    private static final Set<String> exportUnsupportedServers = ConcurrentHashMap.newKeySet();
+
+    private String practitionerId;
+    private ObservationRepositoryFactory observationRepository;
+
+    /**
+     * Constructor.
+     * @param practitionerId Health practitioner's id
+     * @param observationRepository repository whose watermarks are moved to the export's time
+     */
+    public BulkExportRepository(String practitionerId, ObservationRepositoryFactory observationRepository) {
+        this.practitionerId = practitionerId;
+        this.observationRepository = observationRepository;
+    }
+
+    /**
+     * Gets all patients treated by the practitioner and their latest observations with one export.
+     * Blocks until the export is complete and every file has been read.
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each patient
+     * @param listener listener that receives the patients and their observations
+     * @return false if the server does not support $export or rejected this export, so nothing was loaded
+     * @throws IOException if the export failed or did not complete in time
+     */
+    public boolean getAllPatients(Collection<ObservationType> types, int n, OnPanelExportedListener listener)
+            throws IOException {
+        String serverBase = client.getServerBase();
+        if (exportUnsupportedServers.contains(serverBase)) {
+            return false;
+        }
+
+        long start = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        String statusUrl;
+        try (Response response = HTTP_CLIENT.newCall(new Request.Builder()
+                .url(getKickOffUrl(types))
+                .header("Accept", FHIR_JSON)
+                .header("Prefer", "respond-async")
+                .build()).execute()) {
+            if (isUnsupportedOperation(response.code())) {
+                // use searches for this server from now on
+                exportUnsupportedServers.add(serverBase);
+                return false;
+            }
+            if (response.code() >= 400 && response.code() < 500) {
+                // ie. a parameter the server does not take. only this load searches instead
+                LOG.warning("The export was rejected with " + response.code() + ", searching for the patients instead");
+                return false;
+            }
+            statusUrl = response.header("Content-Location");
+            if (response.code() != 202 || statusUrl == null) {
+                throw new IOException("Could not start the export: " + response.code());
+            }
+        }
+
+        try {
+            ExportManifest manifest = waitForExport(statusUrl);
+            Date transactionTime = new InstantType(manifest.transactionTime).getValue();
+
+            // the encounters decide which patients and observations are kept, so they are read first
+            ExportedPanel panel = new ExportedPanel(n);
+            ArrayList<ExportManifest.Output> encounterFiles = new ArrayList<>();
+            ArrayList<ExportManifest.Output> otherFiles = new ArrayList<>();
+            for (ExportManifest.Output output: manifest.output) {
+                if (ENCOUNTER.equals(output.type)) {
+                    encounterFiles.add(output);
+                }
+                else if (EXPORT_TYPES.contains(output.type)) {
+                    otherFiles.add(output);
+                }
+            }
+            int lines = readFiles(encounterFiles, panel) + readFiles(otherFiles, panel);
+            if (manifest.error != null && !manifest.error.isEmpty()) {
+                LOG.warning("The export has " + manifest.error.size() + " error files");
+            }
+
+            ObservationBatch batch = panel.createBatch(types, transactionTime);
+            observationRepository.commitWatermarks(batch);
+            LOG.info("Exported " + panel.patients.size() + " patients from " + lines + " lines in "
+                    + (TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - start) + " ms");
+            listener.onPanelExported(new ArrayList<>(panel.patients.values()), batch);
+            return true;
+        }
+        finally {
+            deleteExport(statusUrl);
+        }
+    }
+
+    /**
+     * Returns the url that starts the export of the practitioner's encounters, their patients, and
+     * the patients' observations of the given types
+     */
+    private HttpUrl getKickOffUrl(Collection<ObservationType> types) throws UnsupportedEncodingException {
+        HttpUrl.Builder url = HttpUrl.parse(client.getServerBase()).newBuilder()
+                .addPathSegment("Patient")
+                .addPathSegment("$export")
+                .addQueryParameter("_outputFormat", NDJSON)
+                .addQueryParameter("_type", String.join(",", EXPORT_TYPES))
+                .addQueryParameter("_typeFilter", "Encounter?participant.identifier="
+                        + URLEncoder.encode(NPI_SYSTEM + "|" + practitionerId, "UTF-8"));
+        // one filter per code, the filters of a type are combined with or
+        for (ObservationType type: types) {
+            url.addQueryParameter("_typeFilter", "Observation?code=" + type.getObservationCode());
+        }
+        return url.build();
+    }
+
+    /**
+     * Polls the status url until the export is complete
+     * @param statusUrl url from the Content-Location of the kick-off response
+     * @return the list of exported files
+     */
+    private ExportManifest waitForExport(String statusUrl) throws IOException {
+        long deadline = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) + EXPORT_DEADLINE;
+        while (true) {
+            long delay;
+            try (Response response = HTTP_CLIENT.newCall(new Request.Builder()
+                    .url(statusUrl)
+                    .header("Accept", "application/json")
+                    .build()).execute()) {
+                if (response.code() == 200) {
+                    try {
+                        ExportManifest manifest = new Gson().fromJson(response.body().charStream(), ExportManifest.class);
+                        if (manifest == null || manifest.transactionTime == null || manifest.output == null) {
+                            throw new IOException("The export manifest is incomplete");
+                        }
+                        return manifest;
+                    }
+                    catch (JsonParseException e) {
+                        throw new IOException("The export manifest could not be read", e);
+                    }
+                }
+                if (response.code() != 202) {
+                    throw new IOException("The export failed: " + response.code());
+                }
+                LOG.info("Export in progress " + response.header("X-Progress", ""));
+                delay = getRetryAfter(response.header("Retry-After"));
+            }
+
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) + delay > deadline) {
+                throw new IOException("The export did not complete in time");
+            }
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the export", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the milliseconds to wait before the next status request
+     * @param retryAfter Retry-After header in seconds, or null
+     */
+    private long getRetryAfter(String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return Math.min(MAX_STATUS_INTERVAL, Math.max(0, Long.parseLong(retryAfter.trim()) * 1000));
+            }
+            catch (NumberFormatException e) {
+                // an http date, wait the default time instead
+            }
+        }
+        return STATUS_INTERVAL;
+    }
+
+    /**
+     * Reads files FILE_CONCURRENCY at a time and adds their resources to the panel
+     * @param files files from the manifest
+     * @param panel patients and observations read so far
+     * @return number of lines read
+     */
+    private int readFiles(List<ExportManifest.Output> files, ExportedPanel panel) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(FILE_CONCURRENCY,
+                runnable -> new Thread(runnable, "Export Thread"));
+        try {
+            ArrayList<Future<Integer>> lines = new ArrayList<>();
+            for (ExportManifest.Output file: files) {
+                lines.add(workers.submit(() -> readFile(file.url, OBSERVATION.equals(file.type), panel)));
+            }
+            int total = 0;
+            for (Future<Integer> fileLines: lines) {
+                total += fileLines.get();
+            }
+            return total;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the export", e);
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads an NDJSON file one line at a time and adds its resources to the panel. Runs on an export thread
+     * @param url url of the file from the manifest
+     * @param observations true if the file holds observations, which are only parsed for the panel's patients
+     * @param panel patients and observations read so far
+     * @return number of lines read
+     */
+    private int readFile(String url, boolean observations, ExportedPanel panel) throws IOException {
+        // parsers are not thread safe
+        IParser parser = FhirClientProvider.getInstance().getContext().newJsonParser();
+        int lines = 0;
+        try (Response response = HTTP_CLIENT.newCall(new Request.Builder()
+                .url(url)
+                .header("Accept", NDJSON)
+                .build()).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Could not download " + url + ": " + response.code());
+            }
+            try (BufferedReader reader = new BufferedReader(response.body().charStream())) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    lines++;
+                    if (observations) {
+                        Matcher subject = SUBJECT_REFERENCE.matcher(line);
+                        if (subject.find() && !panel.isInPanel(subject.group(1))) {
+                            continue;
+                        }
+                    }
+                    try {
+                        panel.add(parser.parseResource(line));
+                    }
+                    catch (DataFormatException e) {
+                        LOG.warning("Skipping a line of " + url + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Asks the server to delete the export's files. The files are only needed once
+     */
+    private void deleteExport(String statusUrl) {
+        try (Response response = HTTP_CLIENT.newCall(new Request.Builder().url(statusUrl).delete().build()).execute()) {
+            LOG.info("Deleted export: " + response.code());
+        }
+        catch (IOException e) {
+            LOG.warning("Could not delete the export: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if the server rejected the kick-off request because it does not support the operation.
+     * A 400 can also mean a bad parameter, so it does not count.
+     * @param status status code of the response
+     * @return true if the operation is not supported
+     */
+    private boolean isUnsupportedOperation(int status) {
+        return status == 404 || status == 405 || status == 501;
+    }
+
+    /**
+     * The practitioner's patients and their latest observations, built from the exported files
+     */
+    private static class ExportedPanel {
+
+        private int n;
+        // references of the practitioner's patients, found in the encounter files
+        private HashSet<String> patientReferences = new HashSet<>();
+        // patient reference -> patient model
+        private LinkedHashMap<String, PatientModel> patients = new LinkedHashMap<>();
+        // "patient reference|observation code" -> latest observations, newest first
+        private HashMap<String, ArrayList<Observation>> latestObservations = new HashMap<>();
+
+        ExportedPanel(int n) {
+            this.n = n;
+        }
+
+        /**
+         * Adds a resource from an export file. Observations of other patients are dropped
+         */
+        synchronized void add(IBaseResource resource) {
+            if (resource instanceof Encounter) {
+                String reference = ((Encounter) resource).getSubject().getReference();
+                if (reference != null && reference.startsWith("Patient")) {
+                    patientReferences.add(reference);
+                }
+            }
+            else if (resource instanceof Patient) {
+                Patient patient = (Patient) resource;
+                String reference = patient.getIdElement().toUnqualifiedVersionless().getValue();
+                if (patientReferences.contains(reference)) {
+                    patients.put(reference, PatientRepository.createPatientModel(reference, patient));
+                }
+            }
+            else if (resource instanceof Observation) {
+                Observation observation = (Observation) resource;
+                String reference = observation.getSubject().getReference();
+                ObservationType type = ObservationType.fromCode(observation.getCode().getCodingFirstRep().getCode());
+                // the patient files may not have been read yet
+                if (type != null && patientReferences.contains(reference)) {
+                    keepLatest(reference + "|" + type.getObservationCode(), observation,
+                            type == ObservationType.BLOOD_PRESSURE ? n : 1);
+                }
+            }
+        }
+
+        /**
+         * Checks if a patient has encounters with the practitioner. The encounter files must have been read
+         */
+        synchronized boolean isInPanel(String reference) {
+            return patientReferences.contains(reference);
+        }
+
+        /**
+         * Keeps an observation if it is one of the latest max of its patient and code.
+         * The files are not sorted, so the observation is inserted in date order
+         */
+        private void keepLatest(String key, Observation observation, int max) {
+            ArrayList<Observation> latest = latestObservations.get(key);
+            if (latest == null) {
+                latest = new ArrayList<>();
+                latestObservations.put(key, latest);
+            }
+            int index = latest.size();
+            while (index > 0 && ObservationRepositoryFactory.NEWEST_FIRST.compare(observation, latest.get(index - 1)) < 0) {
+                index--;
+            }
+            if (index < max) {
+                latest.add(index, observation);
+                if (latest.size() > max) {
+                    latest.remove(max);
+                }
+            }
+        }
+
+        /**
+         * Creates the batch of the patients' latest observations. Every patient is covered up to the
+         * export's transaction time, even those without observations
+         */
+        ObservationBatch createBatch(Collection<ObservationType> types, Date transactionTime) {
+            ObservationBatch batch = new ObservationBatch(n);
+            for (String reference: patients.keySet()) {
+                for (ObservationType type: types) {
+                    String key = reference + "|" + type.getObservationCode();
+                    ArrayList<Observation> latest = latestObservations.get(key);
+                    if (latest != null) {
+                        for (Observation observation: latest) {
+                            batch.add(reference, type, observation);
+                        }
+                    }
+                    batch.setWatermark(key, transactionTime);
+                }
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Response of the status url once the export is complete. Only the fields read by the app
+     */
+    private static class ExportManifest {
+
+        private String transactionTime;
+        private List<Output> output;
+        private List<Output> error;
+
+        private static class Output {
+            private String type;
+            private String url;
+        }
+    }
+
+    /**
+     * Class the uses this interface must implement their own onPanelExported method.
+     * onPanelExported is called once every exported file has been read.
+     */
+    public interface OnPanelExportedListener {
+        void onPanelExported(ArrayList<PatientModel> patients, ObservationBatch batch);
+    }
+}
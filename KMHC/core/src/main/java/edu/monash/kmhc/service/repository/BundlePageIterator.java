@@ -0,0 +1,98 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+/**
+ * This class iterates through the pages of a search result by following the bundle's next links.
+ *
+ * When a page is returned, the page after it is already being downloaded on a background thread,
+ * so the next page is usually ready by the time the current page has been processed. Only the
+ * current page and the page being downloaded are kept in memory.
+ */
+public class BundlePageIterator implements Iterator<Bundle> {
+
+    // threads are only kept while pages are being downloaded. they are daemon threads, so an idle
+    // prefetch thread does not keep the JVM of the extractor or the stand-in checks running
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Prefetch Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IGenericClient client;
+    private Bundle firstPage;
+    private Future<Bundle> nextPage;
+
+    /**
+     * Constructor.
+     * @param client client used to get the next pages
+     * @param firstPage first page of the search result
+     */
+    public BundlePageIterator(IGenericClient client, Bundle firstPage) {
+        this.client = client;
+        this.firstPage = firstPage;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return firstPage != null || nextPage != null;
+    }
+
+    /**
+     * Returns the next page and starts downloading the page after it.
+     * @return next page of the search result
+     */
+    @Override
+    public Bundle next() {
+        Bundle page;
+        if (firstPage != null) {
+            page = firstPage;
+            firstPage = null;
+        }
+        else if (nextPage != null) {
+            page = getNextPage();
+        }
+        else {
+            throw new NoSuchElementException("No more pages");
+        }
+
+        // prefetch the page after this one
+        if (page.getLink(Bundle.LINK_NEXT) != null) {
+            nextPage = PREFETCH_EXECUTOR.submit(() -> client.loadPage().next(page).execute());
+        }
+        else {
+            nextPage = null;
+        }
+        return page;
+    }
+
+    /**
+     * Waits for the page that is being downloaded.
+     * @return downloaded page
+     */
+    private Bundle getNextPage() {
+        try {
+            return nextPage.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            nextPage.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.Observation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Set;
+
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * This class stores the result of a batched observation search.
+ *
+ * Observations are added newest first. For every patient it keeps the latest observation of each
+ * observation type, and the latest n blood pressure readings.
+ */
+public class ObservationBatch {
+
+    private int n;
+    // patient id -> latest observation of each type
+    private HashMap<String, HashMap<ObservationType, ObservationModel>> latestObservations = new HashMap<>();
+    // patient id -> latest n blood pressure readings, newest first
+    private HashMap<String, ArrayList<BloodPressureObservationModel>> latestBPReadings = new HashMap<>();
+    // "patient id|observation code" -> server time of the search that filled the batch.
+    // The repository only moves its watermarks to these once the batch has been used.
+    private HashMap<String, Date> watermarks = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param n number of blood pressure readings to keep for each patient
+     */
+    ObservationBatch(int n) {
+        this.n = n;
+    }
+
+    /**
+     * Adds an observation to the batch. Observations must be added from newest to oldest.
+     * @param patientId patient the observation belongs to
+     * @param type observation type
+     * @param observation observation from the server
+     */
+    void add(String patientId, ObservationType type, Observation observation) {
+        HashMap<ObservationType, ObservationModel> observations = latestObservations.get(patientId);
+        if (observations == null) {
+            observations = new HashMap<>();
+            latestObservations.put(patientId, observations);
+        }
+
+        switch (type) {
+            case CHOLESTEROL:
+                if (!observations.containsKey(type)) {
+                    observations.put(type, new CholesterolObservationModel(observation));
+                }
+                break;
+            case BLOOD_PRESSURE:
+                ArrayList<BloodPressureObservationModel> readings = latestBPReadings.get(patientId);
+                if (readings == null) {
+                    readings = new ArrayList<>();
+                    latestBPReadings.put(patientId, readings);
+                }
+                if (readings.size() < n) {
+                    BloodPressureObservationModel reading = new BloodPressureObservationModel(observation);
+                    readings.add(reading);
+                    if (!observations.containsKey(type)) {
+                        observations.put(type, reading);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Adds the observations and watermarks of another batch. The batches must be for different patients.
+     * @param other batch for other patients
+     */
+    void addAll(ObservationBatch other) {
+        latestObservations.putAll(other.latestObservations);
+        latestBPReadings.putAll(other.latestBPReadings);
+        watermarks.putAll(other.watermarks);
+    }
+
+    /**
+     * Records the server time of the search that covered a patient's observation code
+     * @param key "patient id|observation code"
+     * @param searchTime server time of the search
+     */
+    void setWatermark(String key, Date searchTime) {
+        watermarks.put(key, searchTime);
+    }
+
+    /**
+     * Returns the watermarks recorded by setWatermark
+     * @return "patient id|observation code" -> server time of the search
+     */
+    HashMap<String, Date> getWatermarks() {
+        return watermarks;
+    }
+
+    /**
+     * Checks if the batch holds everything that was asked for, so no more pages have to be read.
+     * @param patientIds patients that were searched
+     * @param types observation types that were searched
+     * @return true if every patient has the latest reading of every type and n blood pressure readings
+     */
+    boolean isComplete(Collection<String> patientIds, Collection<ObservationType> types) {
+        for (String patientId: patientIds) {
+            for (ObservationType type: types) {
+                if (!isComplete(patientId, type)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the batch holds everything that was asked for one patient and type
+     * @param patientId patient id
+     * @param type observation type
+     * @return true if the patient has the latest reading of the type, and n readings of blood pressure
+     */
+    boolean isComplete(String patientId, ObservationType type) {
+        if (type == ObservationType.BLOOD_PRESSURE) {
+            ArrayList<BloodPressureObservationModel> readings = latestBPReadings.get(patientId);
+            return readings != null && readings.size() >= n;
+        }
+        return getObservation(patientId, type) != null;
+    }
+
+    /**
+     * Removes a patient's observations of a type, so they can be added again from another search
+     * @param patientId patient id
+     * @param type observation type
+     */
+    void clear(String patientId, ObservationType type) {
+        HashMap<ObservationType, ObservationModel> observations = latestObservations.get(patientId);
+        if (observations != null) {
+            observations.remove(type);
+        }
+        if (type == ObservationType.BLOOD_PRESSURE) {
+            latestBPReadings.remove(patientId);
+        }
+    }
+
+    /**
+     * Returns the latest observation of a type for a patient
+     * @param patientId patient id
+     * @param type observation type
+     * @return latest observation or null if the patient has no observation of this type
+     */
+    public ObservationModel getObservation(String patientId, ObservationType type) {
+        HashMap<ObservationType, ObservationModel> observations = latestObservations.get(patientId);
+        return observations == null ? null : observations.get(type);
+    }
+
+    /**
+     * Returns the latest n blood pressure readings for a patient
+     * @param patientId patient id
+     * @return latest readings, newest first. Empty if the patient has no readings.
+     */
+    public ArrayList<BloodPressureObservationModel> getLatestBloodPressureReadings(String patientId) {
+        ArrayList<BloodPressureObservationModel> readings = latestBPReadings.get(patientId);
+        return readings == null ? new ArrayList<>() : readings;
+    }
+
+    /**
+     * Checks if the batch covers a patient's observation type, even if there were no new observations
+     * @param patientId patient id
+     * @param type observation type
+     * @return true if the search for this patient and type finished
+     */
+    public boolean isFetched(String patientId, ObservationType type) {
+        return watermarks.containsKey(patientId + "|" + type.getObservationCode());
+    }
+
+    /**
+     * Returns the patients that have at least one observation in the batch
+     * @return patient ids
+     */
+    public Set<String> getPatientIds() {
+        return latestObservations.keySet();
+    }
+}
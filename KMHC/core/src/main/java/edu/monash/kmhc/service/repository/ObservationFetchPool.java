@@ -0,0 +1,234 @@
+package edu.monash.kmhc.service.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirClientProvider;
+
+/**
+ * This class gets the observation updates of many patients on a bounded pool of worker threads.
+ *
+ * The patients are split into groups of patientsPerFetch, and each group is one fetch. At most
+ * concurrency fetches run at once, so one slow response only holds up the patients in its group.
+ * Fetches that have not finished by the deadline are cancelled and their watermarks are not moved,
+ * so their patients are fetched again in the next cycle. The finished fetches are gathered into
+ * one batch, so observers are only updated once per cycle.
+ *
+ * HAPI's blocking socket reads ignore interrupts, so cancelling a fetch would leave its worker
+ * waiting for the socket timeout. The HTTP request a fetch is waiting on is aborted instead, which
+ * closes its connection and frees the worker for the next cycle right away.
+ */
+public class ObservationFetchPool {
+
+    private static final String TAG = "ObservationFetchPool";
+    private static final Logger LOG = Logger.getLogger(TAG);
+
+    // fetch running on the current worker, whose requests are recorded by the interceptor
+    private static final ThreadLocal<AbortableFetch> currentFetch = new ThreadLocal<>();
+    private static boolean interceptorAdded = false;
+
+    private ObservationRepositoryFactory repository;
+    private ExecutorService workers;
+    private int concurrency;
+    private int patientsPerFetch;
+
+    /**
+     * Constructor.
+     * @param repository repository used by every worker
+     * @param concurrency maximum number of fetches running at once
+     * @param patientsPerFetch number of patients in one fetch
+     */
+    public ObservationFetchPool(ObservationRepositoryFactory repository, int concurrency, int patientsPerFetch) {
+        this.repository = repository;
+        this.concurrency = concurrency;
+        this.patientsPerFetch = patientsPerFetch;
+        workers = Executors.newFixedThreadPool(concurrency, runnable -> new Thread(runnable, "Fetch Thread"));
+        addInterceptor();
+    }
+
+    /**
+     * Adds the interceptor that records the requests of the fetches to the shared client, once
+     */
+    private static synchronized void addInterceptor() {
+        if (!interceptorAdded) {
+            interceptorAdded = true;
+            FhirClientProvider.addInterceptor(new FetchRequestInterceptor());
+        }
+    }
+
+    /**
+     * Gets only the observations that were created or changed since the last time they were fetched.
+     * Blocks until every fetch has finished or the deadline has passed.
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each new patient
+     * @param timeoutMillis time the fetches are given before the rest are cancelled
+     * @return new or changed observations of the patients whose fetch finished in time
+     */
+    public ObservationBatch getObservationUpdates(List<String> patientIds, Collection<ObservationType> types,
+                                                  int n, long timeoutMillis) {
+        HashMap<Collection<ObservationType>, List<String>> patientIdsByTypes = new HashMap<>();
+        patientIdsByTypes.put(types, patientIds);
+        return getObservationUpdates(patientIdsByTypes, n, timeoutMillis);
+    }
+
+    /**
+     * Gets the observation updates of groups of patients that need different observation types.
+     * Blocks until every fetch has finished or the deadline has passed.
+     * @param patientIdsByTypes observation types -> patients to get those types for
+     * @param n number of latest blood pressure readings to get for each new patient
+     * @param timeoutMillis time the fetches are given before the rest are cancelled
+     * @return new or changed observations of the patients whose fetch finished in time
+     */
+    public ObservationBatch getObservationUpdates(Map<? extends Collection<ObservationType>, ? extends List<String>> patientIdsByTypes,
+                                                  int n, long timeoutMillis) {
+        long startTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        long deadline = startTime + timeoutMillis;
+
+        int patientCount = 0;
+        ArrayList<AbortableFetch> calls = new ArrayList<>();
+        ArrayList<Future<ObservationBatch>> fetches = new ArrayList<>();
+        for (Map.Entry<? extends Collection<ObservationType>, ? extends List<String>> group: patientIdsByTypes.entrySet()) {
+            Collection<ObservationType> types = group.getKey();
+            List<String> patientIds = group.getValue();
+            patientCount += patientIds.size();
+            for (int i = 0; i < patientIds.size(); i += patientsPerFetch) {
+                List<String> ids = new ArrayList<>(patientIds.subList(i, Math.min(i + patientsPerFetch, patientIds.size())));
+                AbortableFetch call = new AbortableFetch(() -> repository.collectObservationUpdates(ids, types, n));
+                calls.add(call);
+                fetches.add(workers.submit(call));
+            }
+        }
+
+        // gather the finished fetches into one batch
+        ObservationBatch batch = new ObservationBatch(n);
+        int timedOut = 0;
+        int failed = 0;
+        RuntimeException error = null;
+        for (int i = 0; i < fetches.size(); i++) {
+            Future<ObservationBatch> fetch = fetches.get(i);
+            try {
+                ObservationBatch fetchBatch = fetch.get(Math.max(0, deadline - TimeUnit.NANOSECONDS.toMillis(System.nanoTime())),
+                        TimeUnit.MILLISECONDS);
+                repository.commitWatermarks(fetchBatch);
+                batch.addAll(fetchBatch);
+            }
+            catch (TimeoutException e) {
+                fetch.cancel(true);
+                calls.get(i).abort();
+                timedOut++;
+            }
+            catch (ExecutionException e) {
+                failed++;
+                if (e.getCause() instanceof RuntimeException) {
+                    error = (RuntimeException) e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                for (int j = 0; j < fetches.size(); j++) {
+                    fetches.get(j).cancel(true);
+                    calls.get(j).abort();
+                }
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Poll interrupted");
+            }
+        }
+
+        LOG.info("Polled " + patientCount + " patients in " + fetches.size() + " fetches"
+                + " at concurrency " + concurrency + ": " + (TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - startTime) + " ms"
+                + " (" + timedOut + " timed out, " + failed + " failed)");
+
+        // the poll failed if no fetch finished, so the caller can back off
+        if (!fetches.isEmpty() && timedOut + failed == fetches.size()) {
+            throw error != null ? error : new RuntimeException("No fetch finished within " + timeoutMillis + " ms");
+        }
+        return batch;
+    }
+
+    /**
+     * Stops the workers. Fetches that are running are cancelled.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * A fetch whose HTTP requests can be aborted from another thread
+     */
+    private static class AbortableFetch implements Callable<ObservationBatch> {
+
+        private final Callable<ObservationBatch> fetch;
+        private ApacheHttpRequest request;
+        private boolean aborted = false;
+
+        AbortableFetch(Callable<ObservationBatch> fetch) {
+            this.fetch = fetch;
+        }
+
+        @Override
+        public ObservationBatch call() throws Exception {
+            currentFetch.set(this);
+            try {
+                return fetch.call();
+            }
+            finally {
+                currentFetch.remove();
+            }
+        }
+
+        /**
+         * Records the request the fetch is about to send. It is aborted at once if the fetch already was
+         */
+        synchronized void setRequest(ApacheHttpRequest request) {
+            this.request = request;
+            if (aborted) {
+                request.getApacheRequest().abort();
+            }
+        }
+
+        /**
+         * Aborts the request the fetch is waiting on and every request it sends after it
+         */
+        synchronized void abort() {
+            aborted = true;
+            if (request != null) {
+                request.getApacheRequest().abort();
+            }
+        }
+    }
+
+    /**
+     * Records the requests sent by the fetches. Requests sent by other threads are left alone
+     */
+    private static class FetchRequestInterceptor implements IClientInterceptor {
+
+        @Override
+        public void interceptRequest(IHttpRequest theRequest) {
+            AbortableFetch fetch = currentFetch.get();
+            if (fetch != null && theRequest instanceof ApacheHttpRequest) {
+                fetch.setRequest((ApacheHttpRequest) theRequest);
+            }
+        }
+
+        @Override
+        public void interceptResponse(IHttpResponse theResponse) {
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirService;
+
+/**
+ * This class is responsible for instantiating other Observation models using the Factory design pattern.
+ *
+ * The ObservationRepositoryFactory creates different types of ObservationModel objects.
+ * It can be made extensible whereby in the future when more observation models have to be added, 
+ * only the create[ObservationTypeModel] method have to be created and getObservationModel method 
+ * have to be modified to instantiate the different observation types.
+ */
+public class ObservationRepositoryFactory extends FhirService {
+
+    // patient ids are sent in the search url, so limit how many are sent in one search
+    private static final int MAX_PATIENTS_PER_SEARCH = 100;
+    private static final int PAGE_SIZE = 100;
+    // milliseconds a patient's watermark may be ahead of the lower bound of the search they are in.
+    // patients further ahead are searched with the next group, so a patient that fell behind does not
+    // make the search download what the others have already seen
+    private static final long MAX_WATERMARK_SPREAD = 60 * 1000;
+    // pages of a multi-patient search read before the series that are still short are searched one by one
+    private static final int MAX_SEARCH_PAGES = 3;
+    // only download the elements that are read by the observation models
+    private static final String[] OBSERVATION_ELEMENTS = {"meta", "subject", "code", "value", "component", "effective"};
+
+    // sorts observations by effective date, newest first
+    static final Comparator<Observation> NEWEST_FIRST = (a, b) -> {
+        Date dateA = a.hasEffectiveDateTimeType() ? a.getEffectiveDateTimeType().getValue() : null;
+        Date dateB = b.hasEffectiveDateTimeType() ? b.getEffectiveDateTimeType().getValue() : null;
+        if (dateA == null || dateB == null) {
+            return dateA == null ? (dateB == null ? 0 : 1) : -1;
+        }
+        return dateB.compareTo(dateA);
+    };
+
+    // base urls of the servers that do not support the Observation/$lastn operation
+    private static final Set<String> lastNUnsupportedServers = ConcurrentHashMap.newKeySet();
+
+    private IGenericClient client = super.client;
+    // "patient id|observation code" -> server time of the last search that returned the patient's
+    // observations of this code. Anything updated after this time has not been seen yet.
+    private ConcurrentHashMap<String, Date> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the bundle from the FHIR server for Observation.
+     * @return observation bundle
+     */
+    private Observation getObservation(String patientId, String code) {
+        Bundle bundle = client.search()
+                .forResource(Observation.class)
+                .where(Observation.PATIENT.hasId(patientId))
+                .and(Observation.CODE.exactly().code(code))
+                .sort().descending(Observation.DATE)
+                .returnBundle(Bundle.class)
+                .elementsSubset(OBSERVATION_ELEMENTS)
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute();
+
+        return (Observation) (bundle.getEntry().get(0)).getResource();
+    }
+
+    public ObservationModel getObservationModel(String patientId, ObservationType type) {
+        switch (type) {
+            case CHOLESTEROL:
+                return createCholesterolModel(patientId);
+            case BLOOD_PRESSURE:
+                return createBloodPressureModel(patientId);
+            default:
+                throw new IllegalArgumentException("Observation type invalid");
+        }
+    }
+
+    private CholesterolObservationModel createCholesterolModel(String patientId) {
+        return new CholesterolObservationModel(getObservation(patientId, ObservationType.CHOLESTEROL.getObservationCode()));
+    }
+
+    private BloodPressureObservationModel createBloodPressureModel(String patientId) {
+        return new BloodPressureObservationModel(getObservation(patientId, ObservationType.BLOOD_PRESSURE.getObservationCode()));
+    }
+
+    /**
+     * Returns an ArrayList of n latest readings
+     * @param patientId patient id
+     * @param code observation code
+     * @param n latest n readings
+     * @return ArrayList of readings
+     */
+    private ArrayList<Observation> getLatestObservationReadings(String patientId, String code, int n) {
+        ArrayList<Observation> latestReadings = new ArrayList<>();
+        Bundle bundle = client.search()
+                .forResource(Observation.class)
+                .where(Observation.PATIENT.hasId(patientId))
+                .and(Observation.CODE.exactly().code(code))
+                .sort().descending(Observation.DATE)
+                .count(n)
+                .returnBundle(Bundle.class)
+                .elementsSubset(OBSERVATION_ELEMENTS)
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute();
+
+        for (int i = 0; i < Math.min(n, bundle.getEntry().size()); i++) {
+            latestReadings.add((Observation) (bundle.getEntry().get(i)).getResource());
+        }
+        return latestReadings;
+    }
+
+    public ArrayList<BloodPressureObservationModel> getLatestBloodPressureReadings(String patientId, int n) {
+        ArrayList<BloodPressureObservationModel> bpReadings = new ArrayList<>();
+        for (Observation observation: getLatestObservationReadings(patientId, ObservationType.BLOOD_PRESSURE.getObservationCode(), n)) {
+            bpReadings.add(new BloodPressureObservationModel(observation));
+        }
+        return bpReadings;
+    }
+
+    /**
+     * Gets the latest observation of every type and the latest n blood pressure readings for all
+     * the patients in one request, instead of one search per patient per observation type.
+     *
+     * The server's Observation/$lastn operation is used to get the latest n observations of every
+     * patient and code. If the server does not support $lastn, a search for all patients and codes
+     * at once (patient=a,b,c&code=2093-3,55284-4) sorted by date is used instead. A few pages of it
+     * are read, then the series that are still short are searched one at a time with _count=n.
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each patient
+     * @return observations sorted by patient and observation type
+     */
+    public ObservationBatch getObservationBatch(List<String> patientIds, Collection<ObservationType> types, int n) {
+        ObservationBatch batch = new ObservationBatch(n);
+        addLatestToBatch(batch, patientIds, types, n);
+        commitWatermarks(batch);
+        return batch;
+    }
+
+    /**
+     * Gets only the observations that were created or changed since the last time they were fetched.
+     *
+     * Patients that have been fetched before are searched with _lastUpdated=gt[last search time],
+     * which usually returns an empty bundle. Patients that have not been fetched before get their
+     * latest observations the same way as getObservationBatch.
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each new patient
+     * @return new or changed observations, sorted by patient and observation type
+     */
+    public ObservationBatch getObservationUpdates(List<String> patientIds, Collection<ObservationType> types, int n) {
+        ObservationBatch batch = collectObservationUpdates(patientIds, types, n);
+        commitWatermarks(batch);
+        return batch;
+    }
+
+    /**
+     * Same as getObservationUpdates, but the watermarks are only recorded in the batch. They must be
+     * committed with commitWatermarks once the batch is used, otherwise the updates are fetched again.
+     * Can be called from several threads at once for different patients.
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each new patient
+     * @return new or changed observations, sorted by patient and observation type
+     */
+    ObservationBatch collectObservationUpdates(List<String> patientIds, Collection<ObservationType> types, int n) {
+        ObservationBatch batch = new ObservationBatch(n);
+        ArrayList<String> newPatientIds = new ArrayList<>();
+        // known patient -> oldest watermark of their types
+        HashMap<String, Date> knownPatients = new HashMap<>();
+
+        for (String patientId: patientIds) {
+            Date since = null;
+            for (ObservationType type: types) {
+                Date watermark = watermarks.get(getWatermarkKey(patientId, type.getObservationCode()));
+                if (watermark == null) {
+                    since = null;
+                    break;
+                }
+                if (since == null || watermark.before(since)) {
+                    since = watermark;
+                }
+            }
+            if (since != null) {
+                knownPatients.put(patientId, since);
+            }
+            else {
+                newPatientIds.add(patientId);
+            }
+        }
+
+        addLatestToBatch(batch, newPatientIds, types, n);
+        if (!knownPatients.isEmpty()) {
+            // search patients with close watermarks together, from the oldest watermark of each group
+            ArrayList<String> knownPatientIds = new ArrayList<>(knownPatients.keySet());
+            knownPatientIds.sort((a, b) -> knownPatients.get(a).compareTo(knownPatients.get(b)));
+            ArrayList<String> codes = getCodes(types);
+            int start = 0;
+            for (int i = 1; i <= knownPatientIds.size(); i++) {
+                Date since = knownPatients.get(knownPatientIds.get(start));
+                if (i == knownPatientIds.size() || i - start == MAX_PATIENTS_PER_SEARCH
+                        || knownPatients.get(knownPatientIds.get(i)).getTime() - since.getTime() > MAX_WATERMARK_SPREAD) {
+                    addUpdatesToBatch(batch, knownPatientIds.subList(start, i), codes, since);
+                    start = i;
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Moves the watermarks to the search times recorded in a batch
+     * @param batch batch returned by collectObservationUpdates
+     */
+    void commitWatermarks(ObservationBatch batch) {
+        watermarks.putAll(batch.getWatermarks());
+    }
+
+    /**
+     * Returns the server time of the last search of every patient and code, so it can be stored
+     * between app launches
+     * @return "patient id|observation code" -> server time of the last search
+     */
+    public HashMap<String, Date> getWatermarks() {
+        return new HashMap<>(watermarks);
+    }
+
+    /**
+     * Restores watermarks stored by an earlier launch. Patients with a watermark for every type only
+     * get the observations changed after it from getObservationUpdates.
+     * @param storedWatermarks "patient id|observation code" -> server time of the last search
+     */
+    public void restoreWatermarks(Map<String, Date> storedWatermarks) {
+        watermarks.putAll(storedWatermarks);
+    }
+
+    /**
+     * Gets the latest observations of the patients and adds them to the batch.
+     * @param batch batch to add to
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of latest blood pressure readings to get for each patient
+     */
+    private void addLatestToBatch(ObservationBatch batch, List<String> patientIds, Collection<ObservationType> types, int n) {
+        if (patientIds.isEmpty() || types.isEmpty()) {
+            return;
+        }
+
+        ArrayList<String> codes = getCodes(types);
+        String serverBase = client.getServerBase();
+        for (int i = 0; i < patientIds.size(); i += MAX_PATIENTS_PER_SEARCH) {
+            List<String> ids = patientIds.subList(i, Math.min(i + MAX_PATIENTS_PER_SEARCH, patientIds.size()));
+            Date searchTime = null;
+            if (!lastNUnsupportedServers.contains(serverBase)) {
+                try {
+                    searchTime = addLastNToBatch(batch, ids, codes, n);
+                }
+                catch (BaseServerResponseException e) {
+                    if (!isLastNUnsupported(e)) {
+                        throw e;
+                    }
+                    // this server does not support $lastn. use searches for it from now on
+                    lastNUnsupportedServers.add(serverBase);
+                }
+            }
+            if (lastNUnsupportedServers.contains(serverBase)) {
+                searchTime = addSearchToBatch(batch, ids, types, n);
+            }
+            updateWatermarks(batch, ids, codes, searchTime);
+        }
+    }
+
+    /**
+     * Searches for the observations of the patients that were created or changed since a time,
+     * and adds them to the batch if they are newer than the watermark of their patient and code.
+     * @param batch batch to add to
+     * @param patientIds patients to get the observations for
+     * @param codes observation codes to get
+     * @param since oldest watermark of the patients
+     */
+    private void addUpdatesToBatch(ObservationBatch batch, List<String> patientIds, List<String> codes, Date since) {
+        Date requestStart = new Date();
+        Bundle bundle = client.search()
+                .forResource(Observation.class)
+                .where(Observation.PATIENT.hasAnyOfIds(patientIds))
+                .and(Observation.CODE.exactly().codes(codes))
+                .lastUpdated(new DateRangeParam().setLowerBound(new DateParam(ParamPrefixEnum.GREATERTHAN, since)))
+                .sort().descending(Observation.DATE)
+                .count(PAGE_SIZE)
+                .returnBundle(Bundle.class)
+                .elementsSubset(OBSERVATION_ELEMENTS)
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute();
+
+        ArrayList<Observation> updates = new ArrayList<>();
+        BundlePageIterator pages = new BundlePageIterator(client, bundle);
+        while (pages.hasNext()) {
+            for (Observation observation: getObservations(pages.next())) {
+                // skip observations this patient and code have already seen
+                Date watermark = watermarks.get(getWatermarkKey(observation.getSubject().getReference(),
+                        observation.getCode().getCodingFirstRep().getCode()));
+                Date lastUpdated = observation.getMeta().getLastUpdated();
+                if (watermark == null || lastUpdated == null || lastUpdated.after(watermark)) {
+                    updates.add(observation);
+                }
+            }
+        }
+        addToBatch(batch, updates);
+        updateWatermarks(batch, patientIds, codes, getSearchTime(bundle, updates, requestStart));
+    }
+
+    /**
+     * Gets the latest n observations of every patient and code with the Observation/$lastn operation
+     * and adds them to the batch.
+     * @param batch batch to add to
+     * @param patientIds patients to get the observations for
+     * @param codes observation codes to get
+     * @param n number of observations to get for each patient and code
+     * @return server time of the search
+     */
+    private Date addLastNToBatch(ObservationBatch batch, List<String> patientIds, List<String> codes, int n) {
+        // byUrl only takes relative urls in the form Resource?params, so operations need the full url
+        String url = client.getServerBase() + (client.getServerBase().endsWith("/") ? "" : "/")
+                + "Observation/$lastn?max=" + n
+                + "&patient=" + String.join(",", patientIds)
+                + "&code=" + String.join(",", codes)
+                + "&_elements=" + String.join(",", OBSERVATION_ELEMENTS);
+        Date requestStart = new Date();
+        Bundle bundle = client.search()
+                .byUrl(url)
+                .returnBundle(Bundle.class)
+                .execute();
+
+        // $lastn is not sorted across patients, so sort all observations before adding them
+        ArrayList<Observation> observations = new ArrayList<>();
+        BundlePageIterator pages = new BundlePageIterator(client, bundle);
+        while (pages.hasNext()) {
+            observations.addAll(getObservations(pages.next()));
+        }
+        observations.sort(NEWEST_FIRST);
+        addToBatch(batch, observations);
+        return getSearchTime(bundle, observations, requestStart);
+    }
+
+    /**
+     * Searches for the observations of every patient and code sorted by date and adds them to
+     * the batch. At most MAX_SEARCH_PAGES pages are read, so a patient without enough readings does
+     * not make the search download the whole history of the other patients. The patients and codes
+     * that are still short after that get their own search for their latest readings.
+     * @param batch batch to add to
+     * @param patientIds patients to get the observations for
+     * @param types observation types to get
+     * @param n number of blood pressure readings to get for each patient
+     * @return server time of the search
+     */
+    private Date addSearchToBatch(ObservationBatch batch, List<String> patientIds, Collection<ObservationType> types, int n) {
+        Date requestStart = new Date();
+        Bundle bundle = client.search()
+                .forResource(Observation.class)
+                .where(Observation.PATIENT.hasAnyOfIds(patientIds))
+                .and(Observation.CODE.exactly().codes(getCodes(types)))
+                .sort().descending(Observation.DATE)
+                .count(PAGE_SIZE)
+                .returnBundle(Bundle.class)
+                .elementsSubset(OBSERVATION_ELEMENTS)
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute();
+
+        ArrayList<Observation> observations = getObservations(bundle);
+        Date searchTime = getSearchTime(bundle, observations, requestStart);
+        for (int page = 1; ; page++) {
+            addToBatch(batch, observations);
+            if (batch.isComplete(patientIds, types) || bundle.getLink(Bundle.LINK_NEXT) == null) {
+                return searchTime;
+            }
+            if (page == MAX_SEARCH_PAGES) {
+                break;
+            }
+            bundle = client.loadPage().next(bundle).execute();
+            observations = getObservations(bundle);
+        }
+
+        // the pages ran out before every series was full. get the rest one series at a time
+        for (String patientId: patientIds) {
+            for (ObservationType type: types) {
+                if (!batch.isComplete(patientId, type)) {
+                    batch.clear(patientId, type);
+                    int count = type == ObservationType.BLOOD_PRESSURE ? n : 1;
+                    addToBatch(batch, getLatestObservationReadings(patientId, type.getObservationCode(), count));
+                }
+            }
+        }
+        return searchTime;
+    }
+
+    /**
+     * Returns the time the server ran a search. If the server did not send it, the newest
+     * last updated time of the observations is used, and if there are none, the time the request
+     * was sent. A search always records a watermark, so the patients it covered are not fetched
+     * in full again.
+     * @param bundle first page of the search
+     * @param observations observations returned by the search
+     * @param requestStart time the search was sent
+     * @return server time of the search
+     */
+    private Date getSearchTime(Bundle bundle, List<Observation> observations, Date requestStart) {
+        Date searchTime = bundle.getMeta().getLastUpdated();
+        if (searchTime == null) {
+            for (Observation observation: observations) {
+                Date lastUpdated = observation.getMeta().getLastUpdated();
+                if (lastUpdated != null && (searchTime == null || lastUpdated.after(searchTime))) {
+                    searchTime = lastUpdated;
+                }
+            }
+        }
+        return searchTime == null ? requestStart : searchTime;
+    }
+
+    /**
+     * Records the time of the search that covered every patient and code in the batch.
+     * @param batch batch filled by the search
+     * @param patientIds patients that were searched
+     * @param codes observation codes that were searched
+     * @param searchTime server time of the search
+     */
+    private void updateWatermarks(ObservationBatch batch, List<String> patientIds, List<String> codes, Date searchTime) {
+        for (String patientId: patientIds) {
+            for (String code: codes) {
+                batch.setWatermark(getWatermarkKey(patientId, code), searchTime);
+            }
+        }
+    }
+
+    /**
+     * Returns the key used to store the watermark of a patient's observation code
+     * @param patientId patient id
+     * @param code observation code
+     * @return watermark key
+     */
+    private String getWatermarkKey(String patientId, String code) {
+        return patientId + "|" + code;
+    }
+
+    /**
+     * Returns the observation codes of the observation types
+     * @param types observation types
+     * @return observation codes
+     */
+    private ArrayList<String> getCodes(Collection<ObservationType> types) {
+        ArrayList<String> codes = new ArrayList<>();
+        for (ObservationType type: types) {
+            codes.add(type.getObservationCode());
+        }
+        return codes;
+    }
+
+    /**
+     * Checks if the server rejected Observation/$lastn because it does not support the operation.
+     * A 400 can also mean a bad parameter, so it only counts if the server's CapabilityStatement
+     * does not list $lastn.
+     * @param e error returned by the server
+     * @return true if the operation is not supported
+     */
+    private boolean isLastNUnsupported(BaseServerResponseException e) {
+        int status = e.getStatusCode();
+        if (status == 404 || status == 405 || status == 501) {
+            return true;
+        }
+        return status == 400 && !isLastNListed();
+    }
+
+    /**
+     * Checks if the server's CapabilityStatement lists the Observation/$lastn operation
+     * @return true if it is listed, false if it is not or the statement cannot be read
+     */
+    private boolean isLastNListed() {
+        CapabilityStatement capabilities;
+        try {
+            capabilities = client.capabilities().ofType(CapabilityStatement.class).execute();
+        }
+        catch (BaseServerResponseException e) {
+            return false;
+        }
+        for (CapabilityStatement.CapabilityStatementRestComponent rest: capabilities.getRest()) {
+            for (CapabilityStatement.CapabilityStatementRestResourceComponent resource: rest.getResource()) {
+                if (!"Observation".equals(resource.getType())) {
+                    continue;
+                }
+                for (CapabilityStatement.CapabilityStatementRestResourceOperationComponent operation: resource.getOperation()) {
+                    if ("lastn".equals(operation.getName())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the observations in a bundle
+     * @param bundle bundle from the server
+     * @return observations in the bundle
+     */
+    private ArrayList<Observation> getObservations(Bundle bundle) {
+        ArrayList<Observation> observations = new ArrayList<>();
+        for (Bundle.BundleEntryComponent entry: bundle.getEntry()) {
+            if (entry.getResource() instanceof Observation) {
+                observations.add((Observation) entry.getResource());
+            }
+        }
+        return observations;
+    }
+
+    /**
+     * Adds every observation to the batch based on its patient and code.
+     * @param batch batch to add to
+     * @param observations observations sorted from newest to oldest
+     */
+    private void addToBatch(ObservationBatch batch, List<Observation> observations) {
+        for (Observation observation: observations) {
+            String patientId = observation.getSubject().getReference();
+            for (Coding coding: observation.getCode().getCoding()) {
+                ObservationType type = ObservationType.fromCode(coding.getCode());
+                if (type != null) {
+                    batch.add(patientId, type, observation);
+                    break;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.Address;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import edu.monash.kmhc.model.PatientAddressModel;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.service.FhirService;
+
+/**
+ * This class is responsible for returning all patients that are associated to the practitioner from
+ * the FHIR server.
+ */
+public class PatientRepository extends FhirService {
+
+    private static final String PATIENT = "Patient";
+    // patient ids are sent in the search url, so limit how many are sent in one search
+    private static final int MAX_PATIENTS_PER_SEARCH = 100;
+    // only download the elements that are read by the patient model
+    private static final String[] PATIENT_ELEMENTS = {"name", "birthDate", "gender", "address"};
+    // the encounter search returns encounters and their patients, so ask for the elements of both
+    private static final String[] ENCOUNTER_ELEMENTS = {"subject", "name", "birthDate", "gender", "address"};
+
+    private String practitionerId;
+    private IGenericClient client = super.client;
+
+    /**
+     * Constructor.
+     * @param practitionerId Health practitioner's id
+     */
+    public PatientRepository(String practitionerId) {
+        this.practitionerId = practitionerId;
+    }
+
+    /**
+     * Get all patients treated by the practitioner.
+     *
+     * The encounters are read one page at a time and the next page is downloaded while the current
+     * page is turned into patient models, so only a couple of pages are kept in memory. The patients
+     * found in each page are passed to the listener as soon as the page has been read.
+     * @param listener listener that receives the new patients of each page
+     */
+    public void getAllPatients(OnPatientsPageListener listener) {
+        // patient references that have already been returned. a patient can have many encounters
+        HashSet<String> seenReferences = new HashSet<>();
+
+        // search for all encounters with the practitioner identifier
+        // and ask the server to include the patient of each encounter in the same bundle
+        Bundle bundle = client.search().forResource(Encounter.class)
+                .where(new TokenClientParam("participant.identifier")
+                .exactly().systemAndCode("http://hl7.org/fhir/sid/us-npi", practitionerId))
+                .include(Encounter.INCLUDE_SUBJECT)
+                .returnBundle(Bundle.class)
+                .count(100) // not too many searches to prevent overloading the server
+                .elementsSubset(ENCOUNTER_ELEMENTS)
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute();
+
+        BundlePageIterator pages = new BundlePageIterator(client, bundle);
+        while (pages.hasNext()) {
+            ArrayList<PatientModel> patientModels = getPatientsInPage(pages.next(), seenReferences);
+            if (!patientModels.isEmpty()) {
+                listener.onPatientsPage(patientModels);
+            }
+        }
+    }
+
+    /**
+     * Gets the patients of the encounters in one page that have not been seen in earlier pages.
+     * @param bundle page of encounters and included patients
+     * @param seenReferences references of the patients already returned
+     * @return new patients in the page
+     */
+    private ArrayList<PatientModel> getPatientsInPage(Bundle bundle, HashSet<String> seenReferences) {
+        // store patient references. a patient can have many encounters so remove duplicates
+        LinkedHashSet<String> patientReferences = new LinkedHashSet<>();
+        // store patients returned by the server, by reference
+        HashMap<String, Patient> patients = new HashMap<>();
+        // store patients
+        ArrayList<PatientModel> patientModels = new ArrayList<>();
+
+        // get all patient references and the included patients
+        for (Bundle.BundleEntryComponent entry: bundle.getEntry()) {
+            if (entry.getResource() instanceof Encounter) {
+                String reference = ((Encounter) entry.getResource()).getSubject().getReference();
+                if (reference != null && reference.startsWith(PATIENT) && seenReferences.add(reference)) {
+                    patientReferences.add(reference);
+                }
+            }
+            else if (entry.getResource() instanceof Patient) {
+                Patient patient = (Patient) entry.getResource();
+                patients.put(patient.getIdElement().toUnqualifiedVersionless().getValue(), patient);
+            }
+        }
+
+        // get the patients that the server did not include
+        ArrayList<String> missingIds = new ArrayList<>();
+        for (String reference: patientReferences) {
+            if (!patients.containsKey(reference)) {
+                missingIds.add(new IdType(reference).getIdPart());
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            getPatients(missingIds, patients);
+        }
+
+        for (String reference: patientReferences) {
+            Patient patient = patients.get(reference);
+            if (patient != null) {
+                patientModels.add(createPatientModel(reference, patient));
+            }
+        }
+
+        return patientModels;
+    }
+
+    /**
+     * Gets many patients with one search per MAX_PATIENTS_PER_SEARCH patients, using _id=a,b,c
+     * @param ids patient ids without the resource type
+     * @param patients map to add the patients to, by reference
+     */
+    private void getPatients(List<String> ids, HashMap<String, Patient> patients) {
+        for (int i = 0; i < ids.size(); i += MAX_PATIENTS_PER_SEARCH) {
+            Bundle patientBundle = client.search()
+                    .forResource(Patient.class)
+                    .where(Patient.RES_ID.exactly().codes(ids.subList(i, Math.min(i + MAX_PATIENTS_PER_SEARCH, ids.size()))))
+                    .count(MAX_PATIENTS_PER_SEARCH)
+                    .returnBundle(Bundle.class)
+                    .elementsSubset(PATIENT_ELEMENTS)
+                    .totalMode(SearchTotalModeEnum.NONE)
+                    .execute();
+
+            for (Bundle.BundleEntryComponent entry: patientBundle.getEntry()) {
+                Patient patient = (Patient) entry.getResource();
+                patients.put(patient.getIdElement().toUnqualifiedVersionless().getValue(), patient);
+            }
+        }
+    }
+
+    /**
+     * Creates the patient model from the FHIR patient. Also used for the patients of a bulk export
+     * @param id patient reference
+     * @param patient patient from the server
+     * @return patient model
+     */
+    static PatientModel createPatientModel(String id, Patient patient) {
+        // human name documentation: https://www.hl7.org/fhir/DSTU2/datatypes-definitions.html#HumanName
+        // prefix ie. Mr/ Mrs, given name ie. first & middle names, family ie. surname
+        String patientName = "";
+        if (patient.hasName()) {
+            HumanName humanName = patient.getName().get(0);
+            patientName = (humanName.getPrefixAsSingleString() + " "
+                    + humanName.getGivenAsSingleString() + " "
+                    + (humanName.hasFamily() ? humanName.getFamily() : "")).trim();
+        }
+
+        // get birth date
+        Date birthDate = patient.getBirthDate();
+
+        // get gender
+        Enumerations.AdministrativeGender gender = patient.getGender();
+
+        // get address
+        PatientAddressModel patientAddress = new PatientAddressModel(null, null, null);
+        if (patient.hasAddress()) {
+            Address address = patient.getAddress().get(0);
+            patientAddress = new PatientAddressModel(address.getCity(), address.getState(), address.getCountry());
+        }
+
+        return new PatientModel(id, patientName, birthDate, gender, patientAddress);
+    }
+
+    /**
+     * Class the uses this interface must implement their own onPatientsPage method.
+     * onPatientsPage is called with the new patients every time a page of encounters has been read.
+     */
+    public interface OnPatientsPageListener {
+        void onPatientsPage(ArrayList<PatientModel> patients);
+    }
+
+}
@@ -0,0 +1,63 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirService;
+
+/**
+ * This class is responsible for creating and deleting the FHIR subscriptions that notify the app
+ * when observations of the monitored patients change.
+ */
+public class SubscriptionRepository extends FhirService {
+
+    private static final String SUBSCRIPTION = "Subscription";
+
+    private IGenericClient client = super.client;
+
+    /**
+     * Creates a websocket subscription for the observations of the given patients and types
+     * @param patientIds patient references, ie. Patient/123
+     * @param types observation types to be notified about
+     * @return id of the created subscription
+     */
+    public String createObservationSubscription(Collection<String> patientIds, Collection<ObservationType> types) {
+        Subscription subscription = new Subscription();
+        subscription.setStatus(Subscription.SubscriptionStatus.REQUESTED);
+        subscription.setReason("Monitor patient observations");
+        subscription.setCriteria(getCriteria(patientIds, types));
+        // websocket channels are not given an endpoint or payload. the client binds to the subscription id
+        subscription.getChannel().setType(Subscription.SubscriptionChannelType.WEBSOCKET);
+
+        MethodOutcome outcome = client.create().resource(subscription).execute();
+        return outcome.getId().getIdPart();
+    }
+
+    /**
+     * Deletes a subscription so the server stops sending notifications for it
+     * @param subscriptionId id of the subscription
+     */
+    public void deleteSubscription(String subscriptionId) {
+        client.delete().resourceById(new IdType(SUBSCRIPTION, subscriptionId)).execute();
+    }
+
+    /**
+     * Builds the subscription criteria, which is an Observation search url
+     * @param patientIds patient references
+     * @param types observation types
+     * @return criteria, ie. Observation?patient=Patient/1,Patient/2&code=2093-3
+     */
+    private String getCriteria(Collection<String> patientIds, Collection<ObservationType> types) {
+        ArrayList<String> codes = new ArrayList<>();
+        for (ObservationType type: types) {
+            codes.add(type.getObservationCode());
+        }
+        return "Observation?patient=" + String.join(",", patientIds) + "&code=" + String.join(",", codes);
+    }
+}
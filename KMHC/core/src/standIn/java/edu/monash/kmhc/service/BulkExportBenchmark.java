@@ -0,0 +1,149 @@
+package edu.monash.kmhc.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.ObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.repository.BulkExportRepository;
+import edu.monash.kmhc.service.repository.ObservationBatch;
+import edu.monash.kmhc.service.repository.ObservationRepositoryFactory;
+import edu.monash.kmhc.service.repository.PatientRepository;
+
+/**
+ * This class measures how long a new practitioner's first load takes with the encounter search and
+ * with a bulk export.
+ *
+ * Both loads are run against the stand-in server with a fixed delay on every response, and the
+ * export takes EXPORT_DURATION to be ready. The search reads the encounters one page at a time and
+ * gets the observations of each page in one batch, which is what the app did before. The export
+ * reads every NDJSON file. The loads should find the same latest observations, and after the export
+ * an update poll should only ask for what changed since.
+ *
+ * Usage: gradlew :core:benchmarkBulkExport
+ */
+public class BulkExportBenchmark {
+
+    private static final int[] PANEL_SIZES = {100, 400, 1600};
+    private static final int READINGS_PER_PATIENT = 5;
+    private static final long RESPONSE_DELAY = 200;
+    private static final long EXPORT_DURATION = 1000;
+
+    public static void main(String[] args) throws IOException {
+        // the sync log is too busy to read at this rate
+        Logger.getLogger("").setLevel(Level.WARNING);
+        StandInFhirServer server = new StandInFhirServer();
+        for (int panelSize: PANEL_SIZES) {
+            server.seed(getPractitionerId(panelSize), panelSize, READINGS_PER_PATIENT);
+        }
+        server.setResponseDelay(RESPONSE_DELAY);
+        server.setExportDuration(EXPORT_DURATION);
+        server.start();
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+
+        try {
+            System.out.println("patients, search ms, export ms, update poll after export ms, same observations");
+            for (int panelSize: PANEL_SIZES) {
+                measure(getPractitionerId(panelSize));
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private static String getPractitionerId(int panelSize) {
+        return "benchmark-" + panelSize;
+    }
+
+    /**
+     * Loads a practitioner's panel both ways, with new repositories so nothing is known beforehand
+     * @param practitionerId practitioner identifier
+     */
+    private static void measure(String practitionerId) throws IOException {
+        EnumSet<ObservationType> types = EnumSet.allOf(ObservationType.class);
+
+        // the encounter search, one observation batch per page
+        ObservationRepositoryFactory searchRepository = new ObservationRepositoryFactory();
+        HashMap<String, PatientModel> searched = new HashMap<>();
+        long start = System.nanoTime();
+        new PatientRepository(practitionerId).getAllPatients(patients -> {
+            ArrayList<String> patientIds = new ArrayList<>();
+            for (PatientModel patient: patients) {
+                patientIds.add(patient.getPatientID());
+            }
+            addObservations(patients, searchRepository.getObservationUpdates(patientIds, types, PanelSync.DEFAULT_BP_HISTORY_DEPTH), searched);
+        });
+        long searchTime = millisSince(start);
+
+        // the bulk export
+        ObservationRepositoryFactory exportRepository = new ObservationRepositoryFactory();
+        HashMap<String, PatientModel> exported = new HashMap<>();
+        start = System.nanoTime();
+        boolean supported = new BulkExportRepository(practitionerId, exportRepository).getAllPatients(types,
+                PanelSync.DEFAULT_BP_HISTORY_DEPTH, (patients, batch) -> addObservations(patients, batch, exported));
+        long exportTime = millisSince(start);
+        if (!supported) {
+            System.out.println("The server does not support $export");
+            return;
+        }
+
+        // every patient is known after the export, so the poll only asks for changes
+        start = System.nanoTime();
+        exportRepository.getObservationUpdates(new ArrayList<>(exported.keySet()), types, PanelSync.DEFAULT_BP_HISTORY_DEPTH);
+        long updateTime = millisSince(start);
+
+        System.out.println(searched.size() + ", " + searchTime + ", " + exportTime + ", " + updateTime + ", "
+                + isSame(searched, exported));
+    }
+
+    /**
+     * Adds the observations of a batch to the patients, the same way the panel sync does
+     */
+    private static void addObservations(ArrayList<PatientModel> patients, ObservationBatch batch,
+                                 HashMap<String, PatientModel> loaded) {
+        for (PatientModel patient: patients) {
+            String patientId = patient.getPatientID();
+            for (ObservationType type: ObservationType.values()) {
+                ObservationModel observation = batch.getObservation(patientId, type);
+                if (observation != null) {
+                    patient.setObservation(type, observation);
+                }
+            }
+            patient.addBPReadings(batch.getLatestBloodPressureReadings(patientId), PanelSync.DEFAULT_BP_HISTORY_DEPTH);
+            loaded.put(patientId, patient);
+        }
+    }
+
+    /**
+     * Checks if both loads found the same patients with the same latest observations
+     */
+    private static boolean isSame(HashMap<String, PatientModel> searched, HashMap<String, PatientModel> exported) {
+        if (!searched.keySet().equals(exported.keySet())) {
+            return false;
+        }
+        for (PatientModel patient: searched.values()) {
+            PatientModel other = exported.get(patient.getPatientID());
+            for (ObservationType type: ObservationType.values()) {
+                ObservationModel observation = patient.getObservationReading(type);
+                ObservationModel otherObservation = other.getObservationReading(type);
+                if (observation == null ? otherObservation != null : otherObservation == null
+                        || observation.getEffectiveTime() != otherObservation.getEffectiveTime()
+                        || Double.compare(observation.getValue(), otherObservation.getValue()) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.monash.kmhc.service;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.repository.ObservationFetchPool;
+import edu.monash.kmhc.service.repository.ObservationRepositoryFactory;
+
+/**
+ * This class measures how long a poll takes for different panel sizes and concurrency levels.
+ *
+ * Every poll is run against the stand-in server with a fixed delay on every response. For each panel
+ * size and concurrency level, the first poll gets the latest observations of every patient and the
+ * next polls only get the changes, which is what the panel sync does while it is running.
+ *
+ * Usage: gradlew :core:benchmarkObservationFetch
+ */
+public class ObservationFetchBenchmark {
+
+    private static final int[] PANEL_SIZES = {10, 40, 160};
+    private static final int[] CONCURRENCY_LEVELS = {1, 4, 16};
+    private static final int PATIENTS_PER_FETCH = 10;
+    private static final int READINGS_PER_PATIENT = 5;
+    private static final long RESPONSE_DELAY = 200;
+    private static final long POLL_DEADLINE = 60 * 1000;
+    // polls after the first one, averaged
+    private static final int UPDATE_POLLS = 3;
+
+    public static void main(String[] args) throws Exception {
+        // the poll log is too busy to read at this rate
+        Logger.getLogger("").setLevel(Level.WARNING);
+        StandInFhirServer server = new StandInFhirServer();
+        server.seed("benchmark", PANEL_SIZES[PANEL_SIZES.length - 1], READINGS_PER_PATIENT);
+        server.setResponseDelay(RESPONSE_DELAY);
+        server.start();
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+
+        try {
+            List<String> patientIds = server.getPatientReferences();
+            System.out.println("patients, concurrency, first poll ms, update poll ms");
+            for (int panelSize: PANEL_SIZES) {
+                for (int concurrency: CONCURRENCY_LEVELS) {
+                    measure(patientIds.subList(0, panelSize), concurrency);
+                }
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Polls a panel of patients with a new repository, so the first poll downloads everything
+     * @param patientIds patients in the panel
+     * @param concurrency maximum number of fetches running at once
+     */
+    private static void measure(List<String> patientIds, int concurrency) {
+        EnumSet<ObservationType> types = EnumSet.allOf(ObservationType.class);
+        ObservationFetchPool pool = new ObservationFetchPool(new ObservationRepositoryFactory(),
+                concurrency, PATIENTS_PER_FETCH);
+        try {
+            long start = System.nanoTime();
+            pool.getObservationUpdates(patientIds, types, PanelSync.DEFAULT_BP_HISTORY_DEPTH, POLL_DEADLINE);
+            long firstPoll = millisSince(start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < UPDATE_POLLS; i++) {
+                pool.getObservationUpdates(patientIds, types, PanelSync.DEFAULT_BP_HISTORY_DEPTH, POLL_DEADLINE);
+            }
+            long updatePoll = millisSince(start) / UPDATE_POLLS;
+
+            System.out.println(patientIds.size() + ", " + concurrency + ", " + firstPoll + ", " + updatePoll);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,114 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+/**
+ * This class measures how many patients the cholesterol risk model scores per millisecond, and how
+ * long the risk scorer takes to update a large panel when only some patients' levels changed.
+ *
+ * The model is the one the app ships in its assets. The batch is filled with random levels, some of
+ * them missing, so every path of the tree and its surrogates is taken. The panel update passes every
+ * patient as changed, like a poll that brought new readings for all of them, but only a few readings
+ * move to another blood pressure level.
+ *
+ * Usage: gradlew :core:benchmarkRiskModel
+ */
+public class RiskModelBenchmark {
+
+    private static final int BATCH_SIZE = 10000;
+    private static final int WARM_UP_BATCHES = 50;
+    private static final int MEASURED_BATCHES = 200;
+    private static final int PANEL_SIZE = 10000;
+    // patients whose blood pressure level changes in each panel update
+    private static final int CHANGED_PATIENTS = 100;
+    private static final int PANEL_UPDATES = 20;
+
+    public static void main(String[] args) throws Exception {
+        CholesterolRiskModel model = CholesterolRiskModel.load(
+                RiskModelBenchmark.class.getClassLoader().getResourceAsStream(CholesterolRiskModel.ASSET_NAME));
+        measureBatch(model);
+        measurePanelUpdate(model);
+    }
+
+    /**
+     * Scores a batch of random patients over and over
+     */
+    private static void measureBatch(CholesterolRiskModel model) {
+        Random random = new Random(1);
+        int featureCount = model.getFeatureCount();
+        int[] levels = new int[BATCH_SIZE * featureCount];
+        for (int i = 0; i < levels.length; i++) {
+            // up to four levels, a level a feature does not have is treated as missing
+            levels[i] = random.nextInt(5) - 1;
+        }
+        float[] scores = new float[BATCH_SIZE];
+
+        for (int i = 0; i < WARM_UP_BATCHES; i++) {
+            model.score(levels, BATCH_SIZE, scores);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_BATCHES; i++) {
+            model.score(levels, BATCH_SIZE, scores);
+        }
+        double milliseconds = (System.nanoTime() - start) / 1e6;
+        System.out.println("batch of " + BATCH_SIZE + ": "
+                + Math.round(MEASURED_BATCHES * BATCH_SIZE / milliseconds) + " patients per ms");
+    }
+
+    /**
+     * Updates the scores of a panel in which a few patients' levels change between updates
+     */
+    private static void measurePanelUpdate(CholesterolRiskModel model) {
+        Random random = new Random(2);
+        ArrayList<PatientModel> panel = new ArrayList<>();
+        for (int i = 0; i < PANEL_SIZE; i++) {
+            Calendar birthDate = Calendar.getInstance();
+            birthDate.add(Calendar.YEAR, -20 - random.nextInt(60));
+            PatientModel patient = new PatientModel("Patient/" + i, "Patient " + i, birthDate.getTime(), null, null);
+            setDiastolic(patient, 70);
+            panel.add(patient);
+        }
+        RiskScorer scorer = new RiskScorer(model);
+
+        long start = System.nanoTime();
+        scorer.update(panel, Collections.<String>emptyList());
+        System.out.println("first update of " + PANEL_SIZE + " patients: " + millisSince(start) + " ms, "
+                + scorer.getScoredCount() + " scored");
+
+        long total = 0;
+        int scored = 0;
+        for (int update = 0; update < PANEL_UPDATES; update++) {
+            // every patient gets a new reading, but only some leave the normal level
+            for (int i = 0; i < PANEL_SIZE; i++) {
+                setDiastolic(panel.get(i), 70 + random.nextInt(10));
+            }
+            for (int i = 0; i < CHANGED_PATIENTS; i++) {
+                setDiastolic(panel.get(random.nextInt(PANEL_SIZE)), 100);
+            }
+            start = System.nanoTime();
+            scorer.update(panel, Collections.<String>emptyList());
+            total += System.nanoTime() - start;
+            scored += scorer.getScoredCount();
+        }
+        System.out.println("update of " + PANEL_SIZE + " patients with new readings: "
+                + TimeUnit.NANOSECONDS.toMicros(total / PANEL_UPDATES) + " us, "
+                + scored / PANEL_UPDATES + " scored");
+    }
+
+    private static void setDiastolic(PatientModel patient, double diastolic) {
+        patient.setObservation(ObservationType.BLOOD_PRESSURE,
+                new BloodPressureObservationModel(120, diastolic, "mmHg", System.currentTimeMillis()));
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
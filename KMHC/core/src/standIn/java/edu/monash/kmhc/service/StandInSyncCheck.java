@@ -0,0 +1,226 @@
+package edu.monash.kmhc.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.PatientChangeSet;
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.local.MemoryPatientStore;
+
+/**
+ * This class runs the panel sync on a plain JVM against the stand-in FHIR server, with the
+ * patients kept in memory instead of in the app's database. It measures how long a new practitioner's
+ * panel takes to load, how long a new reading takes to reach the change sets while MONITORED patients
+ * are polled, and how long the panel takes to show again from the store on the next launch.
+ *
+ * Usage: gradlew :core:checkAgainstStandIn
+ * Exits with status 1 if a check fails.
+ */
+public class StandInSyncCheck {
+
+    private static final String PRACTITIONER_ID = "core";
+    private static final int PATIENTS = 1000;
+    private static final int MONITORED = 100;
+    private static final int CHANGED = 10;
+    private static final int READINGS_PER_PATIENT = 3;
+    private static final long RESPONSE_DELAY = 20;
+    private static final int POLL_INTERVAL = 1;
+    private static final long TIMEOUT = 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        // the poll log is too busy to read at this rate
+        Logger.getLogger("").setLevel(Level.WARNING);
+        StandInFhirServer server = new StandInFhirServer();
+        server.seed(PRACTITIONER_ID, PATIENTS, READINGS_PER_PATIENT);
+        server.setResponseDelay(RESPONSE_DELAY);
+        server.start();
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+        MemoryPatientStore store = new MemoryPatientStore();
+        boolean passed = true;
+        PanelSync sync = null;
+        PanelSync storedSync = null;
+        try {
+            // a new practitioner, nothing stored
+            Panel panel = new Panel();
+            sync = new PanelSync(store, null, panel);
+            long start = System.nanoTime();
+            sync.setPollInterval(POLL_INTERVAL);
+            sync.start(PRACTITIONER_ID);
+            HashMap<String, PatientModel> patients = panel.awaitPatients(PATIENTS);
+            System.out.println("first load: " + PATIENTS + " patients in " + millisSince(start) + " ms");
+            passed &= check("every patient is loaded", patients.size() == PATIENTS);
+
+            // monitor some of them and wait for the first change set
+            ArrayList<PatientModel> monitored = new ArrayList<>();
+            for (PatientModel patient: patients.values()) {
+                if (monitored.size() == MONITORED) {
+                    break;
+                }
+                patient.monitorObservation(ObservationType.CHOLESTEROL, true);
+                patient.monitorObservation(ObservationType.BLOOD_PRESSURE, true);
+                monitored.add(patient);
+            }
+            start = System.nanoTime();
+            sync.setMonitoredPatients(monitored);
+            PatientChangeSet changes = panel.awaitChanges(changeSet -> changeSet.getAddedIds().size() == MONITORED);
+            System.out.println("monitoring: " + MONITORED + " patients published in " + millisSince(start) + " ms");
+            passed &= check("the monitored patients are published", changes != null);
+
+            // the poll after the first change set subscribes to the monitored patients
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!sync.isSubscribed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            passed &= check("the monitored patients are subscribed to", sync.isSubscribed());
+
+            // new high blood pressure readings on the server reach the next change set
+            HashSet<String> changedIds = new HashSet<>();
+            start = System.nanoTime();
+            for (PatientModel patient: monitored.subList(0, CHANGED)) {
+                String patientId = patient.getPatientID();
+                changedIds.add(patientId);
+                server.addObservation(server.createBloodPressure(patientId.substring(patientId.indexOf('/') + 1),
+                        new Date(), 150, 200));
+            }
+            HashSet<String> updatedIds = new HashSet<>();
+            HashSet<String> alertIds = new HashSet<>();
+            while (!updatedIds.containsAll(changedIds)) {
+                changes = panel.awaitChanges(changeSet -> !changeSet.getUpdatedIds().isEmpty());
+                if (changes == null) {
+                    break;
+                }
+                updatedIds.addAll(changes.getUpdatedIds());
+                for (AlertEvent event: changes.getAlertEvents()) {
+                    if (event.isRaised() && event.getType() == AlertType.HIGH_DIASTOLIC) {
+                        alertIds.add(event.getPatientId());
+                    }
+                }
+            }
+            System.out.println("update: " + CHANGED + " new readings published in " + millisSince(start) + " ms");
+            passed &= check("the patients with new readings are updated", updatedIds.containsAll(changedIds));
+            passed &= check("their diastolic alerts are raised", alertIds.containsAll(changedIds));
+
+            // no longer monitoring a patient's blood pressure clears their alerts, without new readings
+            PatientModel unmonitored = monitored.get(1);
+            unmonitored.monitorObservation(ObservationType.BLOOD_PRESSURE, false);
+            start = System.nanoTime();
+            sync.setMonitoredPatients(monitored);
+            changes = panel.awaitChanges(changeSet -> {
+                for (AlertEvent event: changeSet.getAlertEvents()) {
+                    if (!event.isRaised() && event.getType() == AlertType.HIGH_DIASTOLIC
+                            && event.getPatientId().equals(unmonitored.getPatientID())) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+            System.out.println("unmonitor: alert cleared in " + millisSince(start) + " ms");
+            passed &= check("the alert clears when blood pressure is no longer monitored", changes != null
+                    && changes.getUpdatedIds().contains(unmonitored.getPatientID()));
+            sync.shutdown();
+
+            // the next launch shows the stored panel before asking the server
+            Panel storedPanel = new Panel();
+            storedSync = new PanelSync(store, null, storedPanel);
+            start = System.nanoTime();
+            storedSync.start(PRACTITIONER_ID);
+            HashMap<String, PatientModel> storedPatients = storedPanel.awaitPatients(1);
+            System.out.println("next launch: " + storedPatients.size() + " stored patients in " + millisSince(start) + " ms");
+            passed &= check("every patient is shown from the store", storedPatients.size() == PATIENTS);
+            PatientModel changedPatient = storedPatients.get(monitored.get(0).getPatientID());
+            passed &= check("the stored patients have the new readings", changedPatient != null
+                    && changedPatient.getObservationReading(ObservationType.BLOOD_PRESSURE) != null
+                    && changedPatient.getObservationReading(ObservationType.BLOOD_PRESSURE).getEffectiveTime()
+                    == monitored.get(0).getObservationReading(ObservationType.BLOOD_PRESSURE).getEffectiveTime());
+        }
+        finally {
+            // stop syncing before the server goes away, so no request is left to fail against it
+            shutdown(sync);
+            shutdown(storedSync);
+            server.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void shutdown(PanelSync sync) throws InterruptedException {
+        if (sync != null) {
+            sync.shutdown();
+            sync.awaitTermination(TIMEOUT);
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + description);
+        return passed;
+    }
+
+    /**
+     * Keeps what the panel sync publishes, for the main thread to wait on
+     */
+    private static class Panel implements PanelSync.OnPanelChangedListener {
+
+        private final BlockingQueue<HashMap<String, PatientModel>> allPatients = new LinkedBlockingQueue<>();
+        private final BlockingQueue<PatientChangeSet> changes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onAllPatients(HashMap<String, PatientModel> patients) {
+            allPatients.add(patients);
+        }
+
+        @Override
+        public void onPatientChanges(PatientChangeSet changes, HashMap<String, EnumSet<AlertType>> alerts) {
+            this.changes.add(changes);
+        }
+
+        /**
+         * Waits until at least a number of patients are published
+         * @return the patients published last
+         */
+        HashMap<String, PatientModel> awaitPatients(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            HashMap<String, PatientModel> patients = new HashMap<>();
+            while (patients.size() < count) {
+                HashMap<String, PatientModel> published = allPatients.poll(deadline - System.currentTimeMillis(),
+                        TimeUnit.MILLISECONDS);
+                if (published == null) {
+                    break;
+                }
+                patients = published;
+            }
+            return patients;
+        }
+
+        /**
+         * Waits for a change set that matches a condition
+         * @return the change set, or null if none came in time
+         */
+        PatientChangeSet awaitChanges(ChangeCondition condition) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (true) {
+                PatientChangeSet changeSet = changes.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (changeSet == null || condition.matches(changeSet)) {
+                    return changeSet;
+                }
+            }
+        }
+    }
+
+    private interface ChangeCondition {
+        boolean matches(PatientChangeSet changes);
+    }
+}
@@ -0,0 +1,89 @@
+package edu.monash.kmhc.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the prefix search over the words of the patients' names.
+ */
+public class PatientNameIndexTest {
+
+    private PatientNameIndex index;
+
+    @Before
+    public void indexPatients() {
+        index = new PatientNameIndex();
+        index.setPatients(Arrays.asList(
+                patient("1", "Jane Smith"),
+                patient("2", "John Smithers"),
+                patient("3", "Janet O'Brien"),
+                patient("4", "Zo\u00eb Ng")));
+    }
+
+    @Test
+    public void search_matchesStartOfAnyWord() {
+        assertEquals(ids("1", "3"), index.search("jan"));
+        assertEquals(ids("1", "2"), index.search("smith"));
+        assertEquals(ids("2"), index.search("smithe"));
+    }
+
+    @Test
+    public void search_matchesEveryQueryWord() {
+        assertEquals(ids("1"), index.search("ja sm"));
+        assertEquals(ids("1"), index.search("SM  ja"));
+        assertEquals(Collections.emptySet(), index.search("john jane"));
+    }
+
+    @Test
+    public void search_doesNotMatchMiddleOfWord() {
+        assertEquals(Collections.emptySet(), index.search("mith"));
+        assertEquals(Collections.emptySet(), index.search("janez"));
+    }
+
+    @Test
+    public void search_splitsOnPunctuationAndKeepsAccents() {
+        assertEquals(ids("3"), index.search("brien"));
+        assertEquals(ids("3"), index.search("o"));
+        assertEquals(ids("4"), index.search("zo\u00eb"));
+    }
+
+    @Test
+    public void search_returnsNullWithoutQueryWords() {
+        assertNull(index.search(""));
+        assertNull(index.search(" - "));
+    }
+
+    @Test
+    public void setPatients_reindexesChangedNames() {
+        index.setPatients(Arrays.asList(
+                patient("1", "Jane Doe"),
+                patient("2", "John Smithers"),
+                patient("3", "Janet O'Brien"),
+                patient("4", "Zo\u00eb Ng")));
+
+        assertEquals(ids("2"), index.search("smith"));
+        assertEquals(ids("1"), index.search("doe"));
+    }
+
+    @Test
+    public void setPatients_forgetsPatientsThatAreGone() {
+        index.setPatients(Collections.singletonList(patient("2", "John Smithers")));
+
+        assertEquals(Collections.emptySet(), index.search("jan"));
+        assertEquals(ids("2"), index.search("smith"));
+    }
+
+    private static PatientModel patient(String id, String name) {
+        return new PatientModel(id, name, null, null, null);
+    }
+
+    private static HashSet<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,73 @@
+package edu.monash.kmhc.model.observation;
+
+import org.junit.Test;
+
+import edu.monash.kmhc.service.PanelSync;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the Largest-Triangle-Three-Buckets downsampling of the systolic graph.
+ */
+public class DownsamplerTest {
+
+    // points drawn by a graph that has not been laid out yet, as in HomeAdapter
+    private static final int GRAPH_POINTS = 300;
+
+    @Test
+    public void largestTriangleThreeBuckets_reducesFullHistoryToGraphWidth() {
+        // a patient's whole systolic history, copied the way the card state copies it
+        TimeSeries series = new TimeSeries(PanelSync.DEFAULT_BP_HISTORY_DEPTH);
+        for (int i = 0; i < PanelSync.DEFAULT_BP_HISTORY_DEPTH + 50; i++) {
+            series.add(i * 60000L, 120 + 20 * Math.sin(i / 10.0));
+        }
+        int size = series.size();
+        long[] times = new long[size];
+        double[] readings = new double[size];
+        series.copyLatest(times, readings);
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (float) readings[i];
+        }
+        assertTrue(size > GRAPH_POINTS);
+
+        int[] selected = new int[size];
+        int count = Downsampler.largestTriangleThreeBuckets(times, values, size, GRAPH_POINTS, selected);
+
+        assertEquals(GRAPH_POINTS, count);
+        assertEquals(0, selected[0]);
+        assertEquals(size - 1, selected[count - 1]);
+        for (int i = 1; i < count; i++) {
+            assertTrue(selected[i] > selected[i - 1]);
+        }
+    }
+
+    @Test
+    public void largestTriangleThreeBuckets_keepsPeak() {
+        long[] times = new long[100];
+        float[] values = new float[100];
+        for (int i = 0; i < 100; i++) {
+            times[i] = i;
+            values[i] = i == 57 ? 200 : 120;
+        }
+
+        int[] selected = new int[100];
+        int count = Downsampler.largestTriangleThreeBuckets(times, values, 100, 10, selected);
+
+        boolean peakKept = false;
+        for (int i = 0; i < count; i++) {
+            peakKept |= selected[i] == 57;
+        }
+        assertTrue(peakKept);
+    }
+
+    @Test
+    public void largestTriangleThreeBuckets_keepsShortSeries() {
+        long[] times = {1, 2, 3, 4, 5};
+        float[] values = {1, 2, 3, 4, 5};
+
+        int[] selected = new int[5];
+        assertEquals(5, Downsampler.largestTriangleThreeBuckets(times, values, 5, GRAPH_POINTS, selected));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, selected);
+    }
+}
@@ -0,0 +1,97 @@
+package edu.monash.kmhc.model.observation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ring buffer behind a patient's readings.
+ */
+public class TimeSeriesTest {
+
+    @Test
+    public void add_dropsOldestReadingOnceFull() {
+        TimeSeries series = new TimeSeries(3);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(series.add(i * 1000L, i));
+        }
+
+        assertEquals(3, series.size());
+        assertEquals(3000L, series.getTime(0));
+        assertEquals(5000L, series.getTime(2));
+        assertEquals(5, series.getValue(2), 0);
+    }
+
+    @Test
+    public void add_keepsOrderAfterWrappingAround() {
+        TimeSeries series = new TimeSeries(4);
+        for (int i = 1; i <= 6; i++) {
+            series.add(i * 1000L, i);
+        }
+        // arrives late, between readings that have wrapped around the end of the buffer
+        assertTrue(series.add(4500L, 4.5));
+
+        long[] times = new long[4];
+        double[] values = new double[4];
+        assertEquals(4, series.copyLatest(times, values));
+        assertArrayEquals(new long[] {4000L, 4500L, 5000L, 6000L}, times);
+        assertArrayEquals(new double[] {4, 4.5, 5, 6}, values, 0);
+    }
+
+    @Test
+    public void add_ignoresReadingOlderThanFullBuffer() {
+        TimeSeries series = new TimeSeries(2);
+        series.add(2000L, 2);
+        series.add(3000L, 3);
+
+        assertFalse(series.add(1000L, 1));
+        assertEquals(2000L, series.getTime(0));
+    }
+
+    @Test
+    public void add_replacesReadingWithSameTime() {
+        TimeSeries series = new TimeSeries(5);
+        series.add(1000L, 1);
+        series.add(2000L, 2);
+
+        assertFalse(series.add(2000L, 2));
+        assertTrue(series.add(1000L, 10));
+        assertEquals(2, series.size());
+        assertEquals(10, series.getValueAt(1000L), 0);
+    }
+
+    @Test
+    public void add_growsUpToDepth() {
+        int depth = 1000;
+        TimeSeries series = new TimeSeries(depth);
+        for (int i = 0; i < depth + 10; i++) {
+            series.add(i, i);
+        }
+
+        assertEquals(depth, series.size());
+        assertEquals(10L, series.getTime(0));
+        assertEquals(depth + 9L, series.getTime(depth - 1));
+    }
+
+    @Test
+    public void copyLatest_copiesNewestReadingsOnly() {
+        TimeSeries series = new TimeSeries(10);
+        for (int i = 1; i <= 7; i++) {
+            series.add(i * 1000L, i);
+        }
+
+        long[] times = new long[5];
+        double[] values = new double[5];
+        assertEquals(5, series.copyLatest(times, values));
+        assertEquals(3000L, times[0]);
+        assertEquals(7, values[4], 0);
+    }
+
+    @Test
+    public void add_doesNothingWithoutDepth() {
+        TimeSeries series = new TimeSeries(0);
+
+        assertFalse(series.add(1000L, 1));
+        assertEquals(0, series.size());
+    }
+}
@@ -0,0 +1,224 @@
+package edu.monash.kmhc.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.alert.AlertEvent;
+import edu.monash.kmhc.model.alert.AlertThresholds;
+import edu.monash.kmhc.model.alert.AlertType;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the alert rules, and that checking only the patients whose readings changed or who crossed
+ * a moving average or percentile raises the same alerts as checking every patient again.
+ */
+public class AlertEngineTest {
+
+    private static final AlertThresholds THRESHOLDS = new AlertThresholds(140, 90);
+    private static final int PATIENTS = 200;
+    private static final int ROUNDS = 500;
+
+    @Test
+    public void update_raisesAndClearsBloodPressureAlerts() {
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        List<AlertEvent> events = engine.update(Collections.singletonList(patient("1", 200, 150, 95)),
+                Collections.<String>emptyList());
+
+        assertEquals(EnumSet.of(AlertType.HIGH_SYSTOLIC, AlertType.HIGH_DIASTOLIC), engine.getAlerts().get("1"));
+        assertEquals(2, events.size());
+        for (AlertEvent event: events) {
+            assertTrue(event.isRaised());
+        }
+
+        events = engine.update(Collections.singletonList(patient("1", 200, 120, 95)), Collections.<String>emptyList());
+        assertEquals(1, events.size());
+        assertEquals(AlertType.HIGH_SYSTOLIC, events.get(0).getType());
+        assertFalse(events.get(0).isRaised());
+        assertEquals(EnumSet.of(AlertType.HIGH_DIASTOLIC), engine.getAlerts().get("1"));
+    }
+
+    @Test
+    public void update_usesPatientThresholds() {
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        engine.update(Collections.singletonList(patient("1", 200, 150, 80)), Collections.<String>emptyList());
+
+        List<AlertEvent> events = engine.setPatientThresholds("1", new AlertThresholds(160, 90));
+        assertEquals(1, events.size());
+        assertFalse(events.get(0).isRaised());
+        assertNull(engine.getAlerts().get("1"));
+
+        engine.setPatientThresholds("1", null);
+        assertEquals(EnumSet.of(AlertType.HIGH_SYSTOLIC), engine.getAlerts().get("1"));
+    }
+
+    @Test
+    public void update_followsMonitoredFlagsWithoutNewReadings() {
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        PatientModel patient = patient("1", 200, 150, 95);
+        engine.update(Collections.singletonList(patient), Collections.<String>emptyList());
+
+        // the same readings, only the flag changes
+        patient.monitorObservation(ObservationType.BLOOD_PRESSURE, false);
+        List<AlertEvent> events = engine.update(Collections.singletonList(patient), Collections.<String>emptyList());
+        assertEquals(2, events.size());
+        for (AlertEvent event: events) {
+            assertFalse(event.isRaised());
+        }
+        assertNull(engine.getAlerts().get("1"));
+
+        patient.monitorObservation(ObservationType.BLOOD_PRESSURE, true);
+        engine.update(Collections.singletonList(patient), Collections.<String>emptyList());
+        assertEquals(EnumSet.of(AlertType.HIGH_SYSTOLIC, AlertType.HIGH_DIASTOLIC), engine.getAlerts().get("1"));
+    }
+
+    @Test
+    public void update_clearsAlertsOfRemovedPatients() {
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        engine.update(Collections.singletonList(patient("1", 200, 150, 95)), Collections.<String>emptyList());
+
+        List<AlertEvent> events = engine.update(Collections.<PatientModel>emptyList(), Collections.singletonList("1"));
+        assertEquals(2, events.size());
+        assertTrue(engine.getAlerts().isEmpty());
+    }
+
+    @Test
+    public void update_matchesFullRecompute() {
+        Random random = new Random(42);
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        // the monitored patients as the incremental engine was told about them
+        HashMap<String, PatientModel> monitored = new HashMap<>();
+        HashMap<String, AlertThresholds> patientThresholds = new HashMap<>();
+        AlertThresholds globalThresholds = THRESHOLDS;
+        // alerts rebuilt from the reported events only
+        HashMap<String, EnumSet<AlertType>> reported = new HashMap<>();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            ArrayList<PatientModel> changed = new ArrayList<>();
+            ArrayList<String> removed = new ArrayList<>();
+            int changes = 1 + random.nextInt(round < 20 ? 20 : 5);
+            for (int i = 0; i < changes; i++) {
+                String patientId = "Patient/" + random.nextInt(PATIENTS);
+                if (monitored.containsKey(patientId) && random.nextInt(5) == 0) {
+                    monitored.remove(patientId);
+                    removed.remove(patientId);
+                    removed.add(patientId);
+                    changed.removeIf(patient -> patient.getPatientID().equals(patientId));
+                }
+                else {
+                    PatientModel patient = randomPatient(patientId, random);
+                    monitored.put(patientId, patient);
+                    removed.remove(patientId);
+                    changed.removeIf(other -> other.getPatientID().equals(patientId));
+                    changed.add(patient);
+                }
+            }
+            apply(engine.update(changed, removed), reported);
+
+            if (random.nextInt(10) == 0) {
+                globalThresholds = new AlertThresholds(120 + random.nextInt(40), 80 + random.nextInt(20));
+                apply(engine.setGlobalThresholds(globalThresholds), reported);
+            }
+            if (random.nextInt(10) == 0 && !monitored.isEmpty()) {
+                ArrayList<String> patientIds = new ArrayList<>(monitored.keySet());
+                Collections.sort(patientIds);
+                String patientId = patientIds.get(random.nextInt(patientIds.size()));
+                AlertThresholds thresholds = random.nextBoolean() ? null
+                        : new AlertThresholds(120 + random.nextInt(40), 80 + random.nextInt(20));
+                if (thresholds == null) {
+                    patientThresholds.remove(patientId);
+                }
+                else {
+                    patientThresholds.put(patientId, thresholds);
+                }
+                apply(engine.setPatientThresholds(patientId, thresholds), reported);
+            }
+
+            AlertEngine full = new AlertEngine(globalThresholds);
+            for (Map.Entry<String, AlertThresholds> thresholds: patientThresholds.entrySet()) {
+                full.setPatientThresholds(thresholds.getKey(), thresholds.getValue());
+            }
+            full.update(monitored.values(), Collections.<String>emptyList());
+
+            assertEquals("round " + round, full.getAlerts(), engine.getAlerts());
+            assertEquals("round " + round, engine.getAlerts(), reported);
+            assertEquals(full.getAverageCholesterol(), engine.getAverageCholesterol(), 1e-9);
+            assertEquals(full.getTopPercentile(PanelStatistics.SYSTOLIC_CODE),
+                    engine.getTopPercentile(PanelStatistics.SYSTOLIC_CODE), 0);
+        }
+    }
+
+    @Test
+    public void clear_forgetsPatientsButKeepsThresholds() {
+        AlertEngine engine = new AlertEngine(THRESHOLDS);
+        engine.setPatientThresholds("1", new AlertThresholds(160, 100));
+        engine.update(Collections.singletonList(patient("1", 200, 170, 95)), Collections.<String>emptyList());
+
+        engine.clear();
+        assertTrue(engine.getAlerts().isEmpty());
+        assertEquals(0, engine.getAverageCholesterol(), 0);
+        assertTrue(engine.hasPatientThresholds("1"));
+    }
+
+    /**
+     * Applies reported alert events to the alerts rebuilt from them
+     */
+    private static void apply(List<AlertEvent> events, HashMap<String, EnumSet<AlertType>> alerts) {
+        for (AlertEvent event: events) {
+            EnumSet<AlertType> patientAlerts = alerts.get(event.getPatientId());
+            if (patientAlerts == null) {
+                patientAlerts = EnumSet.noneOf(AlertType.class);
+                alerts.put(event.getPatientId(), patientAlerts);
+            }
+            assertEquals(event.isRaised(), !patientAlerts.contains(event.getType()));
+            if (event.isRaised()) {
+                patientAlerts.add(event.getType());
+            }
+            else {
+                patientAlerts.remove(event.getType());
+            }
+            if (patientAlerts.isEmpty()) {
+                alerts.remove(event.getPatientId());
+            }
+        }
+    }
+
+    /**
+     * Returns a monitored patient with random readings, some of them missing or not monitored
+     */
+    private static PatientModel randomPatient(String patientId, Random random) {
+        PatientModel patient = new PatientModel(patientId, patientId, null, null, null);
+        if (random.nextInt(10) != 0) {
+            patient.setObservation(ObservationType.CHOLESTEROL,
+                    new CholesterolObservationModel(150 + random.nextInt(150), "mg/dL", 0));
+        }
+        if (random.nextInt(10) != 0) {
+            patient.setObservation(ObservationType.BLOOD_PRESSURE, new BloodPressureObservationModel(
+                    100 + random.nextInt(80), 60 + random.nextInt(50), "mmHg", 0));
+        }
+        patient.monitorObservation(ObservationType.CHOLESTEROL, random.nextInt(5) != 0);
+        patient.monitorObservation(ObservationType.BLOOD_PRESSURE, random.nextInt(5) != 0);
+        return patient;
+    }
+
+    private static PatientModel patient(String patientId, double cholesterol, double systolic, double diastolic) {
+        PatientModel patient = new PatientModel(patientId, patientId, null, null, null);
+        patient.setObservation(ObservationType.CHOLESTEROL, new CholesterolObservationModel(cholesterol, "mg/dL", 0));
+        patient.setObservation(ObservationType.BLOOD_PRESSURE,
+                new BloodPressureObservationModel(systolic, diastolic, "mmHg", 0));
+        patient.monitorObservation(ObservationType.CHOLESTEROL, true);
+        patient.monitorObservation(ObservationType.BLOOD_PRESSURE, true);
+        return patient;
+    }
+}
@@ -0,0 +1,149 @@
+package edu.monash.kmhc.service;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cholesterol risk model against the test set of MachineLearning/test.csv.
+ *
+ * The test set was not used to fit the tree, and rpart reaches an accuracy of 0.84 on it. The model
+ * the app reads from its assets should predict the same. The model is copied from the app's assets
+ * into the test resources by the build.
+ */
+public class CholesterolRiskModelTest {
+
+    private static final String TEST_SET_NAME = "risk_model_test.csv";
+    private static final String[] FEATURES = {CholesterolRiskModel.DIABETES, CholesterolRiskModel.BMI,
+            CholesterolRiskModel.BLOOD_PRESSURE, CholesterolRiskModel.AGE, CholesterolRiskModel.SMOKING};
+    private static final String TARGET = "CholesterolLvl";
+    private static final double RPART_ACCURACY = 0.84;
+    // probabilities of the leaves of cholesterol_risk_model.json
+    private static final float NOT_DIABETIC_PROBABILITY = 0.085993f;
+    private static final float NOT_OBESE_DIABETIC_PROBABILITY = 0.64f;
+    private static final float OLDER_NORMAL_BLOOD_PRESSURE_PROBABILITY = 0.269737f;
+
+    private static CholesterolRiskModel model;
+    // levels of every test patient, getFeatureCount() per patient
+    private static int[] levels;
+    private static boolean[] high;
+
+    @BeforeClass
+    public static void loadModelAndTestSet() throws IOException {
+        model = CholesterolRiskModel.load(
+                CholesterolRiskModelTest.class.getClassLoader().getResourceAsStream(CholesterolRiskModel.ASSET_NAME));
+        int featureCount = model.getFeatureCount();
+
+        List<String[]> rows = readTestSet();
+        String[] header = rows.remove(0);
+        int[] columns = new int[FEATURES.length];
+        for (int i = 0; i < FEATURES.length; i++) {
+            columns[i] = Arrays.asList(header).indexOf(FEATURES[i]);
+        }
+        int targetColumn = Arrays.asList(header).indexOf(TARGET);
+        levels = new int[rows.size() * featureCount];
+        high = new boolean[rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            Arrays.fill(levels, row * featureCount, (row + 1) * featureCount, CholesterolRiskModel.MISSING);
+            for (int i = 0; i < FEATURES.length; i++) {
+                int feature = model.getFeatureIndex(FEATURES[i]);
+                levels[row * featureCount + feature] = model.getLevel(feature, rows.get(row)[columns[i]]);
+            }
+            high[row] = "High".equals(rows.get(row)[targetColumn]);
+        }
+    }
+
+    @Test
+    public void score_matchesRpartAccuracy() {
+        float[] scores = new float[high.length];
+        model.score(levels, high.length, scores);
+
+        int correct = 0;
+        for (int row = 0; row < high.length; row++) {
+            if ((scores[row] >= 0.5f) == high[row]) {
+                correct++;
+            }
+        }
+        assertEquals(RPART_ACCURACY, (double) correct / high.length, 0.005);
+    }
+
+    @Test
+    public void score_sameForOnePatientAsInBatch() {
+        int featureCount = model.getFeatureCount();
+        float[] scores = new float[high.length];
+        model.score(levels, high.length, scores);
+
+        float[] score = new float[1];
+        for (int row = 0; row < high.length; row++) {
+            model.score(Arrays.copyOfRange(levels, row * featureCount, (row + 1) * featureCount), 1, score);
+            assertEquals(scores[row], score[0], 0);
+        }
+    }
+
+    @Test
+    public void score_usesSurrogateForMissingFeature() {
+        // without diabetes the root splits on the blood pressure surrogate. high goes right, where the
+        // missing BMI goes the way most training patients went
+        int[] levels = getMissingLevels();
+        int bloodPressure = model.getFeatureIndex(CholesterolRiskModel.BLOOD_PRESSURE);
+        levels[bloodPressure] = model.getLevel(bloodPressure, "High");
+        assertEquals(NOT_OBESE_DIABETIC_PROBABILITY, score(levels), 0);
+
+        levels[bloodPressure] = model.getLevel(bloodPressure, "Normal");
+        assertEquals(NOT_DIABETIC_PROBABILITY, score(levels), 0);
+    }
+
+    @Test
+    public void score_goesWithMajorityWithoutSurrogates() {
+        // the root sends patients without diabetes or blood pressure left, with most training patients
+        assertEquals(NOT_DIABETIC_PROBABILITY, score(getMissingLevels()), 0);
+
+        // diabetic, obese and older, with the blood pressure missing at the last split
+        int[] levels = getMissingLevels();
+        setLevel(levels, CholesterolRiskModel.DIABETES, "active");
+        setLevel(levels, CholesterolRiskModel.BMI, "Obese");
+        setLevel(levels, CholesterolRiskModel.AGE, "Older Age");
+        assertEquals(OLDER_NORMAL_BLOOD_PRESSURE_PROBABILITY, score(levels), 0);
+    }
+
+    private static int[] getMissingLevels() {
+        int[] levels = new int[model.getFeatureCount()];
+        Arrays.fill(levels, CholesterolRiskModel.MISSING);
+        return levels;
+    }
+
+    private static void setLevel(int[] levels, String featureName, String level) {
+        int feature = model.getFeatureIndex(featureName);
+        levels[feature] = model.getLevel(feature, level);
+    }
+
+    private static float score(int[] levels) {
+        float[] score = new float[1];
+        model.score(levels, 1, score);
+        return score[0];
+    }
+
+    private static List<String[]> readTestSet() throws IOException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                CholesterolRiskModelTest.class.getClassLoader().getResourceAsStream(TEST_SET_NAME),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    rows.add(line.split(",", -1));
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,65 @@
+package edu.monash.kmhc.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the panel statistics, which count each patient once with their latest reading.
+ */
+public class PanelStatisticsTest {
+
+    @Test
+    public void setReading_replacesPatientReading() {
+        PanelStatistics statistics = new PanelStatistics();
+        for (int i = 0; i < 10; i++) {
+            statistics.setReading(PanelStatistics.SYSTOLIC_CODE, "Patient/" + i, 110 + i * 10);
+        }
+
+        assertEquals(110, statistics.setReading(PanelStatistics.SYSTOLIC_CODE, "Patient/0", 250), 0);
+        ReadingStatistics systolic = statistics.getStatistics(PanelStatistics.SYSTOLIC_CODE);
+        assertEquals(10, systolic.getCount());
+        // 120 ... 200 and 250. nine of the ten readings are at or below 200
+        assertEquals(200, systolic.getPercentile(0.9), 1);
+        assertEquals(250, systolic.getPercentile(1), 1);
+        assertEquals(250, statistics.getReading(PanelStatistics.SYSTOLIC_CODE, "Patient/0"), 0);
+    }
+
+    @Test
+    public void setReading_removesMissingReading() {
+        PanelStatistics statistics = new PanelStatistics();
+        statistics.setReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/1", 200);
+        statistics.setReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/2", 300);
+
+        assertEquals(300, statistics.setReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/2", Double.NaN), 0);
+        assertEquals(1, statistics.getStatistics(PanelStatistics.CHOLESTEROL_CODE).getCount());
+        assertEquals(200, statistics.getStatistics(PanelStatistics.CHOLESTEROL_CODE).getMean(), 0);
+        assertTrue(Double.isNaN(statistics.getReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/2")));
+    }
+
+    @Test
+    public void removePatient_removesEveryReading() {
+        PanelStatistics statistics = new PanelStatistics();
+        statistics.setReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/1", 200);
+        statistics.setReading(PanelStatistics.SYSTOLIC_CODE, "Patient/1", 130);
+        statistics.setReading(PanelStatistics.DIASTOLIC_CODE, "Patient/1", 85);
+        statistics.setReading(PanelStatistics.SYSTOLIC_CODE, "Patient/2", 150);
+
+        statistics.removePatient("Patient/1");
+        assertEquals(0, statistics.getStatistics(PanelStatistics.CHOLESTEROL_CODE).getCount());
+        assertEquals(0, statistics.getStatistics(PanelStatistics.DIASTOLIC_CODE).getCount());
+        assertEquals(150, statistics.getStatistics(PanelStatistics.SYSTOLIC_CODE).getMean(), 0);
+    }
+
+    @Test
+    public void clear_forgetsEveryReading() {
+        PanelStatistics statistics = new PanelStatistics();
+        statistics.setReading(PanelStatistics.CHOLESTEROL_CODE, "Patient/1", 200);
+        statistics.setReading(PanelStatistics.SYSTOLIC_CODE, "Patient/1", 130);
+
+        statistics.clear();
+        assertEquals(0, statistics.getStatistics(PanelStatistics.CHOLESTEROL_CODE).getCount());
+        assertTrue(Double.isNaN(statistics.getStatistics(PanelStatistics.SYSTOLIC_CODE).getPercentile(0.5)));
+        assertTrue(Double.isNaN(statistics.getReading(PanelStatistics.SYSTOLIC_CODE, "Patient/1")));
+    }
+}
@@ -0,0 +1,157 @@
+package edu.monash.kmhc.service;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import edu.monash.kmhc.model.observation.CholesterolObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.model.observation.TimeSeries;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the poll interval learnt from the gaps between a series' readings, and of its clamping to
+ * the minimum and maximum intervals.
+ */
+public class PollRatePlannerTest {
+
+    private static final String PATIENT_ID = "Patient/1";
+    private static final ObservationType TYPE = ObservationType.CHOLESTEROL;
+    private static final Map<String, EnumSet<ObservationType>> MONITORED =
+            Collections.singletonMap(PATIENT_ID, EnumSet.of(TYPE));
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long START = 1_500_000_000_000L;
+    private static final long MAX_INTERVAL = 30 * MINUTE;
+
+    private final PollRatePlanner planner = new PollRatePlanner();
+    private final TimeSeries noHistory = new TimeSeries(0);
+
+    @Test
+    public void getDueSeries_pollsFourTimesPerAverageGap() {
+        observe(START);
+        observe(START + 40 * MINUTE);
+        // 0.3 * 20 + 0.7 * 40 minutes
+        long latest = START + 60 * MINUTE;
+        observe(latest);
+        planner.setPolled(PATIENT_ID, TYPE, latest);
+
+        assertFalse(isDue(latest + 34 * MINUTE / 4 - 1, 0));
+        assertTrue(isDue(latest + 34 * MINUTE / 4, 0));
+    }
+
+    @Test
+    public void getDueSeries_startsFromHistoryGaps() {
+        TimeSeries history = new TimeSeries(10);
+        for (int i = 0; i < 5; i++) {
+            history.add(START + i * 10 * MINUTE, 5);
+        }
+        long latest = START + 40 * MINUTE;
+        planner.observe(PATIENT_ID, TYPE, reading(latest), history);
+        planner.setPolled(PATIENT_ID, TYPE, latest);
+
+        assertFalse(isDue(latest + 10 * MINUTE / 4 - 1, 0));
+        assertTrue(isDue(latest + 10 * MINUTE / 4, 0));
+    }
+
+    @Test
+    public void getDueSeries_clampsToMinInterval() {
+        for (int i = 0; i < 10; i++) {
+            observe(START + i * SECOND);
+        }
+        long latest = START + 9 * SECOND;
+        planner.setPolled(PATIENT_ID, TYPE, latest);
+
+        // readings every second would be polled every 250 ms
+        assertFalse(isDue(latest + 10 * SECOND - 1, 10 * SECOND));
+        assertTrue(isDue(latest + 10 * SECOND, 10 * SECOND));
+    }
+
+    @Test
+    public void getDueSeries_clampsToMaxInterval() {
+        for (int i = 0; i < 10; i++) {
+            observe(START + i * 10 * HOUR);
+        }
+        long latest = START + 90 * HOUR;
+        planner.setPolled(PATIENT_ID, TYPE, latest);
+
+        // readings every 10 hours would be polled every 2.5 hours
+        assertFalse(isDue(latest + MAX_INTERVAL - 1, 0));
+        assertTrue(isDue(latest + MAX_INTERVAL, 0));
+    }
+
+    @Test
+    public void getDueSeries_usesGivenMaxInterval() {
+        for (int i = 0; i < 10; i++) {
+            observe(START + i * 10 * HOUR);
+        }
+        long latest = START + 90 * HOUR;
+        planner.setPolled(PATIENT_ID, TYPE, latest);
+
+        // a shorter maximum chosen by the user takes effect from the next cycle
+        assertFalse(isDue(latest + 5 * MINUTE, 0));
+        assertTrue(isDue(latest + 5 * MINUTE, 0, 5 * MINUTE));
+    }
+
+    @Test
+    public void getDueSeries_minIntervalWinsOverMaxInterval() {
+        observe(START);
+        observe(START + 10 * HOUR);
+        planner.setPolled(PATIENT_ID, TYPE, START + 10 * HOUR);
+
+        assertFalse(isDue(START + 10 * HOUR + HOUR - 1, HOUR));
+        assertTrue(isDue(START + 10 * HOUR + HOUR, HOUR));
+    }
+
+    @Test
+    public void getDueSeries_slowsDownQuietSeries() {
+        for (int i = 0; i < 10; i++) {
+            observe(START + i * 4 * MINUTE);
+        }
+        long latest = START + 36 * MINUTE;
+        // quiet for 40 minutes, ten times the average gap
+        planner.setPolled(PATIENT_ID, TYPE, latest + 40 * MINUTE);
+
+        assertFalse(isDue(latest + 42 * MINUTE, 0));
+    }
+
+    @Test
+    public void getDueSeries_pollsEverySeriesWhenAsked() {
+        observe(START);
+        observe(START + HOUR);
+        planner.setPolled(PATIENT_ID, TYPE, START + HOUR);
+
+        assertTrue(planner.getDueSeries(MONITORED, 0, MAX_INTERVAL, START + HOUR, true).get(EnumSet.of(TYPE))
+                .contains(PATIENT_ID));
+    }
+
+    @Test
+    public void clear_forgetsCadence() {
+        observe(START);
+        observe(START + HOUR);
+        planner.setPolled(PATIENT_ID, TYPE, START + HOUR);
+        planner.clear();
+
+        assertTrue(isDue(START + HOUR, 0));
+    }
+
+    private void observe(long effectiveTime) {
+        planner.observe(PATIENT_ID, TYPE, reading(effectiveTime), noHistory);
+    }
+
+    private static CholesterolObservationModel reading(long effectiveTime) {
+        return new CholesterolObservationModel(180, "mg/dL", effectiveTime);
+    }
+
+    private boolean isDue(long now, long minInterval) {
+        return isDue(now, minInterval, MAX_INTERVAL);
+    }
+
+    private boolean isDue(long now, long minInterval, long maxInterval) {
+        return !planner.getDueSeries(MONITORED, minInterval, maxInterval, now, false).isEmpty();
+    }
+}
@@ -0,0 +1,138 @@
+package edu.monash.kmhc.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the waits the poll scheduler picks between cycles. The cycles run straight away, and the
+ * waits they would have been scheduled with are recorded.
+ */
+public class PollSchedulerTest {
+
+    private static final long INTERVAL = 1000;
+    private static final int CYCLES = 200;
+
+    private RecordingExecutor executor;
+    private PollScheduler scheduler;
+
+    @Before
+    public void createScheduler() {
+        // every failed cycle is logged
+        Logger.getLogger("").setLevel(Level.SEVERE);
+        executor = new RecordingExecutor();
+        scheduler = new PollScheduler(executor);
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void start_jittersIntervalAfterSuccess() throws InterruptedException {
+        List<Long> delays = run(0);
+
+        HashSet<Long> distinct = new HashSet<>();
+        for (int cycle = 1; cycle < CYCLES; cycle++) {
+            long delay = delays.get(cycle);
+            assertTrue(delay >= Math.round(INTERVAL * (1 - PollScheduler.JITTER)));
+            assertTrue(delay <= Math.round(INTERVAL * (1 + PollScheduler.JITTER)));
+            distinct.add(delay);
+        }
+        assertTrue(distinct.size() > 1);
+    }
+
+    @Test
+    public void start_backsOffExponentiallyUpToMax() throws InterruptedException {
+        List<Long> delays = run(CYCLES);
+
+        for (int failures = 1; failures < CYCLES; failures++) {
+            long backoff = Math.min(PollScheduler.MAX_BACKOFF, INTERVAL << Math.min(failures, 16));
+            long delay = delays.get(failures);
+            assertTrue(delay >= backoff / 2);
+            assertTrue(delay <= backoff);
+        }
+    }
+
+    @Test
+    public void start_goesBackToIntervalAfterSuccess() throws InterruptedException {
+        int failedCycles = 5;
+        List<Long> delays = run(failedCycles);
+
+        assertTrue(delays.get(failedCycles) >= INTERVAL << (failedCycles - 1));
+        for (int cycle = failedCycles + 1; cycle < CYCLES; cycle++) {
+            assertTrue(delays.get(cycle) <= Math.round(INTERVAL * (1 + PollScheduler.JITTER)));
+        }
+    }
+
+    @Test
+    public void stop_schedulesNoMoreCycles() throws InterruptedException {
+        run(0);
+        int scheduled = executor.getDelays().size();
+
+        Thread.sleep(50);
+        assertEquals(scheduled, executor.getDelays().size());
+    }
+
+    /**
+     * Runs CYCLES cycles, of which the first ones fail, and stops the scheduler
+     * @param failedCycles number of cycles that throw before the rest succeed
+     * @return waits the cycles were scheduled with. the first is the start, the next follow each cycle
+     */
+    private List<Long> run(int failedCycles) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        int[] cycles = {0};
+        scheduler.start(() -> {
+            cycles[0]++;
+            if (cycles[0] == CYCLES) {
+                scheduler.stop();
+                done.countDown();
+            }
+            if (cycles[0] <= failedCycles) {
+                throw new RuntimeException("Server unreachable");
+            }
+        }, () -> INTERVAL);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        List<Long> delays = executor.getDelays();
+        assertEquals(0L, (long) delays.get(0));
+        return delays;
+    }
+
+    /**
+     * Runs every scheduled task straight away and records the wait it was scheduled with
+     */
+    private static class RecordingExecutor extends ScheduledThreadPoolExecutor {
+
+        private final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            return super.schedule(command, 0, unit);
+        }
+
+        List<Long> getDelays() {
+            synchronized (delays) {
+                return new ArrayList<>(delays);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package edu.monash.kmhc.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the running mean, variance and histogram percentiles of one kind of reading, checked
+ * against the same statistics computed from every reading.
+ */
+public class ReadingStatisticsTest {
+
+    private static final double[] FRACTIONS = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1};
+
+    @Test
+    public void getPercentile_withinOneBinOfExactPercentile() {
+        Random random = new Random(7);
+        ReadingStatistics statistics = new ReadingStatistics(0, 300, 1);
+        ArrayList<Double> readings = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // skewed like systolic readings, with a fraction of a mmHg
+            double value = 100 + Math.abs(random.nextGaussian()) * 40 + random.nextInt(10) / 10.0;
+            statistics.add(value);
+            readings.add(value);
+        }
+
+        checkPercentiles(statistics, readings, 1);
+    }
+
+    @Test
+    public void getPercentile_followsRemovedReadings() {
+        Random random = new Random(11);
+        ReadingStatistics statistics = new ReadingStatistics(0, 1000, 2);
+        ArrayList<Double> readings = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            if (!readings.isEmpty() && random.nextInt(3) == 0) {
+                double old = readings.remove(random.nextInt(readings.size()));
+                double value = 150 + random.nextInt(150);
+                statistics.replace(old, value);
+                readings.add(value);
+            }
+            else if (!readings.isEmpty() && random.nextInt(4) == 0) {
+                statistics.remove(readings.remove(random.nextInt(readings.size())));
+            }
+            else {
+                double value = 150 + random.nextInt(150);
+                statistics.add(value);
+                readings.add(value);
+            }
+        }
+
+        assertEquals(readings.size(), statistics.getCount());
+        checkPercentiles(statistics, readings, 2);
+    }
+
+    @Test
+    public void getPercentile_countsOutOfRangeReadingsInEndBins() {
+        ReadingStatistics statistics = new ReadingStatistics(0, 300, 1);
+        statistics.add(-20);
+        statistics.add(150);
+        statistics.add(450);
+
+        assertEquals(0, statistics.getPercentile(0.1), 1);
+        assertEquals(300, statistics.getPercentile(1), 1);
+        assertEquals(150, statistics.getPercentile(0.5), 1);
+    }
+
+    @Test
+    public void getPercentile_nanWithoutReadings() {
+        ReadingStatistics statistics = new ReadingStatistics(0, 300, 1);
+        assertTrue(Double.isNaN(statistics.getPercentile(0.9)));
+
+        statistics.add(120);
+        statistics.remove(120);
+        assertTrue(Double.isNaN(statistics.getPercentile(0.9)));
+        assertEquals(0, statistics.getMean(), 0);
+    }
+
+    @Test
+    public void getMean_matchesReadingsAndIgnoresOrder() {
+        Random random = new Random(3);
+        ArrayList<Double> readings = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            readings.add((double) (150 + random.nextInt(150)));
+        }
+        ReadingStatistics forward = new ReadingStatistics(0, 1000, 1);
+        double sum = 0;
+        for (double value: readings) {
+            forward.add(value);
+            sum += value;
+        }
+        // the same readings, shuffled and with readings added and removed on the way
+        ReadingStatistics shuffled = new ReadingStatistics(0, 1000, 1);
+        Collections.shuffle(readings, random);
+        for (double value: readings) {
+            shuffled.add(value + 0.5);
+            shuffled.replace(value + 0.5, value);
+        }
+
+        assertEquals(sum / readings.size(), forward.getMean(), 1e-9);
+        assertEquals(forward.getMean(), shuffled.getMean(), 0);
+    }
+
+    @Test
+    public void getVariance_matchesReadings() {
+        Random random = new Random(5);
+        ReadingStatistics statistics = new ReadingStatistics(0, 300, 1);
+        ArrayList<Double> readings = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double value = 120 + random.nextGaussian() * 15;
+            statistics.add(value);
+            readings.add(value);
+        }
+        for (int i = 0; i < 500; i++) {
+            statistics.remove(readings.remove(readings.size() - 1));
+        }
+
+        double mean = 0;
+        for (double value: readings) {
+            mean += value / readings.size();
+        }
+        double squaredDifferences = 0;
+        for (double value: readings) {
+            squaredDifferences += (value - mean) * (value - mean);
+        }
+        assertEquals(squaredDifferences / (readings.size() - 1), statistics.getVariance(), 1e-6);
+    }
+
+    /**
+     * Checks the percentiles against the readings at the same rank
+     */
+    private static void checkPercentiles(ReadingStatistics statistics, ArrayList<Double> readings, double binWidth) {
+        ArrayList<Double> sorted = new ArrayList<>(readings);
+        Collections.sort(sorted);
+        for (double fraction: FRACTIONS) {
+            int rank = (int) Math.ceil(Math.max(1, fraction * sorted.size()));
+            assertEquals("percentile " + fraction, sorted.get(rank - 1), statistics.getPercentile(fraction), binWidth);
+        }
+    }
+}
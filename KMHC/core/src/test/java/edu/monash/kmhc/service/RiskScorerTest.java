@@ -0,0 +1,100 @@
+package edu.monash.kmhc.service;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the risk scorer only scores the patients whose levels changed since they were last scored.
+ */
+public class RiskScorerTest {
+
+    private static CholesterolRiskModel model;
+    private RiskScorer scorer;
+
+    @BeforeClass
+    public static void loadModel() throws IOException {
+        model = CholesterolRiskModel.load(
+                RiskScorerTest.class.getClassLoader().getResourceAsStream(CholesterolRiskModel.ASSET_NAME));
+    }
+
+    @Before
+    public void createScorer() {
+        scorer = new RiskScorer(model);
+    }
+
+    @Test
+    public void update_scoresNewPatients() {
+        assertEquals(ids("1", "2", "3"), scorer.update(Arrays.asList(
+                patient("1", 70), patient("2", 100), patient("3", Double.NaN)), Collections.<String>emptyList()));
+        assertEquals(3, scorer.getScoredCount());
+        assertEquals(3, scorer.getScores().size());
+    }
+
+    @Test
+    public void update_skipsReadingsInSameLevel() {
+        scorer.update(Arrays.asList(patient("1", 70), patient("2", 100)), Collections.<String>emptyList());
+
+        // both diastolic readings stay in their blood pressure level
+        assertTrue(scorer.update(Arrays.asList(patient("1", 75), patient("2", 110)),
+                Collections.<String>emptyList()).isEmpty());
+        assertEquals(0, scorer.getScoredCount());
+    }
+
+    @Test
+    public void update_rescoresOnlyPatientsWhoseLevelsChanged() {
+        scorer.update(Arrays.asList(patient("1", 70), patient("2", 70), patient("3", 70)),
+                Collections.<String>emptyList());
+        float normalScore = scorer.getScores().get("1");
+
+        // only patient 2 goes from normal to high blood pressure
+        assertEquals(ids("2"), scorer.update(Arrays.asList(patient("1", 80), patient("2", 100), patient("3", 70)),
+                Collections.<String>emptyList()));
+        assertEquals(1, scorer.getScoredCount());
+        assertNotEquals(normalScore, scorer.getScores().get("2"), 0);
+        assertEquals(normalScore, scorer.getScores().get("1"), 0);
+    }
+
+    @Test
+    public void update_forgetsRemovedPatients() {
+        scorer.update(Arrays.asList(patient("1", 70), patient("2", 100)), Collections.<String>emptyList());
+
+        scorer.update(Collections.<PatientModel>emptyList(), Collections.singletonList("1"));
+        assertEquals(Collections.singleton("2"), scorer.getScores().keySet());
+
+        // scored again when they come back, even with the same levels
+        scorer.update(Collections.singletonList(patient("1", 70)), Collections.<String>emptyList());
+        assertEquals(1, scorer.getScoredCount());
+    }
+
+    /**
+     * Returns a 60 year old patient with a diastolic reading, or none if it is NaN
+     */
+    private static PatientModel patient(String patientId, double diastolic) {
+        Calendar birthDate = Calendar.getInstance();
+        birthDate.add(Calendar.YEAR, -60);
+        PatientModel patient = new PatientModel(patientId, patientId, birthDate.getTime(), null, null);
+        if (!Double.isNaN(diastolic)) {
+            patient.setObservation(ObservationType.BLOOD_PRESSURE,
+                    new BloodPressureObservationModel(130, diastolic, "mmHg", new Date().getTime()));
+        }
+        return patient;
+    }
+
+    private static HashSet<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,81 @@
+package edu.monash.kmhc.service.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.PatientModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirClientProvider;
+import edu.monash.kmhc.service.StandInFhirServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests which rejected exports make the bulk export repository stop asking the server for one.
+ */
+public class BulkExportRepositoryTest {
+
+    private static final String PRACTITIONER_ID = "export";
+    private static final String EXPORT = "Patient/$export";
+    private static final int PATIENTS = 10;
+    private static final int N = 5;
+    private static final EnumSet<ObservationType> TYPES = EnumSet.allOf(ObservationType.class);
+
+    private StandInFhirServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        Logger.getLogger("").setLevel(Level.SEVERE);
+        // a new server for each test, so what is known about the servers of other tests does not apply
+        server = new StandInFhirServer();
+        server.seed(PRACTITIONER_ID, PATIENTS, N);
+        server.start();
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void getAllPatients_searchesOnceOnBadRequest() throws IOException {
+        server.setExportResponse(400);
+        assertTrue(export().isEmpty());
+
+        // the next load tries the export again
+        server.setExportResponse(202);
+        assertEquals(PATIENTS, export().size());
+        assertEquals(2, server.getRequestCount(EXPORT));
+    }
+
+    @Test
+    public void getAllPatients_remembersUnsupportedServer() throws IOException {
+        server.setExportResponse(501);
+        assertTrue(export().isEmpty());
+
+        server.setExportResponse(202);
+        assertTrue(export().isEmpty());
+        assertEquals(1, server.getRequestCount(EXPORT));
+    }
+
+    /**
+     * Loads the practitioner's panel with a new repository
+     * @return exported patients, empty if the export was not used
+     */
+    private List<PatientModel> export() throws IOException {
+        ArrayList<PatientModel> exported = new ArrayList<>();
+        boolean used = new BulkExportRepository(PRACTITIONER_ID, new ObservationRepositoryFactory())
+                .getAllPatients(TYPES, N, (patients, batch) -> exported.addAll(patients));
+        assertEquals(used, !exported.isEmpty());
+        return exported;
+    }
+}
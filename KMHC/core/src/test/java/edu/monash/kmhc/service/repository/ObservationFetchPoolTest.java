@@ -0,0 +1,74 @@
+package edu.monash.kmhc.service.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirClientProvider;
+import edu.monash.kmhc.service.StandInFhirServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that fetches which miss the deadline of a poll do not keep the pool's workers busy.
+ */
+public class ObservationFetchPoolTest {
+
+    private static final int PATIENTS = 10;
+    private static final int N = 5;
+    private static final EnumSet<ObservationType> TYPES = EnumSet.allOf(ObservationType.class);
+    // outlasts both polls below, so a worker still waiting on it fails the second one. Short enough for
+    // the stand-in server to finish the stalled response when it is stopped
+    private static final long STALL = 4 * 1000;
+    private static final long DEADLINE = 500;
+
+    private StandInFhirServer server;
+    private ObservationFetchPool pool;
+
+    @Before
+    public void startServer() throws IOException {
+        Logger.getLogger("").setLevel(Level.SEVERE);
+        server = new StandInFhirServer();
+        server.seed("fetchpool", PATIENTS, N);
+        server.start();
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void getObservationUpdates_freesWorkersAtDeadline() {
+        // one worker, so the next poll can only run once the stalled fetch has let go of it
+        pool = new ObservationFetchPool(new ObservationRepositoryFactory(), 1, PATIENTS);
+        List<String> patientIds = server.getPatientReferences();
+
+        server.setResponseDelay(STALL);
+        try {
+            pool.getObservationUpdates(patientIds, TYPES, N, DEADLINE);
+            fail("The stalled fetch finished");
+        }
+        catch (RuntimeException e) {
+            // no fetch finished within the deadline
+        }
+
+        server.setResponseDelay(0);
+        long start = System.nanoTime();
+        ObservationBatch batch = pool.getObservationUpdates(patientIds, TYPES, N, 5 * DEADLINE);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5 * DEADLINE);
+        assertEquals(PATIENTS, batch.getPatientIds().size());
+    }
+}
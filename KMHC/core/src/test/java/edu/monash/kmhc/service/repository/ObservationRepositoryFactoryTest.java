@@ -0,0 +1,232 @@
+package edu.monash.kmhc.service.repository;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import edu.monash.kmhc.model.observation.BloodPressureObservationModel;
+import edu.monash.kmhc.model.observation.ObservationType;
+import edu.monash.kmhc.service.FhirClientProvider;
+import edu.monash.kmhc.service.StandInFhirServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the batched observation search against the stand-in FHIR server, with and without
+ * Observation/$lastn.
+ */
+public class ObservationRepositoryFactoryTest {
+
+    private static final String LAST_N = "Observation/$lastn";
+    private static final int PATIENTS = 20;
+    private static final int READINGS_PER_PATIENT = 8;
+    private static final int N = 5;
+    private static final EnumSet<ObservationType> TYPES = EnumSet.allOf(ObservationType.class);
+
+    private ArrayList<StandInFhirServer> servers = new ArrayList<>();
+
+    @Before
+    public void quietLogs() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        for (StandInFhirServer server: servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void getObservationBatch_usesLastN() throws IOException {
+        StandInFhirServer server = startServer();
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+
+        checkLatest(server, repository.getObservationBatch(server.getPatientReferences(), TYPES, N));
+        assertEquals(1, server.getRequestCount(LAST_N));
+    }
+
+    @Test
+    public void getObservationBatch_searchesWhenLastNNotFound() throws IOException {
+        StandInFhirServer server = startServer();
+        server.setLastNResponse(404, false);
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+
+        checkLatest(server, repository.getObservationBatch(server.getPatientReferences(), TYPES, N));
+        checkLatest(server, repository.getObservationBatch(server.getPatientReferences(), TYPES, N));
+        // the second batch does not ask for $lastn again
+        assertEquals(1, server.getRequestCount(LAST_N));
+    }
+
+    @Test
+    public void getObservationBatch_searchesOnBadRequestWhenLastNNotListed() throws IOException {
+        StandInFhirServer server = startServer();
+        server.setLastNResponse(400, false);
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+
+        checkLatest(server, repository.getObservationBatch(server.getPatientReferences(), TYPES, N));
+        assertEquals(1, server.getRequestCount("metadata"));
+    }
+
+    @Test(expected = BaseServerResponseException.class)
+    public void getObservationBatch_throwsOnBadRequestWhenLastNListed() throws IOException {
+        StandInFhirServer server = startServer();
+        server.setLastNResponse(400, true);
+
+        new ObservationRepositoryFactory().getObservationBatch(server.getPatientReferences(), TYPES, N);
+    }
+
+    @Test
+    public void getObservationBatch_triesLastNAgainAfterServerError() throws IOException {
+        StandInFhirServer server = startServer();
+        server.setLastNResponse(500, true);
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+        try {
+            repository.getObservationBatch(server.getPatientReferences(), TYPES, N);
+            fail("The server error was not thrown");
+        }
+        catch (BaseServerResponseException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+
+        server.setLastNResponse(200, true);
+        checkLatest(server, repository.getObservationBatch(server.getPatientReferences(), TYPES, N));
+        assertEquals(2, server.getRequestCount(LAST_N));
+    }
+
+    @Test
+    public void getObservationBatch_remembersLastNForEachServer() throws IOException {
+        StandInFhirServer withoutLastN = startServer();
+        withoutLastN.setLastNResponse(501, false);
+        checkLatest(withoutLastN, new ObservationRepositoryFactory()
+                .getObservationBatch(withoutLastN.getPatientReferences(), TYPES, N));
+
+        StandInFhirServer withLastN = startServer();
+        checkLatest(withLastN, new ObservationRepositoryFactory()
+                .getObservationBatch(withLastN.getPatientReferences(), TYPES, N));
+        assertEquals(1, withLastN.getRequestCount(LAST_N));
+    }
+
+    @Test
+    public void getObservationUpdates_skipsObservationsAtWatermark() throws IOException {
+        // without a search time the watermark is the newest observation's last updated time
+        StandInFhirServer server = startServer();
+        server.setBundleTimestamps(false);
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+        List<String> patientIds = server.getPatientReferences();
+        repository.getObservationBatch(patientIds, TYPES, N);
+
+        ObservationBatch updates = repository.getObservationUpdates(patientIds, TYPES, N);
+        assertTrue(updates.getPatientIds().isEmpty());
+        for (String patientId: patientIds) {
+            for (ObservationType type: TYPES) {
+                assertTrue(updates.isFetched(patientId, type));
+            }
+        }
+    }
+
+    @Test
+    public void getObservationUpdates_returnsNewReadingOnce() throws IOException {
+        StandInFhirServer server = startServer();
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+        List<String> patientIds = server.getPatientReferences();
+        repository.getObservationBatch(patientIds, TYPES, N);
+
+        String changedId = patientIds.get(0);
+        server.addObservation(server.createBloodPressure(changedId.substring(changedId.indexOf('/') + 1),
+                new Date(), 90, 150));
+        ObservationBatch updates = repository.getObservationUpdates(patientIds, TYPES, N);
+        assertEquals(Collections.singleton(changedId), updates.getPatientIds());
+        assertEquals(1, updates.getLatestBloodPressureReadings(changedId).size());
+
+        assertTrue(repository.getObservationUpdates(patientIds, TYPES, N).getPatientIds().isEmpty());
+    }
+
+    @Test
+    public void getObservationUpdates_searchesPatientBehindSeparately() throws IOException {
+        StandInFhirServer server = startServer();
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+        List<String> patientIds = server.getPatientReferences();
+        repository.getObservationBatch(patientIds, TYPES, N);
+
+        // one patient's watermarks fell far behind, ie. restored from an old launch
+        String behindId = patientIds.get(0);
+        HashMap<String, Date> oldWatermarks = new HashMap<>();
+        for (ObservationType type: TYPES) {
+            oldWatermarks.put(behindId + "|" + type.getObservationCode(), new Date(0));
+        }
+        repository.restoreWatermarks(oldWatermarks);
+
+        int searched = server.getSearchedObservationCount();
+        ObservationBatch updates = repository.getObservationUpdates(patientIds, TYPES, N);
+        assertEquals(Collections.singleton(behindId), updates.getPatientIds());
+        // only that patient's readings are downloaded again, in a search of their own
+        assertEquals(TYPES.size() * READINGS_PER_PATIENT, server.getSearchedObservationCount() - searched);
+        assertEquals(2, server.getRequestCount("Observation"));
+    }
+
+    @Test
+    public void getObservationUpdates_recordsWatermarkWithoutObservations() throws IOException {
+        StandInFhirServer server = startServer();
+        server.setBundleTimestamps(false);
+        Patient patient = new Patient();
+        patient.setId("no-readings");
+        server.addPatient(patient, "repository");
+        List<String> patientIds = Collections.singletonList("Patient/no-readings");
+        ObservationRepositoryFactory repository = new ObservationRepositoryFactory();
+
+        ObservationBatch batch = repository.getObservationUpdates(patientIds, TYPES, N);
+        for (ObservationType type: TYPES) {
+            assertTrue(batch.isFetched(patientIds.get(0), type));
+        }
+        // the next poll only asks for changes
+        repository.getObservationUpdates(patientIds, TYPES, N);
+        assertEquals(1, server.getRequestCount(LAST_N));
+    }
+
+    /**
+     * Starts a seeded stand-in server and points the FHIR client at it
+     */
+    private StandInFhirServer startServer() throws IOException {
+        StandInFhirServer server = new StandInFhirServer();
+        server.seed("repository", PATIENTS, READINGS_PER_PATIENT);
+        server.start();
+        servers.add(server);
+        FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+        return server;
+    }
+
+    /**
+     * Checks that every patient has the latest cholesterol reading and the latest N blood pressure
+     * readings, newest first
+     */
+    private void checkLatest(StandInFhirServer server, ObservationBatch batch) {
+        List<String> patientIds = server.getPatientReferences();
+        assertEquals(PATIENTS, batch.getPatientIds().size());
+        for (String patientId: patientIds) {
+            assertNotNull(batch.getObservation(patientId, ObservationType.CHOLESTEROL));
+            ArrayList<BloodPressureObservationModel> readings = batch.getLatestBloodPressureReadings(patientId);
+            assertEquals(N, readings.size());
+            for (int i = 1; i < readings.size(); i++) {
+                assertTrue(readings.get(i - 1).getEffectiveTime() > readings.get(i).getEffectiveTime());
+            }
+            assertEquals(readings.get(0).getEffectiveTime(),
+                    batch.getObservation(patientId, ObservationType.BLOOD_PRESSURE).getEffectiveTime());
+            for (ObservationType type: TYPES) {
+                assertTrue(batch.isFetched(patientId, type));
+            }
+        }
+    }
+}
@@ -0,0 +1,906 @@
+package edu.monash.kmhc.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Subscription;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import edu.monash.kmhc.model.observation.ObservationType;
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * This class is a small in-memory FHIR server that answers the queries made by the app, so the app
+ * can be run and tested without the Monash FHIR server. It is part of the core module's test fixtures.
+ *
+ * It serves the encounter search, patient reads and searches, observation and condition searches,
+ * Observation/$lastn, the CapabilityStatement, Subscription create and delete, and the subscription websocket. Searches with
+ * _count are paged with next links like the HAPI server's. Adding an observation pings the
+ * subscriptions that match it, and dropSubscriptions() closes every websocket to test the
+ * polling fallback.
+ *
+ * It also serves the FHIR Bulk Data export: $export with _type and _typeFilter is answered with 202
+ * and a status url, which answers 202 until the export duration has passed and then lists the
+ * NDJSON files. The files are served as Binary/[id] and are deleted with the status url.
+ *
+ * Usage:
+ *     StandInFhirServer server = new StandInFhirServer();
+ *     server.seed("500", 20, 10);
+ *     server.start();
+ *     FhirClientProvider.setServerBaseUrl(server.getBaseUrl());
+ */
+public class StandInFhirServer extends Dispatcher {
+
+    private static final String NPI_SYSTEM = "http://hl7.org/fhir/sid/us-npi";
+    private static final String LOINC_SYSTEM = "http://loinc.org";
+    private static final String SYSTOLIC_CODE = "8480-6";
+    private static final String DIASTOLIC_CODE = "8462-4";
+    private static final String BMI_CODE = "39156-5";
+    private static final String SMOKING_CODE = "72166-2";
+    private static final String SNOMED_SYSTEM = "http://snomed.info/sct";
+    // prediabetes, diabetes, hypertension, heart disease and obesity
+    private static final String[] CONDITION_CODES = {"15777000", "44054006", "59621000", "53741008", "162864005"};
+    private static final String[] SMOKING_STATUSES = {"Never smoker", "Former smoker"};
+    // resources written to each export file, like the HAPI server's
+    private static final int EXPORT_FILE_SIZE = 1000;
+    private static final String NDJSON = "application/fhir+ndjson";
+
+    private MockWebServer server = new MockWebServer();
+    private IParser parser = FhirContext.forR4().newJsonParser();
+    private Random random = new Random(42);
+    private int nextId = 1;
+    // milliseconds every search response is held back, to stand in for a slow network
+    private volatile long responseDelay = 0;
+    // milliseconds an export takes before its files are ready
+    private volatile long exportDuration = 0;
+    // status of the Observation/$lastn responses, and whether the CapabilityStatement lists $lastn
+    private volatile int lastNResponseCode = 200;
+    private volatile boolean lastNListed = true;
+    // status of the $export kick-off responses, 202 to start the exports
+    private volatile int exportResponseCode = 202;
+    // false to leave meta.lastUpdated out of the search bundles, like servers that do not send it
+    private volatile boolean bundleTimestamps = true;
+
+    // resources by id part
+    private LinkedHashMap<String, Patient> patients = new LinkedHashMap<>();
+    private ArrayList<Encounter> encounters = new ArrayList<>();
+    private ArrayList<Observation> observations = new ArrayList<>();
+    private ArrayList<Condition> conditions = new ArrayList<>();
+    // search id -> every result of a paged search
+    private HashMap<String, List<IBaseResource>> pagedSearches = new HashMap<>();
+    // job id -> bulk export
+    private HashMap<String, ExportJob> exportJobs = new HashMap<>();
+    // file id -> NDJSON content of an export file
+    private HashMap<String, String> exportFiles = new HashMap<>();
+    // subscription id -> criteria
+    private HashMap<String, String> subscriptions = new HashMap<>();
+    // subscription id -> bound websocket
+    private HashMap<String, WebSocket> boundSockets = new HashMap<>();
+    // path after /fhir/ -> number of requests, ie. Observation/$lastn
+    private HashMap<String, Integer> requestCounts = new HashMap<>();
+    // observations matched by the Observation searches
+    private int searchedObservationCount = 0;
+
+    /**
+     * Starts the server on a free local port. Must not be called on the main thread.
+     */
+    public void start() throws IOException {
+        server.setDispatcher(this);
+        server.start();
+    }
+
+    /**
+     * Stops the server and closes all websockets
+     */
+    public void stop() throws IOException {
+        dropSubscriptions();
+        server.shutdown();
+    }
+
+    /**
+     * Returns the FHIR base url to pass to FhirClientProvider.setServerBaseUrl
+     * @return base url ending with /fhir/
+     */
+    public String getBaseUrl() {
+        return server.url("/fhir/").toString();
+    }
+
+    /**
+     * Holds back the body of every search response, to measure the app on a slow network
+     * @param millis delay of each response in milliseconds
+     */
+    public void setResponseDelay(long millis) {
+        responseDelay = millis;
+    }
+
+    /**
+     * Sets how long an export takes, to stand in for a server that has to write the files first
+     * @param millis time from the kick-off request until the files are ready
+     */
+    public void setExportDuration(long millis) {
+        exportDuration = millis;
+    }
+
+    /**
+     * Makes the $export kick-off answer with an error, ie. 404 for a server without bulk export
+     * @param code status of the kick-off responses, 202 to start the exports
+     */
+    public void setExportResponse(int code) {
+        exportResponseCode = code;
+    }
+
+    /**
+     * Makes Observation/$lastn answer with an error, to stand in for a server without it
+     * @param code status of the $lastn responses, 200 to serve them
+     * @param listed true to still list $lastn in the CapabilityStatement
+     */
+    public void setLastNResponse(int code, boolean listed) {
+        lastNResponseCode = code;
+        lastNListed = listed;
+    }
+
+    /**
+     * Leaves the time of the search out of the search bundles, so clients have to work it out
+     * @param sent false to leave out meta.lastUpdated
+     */
+    public void setBundleTimestamps(boolean sent) {
+        bundleTimestamps = sent;
+    }
+
+    /**
+     * Returns how many requests were made to a path
+     * @param path path after the base url, ie. Observation/$lastn
+     * @return number of requests
+     */
+    public synchronized int getRequestCount(String path) {
+        Integer count = requestCounts.get(path);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns how many observations the Observation searches have matched, to measure how much the
+     * searches download
+     * @return number of observations
+     */
+    public synchronized int getSearchedObservationCount() {
+        return searchedObservationCount;
+    }
+
+    /**
+     * Returns the references of all patients, ie. Patient/1
+     * @return patient references in the order they were added
+     */
+    public synchronized List<String> getPatientReferences() {
+        ArrayList<String> references = new ArrayList<>();
+        for (String id: patients.keySet()) {
+            references.add("Patient/" + id);
+        }
+        return references;
+    }
+
+    /**
+     * Adds sample patients with encounters with the practitioner, cholesterol and blood pressure readings,
+     * and the BMI, smoking status and conditions read by the MachineLearning data extractor
+     * @param practitionerId practitioner identifier used to log in
+     * @param patientCount number of patients
+     * @param readingsPerPatient number of readings of each type for every patient
+     */
+    public synchronized void seed(String practitionerId, int patientCount, int readingsPerPatient) {
+        for (int i = 0; i < patientCount; i++) {
+            Patient patient = new Patient();
+            patient.setId(String.valueOf(nextId++));
+            patient.addName(new HumanName().addPrefix("Mx.").addGiven("Sample" + i).setFamily("Patient"));
+            patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+            Calendar birthDate = Calendar.getInstance();
+            birthDate.add(Calendar.YEAR, -(30 + random.nextInt(50)));
+            patient.setBirthDate(birthDate.getTime());
+            patient.addAddress().setCity("Melbourne").setState("VIC").setCountry("AU");
+            addPatient(patient, practitionerId);
+
+            Calendar effective = Calendar.getInstance();
+            effective.add(Calendar.DAY_OF_YEAR, -readingsPerPatient);
+            for (int reading = 0; reading < readingsPerPatient; reading++) {
+                effective.add(Calendar.DAY_OF_YEAR, 1);
+                addObservation(createCholesterol(patient.getIdElement().getIdPart(), effective.getTime(),
+                        150 + random.nextInt(150)));
+                addObservation(createBloodPressure(patient.getIdElement().getIdPart(), effective.getTime(),
+                        60 + random.nextInt(40), 100 + random.nextInt(80)));
+            }
+            addRiskFactors(patient.getIdElement().getIdPart(), effective.getTime());
+        }
+    }
+
+    /**
+     * Adds a BMI reading, a smoking status and some of the conditions to a patient
+     */
+    private void addRiskFactors(String patientId, Date effective) {
+        Observation bmi = createObservation(patientId, effective, BMI_CODE);
+        bmi.setValue(new Quantity().setValue(BigDecimal.valueOf(1800 + random.nextInt(1700), 2)).setUnit("kg/m2"));
+        addObservation(bmi);
+        if (random.nextInt(4) > 0) {
+            Observation smoking = createObservation(patientId, effective, SMOKING_CODE);
+            smoking.setValue(new CodeableConcept().setText(SMOKING_STATUSES[random.nextInt(SMOKING_STATUSES.length)]));
+            addObservation(smoking);
+        }
+        for (String code: CONDITION_CODES) {
+            if (random.nextInt(3) == 0) {
+                Condition condition = new Condition();
+                condition.setId(String.valueOf(nextId++));
+                condition.setSubject(new Reference("Patient/" + patientId));
+                condition.getCode().addCoding().setSystem(SNOMED_SYSTEM).setCode(code);
+                condition.getClinicalStatus().addCoding()
+                        .setSystem("http://terminology.hl7.org/CodeSystem/condition-clinical")
+                        .setCode(random.nextInt(4) == 0 ? "resolved" : "active");
+                conditions.add(condition);
+            }
+        }
+    }
+
+    /**
+     * Adds a patient and an encounter between the patient and the practitioner
+     * @param patient patient with an id
+     * @param practitionerId practitioner identifier
+     */
+    public synchronized void addPatient(Patient patient, String practitionerId) {
+        patients.put(patient.getIdElement().getIdPart(), patient);
+
+        Encounter encounter = new Encounter();
+        encounter.setId(String.valueOf(nextId++));
+        encounter.setSubject(new Reference("Patient/" + patient.getIdElement().getIdPart()));
+        encounter.addParticipant().getIndividual()
+                .setIdentifier(new Identifier().setSystem(NPI_SYSTEM).setValue(practitionerId));
+        encounters.add(encounter);
+    }
+
+    /**
+     * Adds an observation and notifies the subscriptions that match it
+     * @param observation observation with a subject and a code
+     */
+    public synchronized void addObservation(Observation observation) {
+        if (!observation.hasId()) {
+            observation.setId(String.valueOf(nextId++));
+        }
+        observation.getMeta().setLastUpdated(new Date());
+        observations.add(observation);
+
+        for (String subscriptionId: boundSockets.keySet()) {
+            String criteria = subscriptions.get(subscriptionId);
+            if (criteria != null && matches(observation, getParameter(criteria, "patient"), getParameter(criteria, "code"))) {
+                boundSockets.get(subscriptionId).send("ping " + subscriptionId);
+            }
+        }
+    }
+
+    /**
+     * Creates a cholesterol observation
+     * @param patientId patient id part
+     * @param effective date of the reading
+     * @param value total cholesterol in mg/dL
+     * @return observation
+     */
+    public Observation createCholesterol(String patientId, Date effective, double value) {
+        Observation observation = createObservation(patientId, effective, ObservationType.CHOLESTEROL.getObservationCode());
+        observation.setValue(new Quantity().setValue(value).setUnit("mg/dL"));
+        return observation;
+    }
+
+    /**
+     * Creates a blood pressure panel observation
+     * @param patientId patient id part
+     * @param effective date of the reading
+     * @param diastolic diastolic pressure in mm[Hg]
+     * @param systolic systolic pressure in mm[Hg]
+     * @return observation
+     */
+    public Observation createBloodPressure(String patientId, Date effective, double diastolic, double systolic) {
+        Observation observation = createObservation(patientId, effective, ObservationType.BLOOD_PRESSURE.getObservationCode());
+        observation.addComponent()
+                .setCode(new CodeableConcept().addCoding(new Coding(LOINC_SYSTEM, DIASTOLIC_CODE, "Diastolic Blood Pressure")))
+                .setValue(new Quantity().setValue(diastolic).setUnit("mm[Hg]"));
+        observation.addComponent()
+                .setCode(new CodeableConcept().addCoding(new Coding(LOINC_SYSTEM, SYSTOLIC_CODE, "Systolic Blood Pressure")))
+                .setValue(new Quantity().setValue(systolic).setUnit("mm[Hg]"));
+        return observation;
+    }
+
+    /**
+     * Forgets every paged search, as the HAPI server does when a search expires. The next page
+     * links of the searches are answered with 410 Gone
+     */
+    public synchronized void expireSearches() {
+        pagedSearches.clear();
+    }
+
+    /**
+     * Closes every subscription websocket, as if the connection to the server was lost
+     */
+    public synchronized void dropSubscriptions() {
+        for (WebSocket webSocket: boundSockets.values()) {
+            webSocket.close(1001, "server going away");
+        }
+        boundSockets.clear();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        List<String> segments = url.pathSegments();
+
+        if (segments.size() == 1 && segments.get(0).equals("websocket")) {
+            return new MockResponse().withWebSocketUpgrade(new SubscriptionSocket());
+        }
+        if (url.queryParameter("_getpages") != null) {
+            synchronized (this) {
+                return nextPage(url);
+            }
+        }
+        if (segments.size() < 2 || !segments.get(0).equals("fhir")) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        String resourceType = segments.get(1);
+        synchronized (this) {
+            String path = String.join("/", segments.subList(1, segments.size()));
+            requestCounts.put(path, getRequestCount(path) + 1);
+            if (resourceType.equals("Subscription")) {
+                return handleSubscription(request, segments);
+            }
+            if (resourceType.equals("$export-poll-status")) {
+                return handleExportStatus(request, url);
+            }
+            if (!request.getMethod().equals("GET")) {
+                return new MockResponse().setResponseCode(405);
+            }
+            if (resourceType.equals("$export") || (segments.size() > 2 && segments.get(2).equals("$export"))) {
+                return kickOffExport(request, url);
+            }
+            switch (resourceType) {
+                case "metadata":
+                    return read(createCapabilityStatement());
+                case "Binary":
+                    return exportFile(segments.size() > 2 ? exportFiles.get(segments.get(2)) : null);
+                case "Encounter":
+                    return bundle(searchEncounters(url), url);
+                case "Patient":
+                    if (segments.size() > 2) {
+                        return read(patients.get(segments.get(2)));
+                    }
+                    return bundle(searchPatients(url), url);
+                case "Observation":
+                    if (segments.size() > 2 && segments.get(2).equals("$lastn")) {
+                        if (lastNResponseCode != 200) {
+                            return error(lastNResponseCode, "Unknown operation $lastn");
+                        }
+                        return bundle(lastN(url), url);
+                    }
+                    List<IBaseResource> found = searchObservations(url);
+                    searchedObservationCount += found.size();
+                    return bundle(found, url);
+                case "Condition":
+                    return bundle(searchConditions(url), url);
+                default:
+                    return new MockResponse().setResponseCode(404);
+            }
+        }
+    }
+
+    /**
+     * Creates or deletes a subscription
+     */
+    private MockResponse handleSubscription(RecordedRequest request, List<String> segments) {
+        if (request.getMethod().equals("POST")) {
+            Subscription subscription = parser.parseResource(Subscription.class, request.getBody().readUtf8());
+            String id = String.valueOf(nextId++);
+            subscription.setId(id);
+            subscription.setStatus(Subscription.SubscriptionStatus.ACTIVE);
+            subscriptions.put(id, subscription.getCriteria());
+            return new MockResponse().setResponseCode(201)
+                    .setHeader("Location", getBaseUrl() + "Subscription/" + id + "/_history/1")
+                    .setHeader("Content-Type", "application/fhir+json")
+                    .setBody(parser.encodeResourceToString(subscription));
+        }
+        if (request.getMethod().equals("DELETE") && segments.size() > 2) {
+            subscriptions.remove(segments.get(2));
+            WebSocket webSocket = boundSockets.remove(segments.get(2));
+            if (webSocket != null) {
+                webSocket.close(1000, "deleted");
+            }
+            return new MockResponse().setResponseCode(204);
+        }
+        return new MockResponse().setResponseCode(405);
+    }
+
+    /**
+     * Starts an export of the resources given by _type, filtered by _typeFilter. The files are
+     * written straight away, as of now, but are only listed once the export duration has passed
+     */
+    private MockResponse kickOffExport(RecordedRequest request, HttpUrl url) {
+        if (!"respond-async".equals(request.getHeader("Prefer"))) {
+            return new MockResponse().setResponseCode(400);
+        }
+        if (exportResponseCode != 202) {
+            return error(exportResponseCode, "Export rejected");
+        }
+        String typeParameter = url.queryParameter("_type");
+        List<String> types = typeParameter == null ? Arrays.asList("Patient", "Encounter", "Observation", "Condition")
+                : Arrays.asList(typeParameter.split(","));
+        // type -> searches, ie. Observation -> [Observation?code=2093-3]. a resource matching any is exported
+        HashMap<String, List<String>> typeFilters = new HashMap<>();
+        for (String value: url.queryParameterValues("_typeFilter")) {
+            for (String filter: value.split(",(?=[A-Za-z]+\\?)")) {
+                String type = filter.substring(0, Math.max(0, filter.indexOf('?')));
+                if (!typeFilters.containsKey(type)) {
+                    typeFilters.put(type, new ArrayList<>());
+                }
+                typeFilters.get(type).add(filter);
+            }
+        }
+
+        ExportJob job = new ExportJob(System.currentTimeMillis() + exportDuration, url.toString());
+        for (String type: types) {
+            StringBuilder file = new StringBuilder();
+            int count = 0;
+            for (Resource resource: getResources(type)) {
+                if (typeFilters.containsKey(type) && !matchesAny(resource, typeFilters.get(type))) {
+                    continue;
+                }
+                file.append(parser.encodeResourceToString(resource)).append('\n');
+                count++;
+                if (count == EXPORT_FILE_SIZE) {
+                    job.addFile(type, file.toString(), count);
+                    file.setLength(0);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                job.addFile(type, file.toString(), count);
+            }
+        }
+        String jobId = String.valueOf(nextId++);
+        exportJobs.put(jobId, job);
+        return new MockResponse().setResponseCode(202)
+                .setHeader("Content-Location", getBaseUrl() + "$export-poll-status?_jobId=" + jobId);
+    }
+
+    /**
+     * Answers a status request with 202 while the export is running and with the list of files once
+     * it is complete. DELETE removes the export and its files
+     */
+    private MockResponse handleExportStatus(RecordedRequest request, HttpUrl url) {
+        String jobId = url.queryParameter("_jobId");
+        ExportJob job = exportJobs.get(jobId);
+        if (job == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if (request.getMethod().equals("DELETE")) {
+            exportJobs.remove(jobId);
+            for (String fileId: job.fileIds) {
+                exportFiles.remove(fileId);
+            }
+            return new MockResponse().setResponseCode(202);
+        }
+
+        long remaining = job.readyTime - System.currentTimeMillis();
+        if (remaining > 0) {
+            return new MockResponse().setResponseCode(202)
+                    .setHeader("X-Progress", "in-progress")
+                    .setHeader("Retry-After", String.valueOf((remaining + 999) / 1000));
+        }
+        JsonObject manifest = new JsonObject();
+        manifest.addProperty("transactionTime", new InstantType(job.transactionTime).getValueAsString());
+        manifest.addProperty("request", job.request);
+        manifest.addProperty("requiresAccessToken", false);
+        manifest.add("output", job.output);
+        manifest.add("error", new JsonArray());
+        return new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody(manifest.toString());
+    }
+
+    /**
+     * Returns an export file, or 404 if it has been deleted
+     */
+    private MockResponse exportFile(String content) {
+        if (content == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        return new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", NDJSON)
+                .setBody(content)
+                .setBodyDelay(responseDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns every resource of a type
+     */
+    private List<? extends Resource> getResources(String type) {
+        switch (type) {
+            case "Patient":
+                return new ArrayList<>(patients.values());
+            case "Encounter":
+                return encounters;
+            case "Observation":
+                return observations;
+            case "Condition":
+                return conditions;
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Checks if a resource matches any of the searches of a _typeFilter
+     * @param filters searches like Observation?code=2093-3
+     */
+    private boolean matchesAny(Resource resource, List<String> filters) {
+        for (String filter: filters) {
+            String patientParameter = getParameter(filter, "patient");
+            String codeParameter = getParameter(filter, "code");
+            if (resource instanceof Encounter
+                    && isPractitioners((Encounter) resource, getParameter(filter, "participant.identifier"))) {
+                return true;
+            }
+            if (resource instanceof Patient && (getParameter(filter, "_id") == null
+                    || getIdParts(getParameter(filter, "_id")).contains(resource.getIdElement().getIdPart()))) {
+                return true;
+            }
+            if (resource instanceof Observation && matches((Observation) resource, patientParameter, codeParameter)) {
+                return true;
+            }
+            if (resource instanceof Condition && matches((Condition) resource, patientParameter, codeParameter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the encounters of the practitioner and their patients
+     */
+    private List<IBaseResource> searchEncounters(HttpUrl url) {
+        String practitioner = url.queryParameter("participant.identifier");
+        ArrayList<IBaseResource> resources = new ArrayList<>();
+        HashSet<String> included = new HashSet<>();
+        for (Encounter encounter: encounters) {
+            if (isPractitioners(encounter, practitioner)) {
+                resources.add(encounter);
+                String patientId = new IdType(encounter.getSubject().getReference()).getIdPart();
+                if (included.add(patientId) && patients.containsKey(patientId)) {
+                    resources.add(patients.get(patientId));
+                }
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Checks if an encounter matches the participant.identifier parameter of a search
+     * @param practitioner ie. http://hl7.org/fhir/sid/us-npi|500, or null to match every encounter
+     */
+    private boolean isPractitioners(Encounter encounter, String practitioner) {
+        String practitionerId = practitioner == null ? null : practitioner.substring(practitioner.indexOf('|') + 1);
+        String npi = encounter.getParticipantFirstRep().getIndividual().getIdentifier().getValue();
+        return practitionerId == null || practitionerId.equals(npi);
+    }
+
+    /**
+     * Returns the patients listed in the _id parameter
+     */
+    private List<IBaseResource> searchPatients(HttpUrl url) {
+        ArrayList<IBaseResource> resources = new ArrayList<>();
+        for (String id: getIdParts(url.queryParameter("_id"))) {
+            if (patients.containsKey(id)) {
+                resources.add(patients.get(id));
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Returns the matching observations, newest first
+     */
+    private List<IBaseResource> searchObservations(HttpUrl url) {
+        // _lastUpdated=ge[time] or the strict gt[time]
+        Date since = null;
+        boolean strict = false;
+        String lastUpdated = url.queryParameter("_lastUpdated");
+        if (lastUpdated != null && (lastUpdated.startsWith("ge") || lastUpdated.startsWith("gt"))) {
+            since = new DateTimeType(lastUpdated.substring(2)).getValue();
+            strict = lastUpdated.startsWith("gt");
+        }
+
+        ArrayList<Observation> found = new ArrayList<>();
+        for (Observation observation: observations) {
+            Date updated = observation.getMeta().getLastUpdated();
+            if (matches(observation, url.queryParameter("patient"), url.queryParameter("code"))
+                    && (since == null || (strict ? updated.after(since) : !updated.before(since)))) {
+                found.add(observation);
+            }
+        }
+        found.sort((first, second) -> getEffective(second).compareTo(getEffective(first)));
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Returns the conditions matching the patient and code parameters
+     */
+    private List<IBaseResource> searchConditions(HttpUrl url) {
+        ArrayList<IBaseResource> resources = new ArrayList<>();
+        for (Condition condition: conditions) {
+            if (matches(condition, url.queryParameter("patient"), url.queryParameter("code"))) {
+                resources.add(condition);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Returns the newest max observations of every patient and code
+     */
+    private List<IBaseResource> lastN(HttpUrl url) {
+        String maxParameter = url.queryParameter("max");
+        int max = maxParameter == null ? 1 : Integer.parseInt(maxParameter);
+        HashMap<String, Integer> counts = new HashMap<>();
+        ArrayList<IBaseResource> resources = new ArrayList<>();
+        for (IBaseResource resource: searchObservations(url)) {
+            Observation observation = (Observation) resource;
+            String key = observation.getSubject().getReference() + "|" + observation.getCode().getCodingFirstRep().getCode();
+            int count = counts.containsKey(key) ? counts.get(key) : 0;
+            if (count < max) {
+                counts.put(key, count + 1);
+                resources.add(observation);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Checks if an observation matches the patient and code parameters of a search
+     */
+    private boolean matches(Observation observation, String patientParameter, String codeParameter) {
+        String patientId = new IdType(observation.getSubject().getReference()).getIdPart();
+        String code = observation.getCode().getCodingFirstRep().getCode();
+        return (patientParameter == null || getIdParts(patientParameter).contains(patientId))
+                && (codeParameter == null || getIdParts(codeParameter).contains(code));
+    }
+
+    /**
+     * Checks if a condition matches the patient and code parameters of a search
+     */
+    private boolean matches(Condition condition, String patientParameter, String codeParameter) {
+        String patientId = new IdType(condition.getSubject().getReference()).getIdPart();
+        String code = condition.getCode().getCodingFirstRep().getCode();
+        return (patientParameter == null || getIdParts(patientParameter).contains(patientId))
+                && (codeParameter == null || getIdParts(codeParameter).contains(code));
+    }
+
+    /**
+     * Splits a comma separated parameter and removes resource types and code systems
+     * @param parameter ie. Patient/1,Patient/2 or http://loinc.org|2093-3
+     * @return id parts or codes
+     */
+    private Collection<String> getIdParts(String parameter) {
+        HashSet<String> ids = new HashSet<>();
+        if (parameter == null) {
+            return ids;
+        }
+        for (String value: Arrays.asList(parameter.split(","))) {
+            value = value.substring(value.lastIndexOf('|') + 1);
+            ids.add(value.substring(value.lastIndexOf('/') + 1));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads a parameter from a search url like Observation?patient=1&code=2093-3
+     */
+    private String getParameter(String searchUrl, String name) {
+        HttpUrl url = HttpUrl.parse("http://localhost/" + searchUrl);
+        return url == null ? null : url.queryParameter(name);
+    }
+
+    /**
+     * Returns the CapabilityStatement, listing Observation/$lastn unless it is turned off
+     */
+    private CapabilityStatement createCapabilityStatement() {
+        CapabilityStatement capabilities = new CapabilityStatement();
+        capabilities.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        capabilities.setKind(CapabilityStatement.CapabilityStatementKind.INSTANCE);
+        capabilities.setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+        CapabilityStatement.CapabilityStatementRestResourceComponent observation = capabilities.addRest()
+                .setMode(CapabilityStatement.RestfulCapabilityMode.SERVER)
+                .addResource().setType("Observation");
+        if (lastNListed) {
+            observation.addOperation().setName("lastn")
+                    .setDefinition("http://hl7.org/fhir/OperationDefinition/Observation-lastn");
+        }
+        return capabilities;
+    }
+
+    /**
+     * Returns an error with an OperationOutcome, like the HAPI server's
+     */
+    private MockResponse error(int code, String diagnostics) {
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+                .setCode(OperationOutcome.IssueType.NOTSUPPORTED).setDiagnostics(diagnostics);
+        return new MockResponse().setResponseCode(code)
+                .setHeader("Content-Type", "application/fhir+json")
+                .setBody(parser.encodeResourceToString(outcome));
+    }
+
+    /**
+     * Returns a resource by id, or 404 if there is none
+     */
+    private MockResponse read(Resource resource) {
+        if (resource == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        return new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", "application/fhir+json")
+                .setBody(parser.encodeResourceToString(resource))
+                .setBodyDelay(responseDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wraps the results of a search in a search set bundle. If the search has a _count smaller than
+     * the number of results, only the first page is returned, with a next link to the other pages
+     */
+    private MockResponse bundle(List<IBaseResource> resources, HttpUrl url) {
+        String countParameter = url.queryParameter("_count");
+        int count = countParameter == null ? resources.size() : Integer.parseInt(countParameter);
+        if (count >= resources.size()) {
+            return page(resources, null, 0, resources.size());
+        }
+        String searchId = String.valueOf(nextId++);
+        pagedSearches.put(searchId, resources);
+        return page(resources, searchId, 0, count);
+    }
+
+    /**
+     * Returns the page of a paged search given by the _getpages and _getpagesoffset parameters
+     */
+    private MockResponse nextPage(HttpUrl url) {
+        String searchId = url.queryParameter("_getpages");
+        List<IBaseResource> resources = pagedSearches.get(searchId);
+        if (resources == null) {
+            // the HAPI server answers 410 Gone once a search has expired
+            return new MockResponse().setResponseCode(410);
+        }
+        int offset = Integer.parseInt(url.queryParameter("_getpagesoffset"));
+        return page(resources, searchId, offset, Integer.parseInt(url.queryParameter("_count")));
+    }
+
+    /**
+     * Returns one page of search results
+     * @param searchId id of the paged search, null if the results are not paged
+     */
+    private MockResponse page(List<IBaseResource> resources, String searchId, int offset, int count) {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.SEARCHSET);
+        if (bundleTimestamps) {
+            bundle.getMeta().setLastUpdated(new Date());
+        }
+        int end = Math.min(resources.size(), offset + count);
+        for (IBaseResource resource: resources.subList(Math.min(offset, end), end)) {
+            bundle.addEntry().setResource((Resource) resource);
+        }
+        if (searchId != null && end < resources.size()) {
+            bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(getBaseUrl() + "?_getpages=" + searchId
+                    + "&_getpagesoffset=" + end + "&_count=" + count + "&_bundletype=searchset");
+        }
+        return new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", "application/fhir+json")
+                .setBody(parser.encodeResourceToString(bundle))
+                .setBodyDelay(responseDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private Observation createObservation(String patientId, Date effective, String code) {
+        Observation observation = new Observation();
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.setSubject(new Reference("Patient/" + patientId));
+        observation.getCode().addCoding().setSystem(LOINC_SYSTEM).setCode(code);
+        observation.setEffective(new DateTimeType(effective));
+        return observation;
+    }
+
+    private Date getEffective(Observation observation) {
+        return observation.hasEffectiveDateTimeType() ? observation.getEffectiveDateTimeType().getValue() : new Date(0);
+    }
+
+    /**
+     * A bulk export and the files written for it
+     */
+    private class ExportJob {
+
+        private final long readyTime;
+        private final Date transactionTime = new Date();
+        private final String request;
+        private final JsonArray output = new JsonArray();
+        private final ArrayList<String> fileIds = new ArrayList<>();
+
+        ExportJob(long readyTime, String request) {
+            this.readyTime = readyTime;
+            this.request = request;
+        }
+
+        /**
+         * Stores a file of the export and lists it in the manifest
+         */
+        void addFile(String type, String content, int count) {
+            String fileId = String.valueOf(nextId++);
+            exportFiles.put(fileId, content);
+            fileIds.add(fileId);
+            JsonObject file = new JsonObject();
+            file.addProperty("type", type);
+            file.addProperty("url", getBaseUrl() + "Binary/" + fileId);
+            file.addProperty("count", count);
+            output.add(file);
+        }
+    }
+
+    /**
+     * Answers "bind [id]" with "bound [id]" and remembers the socket for notifications
+     */
+    private class SubscriptionSocket extends WebSocketListener {
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            String subscriptionId = text.startsWith("bind ") ? text.substring("bind ".length()).trim() : null;
+            synchronized (StandInFhirServer.this) {
+                if (subscriptionId != null && subscriptions.containsKey(subscriptionId)) {
+                    boundSockets.put(subscriptionId, webSocket);
+                    webSocket.send("bound " + subscriptionId);
+                }
+                else {
+                    webSocket.send("Invalid bind request - " + text);
+                }
+            }
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package edu.monash.kmhc.extractor;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import edu.monash.kmhc.service.repository.BundlePageIterator;
+
+/**
+ * Command line extractor of the patient data used by the machine learning notebooks. It replaces
+ * MachineLearning/get_data.py and writes the same columns as patient_data.csv.
+ *
+ * The pages of cholesterol readings are read with the core module's BundlePageIterator, so the next
+ * page is downloading while the current one is handed out. The rows of the patients on a page are
+ * fetched by a pool of threads, under one rate limit, while the next pages are read. Pages are written to
+ * the CSV file in order as soon as all their rows are in, and a checkpoint is saved after each one,
+ * so a stopped run resumes after the last written page. At most MAX_PAGES_IN_FLIGHT pages of rows
+ * are held in memory.
+ *
+ * Usage:
+ *     java -jar extractor.jar [--server url] [--output patient_data.csv] [--concurrency 8]
+ *         [--rate 20] [--page-size 100] [--max-pages 0]
+ */
+public class BulkExtractor {
+
+    private static final String DEFAULT_SERVER = "https://fhir.monash.edu/hapi-fhir-jpaserver/fhir/";
+    private static final String CHOLESTEROL_CODE = "2093-3";
+    private static final int TIMEOUT = 60 * 1000;
+    private static final int MAX_PAGES_IN_FLIGHT = 4;
+
+    private final IGenericClient client;
+    private final PatientRowFetcher fetcher;
+    private final File output;
+    private final int concurrency;
+    private final int pageSize;
+
+    /**
+     * Constructor
+     * @param serverBaseUrl base url of the FHIR server, ending with /fhir/
+     * @param output CSV file the rows are appended to. The checkpoint is kept next to it
+     * @param concurrency number of patients fetched at once
+     * @param requestsPerSecond most requests sent to the server in a second
+     * @param pageSize number of cholesterol readings on a page
+     */
+    public BulkExtractor(String serverBaseUrl, File output, int concurrency, double requestsPerSecond, int pageSize) {
+        FhirContext context = FhirContext.forR4();
+        IRestfulClientFactory clientFactory = context.getRestfulClientFactory();
+        clientFactory.setConnectTimeout(TIMEOUT);
+        clientFactory.setSocketTimeout(TIMEOUT);
+        clientFactory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+        // one connection for each fetching thread, and one for the page being prefetched
+        clientFactory.setPoolMaxTotal(concurrency + 1);
+        clientFactory.setPoolMaxPerRoute(concurrency + 1);
+        client = context.newRestfulGenericClient(serverBaseUrl);
+
+        fetcher = new PatientRowFetcher(client, new RateLimiter(requestsPerSecond));
+        this.output = output;
+        this.concurrency = concurrency;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Extracts the patients, starting after the last page written by an earlier run
+     * @param maxPages most pages to extract in this run, 0 for every page
+     * @return true if every page has been extracted
+     * @throws IOException if the CSV file or the checkpoint cannot be written
+     * @throws BaseServerResponseException if a request failed on every attempt. The next run resumes
+     * from the last checkpoint
+     */
+    public boolean run(int maxPages) throws IOException, InterruptedException {
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint(new File(output.getPath() + ".checkpoint"));
+        if (checkpoint.isComplete()) {
+            System.out.println("Extraction is already complete");
+            return true;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try (PatientCsvWriter writer = new PatientCsvWriter(output)) {
+            // patients already written or being fetched. a patient is only extracted once
+            HashSet<String> seenIds = new HashSet<>(writer.getWrittenIds());
+            System.out.println("Resuming after " + checkpoint.getPagesDone() + " pages, "
+                    + seenIds.size() + " patients");
+
+            ArrayDeque<PendingPage> pendingPages = new ArrayDeque<>();
+            BundlePageIterator pages = new BundlePageIterator(client, getFirstPage(checkpoint.getNextPageUrl()));
+            int pagesRead = 0;
+            while (pages.hasNext() && (maxPages <= 0 || pagesRead < maxPages)) {
+                Bundle page = pages.next();
+                pagesRead++;
+                PendingPage pendingPage = new PendingPage(page.getLink(Bundle.LINK_NEXT) != null
+                        ? page.getLink(Bundle.LINK_NEXT).getUrl() : null);
+                for (Bundle.BundleEntryComponent entry: page.getEntry()) {
+                    if (!(entry.getResource() instanceof Observation)) {
+                        continue;
+                    }
+                    Observation observation = (Observation) entry.getResource();
+                    String patientId = new IdType(observation.getSubject().getReference()).getIdPart();
+                    if (patientId != null && observation.hasValueQuantity() && seenIds.add(patientId)) {
+                        String cholesterol = PatientRowFetcher.getValue(observation.getValueQuantity());
+                        pendingPage.rows.add(executor.submit(() -> fetcher.fetch(patientId, cholesterol)));
+                    }
+                }
+                pendingPages.add(pendingPage);
+
+                // write the oldest page once too many are being fetched
+                if (pendingPages.size() >= MAX_PAGES_IN_FLIGHT) {
+                    writePage(pendingPages.poll(), writer, checkpoint);
+                }
+            }
+            while (!pendingPages.isEmpty()) {
+                writePage(pendingPages.poll(), writer, checkpoint);
+            }
+            return checkpoint.isComplete();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the page to start from: the page after the checkpoint, or the first page of the search
+     * if there is no checkpoint or the server has forgotten the search
+     */
+    private Bundle getFirstPage(String nextPageUrl) throws InterruptedException {
+        if (nextPageUrl != null) {
+            try {
+                return fetcher.send(() -> client.loadPage().byUrl(nextPageUrl).andReturnBundle(Bundle.class).execute());
+            }
+            catch (BaseServerResponseException e) {
+                // the patients written before are skipped, so only the pages are read again
+                System.out.println("Could not resume the search (" + e.getStatusCode() + "), starting it again");
+            }
+        }
+        return fetcher.send(() -> client.search()
+                .forResource(Observation.class)
+                .where(Observation.CODE.exactly().code(CHOLESTEROL_CODE))
+                .count(pageSize)
+                .returnBundle(Bundle.class)
+                .elementsSubset("subject", "value")
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute());
+    }
+
+    /**
+     * Waits for the rows of a page, appends them to the file and saves the checkpoint
+     */
+    private void writePage(PendingPage page, PatientCsvWriter writer, ExtractionCheckpoint checkpoint)
+            throws IOException, InterruptedException {
+        ArrayList<PatientRow> rows = new ArrayList<>();
+        for (Future<PatientRow> row: page.rows) {
+            try {
+                PatientRow patientRow = row.get();
+                if (patientRow != null) {
+                    rows.add(patientRow);
+                }
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        writer.write(rows);
+        checkpoint.pageDone(page.nextPageUrl);
+        System.out.println("Page " + checkpoint.getPagesDone() + ": " + rows.size() + " patients");
+    }
+
+    /**
+     * A page of cholesterol readings whose patients are being fetched
+     */
+    private static class PendingPage {
+
+        private final String nextPageUrl;
+        private final List<Future<PatientRow>> rows = new ArrayList<>();
+
+        PendingPage(String nextPageUrl) {
+            this.nextPageUrl = nextPageUrl;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String server = DEFAULT_SERVER;
+        File output = new File("patient_data.csv");
+        int concurrency = 8;
+        double rate = 20;
+        int pageSize = 100;
+        int maxPages = 0;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--server":
+                        server = value.endsWith("/") ? value : value + "/";
+                        break;
+                    case "--output":
+                        output = new File(value);
+                        break;
+                    case "--concurrency":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--page-size":
+                        pageSize = Integer.parseInt(value);
+                        break;
+                    case "--max-pages":
+                        maxPages = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: extractor [--server url] [--output file] [--concurrency threads]"
+                    + " [--rate requests per second] [--page-size readings] [--max-pages pages]");
+            System.exit(2);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean complete = new BulkExtractor(server, output, concurrency, rate, pageSize).run(maxPages);
+        System.out.println((complete ? "Extraction complete" : "Extraction stopped, run again to resume")
+                + " after " + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+}
@@ -0,0 +1,90 @@
+package edu.monash.kmhc.extractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of an extraction, saved next to the CSV file after every page so a stopped run can resume.
+ *
+ * It holds the link to the first page of cholesterol readings that has not been written yet, and
+ * how many pages were written. The file is replaced in one move, so it is never half written.
+ */
+public class ExtractionCheckpoint {
+
+    private static final String NEXT_PAGE_URL = "nextPageUrl";
+    private static final String PAGES_DONE = "pagesDone";
+    private static final String COMPLETE = "complete";
+
+    private final File file;
+    private String nextPageUrl;
+    private int pagesDone;
+    private boolean complete;
+
+    /**
+     * Reads the checkpoint of an earlier run, if there is one
+     * @param file checkpoint file
+     * @throws IOException if the file exists but cannot be read
+     */
+    public ExtractionCheckpoint(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            Properties properties = new Properties();
+            try (InputStream input = new FileInputStream(file)) {
+                properties.load(input);
+            }
+            nextPageUrl = properties.getProperty(NEXT_PAGE_URL);
+            pagesDone = Integer.parseInt(properties.getProperty(PAGES_DONE, "0"));
+            complete = Boolean.parseBoolean(properties.getProperty(COMPLETE));
+        }
+    }
+
+    /**
+     * Returns the link to the next page to extract
+     * @return url, null if the extraction has not started or is complete
+     */
+    public String getNextPageUrl() {
+        return nextPageUrl;
+    }
+
+    public int getPagesDone() {
+        return pagesDone;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Saves that a page was written
+     * @param nextPageUrl link to the page after it, null if it was the last page
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    public void pageDone(String nextPageUrl) throws IOException {
+        this.nextPageUrl = nextPageUrl;
+        pagesDone++;
+        complete = nextPageUrl == null;
+        save();
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        if (nextPageUrl != null) {
+            properties.setProperty(NEXT_PAGE_URL, nextPageUrl);
+        }
+        properties.setProperty(PAGES_DONE, String.valueOf(pagesDone));
+        properties.setProperty(COMPLETE, String.valueOf(complete));
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temporary)) {
+            properties.store(output, "Progress of the patient data extraction");
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
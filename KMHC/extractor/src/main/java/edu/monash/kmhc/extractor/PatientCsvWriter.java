@@ -0,0 +1,129 @@
+package edu.monash.kmhc.extractor;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class appends patient rows to a CSV file as they are extracted.
+ *
+ * Rows are written straight to the file, so the extracted data is never held in memory. When an
+ * earlier run stopped part way, the file is kept: a row cut off by the stop is removed, and the ids
+ * of the patients already written are read back so they are not extracted again.
+ */
+public class PatientCsvWriter implements Closeable {
+
+    private final BufferedWriter writer;
+    private final HashSet<String> writtenIds = new HashSet<>();
+
+    /**
+     * Opens a CSV file, creating it with a header if it does not exist
+     * @param file CSV file
+     * @throws IOException if the file cannot be read or written
+     */
+    public PatientCsvWriter(File file) throws IOException {
+        if (file.length() > 0) {
+            readWrittenIds(file);
+        }
+        // a run that stopped while writing the header leaves an empty file
+        boolean empty = file.length() == 0;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        if (empty) {
+            writeLine(PatientRow.COLUMNS);
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the patients that are already in the file
+     * @return patient ids, updated as rows are written
+     */
+    public Set<String> getWrittenIds() {
+        return writtenIds;
+    }
+
+    /**
+     * Appends rows and flushes them to the file
+     * @param rows rows to append
+     * @throws IOException if the rows cannot be written
+     */
+    public void write(List<PatientRow> rows) throws IOException {
+        for (PatientRow row: rows) {
+            writeLine(row.getFields());
+            writtenIds.add(row.getPatientId());
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeLine(String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(escape(fields[i]));
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Quotes a field if it holds a comma, quote or line break
+     */
+    private static String escape(String field) {
+        if (field == null) {
+            return "";
+        }
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Reads the ids in the second column of every complete row, and cuts off a last row that was
+     * not finished
+     */
+    private void readWrittenIds(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "rw")) {
+            long completeLength = 0;
+            long lineStart = 0;
+            StringBuilder line = new StringBuilder();
+            byte[] buffer = new byte[64 * 1024];
+            boolean header = true;
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        line.append((char) (buffer[i] & 0xff));
+                        continue;
+                    }
+                    completeLength = lineStart + line.length() + 1;
+                    lineStart = completeLength;
+                    if (!header) {
+                        String[] fields = line.toString().split(",", 3);
+                        if (fields.length > 1) {
+                            writtenIds.add(fields[1]);
+                        }
+                    }
+                    header = false;
+                    line.setLength(0);
+                }
+            }
+            if (completeLength < input.length()) {
+                input.setLength(completeLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.monash.kmhc.extractor;
+
+/**
+ * One row of patient_data.csv: a patient with a total cholesterol reading, and the readings and
+ * conditions used by the machine learning notebooks.
+ *
+ * Readings are kept as the text sent by the server, so they are written without rounding. Missing
+ * values are null and written as empty fields, like pandas does.
+ */
+public class PatientRow {
+
+    public static final String[] COLUMNS = {"Index", "id", "Cholesterol", "Age", "BMI", "Diastolic_BP",
+            "Systolic_BP", "Smoking", "Prediabetes", "Diabetes", "Hypertension", "Heart_Disease", "Obesity"};
+
+    private final String patientId;
+    private final String cholesterol;
+    String age;
+    String bmi;
+    String diastolic;
+    String systolic;
+    String smoking;
+    // clinical status of each condition, ie. "active"
+    String prediabetes;
+    String diabetes;
+    String hypertension;
+    String heartDisease;
+    String obesity;
+
+    /**
+     * Constructor
+     * @param patientId patient id part
+     * @param cholesterol total cholesterol reading that the patient was found by
+     */
+    public PatientRow(String patientId, String cholesterol) {
+        this.patientId = patientId;
+        this.cholesterol = cholesterol;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    /**
+     * Returns the fields of the row in the order of COLUMNS. The index is the patient id, like the
+     * data frame index written by get_data.py
+     */
+    public String[] getFields() {
+        return new String[] {patientId, patientId, cholesterol, age, bmi, diastolic, systolic, smoking,
+                prediabetes, diabetes, hypertension, heartDisease, obesity};
+    }
+}
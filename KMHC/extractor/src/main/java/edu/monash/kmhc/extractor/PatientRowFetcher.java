@@ -0,0 +1,245 @@
+package edu.monash.kmhc.extractor;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+
+/**
+ * This class fetches everything in a patient's row apart from the cholesterol reading: their age,
+ * latest BMI, blood pressure and smoking status, and the status of their conditions.
+ *
+ * It takes three requests, or more if a search has several pages. Each one is spaced out by the
+ * shared RateLimiter and retried with a growing delay if it fails, so one dropped connection does
+ * not stop the extraction.
+ */
+public class PatientRowFetcher {
+
+    private static final String BMI_CODE = "39156-5";
+    private static final String BLOOD_PRESSURE_CODE = "55284-4";
+    private static final String DIASTOLIC_CODE = "8462-4";
+    private static final String SYSTOLIC_CODE = "8480-6";
+    private static final String SMOKING_CODE = "72166-2";
+
+    private static final String PREDIABETES_CODE = "15777000";
+    private static final String DIABETES_CODE = "44054006";
+    private static final String HYPERTENSION_CODE = "59621000";
+    private static final String HEART_DISEASE_CODE = "53741008";
+    private static final String OBESITY_CODE = "162864005";
+
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_DELAY = 1000;
+
+    private final IGenericClient client;
+    private final RateLimiter rateLimiter;
+
+    /**
+     * Constructor
+     * @param client client connected to the FHIR server, shared between threads
+     * @param rateLimiter limits the requests of every fetcher
+     */
+    public PatientRowFetcher(IGenericClient client, RateLimiter rateLimiter) {
+        this.client = client;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Fetches a patient's row. Can be called from any thread
+     * @param patientId patient id part
+     * @param cholesterol total cholesterol reading that the patient was found by
+     * @return the row, or null if the patient no longer exists
+     */
+    public PatientRow fetch(String patientId, String cholesterol) throws InterruptedException {
+        PatientRow row = new PatientRow(patientId, cholesterol);
+        Patient patient;
+        try {
+            patient = send(() -> client.read().resource(Patient.class).withId(patientId).execute());
+        }
+        catch (ResourceNotFoundException e) {
+            return null;
+        }
+        row.age = getAge(patient);
+        addObservations(row, patientId);
+        addConditions(row, patientId);
+        return row;
+    }
+
+    /**
+     * Returns the age in years the patient reached, or reached when they died. Like get_data.py,
+     * only the years are compared
+     */
+    private static String getAge(Patient patient) {
+        if (!patient.hasBirthDate()) {
+            return null;
+        }
+        Calendar birth = Calendar.getInstance();
+        birth.setTime(patient.getBirthDate());
+        Calendar end = Calendar.getInstance();
+        if (patient.hasDeceasedDateTimeType() && patient.getDeceasedDateTimeType().getValue() != null) {
+            end.setTime(patient.getDeceasedDateTimeType().getValue());
+        }
+        return String.valueOf(end.get(Calendar.YEAR) - birth.get(Calendar.YEAR));
+    }
+
+    /**
+     * Adds the latest BMI, blood pressure and smoking status
+     */
+    private void addObservations(PatientRow row, String patientId) throws InterruptedException {
+        Bundle page = send(() -> client.search()
+                .forResource(Observation.class)
+                .where(Observation.PATIENT.hasId(patientId))
+                .and(Observation.CODE.exactly().codes(BMI_CODE, BLOOD_PRESSURE_CODE, SMOKING_CODE))
+                .sort().descending(Observation.DATE)
+                .count(PAGE_SIZE)
+                .returnBundle(Bundle.class)
+                .elementsSubset("code", "value", "component", "effective")
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute());
+
+        // newest first, so the first observation of each code is the latest
+        HashMap<String, Observation> latest = new HashMap<>();
+        while (true) {
+            for (Bundle.BundleEntryComponent entry: page.getEntry()) {
+                if (entry.getResource() instanceof Observation) {
+                    Observation observation = (Observation) entry.getResource();
+                    latest.putIfAbsent(observation.getCode().getCodingFirstRep().getCode(), observation);
+                }
+            }
+            if (latest.size() == 3 || page.getLink(Bundle.LINK_NEXT) == null) {
+                break;
+            }
+            page = getNextPage(page);
+        }
+
+        if (latest.containsKey(BMI_CODE) && latest.get(BMI_CODE).hasValueQuantity()) {
+            row.bmi = getValue(latest.get(BMI_CODE).getValueQuantity());
+        }
+        if (latest.containsKey(BLOOD_PRESSURE_CODE)) {
+            for (Observation.ObservationComponentComponent component: latest.get(BLOOD_PRESSURE_CODE).getComponent()) {
+                String code = component.getCode().getCodingFirstRep().getCode();
+                if (DIASTOLIC_CODE.equals(code) && component.hasValueQuantity()) {
+                    row.diastolic = getValue(component.getValueQuantity());
+                }
+                else if (SYSTOLIC_CODE.equals(code) && component.hasValueQuantity()) {
+                    row.systolic = getValue(component.getValueQuantity());
+                }
+            }
+        }
+        if (latest.containsKey(SMOKING_CODE) && latest.get(SMOKING_CODE).hasValueCodeableConcept()) {
+            row.smoking = latest.get(SMOKING_CODE).getValueCodeableConcept().getText();
+        }
+    }
+
+    /**
+     * Adds the clinical status of the patient's conditions. Like get_data.py, a later condition
+     * with the same code replaces an earlier one
+     */
+    private void addConditions(PatientRow row, String patientId) throws InterruptedException {
+        Bundle page = send(() -> client.search()
+                .forResource(Condition.class)
+                .where(Condition.PATIENT.hasId(patientId))
+                .and(Condition.CODE.exactly().codes(PREDIABETES_CODE, DIABETES_CODE, HYPERTENSION_CODE,
+                        HEART_DISEASE_CODE, OBESITY_CODE))
+                .count(PAGE_SIZE)
+                .returnBundle(Bundle.class)
+                .elementsSubset("code", "clinicalStatus")
+                .totalMode(SearchTotalModeEnum.NONE)
+                .execute());
+
+        while (page != null) {
+            for (Bundle.BundleEntryComponent entry: page.getEntry()) {
+                Resource resource = entry.getResource();
+                if (!(resource instanceof Condition)) {
+                    continue;
+                }
+                Condition condition = (Condition) resource;
+                String status = condition.getClinicalStatus().getCodingFirstRep().getCode();
+                switch (condition.getCode().getCodingFirstRep().getCode()) {
+                    case PREDIABETES_CODE:
+                        row.prediabetes = status;
+                        break;
+                    case DIABETES_CODE:
+                        row.diabetes = status;
+                        break;
+                    case HYPERTENSION_CODE:
+                        row.hypertension = status;
+                        break;
+                    case HEART_DISEASE_CODE:
+                        row.heartDisease = status;
+                        break;
+                    case OBESITY_CODE:
+                        row.obesity = status;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            page = page.getLink(Bundle.LINK_NEXT) != null ? getNextPage(page) : null;
+        }
+    }
+
+    /**
+     * Gets the page after a page of a patient's search. The pages are read one at a time, unlike
+     * the BundlePageIterator, so every request goes through the rate limit
+     */
+    private Bundle getNextPage(Bundle page) throws InterruptedException {
+        return send(() -> client.loadPage().next(page).execute());
+    }
+
+    /**
+     * Returns a quantity as the server sent it, ie. 28.63
+     */
+    static String getValue(Quantity quantity) {
+        return quantity.getValue() == null ? null : quantity.getValue().toPlainString();
+    }
+
+    /**
+     * Sends a request when the rate limit allows it. Requests that fail because of the network or
+     * a server error are sent again after a delay that doubles each time
+     * @param request request to send
+     * @return the response
+     * @throws BaseServerResponseException if the request failed every time
+     */
+    <T> T send(Callable<T> request) throws InterruptedException {
+        long delay = RETRY_DELAY;
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            try {
+                return request.call();
+            }
+            catch (BaseServerResponseException e) {
+                // the server rejected the request, sending it again would not help. apart from too many requests
+                if (e.getStatusCode() >= 400 && e.getStatusCode() < 500 && e.getStatusCode() != 429) {
+                    throw e;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(delay);
+                delay *= 2;
+            }
+            catch (RuntimeException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(delay);
+                delay *= 2;
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package edu.monash.kmhc.extractor;
+
+/**
+ * This class spaces out requests to the FHIR server so no more than a given number are sent per second,
+ * however many threads send them. It replaces the 40 second sleep every 50 pages of get_data.py.
+ */
+public class RateLimiter {
+
+    private final long interval;
+    // time the next request may be sent, in System.nanoTime()
+    private long nextTime = System.nanoTime();
+
+    /**
+     * Constructor
+     * @param requestsPerSecond most requests sent in a second
+     */
+    public RateLimiter(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Requests per second must be positive");
+        }
+        interval = (long) (1e9 / requestsPerSecond);
+    }
+
+    /**
+     * Waits until the next request may be sent
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long sendTime;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // a quiet period does not build up a burst of requests
+            sendTime = Math.max(now, nextTime);
+            nextTime = sendTime + interval;
+        }
+        long wait = sendTime - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.monash.kmhc.extractor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.monash.kmhc.service.StandInFhirServer;
+
+/**
+ * This class runs the extractor against the stand-in FHIR server and checks that a run that
+ * is stopped and resumed writes the same rows as a run that is not. It also measures how long an
+ * extraction takes fetching one patient at a time, like get_data.py, and fetching several at once.
+ *
+ * Usage: gradlew :extractor:checkAgainstStandIn
+ * Exits with status 1 if a check fails.
+ */
+public class StandInExtractionCheck {
+
+    private static final int PATIENTS = 400;
+    private static final int READINGS_PER_PATIENT = 3;
+    private static final int PAGE_SIZE = 50;
+    private static final long RESPONSE_DELAY = 20;
+    private static final double RATE = 1000;
+    private static final int CONCURRENCY = 8;
+
+    public static void main(String[] args) throws Exception {
+        StandInFhirServer server = new StandInFhirServer();
+        server.seed("extractor", PATIENTS, READINGS_PER_PATIENT);
+        server.setResponseDelay(RESPONSE_DELAY);
+        server.start();
+        File directory = Files.createTempDirectory("extractor").toFile();
+        boolean passed = true;
+        try {
+            // one patient at a time, then several at once
+            List<String> sequential = extract(server, new File(directory, "sequential.csv"), 1, 0);
+            List<String> full = extract(server, new File(directory, "full.csv"), CONCURRENCY, 0);
+            passed &= check("sequential and concurrent runs write the same rows", sequential.equals(full));
+            passed &= check("every patient is written once", full.size() == PATIENTS
+                    && new HashSet<>(full).size() == PATIENTS);
+
+            // stop after a few pages, leave half a row as if the run was killed while writing, then resume
+            File resumedFile = new File(directory, "resumed.csv");
+            extract(server, resumedFile, CONCURRENCY, 3);
+            try (FileWriter writer = new FileWriter(resumedFile, true)) {
+                writer.write("123456,123456,199.");
+            }
+            List<String> resumed = extract(server, resumedFile, CONCURRENCY, 0);
+            passed &= check("a resumed run writes the same rows", resumed.equals(full));
+
+            // resume after the server has forgotten the search
+            File expiredFile = new File(directory, "expired.csv");
+            extract(server, expiredFile, CONCURRENCY, 2);
+            server.expireSearches();
+            List<String> expired = extract(server, expiredFile, CONCURRENCY, 0);
+            passed &= check("a run resumed after the search expired writes the same rows", expired.equals(full));
+        }
+        finally {
+            server.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs the extractor and returns the rows of the file, sorted
+     */
+    private static List<String> extract(StandInFhirServer server, File output, int concurrency, int maxPages)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        new BulkExtractor(server.getBaseUrl(), output, concurrency, RATE, PAGE_SIZE).run(maxPages);
+        System.out.println(output.getName() + ": concurrency " + concurrency + ", "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        ArrayList<String> rows = new ArrayList<>(Files.readAllLines(output.toPath()));
+        rows.remove(0);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + description);
+        return passed;
+    }
+}
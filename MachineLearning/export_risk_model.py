@@ -0,0 +1,173 @@
+"""
+Exports the cholesterol decision tree of machineLearning.Rmd for the app.
+
+Fits the same tree as rpart(CholesterolLvl ~ Diabetes + BMILvl + BPLvl + AgeLvl + Smoking,
+method="class") with rpart's defaults: gini splits, minsplit 20, minbucket 7, and pruning of the
+splits that improve the misclassification rate by less than cp 0.01 of the root. Each split also
+keeps rpart's surrogate splits, which the app uses when a feature is missing.
+
+The tree is written to KMHC/app/src/main/assets/cholesterol_risk_model.json, with the cut points
+that data_wrangling.ipynb used to turn the readings into levels.
+
+Usage: python3 export_risk_model.py
+"""
+import csv
+import json
+
+FEATURES = ["Diabetes", "BMILvl", "BPLvl", "AgeLvl", "Smoking"]
+TARGET = "CholesterolLvl"
+MIN_SPLIT = 20
+MIN_BUCKET = 7
+CP = 0.01
+MAX_SURROGATES = 5
+ASSET = "../KMHC/app/src/main/assets/cholesterol_risk_model.json"
+
+# levels of the features, with the cut points of data_wrangling.ipynb
+FEATURE_LEVELS = [
+    {"name": "Diabetes", "levels": ["active", "none"]},
+    {"name": "BMILvl", "breaks": [0, 25, 30, 1000], "levels": ["Non obese", "Overweight", "Obese"]},
+    {"name": "BPLvl", "breaks": [0, 60, 90, 150], "levels": ["Low", "Normal", "High"]},
+    {"name": "AgeLvl", "breaks": [0, 18, 35, 55, 200], "levels": ["Child", "Young Adult", "Middle Age", "Older Age"]},
+    {"name": "Smoking", "levels": ["Former smoker", "Never smoker"]},
+]
+
+
+def read_rows(path):
+    with open(path) as file:
+        return list(csv.DictReader(file))
+
+
+def count_high(rows):
+    return sum(row[TARGET] == "High" for row in rows)
+
+
+def gini(rows):
+    if not rows:
+        return 0
+    high = count_high(rows) / len(rows)
+    return 1 - high * high - (1 - high) * (1 - high)
+
+
+def grow(rows):
+    high = count_high(rows)
+    node = {"rows": rows, "high": high, "risk": min(high, len(rows) - high)}
+    if len(rows) < MIN_SPLIT or high == 0 or high == len(rows):
+        return node
+
+    # for two classes the best split of a category is found by ordering its levels by class rate
+    best = None
+    for feature in FEATURES:
+        levels = sorted(set(row[feature] for row in rows))
+        rate = {level: count_high([row for row in rows if row[feature] == level])
+                / sum(row[feature] == level for row in rows) for level in levels}
+        ordered = sorted(levels, key=lambda level: rate[level])
+        for i in range(1, len(ordered)):
+            left_levels = set(ordered[:i])
+            left = [row for row in rows if row[feature] in left_levels]
+            right = [row for row in rows if row[feature] not in left_levels]
+            if len(left) < MIN_BUCKET or len(right) < MIN_BUCKET:
+                continue
+            improvement = gini(rows) * len(rows) - gini(left) * len(left) - gini(right) * len(right)
+            if best is None or improvement > best[0] + 1e-12:
+                best = (improvement, feature, left_levels, left, right)
+    if best is not None:
+        _, feature, left_levels, left, right = best
+        node["feature"] = feature
+        node["left_levels"] = left_levels
+        node["left"] = grow(left)
+        node["right"] = grow(right)
+    return node
+
+
+def leaves(node):
+    return [node] if "feature" not in node else leaves(node["left"]) + leaves(node["right"])
+
+
+def prune(root):
+    # cost complexity pruning, collapsing the weakest split until every split is worth cp
+    limit = CP * root["risk"]
+    while True:
+        splits = []
+        stack = [root]
+        while stack:
+            node = stack.pop()
+            if "feature" in node:
+                subtree = leaves(node)
+                splits.append(((node["risk"] - sum(leaf["risk"] for leaf in subtree)) / (len(subtree) - 1), node))
+                stack += [node["left"], node["right"]]
+        if not splits:
+            return
+        strength, weakest = min(splits, key=lambda split: split[0])
+        if strength > limit:
+            return
+        for key in ("feature", "left_levels", "left", "right"):
+            del weakest[key]
+
+
+def add_surrogates(node):
+    if "feature" not in node:
+        return
+    rows = node["rows"]
+    goes_left = [row[node["feature"]] in node["left_levels"] for row in rows]
+    node["missing_left"] = sum(goes_left) * 2 >= len(rows)
+    majority = max(sum(goes_left), len(rows) - sum(goes_left))
+
+    # each level of another feature goes the way most of its patients go. keep the surrogates
+    # that agree with the split more often than sending everyone the majority way
+    surrogates = []
+    for feature in FEATURES:
+        if feature == node["feature"]:
+            continue
+        levels = set(row[feature] for row in rows)
+        left_levels = set()
+        for level in levels:
+            directions = [left for row, left in zip(rows, goes_left) if row[feature] == level]
+            if sum(directions) * 2 > len(directions):
+                left_levels.add(level)
+        agree = sum((row[feature] in left_levels) == left for row, left in zip(rows, goes_left))
+        if 0 < len(left_levels) < len(levels) and agree > majority:
+            surrogates.append((agree, {"feature": feature, "leftLevels": sorted(left_levels),
+                                       "rightLevels": sorted(levels - left_levels)}))
+    surrogates.sort(key=lambda surrogate: -surrogate[0])
+    node["surrogates"] = [surrogate for _, surrogate in surrogates[:MAX_SURROGATES]]
+    add_surrogates(node["left"])
+    add_surrogates(node["right"])
+
+
+def predict(node, row):
+    while "feature" in node:
+        node = node["left"] if row[node["feature"]] in node["left_levels"] else node["right"]
+    return node["high"] / len(node["rows"])
+
+
+def flatten(node, nodes):
+    # children always come after their parent
+    index = len(nodes)
+    nodes.append(None)
+    if "feature" not in node:
+        nodes[index] = {"probability": round(node["high"] / len(node["rows"]), 6)}
+    else:
+        left = flatten(node["left"], nodes)
+        right = flatten(node["right"], nodes)
+        levels = set(row[node["feature"]] for row in node["rows"])
+        nodes[index] = {"feature": node["feature"], "leftLevels": sorted(node["left_levels"]),
+                        "rightLevels": sorted(levels - node["left_levels"]), "missingLeft": node["missing_left"],
+                        "surrogates": node["surrogates"], "left": left, "right": right}
+    return index
+
+
+if __name__ == "__main__":
+    train = read_rows("train.csv")
+    test = read_rows("test.csv")
+    tree = grow(train)
+    prune(tree)
+    add_surrogates(tree)
+
+    correct = sum((predict(tree, row) >= 0.5) == (row[TARGET] == "High") for row in test)
+    print("Test accuracy: " + str(correct / len(test)))
+
+    nodes = []
+    flatten(tree, nodes)
+    with open(ASSET, "w") as asset:
+        json.dump({"features": FEATURE_LEVELS, "nodes": nodes}, asset, indent=2)
+        asset.write("\n")
@@ -8,6 +8,7 @@
 # The purpose of this script is to poll the server to get data regarding patients with cholesterol reading. 
 # The script gets data for every 50 pages and sleeps for 40 seconds to not overload the server. 
 # The data is then put into a dataframe and written into a csv file for the machine learning task. 
+# Replaced by the extractor module in KMHC/extractor, which fetches patients concurrently and can resume.
 
 # import required libraries
 import requests